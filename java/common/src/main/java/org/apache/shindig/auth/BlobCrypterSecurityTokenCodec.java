@@ -20,6 +20,7 @@ package org.apache.shindig.auth;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,9 +32,13 @@ import org.apache.shindig.common.crypto.BlobCrypterException;
 import org.apache.shindig.common.util.HMACType;
 import org.apache.shindig.config.ContainerConfig;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 /**
  * Provides security token decoding services.  Configuration is via containers.js.  Each container
@@ -48,6 +53,10 @@ import com.google.inject.Singleton;
  * </pre>
  * Wire format is "&lt;container&gt;:&lt;encrypted-and-signed-token&gt;"
  *
+ * The values of recently verified tokens are kept in a bounded cache, so the requests of a
+ * gadget that all carry the same token are only decrypted once.  Expiry is still checked on
+ * every request, and a cached token is only used with the crypter that verified it.
+ *
  * @since 2.0.0
  */
 @Singleton
@@ -61,6 +70,8 @@ public class BlobCrypterSecurityTokenCodec implements SecurityTokenCodec, Contai
 
   public static final String SIGNED_FETCH_DOMAIN = "gadgets.signedFetchDomain";
 
+  public static final int DEFAULT_TOKEN_CACHE_CAPACITY = 1000;
+
   /**
    * Keys are container ids, values are crypters
    */
@@ -73,6 +84,12 @@ public class BlobCrypterSecurityTokenCodec implements SecurityTokenCodec, Contai
 
   private Map<String, Integer> tokenTTLs = Maps.newHashMap();
 
+  /**
+   * Keys are tokens as sent by the client, values are the verified token values.
+   */
+  private volatile Cache<String, VerifiedToken> verifiedTokens =
+      newTokenCache(DEFAULT_TOKEN_CACHE_CAPACITY);
+
   @Inject
   public BlobCrypterSecurityTokenCodec(ContainerConfig config) {
     try {
@@ -86,6 +103,26 @@ public class BlobCrypterSecurityTokenCodec implements SecurityTokenCodec, Contai
     }
   }
 
+  /**
+   * Sets the number of verified tokens to keep.  0 disables the cache.
+   */
+  @Inject(optional = true)
+  public void setTokenCacheCapacity(
+      @Named("shindig.cache.securityTokens.capacity") int capacity) {
+    verifiedTokens = newTokenCache(capacity);
+  }
+
+  private static Cache<String, VerifiedToken> newTokenCache(int capacity) {
+    return CacheBuilder.newBuilder().maximumSize(Math.max(0, capacity)).recordStats().build();
+  }
+
+  /**
+   * @return hit and miss counts of the verified token cache.
+   */
+  public CacheStats getTokenCacheStats() {
+    return verifiedTokens.stats();
+  }
+
   public void containersChanged(
       ContainerConfig config, Collection<String> changed, Collection<String> removed) {
     Map<String, BlobCrypter> newCrypters = Maps.newHashMap(crypters);
@@ -108,6 +145,8 @@ public class BlobCrypterSecurityTokenCodec implements SecurityTokenCodec, Contai
     crypters = newCrypters;
     domains = newDomains;
     tokenTTLs = newTokenTTLs;
+    // Entries verified with a replaced crypter are never used again, drop them now
+    verifiedTokens.invalidateAll();
   }
 
   private void loadContainers(ContainerConfig config, Collection<String> containers,
@@ -169,14 +208,34 @@ public class BlobCrypterSecurityTokenCodec implements SecurityTokenCodec, Contai
     String activeUrl = tokenParameters.get(SecurityTokenCodec.ACTIVE_URL_NAME);
     String crypted = fields[1];
     try {
+      Cache<String, VerifiedToken> cache = verifiedTokens;
+      VerifiedToken verified = cache.getIfPresent(token);
+      if (verified == null || verified.crypter != crypter) {
+        verified = new VerifiedToken(crypter, crypter.unwrap(crypted));
+        cache.put(token, verified);
+      }
+      // Tokens are mutable, every request gets its own
       BlobCrypterSecurityToken st = new BlobCrypterSecurityToken(container, domain, activeUrl,
-          crypter.unwrap(crypted));
+          verified.values);
       return st.enforceNotExpired();
     } catch (BlobCrypterException e) {
       throw new SecurityTokenException(e);
     }
   }
 
+  /**
+   * The values of a token, and the crypter that verified them.
+   */
+  private static final class VerifiedToken {
+    final BlobCrypter crypter;
+    final Map<String, String> values;
+
+    VerifiedToken(BlobCrypter crypter, Map<String, String> values) {
+      this.crypter = crypter;
+      this.values = Collections.unmodifiableMap(values);
+    }
+  }
+
   /**
    * Encrypt and sign the token.  The returned value is *not* web safe, it should be URL
    * encoded before being used as a form parameter.
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Serializer for a single bean class, built once per class and cached.
+ *
+ * The getters, property names and the rules for dropping values are resolved when the
+ * serializer is created, and each property name is stored pre-escaped together with its
+ * quotes and separators, so serializing a bean is a straight walk over arrays. Getters are
+ * made accessible up front so that each call skips the access check, which lets the JVM
+ * replace the reflective call with a generated accessor once a property is hot.
+ *
+ * The output is identical to serializing the properties returned by
+ * {@link JsonUtil#getGetters(Class)} in order.
+ */
+final class BeanJsonSerializer {
+
+  private static final LoadingCache<Class<?>, BeanJsonSerializer> SERIALIZERS = CacheBuilder
+      .newBuilder()
+      .build(new CacheLoader<Class<?>, BeanJsonSerializer>() {
+        public BeanJsonSerializer load(Class<?> type) {
+          return new BeanJsonSerializer(JsonUtil.getGetters(type));
+        }
+      });
+
+  private final Method[] getters;
+  /** "name": for the first property written */
+  private final String[] firstPrefixes;
+  /** ,"name": for every following property */
+  private final String[] prefixes;
+  /** Properties that are dropped when false, see isOwner/isViewer */
+  private final boolean[] dropFalse;
+
+  private BeanJsonSerializer(Map<String, Method> properties) {
+    int size = properties.size();
+    getters = new Method[size];
+    firstPrefixes = new String[size];
+    prefixes = new String[size];
+    dropFalse = new boolean[size];
+
+    int i = 0;
+    for (Map.Entry<String, Method> entry : properties.entrySet()) {
+      String name = entry.getKey();
+      Method getter = entry.getValue();
+      try {
+        getter.setAccessible(true);
+      } catch (SecurityException e) {
+        // Fall back to checked access
+      }
+      getters[i] = getter;
+
+      StringBuilder prefix = new StringBuilder(name.length() + 4);
+      try {
+        JsonSerializer.appendString(prefix, name);
+      } catch (IOException e) {
+        // Can't happen with a StringBuilder
+        throw new RuntimeException(e);
+      }
+      prefix.append(':');
+      firstPrefixes[i] = prefix.toString();
+      prefixes[i] = ',' + firstPrefixes[i];
+
+      // Common use case isOwner/isViewer should not be set unless true
+      dropFalse[i] = "isOwner".equals(name) || "isViewer".equals(name);
+      i++;
+    }
+  }
+
+  /**
+   * @return the serializer for the class of the given bean.
+   */
+  static BeanJsonSerializer forClass(Class<?> type) {
+    return SERIALIZERS.getUnchecked(type);
+  }
+
+  /**
+   * Appends a java object using its getters.
+   *
+   * @throws IOException If {@link Appendable#append(char)} throws an exception.
+   */
+  void append(Appendable buf, Object pojo) throws IOException {
+    append(buf, pojo, null);
+  }
+
+  /**
+   * Appends the properties of a projection, using the getters of its bean type.
+   *
+   * @throws IOException If {@link Appendable#append(char)} throws an exception.
+   */
+  void append(Appendable buf, JsonProjection projection) throws IOException {
+    append(buf, null, projection);
+  }
+
+  private void append(Appendable buf, Object pojo, JsonProjection projection)
+      throws IOException {
+    buf.append('{');
+    boolean firstDone = false;
+    for (int i = 0; i < getters.length; i++) {
+      Object value;
+      if (projection != null) {
+        value = projection.getProperty(getters[i]);
+      } else {
+        try {
+          value = getters[i].invoke(pojo);
+        } catch (IllegalArgumentException e) {
+          // Shouldn't be possible.
+          throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+          // Bad class.
+          throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+          // Bad class.
+          throw new RuntimeException(e);
+        }
+      }
+
+      // Drop null values.
+      if (value == null || (dropFalse[i] && Boolean.FALSE.equals(value))) {
+        continue;
+      }
+      if (firstDone) {
+        buf.append(prefixes[i]);
+      } else {
+        buf.append(firstPrefixes[i]);
+        firstDone = true;
+      }
+      JsonSerializer.append(buf, value);
+    }
+    buf.append('}');
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common;
+
+import java.lang.reflect.Method;
+
+/**
+ * A view of a bean that exposes only some of its properties.
+ *
+ * {@link JsonSerializer} serializes a projection, or a {@link java.lang.reflect.Proxy} whose
+ * invocation handler is a projection, by walking the getters of {@link #getBeanType()} and
+ * asking the projection for each value, so no getter is dispatched through a proxy.
+ */
+public interface JsonProjection {
+
+  /**
+   * @return the class whose getters define the serialized property names and order.
+   */
+  Class<?> getBeanType();
+
+  /**
+   * @param getter a getter of {@link #getBeanType()}
+   * @return the value to serialize for the getter, or null to drop the property.
+   */
+  Object getProperty(Method getter);
+}
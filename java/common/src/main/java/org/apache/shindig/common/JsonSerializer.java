@@ -45,8 +45,7 @@ import org.json.JSONObject;
 import com.google.common.collect.Multimap;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
@@ -189,6 +188,11 @@ public final class JsonSerializer {
       appendCollection(buf, (Collection<Object>) value);
     } else if (value.getClass().isArray()) {
       appendArray(buf, (Object[]) value);
+    } else if (value instanceof JsonProjection) {
+      appendProjection(buf, (JsonProjection) value);
+    } else if (value instanceof Proxy
+        && Proxy.getInvocationHandler(value) instanceof JsonProjection) {
+      appendProjection(buf, (JsonProjection) Proxy.getInvocationHandler(value));
     } else {
       // Try getter conversion
       appendPojo(buf, value);
@@ -201,40 +205,17 @@ public final class JsonSerializer {
    * @throws IOException If {@link Appendable#append(char)} throws an exception.
    */
   public static void appendPojo(Appendable buf, Object pojo) throws IOException {
-    Map<String, Method> methods = JsonUtil.getGetters(pojo);
-    buf.append('{');
-    boolean firstDone = false;
-    for (Map.Entry<String, Method> entry : methods.entrySet()) {
-      try {
-        Object value = entry.getValue().invoke(pojo);
-        if (value != null) {
-          String attribute = entry.getKey();
+    BeanJsonSerializer.forClass(pojo.getClass()).append(buf, pojo);
+  }
 
-          // Common use case isOwner/isViewer should not be set unless true
-          if (!(("isOwner".equals(attribute) || "isViewer".equals(attribute)) && value.equals(Boolean.FALSE))) {
-            // Drop null values.
-            if (firstDone) {
-              buf.append(',');
-            } else {
-              firstDone = true;
-            }
-            appendString(buf, attribute);
-            buf.append(':');
-            append(buf, value);
-          }
-        }
-      } catch (IllegalArgumentException e) {
-        // Shouldn't be possible.
-        throw new RuntimeException(e);
-      } catch (IllegalAccessException e) {
-        // Bad class.
-        throw new RuntimeException(e);
-      } catch (InvocationTargetException e) {
-        // Bad class.
-        throw new RuntimeException(e);
-      }
-    }
-    buf.append('}');
+  /**
+   * Appends the properties of a bean projection using the getters of its bean type.
+   *
+   * @throws IOException If {@link Appendable#append(char)} throws an exception.
+   */
+  public static void appendProjection(Appendable buf, JsonProjection projection)
+      throws IOException {
+    BeanJsonSerializer.forClass(projection.getBeanType()).append(buf, projection);
   }
 
   /**
@@ -96,7 +96,11 @@ public final class JsonUtil {
   }
 
   static Map<String, Method> getGetters(Object pojo) {
-    return GETTERS.getUnchecked(pojo.getClass()) ;
+    return getGetters(pojo.getClass());
+  }
+
+  static Map<String, Method> getGetters(Class<?> clazz) {
+    return GETTERS.getUnchecked(clazz);
   }
 
   private static String getPropertyName(Method method) {
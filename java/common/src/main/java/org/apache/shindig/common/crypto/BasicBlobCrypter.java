@@ -24,10 +24,19 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.shindig.common.Nullable;
@@ -46,6 +55,10 @@ import com.google.inject.Inject;
 
 /**
  * Simple implementation of BlobCrypter.
+ *
+ * Blobs are the IV, the AES-128-CBC cipher text and its HMAC, URL safe Base64 encoded.  The
+ * crypter keeps a small pool of ciphers and MACs keyed for it, and blobs are assembled in and
+ * read from a single buffer.
  */
 public class BasicBlobCrypter implements BlobCrypter {
   private static final String CLASSNAME = BasicBlobCrypter.class.getName();
@@ -62,6 +75,10 @@ public class BasicBlobCrypter implements BlobCrypter {
   private byte[] cipherKey;
   private byte[] hmacKey;
 
+  /** Engines not in use, at most one per processor is kept */
+  private final BlockingQueue<Engines> engines =
+      new ArrayBlockingQueue<Engines>(Runtime.getRuntime().availableProcessors());
+
   private static String preferredHMACAlgorithm;
 
   @Inject(optional = true)
@@ -205,15 +222,48 @@ public class BasicBlobCrypter implements BlobCrypter {
   public String wrap(Map<String, String> in) throws BlobCrypterException {
     try {
       byte[] encoded = serialize(in);
-      byte[] cipherText = Crypto.aes128cbcEncrypt(cipherKey, encoded);
-      byte[] hmac = Crypto.hmacSha(hmacKey, cipherText,hmacType.getName());
-      byte[] b64 = Base64.encodeBase64URLSafe(Bytes.concat(cipherText, hmac));
-      return CharsetUtil.newUtf8String(b64);
+      Engines engines = acquireEngines();
+      try {
+        return encryptAndSign(engines, encoded);
+      } finally {
+        releaseEngines(engines);
+      }
     } catch (GeneralSecurityException e) {
       throw new BlobCrypterException(e);
     }
   }
 
+  private static String encryptAndSign(Engines engines, byte[] encoded)
+      throws GeneralSecurityException {
+    byte[] iv = Crypto.getRandomBytes(Crypto.CIPHER_BLOCK_SIZE);
+    engines.cipher.init(Cipher.ENCRYPT_MODE, engines.cipherKey, new IvParameterSpec(iv));
+
+    int macLength = engines.mac.getMacLength();
+    byte[] blob = new byte[iv.length + engines.cipher.getOutputSize(encoded.length) + macLength];
+    System.arraycopy(iv, 0, blob, 0, iv.length);
+    int length = iv.length + engines.cipher.doFinal(encoded, 0, encoded.length, blob, iv.length);
+    engines.mac.update(blob, 0, length);
+    engines.mac.doFinal(blob, length);
+    length += macLength;
+    if (length < blob.length) {
+      blob = Arrays.copyOf(blob, length);
+    }
+    return CharsetUtil.newUtf8String(Base64.encodeBase64URLSafe(blob));
+  }
+
+  private Engines acquireEngines() throws GeneralSecurityException {
+    Engines pooled = engines.poll();
+    if (pooled != null && pooled.hmacType == hmacType) {
+      return pooled;
+    }
+    return new Engines(cipherKey, hmacKey, hmacType);
+  }
+
+  private void releaseEngines(Engines released) {
+    released.mac.reset();
+    engines.offer(released);
+  }
+
   /**
    * Encode the input for transfer.  We use something a lot like HTML form
    * encodings.
@@ -240,24 +290,51 @@ public class BasicBlobCrypter implements BlobCrypter {
   public Map<String, String> unwrap(String in) throws BlobCrypterException {
     try {
       byte[] bin = Base64.decodeBase64(CharsetUtil.getUtf8Bytes(in));
-      byte[] hmac = new byte[hmacType.getLength()];
-      byte[] cipherText = new byte[bin.length-hmacType.getLength()];
-      System.arraycopy(bin, 0, cipherText, 0, cipherText.length);
-      System.arraycopy(bin, cipherText.length, hmac, 0, hmac.length);
-      Crypto.hmacShaVerify(hmacKey, cipherText, hmac, hmacType.getName());
-      byte[] plain = Crypto.aes128cbcDecrypt(cipherKey, cipherText);
-      Map<String, String> out = deserialize(plain);
-      return out;
+      Engines engines = acquireEngines();
+      try {
+        return verifyAndDecrypt(engines, bin);
+      } finally {
+        releaseEngines(engines);
+      }
     } catch (GeneralSecurityException e) {
       throw new BlobCrypterException("Invalid token signature", e);
     } catch (ArrayIndexOutOfBoundsException e) {
       throw new BlobCrypterException("Invalid token format", e);
-    } catch (NegativeArraySizeException e) {
-      throw new BlobCrypterException("Invalid token format", e);
     }
 
   }
 
+  private Map<String, String> verifyAndDecrypt(Engines engines, byte[] bin)
+      throws GeneralSecurityException, BlobCrypterException {
+    int cipherLength = bin.length - engines.mac.getMacLength();
+    if (cipherLength < 0) {
+      throw new BlobCrypterException("Invalid token format");
+    }
+    engines.mac.update(bin, 0, cipherLength);
+    if (!matches(engines.mac.doFinal(), bin, cipherLength)) {
+      throw new GeneralSecurityException("HMAC verification failure");
+    }
+    if (cipherLength < Crypto.CIPHER_BLOCK_SIZE) {
+      throw new BlobCrypterException("Invalid token format");
+    }
+    engines.cipher.init(Cipher.DECRYPT_MODE, engines.cipherKey,
+        new IvParameterSpec(bin, 0, Crypto.CIPHER_BLOCK_SIZE));
+    byte[] plain = engines.cipher.doFinal(bin, Crypto.CIPHER_BLOCK_SIZE,
+        cipherLength - Crypto.CIPHER_BLOCK_SIZE);
+    return deserialize(plain);
+  }
+
+  /**
+   * Compares a MAC with the bytes at an offset, in time independent of where they differ.
+   */
+  private static boolean matches(byte[] mac, byte[] in, int offset) {
+    int diff = 0;
+    for (int i = 0; i < mac.length; i++) {
+      diff |= mac[i] ^ in[offset + i];
+    }
+    return diff == 0;
+  }
+
   private Map<String, String> deserialize(byte[] plain) {
     String base = CharsetUtil.newUtf8String(plain);
     // replaces [&=] regex
@@ -270,4 +347,23 @@ public class BasicBlobCrypter implements BlobCrypter {
     }
     return map;
   }
+
+  /**
+   * A cipher and a MAC, keyed once for a crypter.  Only used by one thread at a time.
+   */
+  private static final class Engines {
+    final HMACType hmacType;
+    final Key cipherKey;
+    final Cipher cipher;
+    final Mac mac;
+
+    Engines(byte[] cipherKey, byte[] hmacKey, HMACType hmacType)
+        throws GeneralSecurityException {
+      this.hmacType = hmacType;
+      this.cipherKey = new SecretKeySpec(cipherKey, Crypto.CIPHER_KEY_TYPE);
+      this.cipher = Crypto.newCipher();
+      this.mac = Mac.getInstance(hmacType.getName());
+      mac.init(new SecretKeySpec(hmacKey, hmacType.getName()));
+    }
+  }
 }
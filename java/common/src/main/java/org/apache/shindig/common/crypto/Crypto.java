@@ -59,14 +59,14 @@ public final class Crypto {
    */
   private final static String CIPHER_TYPE = "AES/CBC/PKCS5Padding";
 
-  private final static String CIPHER_KEY_TYPE = "AES";
+  final static String CIPHER_KEY_TYPE = "AES";
 
   /**
    * Use keys of this length for encryption operations
    */
   public final static int CIPHER_KEY_LEN = 16;
 
-  private static final int CIPHER_BLOCK_SIZE = 16;
+  static final int CIPHER_BLOCK_SIZE = 16;
 
   /**
    * Length of HMAC SHA1 output
@@ -111,6 +111,13 @@ public final class Crypto {
     return out;
   }
 
+  /**
+   * @return a new AES-128-CBC cipher, not initialized.
+   */
+  static Cipher newCipher() throws GeneralSecurityException {
+    return Cipher.getInstance(CIPHER_TYPE);
+  }
+
   /**
    * HMAC sha1
    *
@@ -198,8 +205,7 @@ public final class Crypto {
    */
   public static byte[] aes128cbcEncrypt(byte[] key, byte[] plain)
   throws GeneralSecurityException {
-    Cipher cipher = Cipher.getInstance(CIPHER_TYPE);
-    byte iv[] = getRandomBytes(cipher.getBlockSize());
+    byte iv[] = getRandomBytes(CIPHER_BLOCK_SIZE);
     return Bytes.concat(iv, aes128cbcEncryptWithIV(key, iv, plain));
   }
 
@@ -216,7 +222,7 @@ public final class Crypto {
    */
   public static byte[] aes128cbcEncryptWithIV(byte[] key, byte[] iv, byte[] plain)
   throws GeneralSecurityException {
-    Cipher cipher = Cipher.getInstance(CIPHER_TYPE);
+    Cipher cipher = newCipher();
     Key cipherKey = new SecretKeySpec(key, CIPHER_KEY_TYPE);
     IvParameterSpec ivSpec = new IvParameterSpec(iv);
     cipher.init(Cipher.ENCRYPT_MODE, cipherKey, ivSpec);
@@ -256,7 +262,7 @@ public final class Crypto {
    */
   public static byte[] aes128cbcDecryptWithIv(byte[] key, byte[] iv,
       byte[] cipherText, int offset) throws GeneralSecurityException {
-    Cipher cipher = Cipher.getInstance(CIPHER_TYPE);
+    Cipher cipher = newCipher();
     Key cipherKey = new SecretKeySpec(key, CIPHER_KEY_TYPE);
     IvParameterSpec ivSpec = new IvParameterSpec(iv);
     cipher.init(Cipher.DECRYPT_MODE, cipherKey, ivSpec);
@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.util;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Token based JSON reader that parses directly from a {@link Reader}.
+ *
+ * Values are built as the same org.json types that {@link JSONObject} and {@link JSONArray}
+ * produce, and the same lenient syntax is accepted (unquoted keys and values, single quotes,
+ * comments), so callers can switch from parsing a buffered String without changing behavior.
+ * Unlike the String based parsers the input is never copied in full, and the elements of a
+ * top level array can be consumed one at a time with {@link #beginArray()},
+ * {@link #hasNext()} and {@link #nextElement()}.
+ */
+public class JsonStreamReader {
+  private static final int BUFFER_SIZE = 2048;
+  private static final String UNQUOTED_TERMINATORS = ",:]}/\\\"[{;=#";
+
+  private final Reader reader;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int pos;
+  private int limit;
+  private char previous;
+  private boolean usePrevious;
+  private long offset;
+
+  // State for streaming the elements of an array opened with beginArray()
+  private char arrayQuote;
+  private boolean arrayFirst;
+  private boolean arrayDone = true;
+
+  public JsonStreamReader(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * @return true if the next value in the stream is a JSON array, without consuming it.
+   */
+  public boolean isArray() throws IOException, JSONException {
+    char c = nextClean();
+    back();
+    return c == '[';
+  }
+
+  /**
+   * @return true if the next value in the stream is a JSON object, without consuming it.
+   */
+  public boolean isObject() throws IOException, JSONException {
+    char c = nextClean();
+    back();
+    return c == '{';
+  }
+
+  /**
+   * Read the next value from the stream.
+   *
+   * @return A JSONObject, JSONArray, String, Boolean, Number or JSONObject.NULL
+   */
+  public Object nextValue() throws IOException, JSONException {
+    char c = nextClean();
+    switch (c) {
+      case '"':
+      case '\'':
+        return nextString(c);
+      case '{':
+        back();
+        return nextObject();
+      case '[':
+      case '(':
+        back();
+        return nextArray();
+      default:
+        break;
+    }
+
+    StringBuilder sb = new StringBuilder();
+    char b = c;
+    while (c >= ' ' && UNQUOTED_TERMINATORS.indexOf(c) < 0) {
+      sb.append(c);
+      c = next();
+    }
+    back();
+
+    String s = sb.toString().trim();
+    if (s.length() == 0) {
+      throw syntaxError("Missing value");
+    }
+    return stringToValue(b, s);
+  }
+
+  /**
+   * Read a JSON object from the stream.
+   */
+  public JSONObject nextObject() throws IOException, JSONException {
+    if (nextClean() != '{') {
+      throw syntaxError("A JSONObject text must begin with '{'");
+    }
+    JSONObject object = new JSONObject();
+    for (;;) {
+      char c = nextClean();
+      String key;
+      switch (c) {
+        case 0:
+          throw syntaxError("A JSONObject text must end with '}'");
+        case '}':
+          return object;
+        default:
+          back();
+          key = nextValue().toString();
+      }
+
+      c = nextClean();
+      if (c == '=') {
+        if (next() != '>') {
+          back();
+        }
+      } else if (c != ':') {
+        throw syntaxError("Expected a ':' after a key");
+      }
+      object.putOpt(key, nextValue());
+
+      switch (nextClean()) {
+        case ';':
+        case ',':
+          if (nextClean() == '}') {
+            return object;
+          }
+          back();
+          break;
+        case '}':
+          return object;
+        default:
+          throw syntaxError("Expected a ',' or '}'");
+      }
+    }
+  }
+
+  /**
+   * Read a JSON array from the stream.
+   */
+  public JSONArray nextArray() throws IOException, JSONException {
+    // Keep the state of any array being streamed by the caller
+    char quote = arrayQuote;
+    boolean first = arrayFirst;
+    boolean done = arrayDone;
+
+    JSONArray array = new JSONArray();
+    beginArray();
+    while (hasNext()) {
+      array.put(nextElement());
+    }
+
+    arrayQuote = quote;
+    arrayFirst = first;
+    arrayDone = done;
+    return array;
+  }
+
+  /**
+   * Consume the opening bracket of an array so that its elements can be read one at a time
+   * with {@link #hasNext()} and {@link #nextElement()}.
+   */
+  public void beginArray() throws IOException, JSONException {
+    char c = nextClean();
+    if (c == '[') {
+      arrayQuote = ']';
+    } else if (c == '(') {
+      arrayQuote = ')';
+    } else {
+      throw syntaxError("A JSONArray text must start with '['");
+    }
+    arrayFirst = true;
+    arrayDone = nextClean() == ']';
+    if (!arrayDone) {
+      back();
+    }
+  }
+
+  /**
+   * @return true if the array opened by {@link #beginArray()} has another element. The
+   *     closing bracket is consumed once the last element has been read.
+   */
+  public boolean hasNext() throws IOException, JSONException {
+    if (arrayDone) {
+      return false;
+    }
+    if (arrayFirst) {
+      arrayFirst = false;
+      return true;
+    }
+    char c = nextClean();
+    switch (c) {
+      case ';':
+      case ',':
+        if (nextClean() == ']') {
+          arrayDone = true;
+          return false;
+        }
+        back();
+        return true;
+      case ']':
+      case ')':
+        if (arrayQuote != c) {
+          throw syntaxError("Expected a '" + arrayQuote + "'");
+        }
+        arrayDone = true;
+        return false;
+      default:
+        throw syntaxError("Expected a ',' or ']'");
+    }
+  }
+
+  /**
+   * Read the next element of an array opened by {@link #beginArray()}. An empty slot, as in
+   * [1,,2], yields null.
+   */
+  public Object nextElement() throws IOException, JSONException {
+    if (nextClean() == ',') {
+      back();
+      return null;
+    }
+    back();
+    return nextValue();
+  }
+
+  private String nextString(char quote) throws IOException, JSONException {
+    StringBuilder sb = new StringBuilder();
+    for (;;) {
+      char c = next();
+      switch (c) {
+        case 0:
+        case '\n':
+        case '\r':
+          throw syntaxError("Unterminated string");
+        case '\\':
+          c = next();
+          switch (c) {
+            case 'b':
+              sb.append('\b');
+              break;
+            case 't':
+              sb.append('\t');
+              break;
+            case 'n':
+              sb.append('\n');
+              break;
+            case 'f':
+              sb.append('\f');
+              break;
+            case 'r':
+              sb.append('\r');
+              break;
+            case 'u':
+              sb.append((char) Integer.parseInt(next(4), 16));
+              break;
+            case 'x':
+              sb.append((char) Integer.parseInt(next(2), 16));
+              break;
+            default:
+              sb.append(c);
+          }
+          break;
+        default:
+          if (c == quote) {
+            return sb.toString();
+          }
+          sb.append(c);
+      }
+    }
+  }
+
+  private static Object stringToValue(char first, String s) {
+    if ("true".equalsIgnoreCase(s)) {
+      return Boolean.TRUE;
+    }
+    if ("false".equalsIgnoreCase(s)) {
+      return Boolean.FALSE;
+    }
+    if ("null".equalsIgnoreCase(s)) {
+      return JSONObject.NULL;
+    }
+
+    // Same number handling as org.json, including its hex and octal forms
+    if ((first >= '0' && first <= '9') || first == '.' || first == '-' || first == '+') {
+      if (first == '0') {
+        if (s.length() > 2 && (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
+          try {
+            return Integer.valueOf(Integer.parseInt(s.substring(2), 16));
+          } catch (NumberFormatException e) {
+            // fall through
+          }
+        } else {
+          try {
+            return Integer.valueOf(Integer.parseInt(s, 8));
+          } catch (NumberFormatException e) {
+            // fall through
+          }
+        }
+      }
+      try {
+        return Integer.valueOf(s);
+      } catch (NumberFormatException e) {
+        try {
+          return Long.valueOf(s);
+        } catch (NumberFormatException f) {
+          try {
+            return Double.valueOf(s);
+          } catch (NumberFormatException g) {
+            return s;
+          }
+        }
+      }
+    }
+    return s;
+  }
+
+  /**
+   * Skip whitespace and comments.
+   */
+  private char nextClean() throws IOException, JSONException {
+    for (;;) {
+      char c = next();
+      if (c == '/') {
+        switch (next()) {
+          case '/':
+            do {
+              c = next();
+            } while (c != '\n' && c != '\r' && c != 0);
+            break;
+          case '*':
+            for (;;) {
+              c = next();
+              if (c == 0) {
+                throw syntaxError("Unclosed comment");
+              }
+              if (c == '*') {
+                if (next() == '/') {
+                  break;
+                }
+                back();
+              }
+            }
+            break;
+          default:
+            back();
+            return '/';
+        }
+      } else if (c == '#') {
+        do {
+          c = next();
+        } while (c != '\n' && c != '\r' && c != 0);
+      } else if (c == 0 || c > ' ') {
+        return c;
+      }
+    }
+  }
+
+  private String next(int n) throws IOException, JSONException {
+    char[] chars = new char[n];
+    for (int i = 0; i < n; i++) {
+      char c = next();
+      if (c == 0) {
+        throw syntaxError("Substring bounds error");
+      }
+      chars[i] = c;
+    }
+    return new String(chars);
+  }
+
+  /**
+   * @return the next character, or 0 at the end of the input.
+   */
+  private char next() throws IOException {
+    if (usePrevious) {
+      usePrevious = false;
+      return previous;
+    }
+    if (pos >= limit) {
+      limit = reader.read(buffer, 0, BUFFER_SIZE);
+      pos = 0;
+      if (limit <= 0) {
+        limit = 0;
+        previous = 0;
+        return 0;
+      }
+    }
+    offset++;
+    previous = buffer[pos++];
+    return previous;
+  }
+
+  /**
+   * Push back the last character read. Only a single character can be pushed back.
+   */
+  private void back() {
+    usePrevious = true;
+  }
+
+  private JSONException syntaxError(String message) {
+    return new JSONException(message + " at character " + offset);
+  }
+}
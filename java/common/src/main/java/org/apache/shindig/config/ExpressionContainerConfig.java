@@ -18,6 +18,9 @@
  */
 package org.apache.shindig.config;
 
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Singleton;
@@ -28,6 +31,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.el.ELContext;
 import javax.el.ELException;
@@ -44,17 +48,28 @@ import javax.el.ValueExpression;
  * "parent" property.
  *
  * get* can take either a simple property name (foo), or an EL expression
- * (${foo.bar}).
+ * (${foo.bar}). Expressions are parsed once, and their values are kept per
+ * container until a transaction changes the configuration.
  */
 @Singleton
 public class ExpressionContainerConfig extends BasicContainerConfig {
 
+  /** Maximum number of expressions parsed, and of values kept per container */
+  static final int EXPRESSION_CACHE_CAPACITY = 1000;
+
   protected Map<String, Map<String, Object>> rawConfig;
   private final Expressions expressions;
+  private final Cache<String, ValueExpression> parsedExpressions;
+  /** Replaced after the configuration changes, so it never holds outdated values */
+  private volatile ConcurrentMap<String, Cache<String, Optional<Object>>> expressionValues;
 
   public ExpressionContainerConfig(Expressions expressions) {
     this.expressions = expressions;
     this.rawConfig = Maps.newHashMap();
+    this.parsedExpressions = CacheBuilder.newBuilder()
+        .maximumSize(EXPRESSION_CACHE_CAPACITY)
+        .build();
+    this.expressionValues = Maps.newConcurrentMap();
   }
 
   /**
@@ -70,18 +85,47 @@ public class ExpressionContainerConfig extends BasicContainerConfig {
   @Override
   public Object getProperty(String container, String property) {
     if (property.startsWith("${")) {
-      // An expression!
-      try {
-        ValueExpression expression = expressions.parse(property, Object.class);
-        return expression.getValue(createExpressionContext(container));
-      } catch (ELException e) {
-        return null;
+      // An expression! Read the values before the configuration they were computed from.
+      Cache<String, Optional<Object>> values = getExpressionValues(container);
+      Optional<Object> value = values.getIfPresent(property);
+      if (value == null) {
+        value = Optional.fromNullable(evaluate(container, property));
+        values.put(property, value);
       }
+      return value.orNull();
     }
 
     return super.getProperty(container, property);
   }
 
+  private Cache<String, Optional<Object>> getExpressionValues(String container) {
+    ConcurrentMap<String, Cache<String, Optional<Object>>> allValues = expressionValues;
+    Cache<String, Optional<Object>> values = allValues.get(container);
+    if (values == null) {
+      Cache<String, Optional<Object>> newValues = CacheBuilder.newBuilder()
+          .maximumSize(EXPRESSION_CACHE_CAPACITY)
+          .build();
+      values = allValues.putIfAbsent(container, newValues);
+      if (values == null) {
+        values = newValues;
+      }
+    }
+    return values;
+  }
+
+  private Object evaluate(String container, String property) {
+    try {
+      ValueExpression expression = parsedExpressions.getIfPresent(property);
+      if (expression == null) {
+        expression = expressions.parse(property, Object.class);
+        parsedExpressions.put(property, expression);
+      }
+      return expression.getValue(createExpressionContext(container));
+    } catch (ELException e) {
+      return null;
+    }
+  }
+
   protected Expressions getExpressions() {
     return expressions;
   }
@@ -131,11 +175,17 @@ public class ExpressionContainerConfig extends BasicContainerConfig {
       ExpressionContainerConfig tmp = (ExpressionContainerConfig) newConfig;
       rawConfig = tmp.rawConfig;
       config = tmp.config;
+      expressionValues = Maps.newConcurrentMap();
     }
 
     private Object parseAll(Object value, ELContext context) {
       if (value instanceof String) {
-        return new DynamicConfigProperty((String) value, expressions, context);
+        String stringValue = (String) value;
+        if (!stringValue.contains("${") && !stringValue.contains("#{")) {
+          // Literal text, evaluates to itself
+          return stringValue;
+        }
+        return new DynamicConfigProperty(stringValue, expressions, context);
       } else if (value instanceof Map<?, ?>) {
         Map<?, ?> mapValue = (Map<?, ?>) value;
         Map<Object, Object> newMap = Maps.newHashMap();
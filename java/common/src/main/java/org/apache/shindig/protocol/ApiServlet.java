@@ -31,6 +31,8 @@ import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -143,6 +145,29 @@ public abstract class ApiServlet extends InjectedServlet {
     }
   }
 
+  /**
+   * Resolve a Future into a response, waiting no longer than the given deadline.
+   * @param deadline Time in milliseconds at which to give up, or 0 to wait indefinitely
+   */
+  protected ResponseItem getResponseItem(Future<?> future, long deadline) {
+    if (deadline <= 0 || future == null) {
+      return getResponseItem(future);
+    }
+    try {
+      long remaining = Math.max(0, deadline - System.currentTimeMillis());
+      Object result = future.get(remaining, TimeUnit.MILLISECONDS);
+      return new ResponseItem(result != null ? result : Collections.emptyMap());
+    } catch (InterruptedException ie) {
+      return responseItemFromException(ie);
+    } catch (ExecutionException ee) {
+      return responseItemFromException(ee.getCause());
+    } catch (TimeoutException te) {
+      future.cancel(true);
+      return new ResponseItem(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+          "The request timed out");
+    }
+  }
+
   protected ResponseItem responseItemFromException(Throwable t) {
     if (t instanceof ProtocolException) {
       ProtocolException pe = (ProtocolException) t;
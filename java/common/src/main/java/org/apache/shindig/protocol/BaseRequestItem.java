@@ -38,6 +38,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
@@ -199,6 +200,10 @@ public class BaseRequestItem implements RequestItem {
 
   public <T> T getTypedParameter(String parameterName, Class<T> dataTypeClass) {
     try {
+      T bound = bindParsedParameter(parameterName, dataTypeClass);
+      if (bound != null) {
+        return bound;
+      }
       String json = getParameter(parameterName);
       if (json == null) {
         throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "missing data for " + parameterName);
@@ -213,6 +218,10 @@ public class BaseRequestItem implements RequestItem {
 
   public <T> T getOptionalTypedParameter(String parameterName, Class<T> dataTypeClass) {
     try {
+      T bound = bindParsedParameter(parameterName, dataTypeClass);
+      if (bound != null) {
+        return bound;
+      }
       String json = getParameter(parameterName);
       if (json == null) {
         return null;
@@ -225,10 +234,11 @@ public class BaseRequestItem implements RequestItem {
     }
   }
 
+  @SuppressWarnings("unchecked")
   public <T> T getTypedRequest(Class<T> dataTypeClass) {
     try {
-      return jsonConverter.convertToObject(new JSONObject(this.parameters).toString(),
-          dataTypeClass);
+      // Bind the parsed parameters directly instead of writing them out and parsing them again
+      return (T) jsonConverter.convertToObject(toJsonValue(this.parameters), dataTypeClass);
     } catch (RuntimeException e) {
       if (e.getCause() instanceof JSONException)
         throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
@@ -236,6 +246,45 @@ public class BaseRequestItem implements RequestItem {
     }
   }
 
+  /**
+   * Bind a parameter that was parsed as a JSON object straight to the requested type.
+   *
+   * @return the bound value, or null if the parameter must be converted from its String form.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T bindParsedParameter(String parameterName, Class<T> dataTypeClass) {
+    Object param = this.parameters.get(parameterName);
+    if (param instanceof JSONObject && converter instanceof BeanJsonConverter) {
+      return (T) ((BeanJsonConverter) converter).convertToObject(param, dataTypeClass);
+    }
+    return null;
+  }
+
+  /**
+   * Convert parameter values to the org.json types the converter binds from. Values parsed from
+   * a JSON-RPC request are already in that form, REST parameters may be Lists of Strings.
+   */
+  private static Object toJsonValue(Object value) {
+    if (value instanceof Map<?, ?>) {
+      JSONObject json = new JSONObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        try {
+          json.putOpt(String.valueOf(entry.getKey()), toJsonValue(entry.getValue()));
+        } catch (JSONException je) {
+          throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, je.getMessage(), je);
+        }
+      }
+      return json;
+    } else if (value instanceof Collection<?>) {
+      JSONArray json = new JSONArray();
+      for (Object item : (Collection<?>) value) {
+        json.put(toJsonValue(item));
+      }
+      return json;
+    }
+    return value;
+  }
+
   public String getParameter(String paramName) {
     Object param = this.parameters.get(paramName);
     if (param instanceof List<?>) {
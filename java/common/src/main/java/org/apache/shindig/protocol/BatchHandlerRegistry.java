@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.protocol;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.conversion.BeanConverter;
+import org.apache.shindig.protocol.multipart.FormDataItem;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * A HandlerRegistry that controls how the items of a JSON-RPC batch are executed.
+ * JsonRpcServlet executes the items of a batch one after the other when its registry
+ * does not implement this interface.
+ */
+public interface BatchHandlerRegistry extends HandlerRegistry {
+
+  /**
+   * Execute the handlers for the items of a JSON-RPC batch.
+   * @param handlers The handlers, in batch order
+   * @param formItems Form items of the request
+   * @param token The security token of the request
+   * @param converter The converter for the request
+   * @param deadline Time in milliseconds at which the whole batch times out, or 0 for none
+   * @return the result of each handler, in the same order as the handlers
+   */
+  List<Future<?>> executeBatch(List<RpcHandler> handlers, Map<String, FormDataItem> formItems,
+      SecurityToken token, BeanConverter converter, long deadline);
+}
@@ -209,7 +209,7 @@ public class DataServiceServlet extends ApiServlet {
           servletRequest.getParameter("callback") : null;
 
       if (callback != null) writer.write(callback + '(');
-      writer.write(responseConverter.convertToString(response));
+      responseConverter.append(writer, response);
       if (callback != null) writer.write(");\n");
     } else {
       sendError(servletResponse, responseItem);
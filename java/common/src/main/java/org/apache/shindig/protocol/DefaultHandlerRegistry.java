@@ -31,10 +31,15 @@ import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Provider;
+import com.google.inject.name.Named;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -48,7 +53,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -58,10 +69,12 @@ import javax.servlet.http.HttpServletResponse;
  * Default implementation of HandlerRegistry. Bind to appropriately
  * annotated handlers.
  */
-public class DefaultHandlerRegistry implements HandlerRegistry {
+public class DefaultHandlerRegistry implements BatchHandlerRegistry {
 
   private static final Logger LOG = Logger.getLogger(DefaultHandlerRegistry.class.getName());
 
+  private static final int DEFAULT_BATCH_CONCURRENCY = 4;
+
   // Map service - > method -> { handler, ...}
   private final Map<String, Map<String, SortedSet<RestPath>>> serviceMethodPathMap =
       Maps.newHashMap();
@@ -71,6 +84,10 @@ public class DefaultHandlerRegistry implements HandlerRegistry {
   private final BeanJsonConverter beanJsonConverter;
   private final HandlerExecutionListener executionListener;
 
+  private Executor batchExecutor;
+  private boolean parallelBatch = false;
+  private int batchConcurrency = DEFAULT_BATCH_CONCURRENCY;
+
   /**
    * Creates a dispatcher with the specified handler classes
    *
@@ -85,6 +102,30 @@ public class DefaultHandlerRegistry implements HandlerRegistry {
     this.executionListener = executionListener;
   }
 
+  @Inject(optional = true)
+  public void setBatchExecutor(@Named("shindig.api.rpc.batch.executor") Executor batchExecutor) {
+    this.batchExecutor = batchExecutor;
+  }
+
+  /**
+   * Enable parallel execution of the items of a JSON-RPC batch. Off by default as it
+   * requires handlers and HandlerExecutionListeners that do not depend on the request thread.
+   */
+  @Inject(optional = true)
+  public void setParallelBatch(@Named("shindig.api.rpc.batch.parallel") boolean parallelBatch) {
+    this.parallelBatch = parallelBatch;
+  }
+
+  /**
+   * Set the maximum number of items of a single batch that execute at the same time.
+   */
+  @Inject(optional = true)
+  public void setBatchConcurrency(
+      @Named("shindig.api.rpc.batch.max-concurrency") int batchConcurrency) {
+    Preconditions.checkArgument(batchConcurrency > 0, "Batch concurrency must be positive");
+    this.batchConcurrency = batchConcurrency;
+  }
+
   /**
    * Add handlers to the registry
    * @param handlers
@@ -137,6 +178,39 @@ public class DefaultHandlerRegistry implements HandlerRegistry {
     }
   }
 
+  /**
+   * Execute the handlers of a batch. Unless parallel execution is enabled the handlers run
+   * one after the other on the calling thread. Otherwise up to the configured number of
+   * handlers run at the same time, one of them on the calling thread and the rest on the
+   * batch executor, and this method returns once every handler has been started and the items
+   * started on the calling thread have completed. Each handler still calls the
+   * HandlerExecutionListener around its own execution.
+   */
+  public List<Future<?>> executeBatch(List<RpcHandler> handlers,
+      Map<String, FormDataItem> formItems, SecurityToken token, BeanConverter converter,
+      long deadline) {
+    if (!parallelBatch || batchExecutor == null || handlers.size() < 2) {
+      List<Future<?>> results = Lists.newArrayListWithCapacity(handlers.size());
+      for (RpcHandler handler : handlers) {
+        results.add(handler.execute(formItems, token, converter));
+      }
+      return results;
+    }
+
+    ParallelBatch batch = new ParallelBatch(handlers, formItems, token, converter, deadline);
+    int workers = Math.min(batchConcurrency, handlers.size());
+    for (int i = 1; i < workers; i++) {
+      try {
+        batchExecutor.execute(batch);
+      } catch (RejectedExecutionException e) {
+        // The executor is saturated, the calling thread picks up the remaining items
+        break;
+      }
+    }
+    batch.run();
+    return batch.results;
+  }
+
   /**
    * Get a REST request handler
    */
@@ -241,6 +315,116 @@ public class DefaultHandlerRegistry implements HandlerRegistry {
     }
   }
 
+  /**
+   * Executes the items of a batch in order on each of the threads that run it, so that the
+   * number of threads bounds the number of handlers executing at the same time. A thread does
+   * not wait for the result of an item before it starts the next one: results that are
+   * listenable complete the item as soon as they are available, and the thread waits for the
+   * rest only once it has no items left to start. Items that have not completed by the
+   * deadline fail with a timeout, and their handler futures are cancelled.
+   */
+  private static final class ParallelBatch implements Runnable {
+    private final List<RpcHandler> handlers;
+    private final Map<String, FormDataItem> formItems;
+    private final SecurityToken token;
+    private final BeanConverter converter;
+    private final long deadline;
+    private final List<Future<?>> results;
+    private final List<SettableFuture<Object>> pending;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ParallelBatch(List<RpcHandler> handlers, Map<String, FormDataItem> formItems,
+        SecurityToken token, BeanConverter converter, long deadline) {
+      this.handlers = handlers;
+      this.formItems = formItems;
+      this.token = token;
+      this.converter = converter;
+      this.deadline = deadline;
+      this.pending = Lists.newArrayListWithCapacity(handlers.size());
+      for (int i = 0; i < handlers.size(); i++) {
+        pending.add(SettableFuture.<Object>create());
+      }
+      this.results = Collections.<Future<?>>unmodifiableList(pending);
+    }
+
+    public void run() {
+      Map<SettableFuture<Object>, Future<?>> started = Maps.newLinkedHashMap();
+      for (int i = next.getAndIncrement(); i < handlers.size(); i = next.getAndIncrement()) {
+        SettableFuture<Object> result = pending.get(i);
+        if (result.isCancelled()) {
+          continue;
+        }
+        if (deadline > 0 && deadline <= System.currentTimeMillis()) {
+          result.setException(timeout());
+          continue;
+        }
+        try {
+          Future<?> future = handlers.get(i).execute(formItems, token, converter);
+          if (future instanceof ListenableFuture) {
+            Futures.addCallback((ListenableFuture<?>) future, new Completion(result),
+                MoreExecutors.directExecutor());
+          }
+          started.put(result, future);
+        } catch (Throwable t) {
+          // Always complete the item, the servlet waits on it without a deadline when none is set
+          result.setException(t);
+        }
+      }
+
+      // Every item this thread started is now running, so waiting for them one after the
+      // other takes no longer than the slowest of them
+      for (Map.Entry<SettableFuture<Object>, Future<?>> entry : started.entrySet()) {
+        SettableFuture<Object> result = entry.getKey();
+        Future<?> future = entry.getValue();
+        if (result.isDone()) {
+          continue;
+        }
+        try {
+          long remaining = deadline - System.currentTimeMillis();
+          if (deadline > 0 && remaining <= 0) {
+            throw new TimeoutException();
+          }
+          result.set(deadline > 0 ? future.get(remaining, TimeUnit.MILLISECONDS) : future.get());
+        } catch (ExecutionException e) {
+          result.setException(e.getCause());
+        } catch (TimeoutException e) {
+          // Fail the item before cancelling, which would otherwise complete it first
+          result.setException(timeout());
+          future.cancel(true);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          result.setException(e);
+        } catch (Throwable t) {
+          result.setException(t);
+        }
+      }
+    }
+
+    private static ProtocolException timeout() {
+      return new ProtocolException(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+          "The batch timed out before the request completed");
+    }
+  }
+
+  /**
+   * Completes an item of a parallel batch with the result of its handler.
+   */
+  private static final class Completion implements FutureCallback<Object> {
+    private final SettableFuture<Object> result;
+
+    Completion(SettableFuture<Object> result) {
+      this.result = result;
+    }
+
+    public void onSuccess(Object value) {
+      result.set(value);
+    }
+
+    public void onFailure(Throwable t) {
+      result.setException(t);
+    }
+  }
+
   /**
    * Utility wrapper for the HandlerExecutionListener
    */
@@ -24,6 +24,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.util.JsonConversionUtil;
+import org.apache.shindig.common.util.JsonStreamReader;
 import org.apache.shindig.protocol.multipart.FormDataItem;
 import org.apache.shindig.protocol.multipart.MultipartFormParser;
 
@@ -40,6 +41,9 @@ import org.json.JSONObject;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -79,6 +83,24 @@ public class JsonRpcServlet extends ApiServlet {
     jsonRpcBothFields = "both".equals(jsonRpcResultField);
   }
 
+  private long requestTimeout = 0;
+
+  // Subclasses written against the String based getPostContent and the Map based
+  // getJSONResponse and addResult keep being called through them
+  private final boolean postContentOverridden = isOverridden(getClass(), "getPostContent",
+      HttpServletRequest.class, Map.class);
+  private final boolean jsonResponseOverridden = isOverridden(getClass(), "getJSONResponse",
+      String.class, ResponseItem.class)
+      || isOverridden(getClass(), "addResult", Map.class, Object.class);
+
+  /**
+   * Set the time a request may take, shared by all the items of a batch. 0 waits indefinitely.
+   */
+  @Inject(optional = true)
+  void setRequestTimeout(@Named("shindig.api.rpc.timeout-ms") long requestTimeout) {
+    this.requestTimeout = requestTimeout;
+  }
+
   @Override
   protected void service(HttpServletRequest servletRequest, HttpServletResponse servletResponse)
       throws IOException {
@@ -101,15 +123,23 @@ public class JsonRpcServlet extends ApiServlet {
     }
 
     try {
-      String content = null;
+      Reader content = null;
       String callback = null; // for JSONP
       Map<String,FormDataItem> formData = Maps.newHashMap();
 
       // Get content or deal with JSON-RPC GET
       if ("POST".equals(method)) {
-        content = getPostContent(servletRequest, formData);
+        if (postContentOverridden) {
+          String postContent = getPostContent(servletRequest, formData);
+          content = postContent == null ? null : new StringReader(postContent);
+        } else {
+          content = getPostContentReader(servletRequest, formData);
+        }
       } else if (this.isJSONPAllowed && HttpUtil.isJSONP(servletRequest)) {
-        content = servletRequest.getParameter("request");
+        String request = servletRequest.getParameter("request");
+        if (request != null) {
+          content = new StringReader(request);
+        }
         callback = servletRequest.getParameter("callback");
       } else {
         // GET request, fromRequest() creates the json objects directly.
@@ -126,11 +156,12 @@ public class JsonRpcServlet extends ApiServlet {
         return;
       }
 
-      if (isContentJsonBatch(content)) {
-        JSONArray batch = new JSONArray(content);
-        dispatchBatch(batch, formData, servletRequest, servletResponse, token, callback);
+      // Parse straight from the request stream rather than buffering the body first
+      JsonStreamReader json = new JsonStreamReader(content);
+      if (json.isArray()) {
+        dispatchBatch(json, formData, servletRequest, servletResponse, token, callback);
       } else {
-        JSONObject request = new JSONObject(content);
+        JSONObject request = json.nextObject();
         dispatch(request, formData, servletRequest, servletResponse, token, callback);
       }
     } catch (JSONException je) {
@@ -143,8 +174,36 @@ public class JsonRpcServlet extends ApiServlet {
     }
   }
 
+  /**
+   * @deprecated buffers the whole request, override {@link #getPostContentReader} instead. Only
+   *     called when a subclass overrides it.
+   */
+  @Deprecated
   protected String getPostContent(HttpServletRequest request, Map<String,FormDataItem> formItems)
       throws ContentTypes.InvalidContentTypeException, IOException {
+    Reader content = getPostContentReader(request, formItems);
+    return content == null ? null : IOUtils.toString(content);
+  }
+
+  private static boolean isOverridden(Class<?> clazz, String name, Class<?>... parameterTypes) {
+    for (Class<?> c = clazz; c != JsonRpcServlet.class; c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod(name, parameterTypes);
+        return true;
+      } catch (NoSuchMethodException e) {
+        // Not declared at this level
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get a reader for the JSON content of a POST. Plain JSON bodies are read straight from the
+   * request stream, multipart requests from the "request" form field.
+   */
+  protected Reader getPostContentReader(HttpServletRequest request,
+      Map<String,FormDataItem> formItems)
+      throws ContentTypes.InvalidContentTypeException, IOException {
     String content = null;
 
     ContentTypes.checkContentTypes(ALLOWED_CONTENT_TYPES, request.getContentType());
@@ -165,42 +224,84 @@ public class JsonRpcServlet extends ApiServlet {
         }
       }
     } else {
-      content = IOUtils.toString(request.getInputStream(), request.getCharacterEncoding());
+      return new InputStreamReader(request.getInputStream(), request.getCharacterEncoding());
     }
-    return content;
+    return content == null ? null : new StringReader(content);
   }
 
   protected void dispatchBatch(JSONArray batch, Map<String, FormDataItem> formItems ,
       HttpServletRequest servletRequest, HttpServletResponse servletResponse,
       SecurityToken token, String callback) throws JSONException, IOException {
-    // Use linked hash map to preserve order
-    List<Future<?>> responses = Lists.newArrayListWithCapacity(batch.length());
+    long deadline = getDeadline();
+    List<String> keys = Lists.newArrayListWithCapacity(batch.length());
+    List<RpcHandler> handlers = Lists.newArrayListWithCapacity(batch.length());
 
-    // Gather all Futures.  We do this up front so that
-    // the first call to get() comes after all futures are created,
-    // which allows for implementations that batch multiple Futures
-    // into single requests.
     for (int i = 0; i < batch.length(); i++) {
       JSONObject batchObj = batch.getJSONObject(i);
-      responses.add(getHandler(batchObj, servletRequest).execute(formItems, token, jsonConverter));
+      keys.add(batchObj.has("id") ? batchObj.getString("id") : null);
+      handlers.add(getHandler(batchObj, servletRequest));
     }
+    List<Future<?>> responses = executeBatch(handlers, formItems, token, deadline);
+    writeBatchResponse(keys, responses, servletResponse, callback, deadline);
+  }
 
-    // Resolve each Future into a response.
-    // TODO: should use shared deadline across each request
-    List<Object> result = new ArrayList<Object>(batch.length());
-    for (int i = 0; i < batch.length(); i++) {
-      JSONObject batchObj = batch.getJSONObject(i);
-      String key = null;
-      if (batchObj.has("id")) {
-        key = batchObj.getString("id");
+  /**
+   * Dispatch a batch parsed from the stream. The whole batch is parsed, and its handlers
+   * looked up, before any item executes, so a malformed element fails the request without
+   * side effects.
+   */
+  protected void dispatchBatch(JsonStreamReader batch, Map<String, FormDataItem> formItems,
+      HttpServletRequest servletRequest, HttpServletResponse servletResponse,
+      SecurityToken token, String callback) throws JSONException, IOException {
+    long deadline = getDeadline();
+    List<String> keys = Lists.newArrayList();
+    List<RpcHandler> handlers = Lists.newArrayList();
+
+    // Gather all handlers and execute them together.  This way
+    // the first call to get() comes after all futures are created,
+    // which allows for implementations that batch multiple Futures
+    // into single requests.
+    batch.beginArray();
+    while (batch.hasNext()) {
+      Object element = batch.nextElement();
+      if (!(element instanceof JSONObject)) {
+        throw new JSONException("JSONArray[" + keys.size() + "] is not a JSONObject.");
       }
-      result.add(getJSONResponse(key, getResponseItem(responses.get(i))));
+      JSONObject batchObj = (JSONObject) element;
+      keys.add(batchObj.has("id") ? batchObj.getString("id") : null);
+      handlers.add(getHandler(batchObj, servletRequest));
     }
+    List<Future<?>> responses = executeBatch(handlers, formItems, token, deadline);
+    writeBatchResponse(keys, responses, servletResponse, callback, deadline);
+  }
 
-    // Generate the output
+  private List<Future<?>> executeBatch(List<RpcHandler> handlers,
+      Map<String, FormDataItem> formItems, SecurityToken token, long deadline) {
+    if (dispatcher instanceof BatchHandlerRegistry) {
+      return ((BatchHandlerRegistry) dispatcher).executeBatch(handlers, formItems, token,
+          jsonConverter, deadline);
+    }
+    List<Future<?>> responses = Lists.newArrayListWithCapacity(handlers.size());
+    for (RpcHandler handler : handlers) {
+      responses.add(handler.execute(formItems, token, jsonConverter));
+    }
+    return responses;
+  }
+
+  private void writeBatchResponse(List<String> keys, List<Future<?>> responses,
+      HttpServletResponse servletResponse, String callback, long deadline) throws IOException {
+    // Resolve each Future into a response and write it out as soon as it is available.
+    // All items share the deadline of the batch.
     Writer writer = servletResponse.getWriter();
     if (callback != null) writer.append(callback).append('(');
-    jsonConverter.append(writer, result);
+    writer.append('[');
+    for (int i = 0; i < responses.size(); i++) {
+      if (i > 0) {
+        writer.append(',');
+      }
+      writeJSONResponse(writer, keys.get(i), getResponseItem(responses.get(i), deadline));
+    }
+    writer.append(']');
     if (callback != null) writer.append(");\n");
   }
 
@@ -213,21 +314,28 @@ public class JsonRpcServlet extends ApiServlet {
       key = request.getString("id");
     }
 
+    long deadline = getDeadline();
+
     // getRpcHandler never returns null
     Future<?> future = getHandler(request, servletRequest).execute(formItems, token, jsonConverter);
 
-    // Resolve each Future into a response.
-    // TODO: should use shared deadline across each request
-    ResponseItem response = getResponseItem(future);
-    Object result = getJSONResponse(key, response);
+    // Resolve the Future into a response.
+    ResponseItem response = getResponseItem(future, deadline);
 
     // Generate the output
     Writer writer = servletResponse.getWriter();
     if (callback != null) writer.append(callback).append('(');
-    jsonConverter.append(writer, result);
+    writeJSONResponse(writer, key, response);
     if (callback != null) writer.append(");\n");
   }
 
+  /**
+   * @return the time at which the current request times out, or 0 if it never does.
+   */
+  private long getDeadline() {
+    return requestTimeout > 0 ? System.currentTimeMillis() + requestTimeout : 0;
+  }
+
   /**
    *
    */
@@ -240,16 +348,6 @@ public class JsonRpcServlet extends ApiServlet {
     }
   }
 
-  /**
-   * Determine if the content contains a batch request
-   *
-   * @param content json content or null
-   * @return true if content contains is a json array, not a json object or null
-   */
-  private boolean isContentJsonBatch(String content) {
-    if (content == null) return false;
-    return ((content.indexOf('[') != -1) && content.indexOf('[') < content.indexOf('{'));
-  }
   /**
    * Wrap call to dispatcher to allow for implementation specific overrides
    * and servlet-request contextual handling
@@ -285,6 +383,9 @@ public class JsonRpcServlet extends ApiServlet {
         map.put("filtered", collection.isFiltered());
         map.put("updatedSince", collection.isUpdatedSince());
         map.put("sorted", collection.isSorted());
+        if (collection.getNextPageToken() != null) {
+          map.put("nextPageToken", collection.getNextPageToken());
+        }
 
         map.put("list", collection.getList());
         addResult(result, map);
@@ -297,6 +398,88 @@ public class JsonRpcServlet extends ApiServlet {
     return result;
   }
 
+  /**
+   * Stream the JSON-RPC response for a single item. Produces the same document as
+   * {@link #getJSONResponse(String, ResponseItem)} without building the intermediate Maps, so
+   * large collections are written out as they are serialized. When a subclass overrides
+   * getJSONResponse or addResult, the result of getJSONResponse is serialized instead.
+   */
+  protected void writeJSONResponse(Writer writer, String key, ResponseItem responseItem)
+      throws IOException {
+    if (jsonResponseOverridden) {
+      jsonConverter.append(writer, getJSONResponse(key, responseItem));
+      return;
+    }
+    writer.append('{');
+    boolean first = true;
+    if (key != null) {
+      first = writeField(writer, "id", key, first);
+    }
+    if (responseItem.getErrorCode() < 200 ||
+        responseItem.getErrorCode() >= 400) {
+      writeField(writer, "error", getErrorJson(responseItem), first);
+    } else {
+      Object response = responseItem.getResponse();
+      if (response instanceof DataCollection) {
+        response = ((DataCollection) response).getEntry();
+      }
+      if (jsonRpcBothFields) {
+        first = writeField(writer, "result", response, first);
+        writeField(writer, "data", response, first);
+      } else {
+        writeField(writer, jsonRpcResultField, response, first);
+      }
+    }
+    writer.append('}');
+  }
+
+  /**
+   * Write a single field of a JSON object, dropping null values as the Map based output does.
+   * @return whether the object is still empty
+   */
+  private boolean writeField(Writer writer, String name, Object value, boolean first)
+      throws IOException {
+    if (value == null) {
+      return first;
+    }
+    if (!first) {
+      writer.append(',');
+    }
+    jsonConverter.append(writer, name);
+    writer.append(':');
+    if (value instanceof RestfulCollection) {
+      writeCollection(writer, (RestfulCollection<?>) value);
+    } else {
+      jsonConverter.append(writer, value);
+    }
+    return false;
+  }
+
+  private void writeCollection(Writer writer, RestfulCollection<?> collection)
+      throws IOException {
+    writer.append('{');
+    // Return sublist info
+    if (collection.getTotalResults() != collection.getList().size()) {
+      writer.append("\"startIndex\":").append(String.valueOf(collection.getStartIndex()));
+      writer.append(",\"itemsPerPage\":").append(String.valueOf(collection.getItemsPerPage()));
+      writer.append(',');
+    }
+    // always put in totalResults
+    writer.append("\"totalResults\":").append(String.valueOf(collection.getTotalResults()));
+
+    // always add metadata for collections
+    writer.append(",\"filtered\":").append(String.valueOf(collection.isFiltered()));
+    writer.append(",\"updatedSince\":").append(String.valueOf(collection.isUpdatedSince()));
+    writer.append(",\"sorted\":").append(String.valueOf(collection.isSorted()));
+    if (collection.getNextPageToken() != null) {
+      writer.append(",\"nextPageToken\":").append(JSONObject.quote(collection.getNextPageToken()));
+    }
+
+    writer.append(",\"list\":");
+    jsonConverter.append(writer, collection.getList());
+    writer.append('}');
+  }
+
   /** Map of old-style error titles */
   protected static final Map<Integer, String> errorTitles = ImmutableMap.<Integer, String> builder()
      .put(HttpServletResponse.SC_NOT_IMPLEMENTED, "notImplemented")
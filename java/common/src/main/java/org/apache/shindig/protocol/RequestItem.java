@@ -42,6 +42,7 @@ public interface RequestItem {
   String FILTER_OPERATION = "filterOp";
   String FILTER_VALUE = "filterValue";
   String FIELDS = "fields";// Opensocial defaults
+  String PAGE_TOKEN = "pageToken";
   int DEFAULT_START_INDEX = 0;
   int DEFAULT_COUNT = 20;
   String APP_SUBSTITUTION_TOKEN = "@app";
@@ -33,6 +33,7 @@ public class RestfulCollection<T> extends HashMap<String, Object>{
   private boolean filtered = false;
   private boolean sorted = false;
   private boolean updatedSince = false;
+  private String nextPageToken;
 
   /**
    * Creates a new RestfulCollection that includes a complete set of entries.
@@ -143,4 +144,21 @@ public class RestfulCollection<T> extends HashMap<String, Object>{
     this.updatedSince = updatedSince;
     put("updatedSince", updatedSince);
   }
+
+  /**
+   * @return an opaque token that fetches the page after this one, or null if this is the last
+   *     page or the service does not support continuation tokens.
+   */
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+
+  public void setNextPageToken(String nextPageToken) {
+    this.nextPageToken = nextPageToken;
+    if (nextPageToken == null) {
+      remove("nextPageToken");
+    } else {
+      put("nextPageToken", nextPageToken);
+    }
+  }
 }
@@ -32,7 +32,8 @@ public interface BeanConverter {
   String getContentType();
 
   /**
-   * Serialize object to a buffer. Useful for high performance output.
+   * Serialize object to a buffer. Useful for high performance output; when the buffer is a
+   * {@link java.io.Writer} the object should be streamed to it rather than built in memory.
    * @param buf Buffer to append to
    * @param pojo Object to serialize
    * @throws IOException If {@link Appendable#append(char)} throws an exception.
@@ -18,10 +18,21 @@
  */
 package org.apache.shindig.protocol.conversion;
 
+import org.apache.shindig.common.JsonProjection;
+import org.apache.shindig.common.JsonSerializer;
+
+import com.google.common.base.Objects;
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.inject.Singleton;
 
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -49,16 +60,29 @@ import java.util.Set;
  * (Note that the processBeanFilter resolve the last limitation)
  *
  * Note this code create a new object for each filtered object.
+ * The filter decisions for each bean class and set of fields are computed once and cached by
+ * this instance, so that the bean classes are not kept beyond its lifetime.
  * Filtering can be done also using cglib.InterfaceMaker and reflect.Proxy.makeProxyInstance
  * That results with an object that have same finger print as source, but cannot be cast to it.
  *
  * @since 2.0.0
  */
+@Singleton
 public class BeanFilter {
 
   public static final String ALL_FIELDS = "*";
   public static final String DELIMITER = ".";
 
+  private static final int MAX_PLANS = 1000;
+
+  private final LoadingCache<PlanKey, ProjectionPlan> plans = CacheBuilder.newBuilder()
+      .maximumSize(MAX_PLANS)
+      .build(new CacheLoader<PlanKey, ProjectionPlan>() {
+        public ProjectionPlan load(PlanKey key) {
+          return new ProjectionPlan(key);
+        }
+      });
+
   /** Annotation for required field that should not be filtered */
   @Target(ElementType.METHOD)
   @Retention(RetentionPolicy.RUNTIME)
@@ -69,15 +93,31 @@ public class BeanFilter {
    * If a field is not specified in the set, the get method will return null.
    * (Primitive returned type cannot be filtered)
    * The filter is done recursively on sub items.
+   * When the proxy is serialized by {@link JsonSerializer} the filter is applied to the
+   * original object directly, without creating proxies for the sub items.
    * @param data the object to filter
    * @param fields list of fields to pass through.
    */
   public Object createFilteredBean(Object data, Set<String> fields) {
-    return createFilteredBean(data, fields, "");
+    // Copied, as the fields are part of the cached plan keys
+    return createFilteredBean(data, fields == null ? null : ImmutableSet.copyOf(fields), "");
   }
 
-  @SuppressWarnings("unchecked")
   private Object createFilteredBean(Object data, Set<String> fields, String fieldName) {
+    return filter(data, fields, fieldName, false);
+  }
+
+  /**
+   * Filter a sub item for serialization. Beans are returned as a {@link JsonProjection} of the
+   * original object instead of a proxy, unless the proxy would be serialized as a collection.
+   */
+  private Object project(Object data, Set<String> fields, String fieldName) {
+    return filter(data, fields, fieldName, true);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object filter(Object data, Set<String> fields, String fieldName,
+      boolean projection) {
     // For null, atomic object or for all fields just return original.
     if (data == null || fields == null
         || BeanDelegator.PRIMITIVE_TYPE_CLASSES.contains(data.getClass())
@@ -90,7 +130,7 @@ public class BeanFilter {
       Map<Object, Object> oldMap = (Map<Object, Object>) data;
       Map<Object, Object> newMap = Maps.newHashMapWithExpectedSize(oldMap.size());
       for (Map.Entry<Object, Object> entry : oldMap.entrySet()) {
-        newMap.put(entry.getKey(), createFilteredBean(entry.getValue(), fields, fieldName));
+        newMap.put(entry.getKey(), filter(entry.getValue(), fields, fieldName, projection));
       }
       return newMap;
     }
@@ -100,62 +140,208 @@ public class BeanFilter {
       List<Object> oldList = (List<Object>) data;
       List<Object> newList = Lists.newArrayListWithCapacity(oldList.size());
       for (Object entry : oldList) {
-        newList.add(createFilteredBean(entry, fields, fieldName));
+        newList.add(filter(entry, fields, fieldName, projection));
       }
       return newList;
     }
 
+    ProjectionPlan plan = plans.getUnchecked(new PlanKey(data.getClass(), fields, fieldName));
+    FilterInvocationHandler handler = new FilterInvocationHandler(data, plan);
+    if (projection && plan.projectable) {
+      return handler;
+    }
+
     // Create a new intercepted object:
-    return Proxy.newProxyInstance( data.getClass().getClassLoader(),
-        data.getClass().getInterfaces(), new FilterInvocationHandler(data, fields, fieldName));
+    return Proxy.newProxyInstance(data.getClass().getClassLoader(),
+        data.getClass().getInterfaces(), handler);
   }
 
   /**
    * Invocation handler to filter fields. It return null to fields that are not in the list.
    * It invokes method on original object. It does not filter primitive types.
-   * And it create bean filter proxy for return objects
+   * And it create bean filter proxy for return objects.
+   * It is also the projection used when the proxy is serialized to JSON.
    */
-  private class FilterInvocationHandler implements InvocationHandler {
-    private final String prefix;
-    private final Set<String> fields;
+  private class FilterInvocationHandler implements InvocationHandler, JsonProjection {
     private final Object origData;
+    private final ProjectionPlan plan;
 
-    FilterInvocationHandler(Object origData, Set<String> fields, String fieldName) {
-      this.fields = fields;
-      this.prefix = Strings.isNullOrEmpty(fieldName) ? "" : fieldName + DELIMITER;
+    FilterInvocationHandler(Object origData, ProjectionPlan plan) {
       this.origData = origData;
+      this.plan = plan;
     }
 
     public Object invoke(Object data, Method method, Object[] args) {
-      String fieldName = null;
-      Object result;
+      Step step = plan.steps.get(method);
+      if (step == null) {
+        return call(method, args);
+      }
+      if (step.filtered) {
+        return null;
+      }
+      Object result = call(method, args);
+      if (result != null && step.childPrefix != null) {
+        return createFilteredBean(result, plan.fields, step.childPrefix);
+      }
+      return result;
+    }
+
+    public Class<?> getBeanType() {
+      return plan.proxyClass;
+    }
+
+    public Object getProperty(Method getter) {
+      Step step = plan.gettersSteps.get(getter);
+      if (step == null || step.filtered) {
+        return null;
+      }
+      Object result = call(step.method, null);
+      if (result != null && step.childPrefix != null) {
+        return project(result, plan.fields, step.childPrefix);
+      }
+      return result;
+    }
+
+    private Object call(Method method, Object[] args) {
+      try {
+        return method.invoke(origData, args);
+      } catch (IllegalArgumentException e) {
+        throw new RuntimeException(e);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      } catch (InvocationTargetException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * What to do with a single interface method of a filtered bean.
+   */
+  private static final class Step {
+    /** The interface method, as the proxy passes it to the invocation handler */
+    private final Method method;
+    /** True if the method returns null */
+    private final boolean filtered;
+    /** The field name used to filter the returned value, or null to return it as is */
+    private final String childPrefix;
+
+    Step(Method method, boolean filtered, String childPrefix) {
+      this.method = method;
+      this.filtered = filtered;
+      this.childPrefix = childPrefix;
+    }
+  }
+
+  /**
+   * Filter decisions for all methods of one bean class, for one set of fields at one prefix.
+   * Plans are built once and cached, so a filtered call is a single map lookup.
+   */
+  private static final class ProjectionPlan {
+    private final Set<String> fields;
+    private final Class<?> proxyClass;
+    /** Steps by interface method, for the invocation handler */
+    private final Map<Method, Step> steps;
+    /** Steps by getter of the proxy class, for JSON serialization */
+    private final Map<Method, Step> gettersSteps;
+    /** False if the proxy would be serialized as a collection rather than as a bean */
+    private final boolean projectable;
+
+    ProjectionPlan(PlanKey key) {
+      this.fields = key.fields;
+      Class<?>[] interfaces = key.type.getInterfaces();
+      this.proxyClass = Proxy.getProxyClass(key.type.getClassLoader(), interfaces);
+      String prefix = Strings.isNullOrEmpty(key.fieldName) ? "" : key.fieldName + DELIMITER;
+
+      ImmutableMap.Builder<Method, Step> stepsBuilder = ImmutableMap.builder();
+      Set<Method> seen = Sets.newHashSet();
+      for (Class<?> iface : interfaces) {
+        for (Method method : iface.getMethods()) {
+          if (seen.add(method)) {
+            stepsBuilder.put(method, createStep(method, prefix));
+          }
+        }
+      }
+      this.steps = stepsBuilder.build();
+
+      // The proxy dispatches each of its methods to the first interface that declares it
+      ImmutableMap.Builder<Method, Step> gettersBuilder = ImmutableMap.builder();
+      for (Method getter : proxyClass.getMethods()) {
+        if (getter.getParameterTypes().length > 0) {
+          continue;
+        }
+        for (Class<?> iface : interfaces) {
+          Method method = getMethod(iface, getter.getName());
+          if (method != null) {
+            gettersBuilder.put(getter, steps.get(method));
+            break;
+          }
+        }
+      }
+      this.gettersSteps = gettersBuilder.build();
+
+      this.projectable = !CharSequence.class.isAssignableFrom(proxyClass)
+          && !Map.class.isAssignableFrom(proxyClass)
+          && !Multimap.class.isAssignableFrom(proxyClass)
+          && !Collection.class.isAssignableFrom(proxyClass);
+    }
+
+    private Step createStep(Method method, String prefix) {
       if (method.getName().startsWith("get")
           // Do not filter out primitive types, it will result in NPE
           && !method.getReturnType().isPrimitive()) {
         // Look for Required annotation
         boolean required = (method.getAnnotation(Unfiltered.class) != null);
-        fieldName = prefix + method.getName().substring(3).toLowerCase();
+        String fieldName = prefix + method.getName().substring(3).toLowerCase();
         if (!required && !fields.contains(fieldName)) {
-          return null;
+          return new Step(method, true, null);
         }
+        // if the request ask for all fields, we don't need to filter them
+        boolean allFields = fields.contains(fieldName + DELIMITER + ALL_FIELDS);
+        return new Step(method, false, allFields ? null : fieldName);
       }
+      return new Step(method, false, null);
+    }
+
+    private static Method getMethod(Class<?> iface, String name) {
       try {
-        result = method.invoke(origData, args);
-      } catch (IllegalArgumentException e) {
-        throw new RuntimeException(e);
-      } catch (IllegalAccessException e) {
-        throw new RuntimeException(e);
-      } catch (InvocationTargetException e) {
-        throw new RuntimeException(e);
+        return iface.getMethod(name);
+      } catch (NoSuchMethodException e) {
+        return null;
       }
-      if (result != null && fieldName != null
-          // if the request ask for all fields, we don't need to filter them
-          && !fields.contains(fieldName + DELIMITER + ALL_FIELDS)) {
-        return createFilteredBean(result, fields, fieldName);
-        // TODO: Consider improving the above by saving the filtered bean in a local map for reuse
-        // for current use the get is called once, so it would actually create overhead
+    }
+  }
+
+  /**
+   * Cache key for projection plans.
+   */
+  private static final class PlanKey {
+    private final Class<?> type;
+    private final Set<String> fields;
+    private final String fieldName;
+
+    PlanKey(Class<?> type, Set<String> fields, String fieldName) {
+      this.type = type;
+      this.fields = fields;
+      this.fieldName = fieldName;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
       }
-      return result;
+      if (!(obj instanceof PlanKey)) {
+        return false;
+      }
+      PlanKey other = (PlanKey) obj;
+      return type == other.type && fieldName.equals(other.fieldName)
+          && fields.equals(other.fields);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(type, fields, fieldName);
     }
   }
 
@@ -19,6 +19,7 @@
 package org.apache.shindig.protocol.conversion;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -33,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -49,9 +51,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 
@@ -63,23 +65,46 @@ import com.google.inject.Injector;
 public class BeanJsonConverter implements BeanConverter {
 
   // Only compute the filtered SETTERS once per-class
-  private static final LoadingCache<Class<?>, Map<String, Method>> SETTERS = CacheBuilder
+  private static final LoadingCache<Class<?>, Setter[]> SETTERS = CacheBuilder
       .newBuilder()
-      .build(new CacheLoader<Class<?>, Map<String, Method>>() {
-        public Map<String, Method> load(Class<?> type) {
-          ImmutableMap.Builder<String, Method> builder = ImmutableMap.builder();
+      .build(new CacheLoader<Class<?>, Setter[]>() {
+        public Setter[] load(Class<?> type) {
+          Map<String, Setter> setters = Maps.newLinkedHashMap();
           for (Method method : type.getMethods()) {
             if (method.getParameterTypes().length == 1) {
               String name = getPropertyName(method);
               if (name != null) {
-                builder.put(name, method);
+                // getMethods() order is unspecified, so overloaded setters have no winner
+                Preconditions.checkArgument(!setters.containsKey(name),
+                    "Duplicate setters for property %s of %s", name, type);
+                setters.put(name, new Setter(name, method));
               }
             }
           }
-          return builder.build();
+          return setters.values().toArray(new Setter[setters.size()]);
         }
       });
 
+  /**
+   * A bean property setter with its parameter type resolved once, rather than on each call.
+   */
+  private static final class Setter {
+    final String name;
+    final Method method;
+    final Type type;
+
+    Setter(String name, Method method) {
+      this.name = name;
+      this.method = method;
+      this.type = method.getGenericParameterTypes()[0];
+      try {
+        method.setAccessible(true);
+      } catch (SecurityException e) {
+        // Fall back to checked access
+      }
+    }
+  }
+
   private final Injector injector;
 
   @Inject
@@ -105,6 +130,10 @@ public class BeanJsonConverter implements BeanConverter {
     JsonSerializer.append(buf, pojo);
   }
 
+  public void write(Writer writer, Object pojo) throws IOException {
+    JsonSerializer.append(writer, pojo);
+  }
+
   @VisibleForTesting
   protected static String getPropertyName(Method setter) {
     JsonProperty property = setter.getAnnotation(JsonProperty.class);
@@ -275,12 +304,11 @@ public class BeanJsonConverter implements BeanConverter {
       }
     }
 
-    for (Map.Entry<String, Method> entry : SETTERS.getUnchecked(out.getClass()).entrySet()) {
-      Object value = in.opt(entry.getKey());
+    for (Setter setter : SETTERS.getUnchecked(out.getClass())) {
+      Object value = in.opt(setter.name);
       if (value != null) {
-        Method method = entry.getValue();
         try {
-          method.invoke(out, convertToObject(value, method.getGenericParameterTypes()[0]));
+          setter.method.invoke(out, convertToObject(value, setter.type));
         } catch (IllegalArgumentException e) {
           throw new RuntimeException(e);
         } catch (IllegalAccessException e) {
@@ -36,6 +36,8 @@ import com.thoughtworks.xstream.mapper.DefaultMapper;
 import com.thoughtworks.xstream.mapper.Mapper;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Map;
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -45,6 +47,9 @@ import java.util.logging.Level;
  */
 public class BeanXStreamConverter implements BeanConverter {
   public static final String XML_DECL = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+  private static final String RESPONSE_START =
+      "<response xmlns=\"http://ns.opensocial.org/2008/opensocial\">";
+  private static final String RESPONSE_END = "</response>";
   private static final XStreamConfiguration.ConverterSet[] MAPPER_SCOPES = {
       XStreamConfiguration.ConverterSet.MAP,
       XStreamConfiguration.ConverterSet.COLLECTION,
@@ -87,29 +92,35 @@ public class BeanXStreamConverter implements BeanConverter {
   }
 
   public String convertToString(Object pojo) {
-    return convertToXml(pojo);
+    StringWriter writer = new StringWriter();
+    try {
+      write(writer, pojo);
+    } catch (IOException e) {
+      // Can't happen with a StringWriter
+      throw new RuntimeException(e);
+    }
+    String result = writer.toString();
+    if (LOG.isLoggable(Level.FINE))
+      LOG.fine("Result is " + result);
+    return result;
   }
 
   /**
    * convert an Object to XML, but make certain that only one of these is run on
    * a thread at any one time. This only matters if this class is extended.
    *
+   * @param writer the writer the XML is streamed to
    * @param obj
-   * @return The XML as a string
    */
-  private String convertToXml(Object obj) {
-
+  public void write(Writer writer, Object obj) throws IOException {
     writerStack.reset();
     if (obj instanceof RestfulCollection) {
       XStreamConfiguration.ConverterConfig cc = converterMap
           .get(XStreamConfiguration.ConverterSet.COLLECTION);
       cc.mapper.setBaseObject(obj); // thread safe method
-      String result = cc.xstream.toXML(obj);
-
-      if (LOG.isLoggable(Level.FINE))
-        LOG.fine("Result is " + result);
-
-      return XML_DECL + result;
+      writer.write(XML_DECL);
+      cc.xstream.toXML(obj, writer);
+      return;
     } else if (obj instanceof Map<?, ?>) {
       Map<?, ?> m = (Map<?, ?>) obj;
       XStreamConfiguration.ConverterConfig cc = converterMap
@@ -117,33 +128,26 @@ public class BeanXStreamConverter implements BeanConverter {
       if (m.size() == 1) {
         Object s = m.values().iterator().next();
         cc.mapper.setBaseObject(s); // thread safe method
-        String result = cc.xstream.toXML(s);
-
-        if (LOG.isLoggable(Level.FINE))
-          LOG.fine("Result is " + result);
-
-        return XML_DECL + "<response xmlns=\"http://ns.opensocial.org/2008/opensocial\">" + result + "</response>";
+        writer.write(XML_DECL + RESPONSE_START);
+        cc.xstream.toXML(s, writer);
+        writer.write(RESPONSE_END);
+        return;
       }
     } else if (obj instanceof DataCollection) {
       XStreamConfiguration.ConverterConfig cc = converterMap
           .get(XStreamConfiguration.ConverterSet.MAP);
       cc.mapper.setBaseObject(obj); // thread safe method
-      String result = cc.xstream.toXML(obj);
-
-      if (LOG.isLoggable(Level.FINE))
-        LOG.fine("Result is " + result);
-
-      return XML_DECL + result;
+      writer.write(XML_DECL);
+      cc.xstream.toXML(obj, writer);
+      return;
     }
     XStreamConfiguration.ConverterConfig cc = converterMap
         .get(XStreamConfiguration.ConverterSet.DEFAULT);
 
     cc.mapper.setBaseObject(obj); // thread safe method
-    String result = cc.xstream.toXML(obj);
-
-    if (LOG.isLoggable(Level.FINE))
-      LOG.fine("Result is " + result);
-    return XML_DECL + "<response xmlns=\"http://ns.opensocial.org/2008/opensocial\">" + result + "</response>";
+    writer.write(XML_DECL + RESPONSE_START);
+    cc.xstream.toXML(obj, writer);
+    writer.write(RESPONSE_END);
   }
 
   @SuppressWarnings("unchecked")
@@ -153,6 +157,10 @@ public class BeanXStreamConverter implements BeanConverter {
   }
 
   public void append(Appendable buf, Object pojo) throws IOException {
-    buf.append(convertToString(pojo));
+    if (buf instanceof Writer) {
+      write((Writer) buf, pojo);
+    } else {
+      buf.append(convertToString(pojo));
+    }
   }
 }
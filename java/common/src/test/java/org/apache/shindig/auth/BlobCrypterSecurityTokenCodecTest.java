@@ -19,6 +19,7 @@
 package org.apache.shindig.auth;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -220,6 +221,93 @@ public class BlobCrypterSecurityTokenCodecTest {
     }
   }
 
+  @Test
+  public void testCachedToken() throws Exception {
+    Map<String, String> values = new HashMap<String, String>();
+    values.put(Keys.APP_URL.getKey(), "http://www.example.com/gadget.xml");
+    values.put(Keys.OWNER.getKey(), "owner");
+    values.put(Keys.VIEWER.getKey(), "viewer");
+
+    BlobCrypterSecurityToken t = new BlobCrypterSecurityToken("container", null, null, values);
+    String encrypted = codec.encodeToken(t);
+
+    SecurityToken t1 = codec.createToken(ImmutableMap.of(
+        SecurityTokenCodec.SECURITY_TOKEN_NAME, encrypted,
+        SecurityTokenCodec.ACTIVE_URL_NAME, "http://www.example.com/one"));
+    SecurityToken t2 = codec.createToken(ImmutableMap.of(
+        SecurityTokenCodec.SECURITY_TOKEN_NAME, encrypted,
+        SecurityTokenCodec.ACTIVE_URL_NAME, "http://www.example.com/two"));
+
+    assertEquals(1, codec.getTokenCacheStats().missCount());
+    assertEquals(1, codec.getTokenCacheStats().hitCount());
+    assertNotSame(t1, t2);
+    assertEquals("owner", t2.getOwnerId());
+    assertEquals("viewer", t2.getViewerId());
+    assertEquals("container.com", t2.getDomain());
+    assertEquals("http://www.example.com/one", t1.getActiveUrl());
+    assertEquals("http://www.example.com/two", t2.getActiveUrl());
+  }
+
+  @Test
+  public void testCachedTokenExpires() throws Exception {
+    Map<String, String> values = new HashMap<String, String>();
+    values.put(Keys.OWNER.getKey(), "owner");
+    values.put(Keys.VIEWER.getKey(), "viewer");
+    values.put(Keys.EXPIRES.getKey(), Long.toString(System.currentTimeMillis() / 1000 - 200));
+
+    // Expiry is checked again when the token is found in the cache
+    String expired = "container:"
+        + getBlobCrypter(getContainerKey("container")).wrap(values);
+    for (int i = 0; i < 2; i++) {
+      try {
+        codec.createToken(ImmutableMap.of(SecurityTokenCodec.SECURITY_TOKEN_NAME, expired));
+        fail("should have expired");
+      } catch (SecurityTokenException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("Blob expired"));
+      }
+    }
+    assertEquals(1, codec.getTokenCacheStats().hitCount());
+  }
+
+  @Test
+  public void testCachedTokenKeyRotation() throws Exception {
+    Map<String, String> values = new HashMap<String, String>();
+    values.put(Keys.OWNER.getKey(), "owner");
+    values.put(Keys.VIEWER.getKey(), "viewer");
+
+    String encrypted = "container:"
+        + getBlobCrypter(getContainerKey("container")).wrap(values);
+    codec.createToken(ImmutableMap.of(SecurityTokenCodec.SECURITY_TOKEN_NAME, encrypted));
+
+    // A new key for the container, tokens signed with the old one are rejected
+    config.newTransaction().addContainer(ImmutableMap.<String, Object>of(
+        ContainerConfig.CONTAINER_KEY, ImmutableList.of("container"),
+        BlobCrypterSecurityTokenCodec.SECURITY_TOKEN_KEY, "NEW KEY FOR CONTAINER container",
+        BlobCrypterSecurityTokenCodec.SIGNED_FETCH_DOMAIN, "container.com")).commit();
+    try {
+      codec.createToken(ImmutableMap.of(SecurityTokenCodec.SECURITY_TOKEN_NAME, encrypted));
+      fail("should have tried to decrypt with the new key");
+    } catch (SecurityTokenException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Invalid token signature"));
+    }
+    assertEquals(0, codec.getTokenCacheStats().hitCount());
+  }
+
+  @Test
+  public void testCacheDisabled() throws Exception {
+    codec.setTokenCacheCapacity(0);
+    Map<String, String> values = new HashMap<String, String>();
+    values.put(Keys.OWNER.getKey(), "owner");
+
+    String encrypted = "container:"
+        + getBlobCrypter(getContainerKey("container")).wrap(values);
+    codec.createToken(ImmutableMap.of(SecurityTokenCodec.SECURITY_TOKEN_NAME, encrypted));
+    SecurityToken t = codec.createToken(
+        ImmutableMap.of(SecurityTokenCodec.SECURITY_TOKEN_NAME, encrypted));
+    assertEquals("owner", t.getOwnerId());
+    assertEquals(0, codec.getTokenCacheStats().hitCount());
+  }
+
   @Test
   public void testGetTokenTimeToLive() throws Exception {
     Builder<String, Object> builder = ImmutableMap.builder();
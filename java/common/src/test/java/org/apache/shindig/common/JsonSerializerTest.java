@@ -169,6 +169,35 @@ public class JsonSerializerTest {
         JsonSerializer.serialize(pojo));
   }
 
+  public static class OwnerPojo {
+    private final boolean owner;
+
+    public OwnerPojo(boolean owner) {
+      this.owner = owner;
+    }
+
+    @JsonProperty("isOwner")
+    public boolean getOwner() {
+      return owner;
+    }
+
+    @JsonProperty("quoted\"name")
+    public String getQuoted() {
+      return "<value>";
+    }
+  }
+
+  @Test
+  public void serializePojoUsesCachedSerializer() throws Exception {
+    assertEquals("{\"quoted\\\"name\":\"\\u003cvalue\\u003e\"}",
+        JsonSerializer.serialize(new OwnerPojo(false)));
+    assertJsonEquals("{isOwner:true,'quoted\\\"name':'<value>'}",
+        JsonSerializer.serialize(new OwnerPojo(true)));
+    // Same output for repeated serialization of the class
+    assertJsonEquals(JSON_POJO_AS_JSON, JsonSerializer.serialize(new JsonPojo()));
+    assertJsonEquals(JSON_POJO_AS_JSON, JsonSerializer.serialize(new JsonPojo()));
+  }
+
   @Test
   public void serializeMixedObjects() throws Exception {
     Map<String, ?> map = ImmutableMap.of(
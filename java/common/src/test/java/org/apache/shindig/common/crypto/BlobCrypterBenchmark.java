@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.crypto;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.HMACType;
+import org.apache.shindig.common.util.Utf8UrlCoder;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Bytes;
+
+/**
+ * Compares BasicBlobCrypter with engines looked up and keyed for every blob, as it used to be
+ * done through the Crypto methods.  Run as a standalone program:
+ *
+ * <pre>
+ *   BlobCrypterBenchmark &lt;num-runs&gt;
+ * </pre>
+ */
+public class BlobCrypterBenchmark {
+  private static final Map<String, String> TOKEN = ImmutableMap.of(
+      "o", "john.doe", "v", "jane.doe", "u", "http://www.example.com/gadget.xml",
+      "m", "12345", "e", "1300000000");
+
+  private final BasicBlobCrypter crypter =
+      new BasicBlobCrypter("0123456789abcdef".getBytes(), HMACType.HMACSHA1);
+  private final byte[] cipherKey = Crypto.getRandomBytes(Crypto.CIPHER_KEY_LEN);
+  private final byte[] hmacKey = Crypto.getRandomBytes(20);
+
+  private int numRuns;
+  private boolean warmup;
+
+  private BlobCrypterBenchmark(int numRuns) throws Exception {
+    this.numRuns = 10000;
+    warmup = true;
+    run();
+
+    this.numRuns = numRuns;
+    warmup = false;
+    run();
+  }
+
+  private void run() throws Exception {
+    String blob = crypter.wrap(TOKEN);
+    long start = System.nanoTime();
+    for (int i = 0; i < numRuns; ++i) {
+      crypter.unwrap(blob);
+    }
+    output("BasicBlobCrypter.unwrap", start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < numRuns; ++i) {
+      crypter.wrap(TOKEN);
+    }
+    output("BasicBlobCrypter.wrap", start);
+
+    String legacyBlob = legacyWrap();
+    start = System.nanoTime();
+    for (int i = 0; i < numRuns; ++i) {
+      legacyUnwrap(legacyBlob);
+    }
+    output("Engine per blob, unwrap", start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < numRuns; ++i) {
+      legacyWrap();
+    }
+    output("Engine per blob, wrap", start);
+  }
+
+  private void output(String name, long start) {
+    if (!warmup) {
+      long micros = (System.nanoTime() - start) / 1000;
+      System.out.println(name + " [" + micros / 1000 + " ms total: "
+          + ((double) micros) / numRuns + " us/run]");
+    }
+  }
+
+  /** Encryption with fresh engines and copies for every part of the blob */
+  private String legacyWrap() throws Exception {
+    Map<String, String> encoded = Maps.newLinkedHashMap();
+    for (Map.Entry<String, String> entry : TOKEN.entrySet()) {
+      encoded.put(Utf8UrlCoder.encode(entry.getKey()), Utf8UrlCoder.encode(entry.getValue()));
+    }
+    byte[] plain = CharsetUtil.getUtf8Bytes(
+        Joiner.on('&').withKeyValueSeparator("=").join(encoded));
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    byte[] iv = Crypto.getRandomBytes(cipher.getBlockSize());
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"),
+        new IvParameterSpec(iv));
+    byte[] cipherText = Bytes.concat(iv, cipher.doFinal(plain));
+    Mac mac = Mac.getInstance(HMACType.HMACSHA1.getName());
+    mac.init(new SecretKeySpec(hmacKey, HMACType.HMACSHA1.getName()));
+    byte[] hmac = mac.doFinal(cipherText);
+    return CharsetUtil.newUtf8String(Base64.encodeBase64URLSafe(Bytes.concat(cipherText, hmac)));
+  }
+
+  private Map<String, String> legacyUnwrap(String blob) throws Exception {
+    byte[] bin = Base64.decodeBase64(CharsetUtil.getUtf8Bytes(blob));
+    byte[] cipherText = Arrays.copyOf(bin, bin.length - 20);
+    Mac mac = Mac.getInstance(HMACType.HMACSHA1.getName());
+    mac.init(new SecretKeySpec(hmacKey, HMACType.HMACSHA1.getName()));
+    mac.doFinal(cipherText);
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(cipherKey, "AES"),
+        new IvParameterSpec(Arrays.copyOf(cipherText, 16)));
+    byte[] plain = cipher.doFinal(cipherText, 16, cipherText.length - 16);
+    String[] items = StringUtils.splitPreserveAllTokens(CharsetUtil.newUtf8String(plain), "&=");
+    Map<String, String> map = Maps.newHashMapWithExpectedSize(items.length);
+    for (int i = 0; i < items.length; i += 2) {
+      map.put(Utf8UrlCoder.decode(items[i]), Utf8UrlCoder.decode(items[i + 1]));
+    }
+    return map;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.err.println("Args: <num-runs>");
+      System.exit(1);
+    }
+    new BlobCrypterBenchmark(Integer.parseInt(args[0]));
+  }
+}
@@ -20,8 +20,11 @@ package org.apache.shindig.common.crypto;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.primitives.Bytes;
 
+import org.apache.shindig.common.util.CharsetUtil;
 import org.apache.shindig.common.util.FakeTimeSource;
+import org.apache.shindig.common.util.GenericDigestUtils;
 import org.apache.shindig.common.util.HMACType;
 
 import static org.junit.Assert.assertEquals;
@@ -30,7 +33,12 @@ import static org.junit.Assert.fail;
 import org.apache.commons.codec.binary.Base64;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class BlobCrypterTest {
 
@@ -146,6 +154,60 @@ public class BlobCrypterTest {
     alt.unwrap(blob);
   }
 
+  @Test
+  public void testWireFormat() throws Exception {
+    byte[] master = "0123456789abcdef".getBytes();
+    byte[] cipherKey = Arrays.copyOf(
+        GenericDigestUtils.digest(Bytes.concat(new byte[] { 0 }, master)), Crypto.CIPHER_KEY_LEN);
+    byte[] hmacKey = GenericDigestUtils.digest(Bytes.concat(new byte[] { 1 }, master));
+
+    // IV, cipher text and HMAC of both, URL safe Base64
+    byte[] cipherText = Crypto.aes128cbcEncrypt(cipherKey, CharsetUtil.getUtf8Bytes("a=b&c=d+e"));
+    byte[] hmac = Crypto.hmacSha(hmacKey, cipherText, HMACType.HMACSHA1.getName());
+    String blob = CharsetUtil.newUtf8String(
+        Base64.encodeBase64URLSafe(Bytes.concat(cipherText, hmac)));
+    assertEquals(ImmutableMap.of("a", "b", "c", "d e"), crypter.unwrap(blob));
+
+    byte[] bin = Base64.decodeBase64(crypter.wrap(ImmutableMap.of("a", "b")).getBytes());
+    cipherText = Arrays.copyOf(bin, bin.length - HMACType.HMACSHA1.getLength());
+    Crypto.hmacShaVerify(hmacKey, cipherText,
+        Arrays.copyOfRange(bin, cipherText.length, bin.length), HMACType.HMACSHA1.getName());
+    assertEquals("a=b", CharsetUtil.newUtf8String(Crypto.aes128cbcDecrypt(cipherKey, cipherText)));
+  }
+
+  @Test
+  public void testHmacTypeChange() throws Exception {
+    String blob = crypter.wrap(ImmutableMap.of("a", "b"));
+    crypter.setHmacType(HMACType.HMACSHA256);
+    assertThrowsBlobCrypterException(blob);
+    assertEquals("b", crypter.unwrap(crypter.wrap(ImmutableMap.of("a", "b"))).get("a"));
+  }
+
+  @Test
+  public void testConcurrentUse() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<?>[] futures = new Future<?>[8];
+      for (int i = 0; i < futures.length; i++) {
+        final String value = Integer.toString(i);
+        futures[i] = executor.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            for (int j = 0; j < 200; j++) {
+              String blob = crypter.wrap(ImmutableMap.of("a", value));
+              assertEquals(value, crypter.unwrap(blob).get("a"));
+            }
+            return null;
+          }
+        });
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test(expected=IllegalArgumentException.class)
   public void testShortKeyFails() throws Exception {
     new BasicBlobCrypter("0123456789abcde".getBytes());
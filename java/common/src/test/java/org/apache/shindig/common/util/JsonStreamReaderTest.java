@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.util;
+
+import org.apache.shindig.common.JsonAssert;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+/**
+ * Tests for JsonStreamReader
+ */
+public class JsonStreamReaderTest extends Assert {
+
+  private static JsonStreamReader reader(String json) {
+    return new JsonStreamReader(new StringReader(json));
+  }
+
+  @Test
+  public void testObjectMatchesJSONObject() throws Exception {
+    String json = "{method:test.get,id:'id',params:{userId:5,groupId:@self,count:\"20\"," +
+        "fields:['name', 'id'],flag:true,none:null,ratio:1.5}}";
+    JSONObject parsed = reader(json).nextObject();
+    JsonAssert.assertJsonEquals(new JSONObject(json).toString(), parsed.toString());
+    assertEquals(5, parsed.getJSONObject("params").get("userId"));
+    assertEquals("@self", parsed.getJSONObject("params").get("groupId"));
+  }
+
+  @Test
+  public void testStringEscapes() throws Exception {
+    JSONObject parsed = reader("{a:'it\\'s',b:\"\\u0041\\n\\t\"}").nextObject();
+    assertEquals("it's", parsed.getString("a"));
+    assertEquals("A\n\t", parsed.getString("b"));
+  }
+
+  @Test
+  public void testComments() throws Exception {
+    JSONObject parsed = reader("/* leading */ {a:1, // trailing\n b:2}").nextObject();
+    assertEquals(1, parsed.getInt("a"));
+    assertEquals(2, parsed.getInt("b"));
+  }
+
+  @Test
+  public void testBatchDetection() throws Exception {
+    assertTrue(reader("  [{method:test.get}]").isArray());
+    assertFalse(reader("{params:[1,2]}").isArray());
+    assertTrue(reader("\n{params:[1,2]}").isObject());
+  }
+
+  @Test
+  public void testStreamArrayElements() throws Exception {
+    JsonStreamReader reader = reader("[{id:'1',list:[1,2]},{id:'2'},]");
+    reader.beginArray();
+    assertTrue(reader.hasNext());
+    JSONObject first = (JSONObject) reader.nextElement();
+    assertEquals("1", first.getString("id"));
+    assertEquals(2, first.getJSONArray("list").length());
+    assertTrue(reader.hasNext());
+    assertEquals("2", ((JSONObject) reader.nextElement()).getString("id"));
+    assertFalse(reader.hasNext());
+  }
+
+  @Test
+  public void testEmptyArray() throws Exception {
+    JsonStreamReader reader = reader("[ ]");
+    reader.beginArray();
+    assertFalse(reader.hasNext());
+  }
+
+  @Test
+  public void testArrayWithEmptySlot() throws Exception {
+    JSONArray parsed = reader("[1,,2]").nextArray();
+    assertEquals(3, parsed.length());
+    assertTrue(parsed.isNull(1));
+  }
+
+  @Test(expected = JSONException.class)
+  public void testUnterminatedObject() throws Exception {
+    reader("{a:1").nextObject();
+  }
+
+  @Test(expected = JSONException.class)
+  public void testNotAnObject() throws Exception {
+    reader("").nextObject();
+  }
+}
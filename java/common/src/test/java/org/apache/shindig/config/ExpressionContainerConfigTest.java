@@ -66,4 +66,23 @@ public class ExpressionContainerConfigTest extends BasicContainerConfigTest {
     assertEquals("si", config.getString("extra", "expr"));
     assertEquals("si", config.getString("extra", "expr"));
   }
+
+  @Test
+  public void testExpressionLookupsFollowCommits() throws Exception {
+    config.newTransaction().addContainer(EXTRA_CONTAINER).commit();
+    assertEquals("yes", config.getString("extra", "${Cur['inherited']}"));
+    assertEquals("yes", config.getString("extra", "${Cur['inherited']}"));
+    config.newTransaction().addContainer(MODIFIED_EXTRA_CONTAINER).commit();
+    assertEquals("no", config.getString("extra", "${Cur['inherited']}"));
+    assertEquals("yes", config.getString("default", "${Cur['inherited']}"));
+    config.newTransaction().removeContainer("extra").commit();
+    assertNull(config.getString("extra", "${Cur['inherited']}"));
+  }
+
+  @Test
+  public void testLiteralValues() throws Exception {
+    config.newTransaction().addContainer(makeContainer("literal", "text", "a $ and a \\ { }"))
+        .commit();
+    assertEquals("a $ and a \\ { }", config.getString("literal", "text"));
+  }
 }
@@ -100,13 +100,10 @@ public class DataServiceServletTest extends Assert {
 
     String method = Strings.isNullOrEmpty(overrideMethod) ? actualMethod : overrideMethod;
 
-    EasyMock.expect(jsonConverter.convertToString(
-        ImmutableMap.of("entry", TestHandler.REST_RESULTS.get(method))))
-        .andReturn("{ 'entry' : " + TestHandler.REST_RESULTS.get(method) + " }");
-
     PrintWriter writerMock = EasyMock.createMock(PrintWriter.class);
     EasyMock.expect(res.getWriter()).andReturn(writerMock);
-    writerMock.write(TestHandler.GET_RESPONSE);
+    jsonConverter.append(writerMock,
+        ImmutableMap.of("entry", TestHandler.REST_RESULTS.get(method)));
     EasyMock.expectLastCall();
     res.setCharacterEncoding("UTF-8");
     res.setContentType(ContentTypes.OUTPUT_JSON_CONTENT_TYPE);
@@ -18,13 +18,18 @@
  */
 package org.apache.shindig.protocol;
 
-
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.conversion.BeanConverter;
 import org.apache.shindig.protocol.conversion.BeanJsonConverter;
+import org.apache.shindig.protocol.multipart.FormDataItem;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.inject.Guice;
 
 import org.json.JSONObject;
@@ -32,10 +37,16 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -156,6 +167,201 @@ public class DefaultHandlerRegistryTest extends Assert {
     assertEquals(TestHandler.NO_ARG_RESPONSE, future.get());
   }
 
+  @Test
+  public void testParallelBatch() throws Exception {
+    final AtomicInteger executed = new AtomicInteger();
+    registry = new DefaultHandlerRegistry(null, converter, new HandlerExecutionListener() {
+      public void executing(String service, String operation, RequestItem request) {
+      }
+      public void executed(String service, String operation, RequestItem request) {
+        executed.incrementAndGet();
+      }
+    });
+    registry.addHandlers(Sets.<Object>newHashSet(new TestHandler()));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    registry.setBatchExecutor(executor);
+    registry.setParallelBatch(true);
+    registry.setBatchConcurrency(3);
+
+    List<RpcHandler> handlers = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      handlers.add(registry.getRpcHandler(
+          new JSONObject("{ method : test.echo, params: {value: 'Bob" + i + "' }}")));
+    }
+    handlers.add(registry.getRpcHandler(new JSONObject("{ method : test.exception }")));
+
+    try {
+      List<Future<?>> results = registry.executeBatch(handlers, null, null, converter, 0);
+      assertEquals(11, results.size());
+      for (int i = 0; i < 10; i++) {
+        assertEquals(TestHandler.ECHO_PREFIX + "Bob" + i, results.get(i).get());
+      }
+      try {
+        results.get(10).get();
+        fail("Expected exception from the last item");
+      } catch (ExecutionException ee) {
+        assertSame(NullPointerException.class, ee.getCause().getClass());
+      }
+      assertEquals(11, executed.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatchPastDeadline() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    registry.setBatchExecutor(executor);
+    registry.setParallelBatch(true);
+    List<RpcHandler> handlers = Lists.newArrayList(
+        registry.getRpcHandler(new JSONObject("{ method : test.noArg }")),
+        registry.getRpcHandler(new JSONObject("{ method : test.noArg }")));
+    try {
+      // A deadline in the past times out every item
+      List<Future<?>> results = registry.executeBatch(handlers, null, null, converter, 1);
+      results.get(0).get();
+      fail("Expected timeout");
+    } catch (ExecutionException ee) {
+      assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+          ((ProtocolException) ee.getCause()).getCode());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatchConcurrencyLimit() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    RpcHandler handler = new RpcHandler() {
+      public Future<?> execute(Map<String, FormDataItem> formItems, SecurityToken st,
+          BeanConverter converter) {
+        int now = running.incrementAndGet();
+        synchronized (maxRunning) {
+          maxRunning.set(Math.max(maxRunning.get(), now));
+        }
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+        return Futures.immediateFuture(now);
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    registry.setBatchExecutor(executor);
+    registry.setParallelBatch(true);
+    registry.setBatchConcurrency(2);
+    List<RpcHandler> handlers = Collections.nCopies(8, handler);
+    try {
+      List<Future<?>> results = registry.executeBatch(handlers, null, null, converter, 0);
+      for (Future<?> result : results) {
+        assertNotNull(result.get());
+      }
+      assertTrue(maxRunning.get() <= 2);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatchDeadlineCancelsHandler() throws Exception {
+    final List<SettableFuture<Object>> started = Collections.synchronizedList(
+        Lists.<SettableFuture<Object>>newArrayList());
+    RpcHandler handler = new RpcHandler() {
+      public Future<?> execute(Map<String, FormDataItem> formItems, SecurityToken st,
+          BeanConverter converter) {
+        SettableFuture<Object> future = SettableFuture.create();
+        started.add(future);
+        return future;
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    registry.setBatchExecutor(executor);
+    registry.setParallelBatch(true);
+    List<RpcHandler> handlers = Collections.nCopies(2, handler);
+    try {
+      List<Future<?>> results = registry.executeBatch(handlers, null, null, converter,
+          System.currentTimeMillis() + 50);
+      for (Future<?> result : results) {
+        try {
+          result.get();
+          fail("Expected timeout");
+        } catch (ExecutionException ee) {
+          assertEquals(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+              ((ProtocolException) ee.getCause()).getCode());
+        }
+      }
+      assertEquals(2, started.size());
+      for (SettableFuture<Object> future : started) {
+        assertTrue(future.isCancelled());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatchItemsDoNotWaitForEachOther() throws Exception {
+    final SettableFuture<Object> first = SettableFuture.create();
+    RpcHandler waiting = new RpcHandler() {
+      public Future<?> execute(Map<String, FormDataItem> formItems, SecurityToken st,
+          BeanConverter converter) {
+        return first;
+      }
+    };
+    RpcHandler completing = new RpcHandler() {
+      public Future<?> execute(Map<String, FormDataItem> formItems, SecurityToken st,
+          BeanConverter converter) {
+        first.set("first");
+        return Futures.immediateFuture("second");
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    registry.setBatchExecutor(executor);
+    registry.setParallelBatch(true);
+    // Only the calling thread runs the batch, the first item completes once the second starts
+    registry.setBatchConcurrency(1);
+    try {
+      List<Future<?>> results = registry.executeBatch(
+          Lists.newArrayList(waiting, completing), null, null, converter,
+          System.currentTimeMillis() + 5000);
+      assertEquals("first", results.get(0).get());
+      assertEquals("second", results.get(1).get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatchHandlerErrorCompletesItem() throws Exception {
+    RpcHandler failing = new RpcHandler() {
+      public Future<?> execute(Map<String, FormDataItem> formItems, SecurityToken st,
+          BeanConverter converter) {
+        throw new AssertionError("failed");
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    registry.setBatchExecutor(executor);
+    registry.setParallelBatch(true);
+    List<RpcHandler> handlers = Lists.newArrayList(failing,
+        registry.getRpcHandler(new JSONObject("{ method : test.noArg }")));
+    try {
+      List<Future<?>> results = registry.executeBatch(handlers, null, null, converter, 0);
+      try {
+        results.get(0).get();
+        fail("Expected the handler error");
+      } catch (ExecutionException ee) {
+        assertSame(AssertionError.class, ee.getCause().getClass());
+      }
+      assertEquals(TestHandler.NO_ARG_RESPONSE, results.get(1).get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+
   @Test
   public void testNonFutureException() throws Exception {
     // Test calling a handler method which does not return a future
@@ -24,6 +24,7 @@ import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.reset;
 
 import org.apache.shindig.common.JsonAssert;
+import org.apache.shindig.common.JsonSerializer;
 import org.apache.shindig.common.testing.FakeGadgetToken;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.protocol.conversion.BeanJsonConverter;
@@ -37,8 +38,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -46,7 +50,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import com.google.inject.Guice;
+import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -348,6 +354,82 @@ public class JsonRpcServletTest extends Assert {
         getOutput());
   }
 
+  @Test
+  public void testMalformedBatchExecutesNothing() throws Exception {
+    final List<RequestItem> created = Lists.newArrayList();
+    handler.setMock(new TestHandler() {
+      @Override
+      public Future<?> create(RequestItem req) {
+        created.add(req);
+        return Futures.immediateFuture(CREATE_RESPONSE);
+      }
+    });
+    setupRequest("[{method:test.create,id:'1'},{method:test.get,id:'2'},junk");
+
+    expect(res.getWriter()).andReturn(writer).anyTimes();
+
+    mockControl.replay();
+    servlet.service(req, res);
+    mockControl.verify();
+
+    assertTrue(created.isEmpty());
+    assertTrue(getOutput().contains("message"));
+  }
+
+  @Test
+  public void testOverriddenGetPostContentIsUsed() throws Exception {
+    servlet = new JsonRpcServlet() {
+      @Override
+      @SuppressWarnings("deprecation")
+      protected String getPostContent(HttpServletRequest request,
+          Map<String, FormDataItem> formItems) {
+        return "{method:test.get,id:'overridden'}";
+      }
+    };
+    servlet.setMultipartFormParser(multipartFormParser);
+    HandlerRegistry registry = new DefaultHandlerRegistry(null, null,
+        new HandlerExecutionListener.NoOpHandler());
+    registry.addHandlers(Collections.<Object>singleton(handler));
+    servlet.setHandlerRegistry(registry);
+    servlet.setBeanConverters(new BeanJsonConverter(Guice.createInjector()), null, null);
+    servlet.setContainerConfig(containerConfig);
+    setupRequest("{method:test.get,id:'body'}");
+
+    expect(res.getWriter()).andReturn(writer);
+
+    mockControl.replay();
+    servlet.service(req, res);
+    mockControl.verify();
+
+    JsonAssert.assertJsonEquals("{id:'overridden',result:{foo:'bar'}}", getOutput());
+  }
+
+  @Test
+  public void testOverriddenAddResultIsUsed() throws Exception {
+    servlet = new JsonRpcServlet() {
+      @Override
+      protected void addResult(Map<String, Object> result, Object data) {
+        result.put("wrapped", data);
+      }
+    };
+    servlet.setMultipartFormParser(multipartFormParser);
+    HandlerRegistry registry = new DefaultHandlerRegistry(null, null,
+        new HandlerExecutionListener.NoOpHandler());
+    registry.addHandlers(Collections.<Object>singleton(handler));
+    servlet.setHandlerRegistry(registry);
+    servlet.setBeanConverters(new BeanJsonConverter(Guice.createInjector()), null, null);
+    servlet.setContainerConfig(containerConfig);
+    setupRequest("{method:test.get,id:'id'}");
+
+    expect(res.getWriter()).andReturn(writer);
+
+    mockControl.replay();
+    servlet.service(req, res);
+    mockControl.verify();
+
+    JsonAssert.assertJsonEquals("{id:'id',wrapped:{foo:'bar'}}", getOutput());
+  }
+
   @Test
   public void testDisallowJSONP() throws Exception {
     servlet.setJSONPAllowed(false);
@@ -398,6 +480,25 @@ public class JsonRpcServletTest extends Assert {
     JsonAssert.assertObjectEquals("{result: 'Name'}", result);
   }
 
+  @Test
+  public void testWriteJsonResponseMatchesGetJsonResponse() throws Exception {
+    RestfulCollection<String> collection =
+        new RestfulCollection<String>(Lists.newArrayList("a", "b"), 0, 5, 2);
+    ResponseItem responseItem = new ResponseItem(collection);
+    StringWriter out = new StringWriter();
+    servlet.writeJSONResponse(out, "my-key", responseItem);
+    JsonAssert.assertJsonObjectEquals(
+        new JSONObject(JsonSerializer.serialize(servlet.getJSONResponse("my-key", responseItem))),
+        new JSONObject(out.toString()));
+
+    responseItem = new ResponseItem(401, "Error Message", "Optional Data");
+    out = new StringWriter();
+    servlet.writeJSONResponse(out, null, responseItem);
+    JsonAssert.assertJsonObjectEquals(
+        new JSONObject(JsonSerializer.serialize(servlet.getJSONResponse(null, responseItem))),
+        new JSONObject(out.toString()));
+  }
+
   @Test
   public void testGetJsonResponseErrorWithData() throws Exception {
     ResponseItem responseItem = new ResponseItem(401, "Error Message", "Optional Data");
@@ -21,11 +21,14 @@ package org.apache.shindig.protocol.conversion;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 
+import org.apache.shindig.common.JsonSerializer;
 import org.apache.shindig.protocol.conversion.BeanDelegatorTest.SimpleBean;
 import org.apache.shindig.protocol.conversion.BeanDelegatorTest.SimpleBeanInterface;
 import org.junit.Assert;
 import org.junit.Before;
+import org.json.JSONObject;
 import org.junit.Test;
 
 import java.util.List;
@@ -99,6 +102,19 @@ public class BeanFilterTest extends Assert {
     assertArrayEquals(data.getList().toArray(), newData.getList().toArray());
   }
 
+  @Test
+  public void testFieldsAreCopied() throws Exception {
+    SimpleBean data = new SimpleBean().setBeanMap(
+        ImmutableMap.<String, SimpleBean>of("s1", new SimpleBean().setS("sub1")));
+    SimpleBeanInterface dataBean = (SimpleBeanInterface) beanDelegator.createDelegator(data);
+
+    Set<String> fields = Sets.newHashSet("beanmap");
+    SimpleBeanInterface newData =
+        (SimpleBeanInterface) beanFilter.createFilteredBean(dataBean, fields);
+    fields.add("beanmap.s");
+    assertNull(newData.getBeanMap().get("s1").getS());
+  }
+
   @Test
   public void testMap() throws Exception {
     List<String> list = ImmutableList.of("test");
@@ -143,6 +159,53 @@ public class BeanFilterTest extends Assert {
         newData.getBeanMap().get("s2").getBeanMap().getClass());
   }
 
+  public static interface Node {
+    String getName();
+    String getColor();
+    Node getChild();
+    Map<String, Node> getNodes();
+  }
+
+  public static class NodeBean implements Node {
+    private final String name;
+    private final Node child;
+    private final Map<String, Node> nodes;
+
+    public NodeBean(String name, Node child, Map<String, Node> nodes) {
+      this.name = name;
+      this.child = child;
+      this.nodes = nodes;
+    }
+
+    public String getName() { return name; }
+    public String getColor() { return "red"; }
+    public Node getChild() { return child; }
+    public Map<String, Node> getNodes() { return nodes; }
+  }
+
+  @Test
+  public void testSerializeProjection() throws Exception {
+    Node data = new NodeBean("root", new NodeBean("child", null, null),
+        ImmutableMap.<String, Node>of("n1", new NodeBean("n1", null, null)));
+
+    Object filtered = beanFilter.createFilteredBean(data,
+        ImmutableSet.of("name", "child", "child.color", "nodes", "nodes.name"));
+    JSONObject json = new JSONObject(JsonSerializer.serialize(filtered));
+    assertEquals("root", json.getString("name"));
+    assertFalse("Color is filtered out", json.has("color"));
+    assertEquals("red", json.getJSONObject("child").getString("color"));
+    assertFalse("Name of child is filtered out", json.getJSONObject("child").has("name"));
+    assertEquals("n1", json.getJSONObject("nodes").getJSONObject("n1").getString("name"));
+    assertFalse(json.getJSONObject("nodes").getJSONObject("n1").has("color"));
+
+    // Proxy getters apply the same filter
+    Node proxy = (Node) filtered;
+    assertNull(proxy.getColor());
+    assertNull(proxy.getChild().getName());
+    assertEquals("red", proxy.getChild().getColor());
+    assertEquals("n1", proxy.getNodes().get("n1").getName());
+  }
+
   @Test
   public void testProcessFields() {
     Set<String> srcFields = ImmutableSet.of("A", "b", "c.d.e.f", "Case", "cAse", "CASE");
@@ -59,6 +59,14 @@ public class BeanJsonConverterTest extends Assert {
     }
   }
 
+  public static class OverloadedSetterObject {
+    public void setValue(String value) {
+    }
+
+    public void setValue(int value) {
+    }
+  }
+
   public static class TestObject {
     static String staticValue;
     String hello;
@@ -223,4 +231,9 @@ public class BeanJsonConverterTest extends Assert {
     Method realSetter = GenericObject.class.getMethod("setT", String.class);;
     assertEquals("t", BeanJsonConverter.getPropertyName(realSetter));
   }
+
+  @Test(expected = RuntimeException.class)
+  public void testOverloadedSettersAreRejected() throws Exception {
+    beanJsonConverter.convertToObject("{value:'a'}", OverloadedSetterObject.class);
+  }
 }
@@ -74,6 +74,8 @@ public class DefaultGuiceModule extends AbstractModule {
 
     bind(ExecutorService.class).to(ShindigExecutorService.class);
     bind(Executor.class).annotatedWith(Names.named("shindig.concat.executor")).to(ShindigExecutorService.class);
+    bind(Executor.class).annotatedWith(Names.named("shindig.api.rpc.batch.executor"))
+        .to(ShindigBatchExecutorService.class);
 
     bind(Authority.class).to(BasicAuthority.class);
 
@@ -170,4 +172,40 @@ public class DefaultGuiceModule extends AbstractModule {
     }
   }
 
+  /**
+   * A fixed size Executor service for the items of JSON-RPC batches, so that parallel batches
+   * cannot start an unbounded number of threads. Nothing is queued: when every thread is busy
+   * the work is rejected and the request thread executes the batch items itself.
+   * Idle threads time out. Registers a cleanup handler to shutdown the thread.
+   */
+  @Singleton
+  public static class ShindigBatchExecutorService extends ThreadPoolExecutor
+      implements GuiceServletContextListener.CleanupCapable {
+    private static final int DEFAULT_THREADS = 20;
+
+    @Inject
+    public ShindigBatchExecutorService(GuiceServletContextListener.CleanupHandler cleanupHandler) {
+      super(DEFAULT_THREADS, DEFAULT_THREADS, 60L, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(),
+          DAEMON_THREAD_FACTORY);
+      allowCoreThreadTimeOut(true);
+      cleanupHandler.register(this);
+    }
+
+    @Inject(optional = true)
+    public void setThreads(@Named("shindig.api.rpc.batch.threads") int threads) {
+      if (threads > getMaximumPoolSize()) {
+        setMaximumPoolSize(threads);
+        setCorePoolSize(threads);
+      } else {
+        setCorePoolSize(threads);
+        setMaximumPoolSize(threads);
+      }
+    }
+
+    public void cleanup() {
+      this.shutdown();
+    }
+  }
+
 }
@@ -18,10 +18,12 @@
  */
 package org.apache.shindig.gadgets.admin;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,7 +42,12 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.google.caja.util.Sets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -70,10 +77,17 @@ public class BasicGadgetAdminStore implements GadgetAdminStore {
   private static final String BLACKLIST = "blacklist";
   private static final String CORE_FEATURE = "core";
 
+  // Maximum number of feature lists whose dependencies are kept for each feature registry
+  private static final int FEATURE_CACHE_CAPACITY = 1000;
+
   private ServerAdminData serverAdminData;
   private FeatureRegistryProvider featureRegistryProvider;
   private ContainerConfig config;
 
+  // Feature registries don't change once loaded, a reloaded registry starts with an empty cache
+  private final ConcurrentMap<FeatureRegistry, Cache<Collection<String>, Set<String>>> featureDeps =
+          new MapMaker().weakKeys().makeMap();
+
   /**
    * Constructor.
    */
@@ -316,13 +330,13 @@ public class BasicGadgetAdminStore implements GadgetAdminStore {
       if(featureAdminData.getType() == Type.WHITELIST) {
         //If the admin has specified a whitelist get all the dependencies for the features the admin
         //has whitelisted and add them as well.  Blacklists need to be more specific.
-        features = Sets.newHashSet(featureRegistry.getFeatures(features));
+        features = getFeaturesWithDeps(featureRegistry, ImmutableSet.copyOf(features));
       }
 
-      List<String> gadgetFeatures = featureRegistry.getFeatures(getRequiredGadgetFeatures(gadget));
+      Set<String> gadgetFeatures = getFeaturesWithDeps(featureRegistry,
+              ImmutableList.copyOf(getRequiredGadgetFeatures(gadget)));
 
-      return areAllFeaturesAllowed(Sets.immutableSet(features),
-              gadgetFeatures, featureAdminData);
+      return areAllFeaturesAllowed(features, gadgetFeatures, featureAdminData);
     } catch (GadgetException e) {
       LOG.log(Level.WARNING, "Exception while getting the FeatureRegistry.");
       return false;
@@ -330,6 +344,35 @@ public class BasicGadgetAdminStore implements GadgetAdminStore {
 
   }
 
+  /**
+   * Gets features along with all their dependencies, computing them once per registry.
+   *
+   * @param featureRegistry
+   *          The registry to get the dependencies from.
+   * @param features
+   *          An immutable collection of feature names.
+   * @return The features and their dependencies.
+   */
+  private Set<String> getFeaturesWithDeps(FeatureRegistry featureRegistry,
+          Collection<String> features) {
+    Cache<Collection<String>, Set<String>> deps = featureDeps.get(featureRegistry);
+    if (deps == null) {
+      Cache<Collection<String>, Set<String>> newDeps = CacheBuilder.newBuilder()
+              .maximumSize(FEATURE_CACHE_CAPACITY).build();
+      deps = featureDeps.putIfAbsent(featureRegistry, newDeps);
+      if (deps == null) {
+        deps = newDeps;
+      }
+    }
+
+    Set<String> withDeps = deps.getIfPresent(features);
+    if (withDeps == null) {
+      withDeps = ImmutableSet.copyOf(featureRegistry.getFeatures(features));
+      deps.put(features, withDeps);
+    }
+    return withDeps;
+  }
+
   /**
    * Gets all required gadget features.
    *
@@ -354,13 +397,13 @@ public class BasicGadgetAdminStore implements GadgetAdminStore {
    * @param featuresForGadget
    *          a set of features that the admin has either whitelist or blacklisted.
    * @param gadgetFeatures
-   *          a list of features required by the gadget.
+   *          the features required by the gadget.
    * @param featureAdminData
    *          the feature admin data for the gadget.
    * @return true if all the features for the gadget are allowed, false otherwise.
    */
-  private boolean areAllFeaturesAllowed(Set<String> featuresForGadget, List<String> gadgetFeatures,
-          FeatureAdminData featureAdminData) {
+  private boolean areAllFeaturesAllowed(Set<String> featuresForGadget,
+          Collection<String> gadgetFeatures, FeatureAdminData featureAdminData) {
     switch (featureAdminData.getType()) {
     case BLACKLIST:
       for (String feature : gadgetFeatures) {
@@ -20,11 +20,15 @@ package org.apache.shindig.gadgets.admin;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
+import java.util.SortedSet;
 
 import com.google.caja.util.Maps;
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 
 /**
  * Container's administration data.
@@ -39,6 +43,11 @@ public class ContainerAdminData {
   private static final int HTTPS_PORT = 443;
 
   private Map<String, GadgetAdminData> gadgetAdminMap;
+  // Incremented after every change to the gadget URLs
+  private volatile int version;
+  // Built from the gadget URLs on the first lookup after they change, only used while its
+  // version is current
+  private volatile UrlMatcher urlMatcher;
 
   /**
    * Constructor
@@ -54,10 +63,10 @@ public class ContainerAdminData {
    *          map of gadget URLs to gadget admin data.
    */
   public ContainerAdminData(Map<String, GadgetAdminData> gadgetAdminMap) {
-    if (gadgetAdminMap == null) {
-      gadgetAdminMap = Maps.newHashMap();
+    this.gadgetAdminMap = Maps.newHashMap();
+    if (gadgetAdminMap != null) {
+      this.gadgetAdminMap.putAll(gadgetAdminMap);
     }
-    this.gadgetAdminMap = gadgetAdminMap;
   }
 
   /**
@@ -74,6 +83,7 @@ public class ContainerAdminData {
         toAdd = new GadgetAdminData();
       }
       this.gadgetAdminMap.put(gadgetUrl, toAdd);
+      this.version++;
     }
   }
 
@@ -87,7 +97,9 @@ public class ContainerAdminData {
    *         administration data associated with that gadget URL.
    */
   public GadgetAdminData removeGadgetAdminData(String gadgetUrl) {
-    return this.gadgetAdminMap.remove(gadgetUrl);
+    GadgetAdminData removed = this.gadgetAdminMap.remove(gadgetUrl);
+    this.version++;
+    return removed;
   }
 
   /**
@@ -110,10 +122,11 @@ public class ContainerAdminData {
   /**
    * Gets the gadget admin map.
    *
-   * @return the gadget admin map.
+   * @return an unmodifiable view of the gadget admin map. Use {@link #addGadgetAdminData},
+   *         {@link #removeGadgetAdminData} and {@link #clearGadgetAdminData} to change it.
    */
   public Map<String, GadgetAdminData> getGadgetAdminMap() {
-    return this.gadgetAdminMap;
+    return Collections.unmodifiableMap(this.gadgetAdminMap);
   }
 
   /**
@@ -121,6 +134,7 @@ public class ContainerAdminData {
    */
   public void clearGadgetAdminData() {
     this.gadgetAdminMap.clear();
+    this.version++;
   }
 
   /**
@@ -146,23 +160,14 @@ public class ContainerAdminData {
    * @return The key in the map for the gadget URL.
    */
   private String getGadgetAdminDataKey(String gadgetUrl) {
-    Set<String> gadgetUrls = this.gadgetAdminMap.keySet();
-    String normalizedGadgetUrl = createUrlWithPort(gadgetUrl);
-    String key = null;
-    for (String url : gadgetUrls) {
-      String normalizedUrl = createUrlWithPort(url);
-      if (normalizedUrl.endsWith(STAR)
-              && normalizedGadgetUrl.startsWith(normalizedUrl.substring(0,
-                      normalizedUrl.length() - 1))) {
-        if (key == null || (key != null && key.length() < normalizedUrl.length())) {
-          key = url;
-        }
-      } else if (normalizedUrl.equals(normalizedGadgetUrl)) {
-        key = url;
-        break;
-      }
+    // Read the version before the URLs, a matcher built while they change is never current
+    int current = this.version;
+    UrlMatcher matcher = this.urlMatcher;
+    if (matcher == null || matcher.version != current) {
+      matcher = new UrlMatcher(this.gadgetAdminMap.keySet(), current);
+      this.urlMatcher = matcher;
     }
-    return key;
+    return matcher.getKey(createUrlWithPort(gadgetUrl));
   }
 
   /**
@@ -172,7 +177,7 @@ public class ContainerAdminData {
    *          The gadget URL to add the port to.
    * @return A new URL with the default port.
    */
-  private String createUrlWithPort(String gadgetUrl) {
+  private static String createUrlWithPort(String gadgetUrl) {
     try {
       URL origUrl = new URL(gadgetUrl);
       URL urlWithPort = null;
@@ -209,4 +214,54 @@ public class ContainerAdminData {
   public int hashCode() {
     return Objects.hashCode(this.gadgetAdminMap);
   }
+
+  /**
+   * Gadget URLs compiled for lookups. An exact match wins, otherwise the longest URL ending in
+   * "*" that the gadget URL starts with.
+   */
+  private static final class UrlMatcher {
+    private final Map<String, String> exactUrls;
+    private final Map<String, String> prefixes;
+    private final int[] prefixLengths;
+    private final int version;
+
+    UrlMatcher(Iterable<String> gadgetUrls, int version) {
+      this.version = version;
+      Map<String, String> exact = Maps.newHashMap();
+      Map<String, String> prefix = Maps.newHashMap();
+      SortedSet<Integer> lengths = Sets.newTreeSet(Collections.<Integer>reverseOrder());
+      for (String url : gadgetUrls) {
+        if (url == null) {
+          continue;
+        }
+        String normalizedUrl = createUrlWithPort(url);
+        if (normalizedUrl.endsWith(STAR)) {
+          String start = normalizedUrl.substring(0, normalizedUrl.length() - 1);
+          prefix.put(start, url);
+          lengths.add(start.length());
+        } else {
+          exact.put(normalizedUrl, url);
+        }
+      }
+      this.exactUrls = ImmutableMap.copyOf(exact);
+      this.prefixes = ImmutableMap.copyOf(prefix);
+      this.prefixLengths = Ints.toArray(lengths);
+    }
+
+    String getKey(String normalizedGadgetUrl) {
+      String key = exactUrls.get(normalizedGadgetUrl);
+      if (key != null) {
+        return key;
+      }
+      for (int length : prefixLengths) {
+        if (length <= normalizedGadgetUrl.length()) {
+          key = prefixes.get(normalizedGadgetUrl.substring(0, length));
+          if (key != null) {
+            return key;
+          }
+        }
+      }
+      return null;
+    }
+  }
 }
@@ -297,6 +297,13 @@ public class HttpResponseBuilder extends MutableContent {
     return this;
   }
 
+  public HttpResponseBuilder removeMetadata(String key) {
+    if (metadata.remove(key) != null) {
+      incrementNumChanges();
+    }
+    return this;
+  }
+
   public int getContentLength() {
     return getResponse().length;
   }
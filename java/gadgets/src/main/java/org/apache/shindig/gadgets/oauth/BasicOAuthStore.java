@@ -18,6 +18,7 @@
  */
 package org.apache.shindig.gadgets.oauth;
 
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 
 import com.google.inject.Singleton;
@@ -27,6 +28,7 @@ import net.oauth.OAuthConsumer;
 import net.oauth.OAuthServiceProvider;
 import net.oauth.signature.RSA_SHA1;
 
+import org.apache.commons.codec.binary.Base64;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.common.servlet.Authority;
 import org.apache.shindig.gadgets.GadgetException;
@@ -36,6 +38,9 @@ import org.json.JSONObject;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -68,6 +73,13 @@ public class BasicOAuthStore implements OAuthStore {
    */
   private final Map<BasicOAuthStoreTokenIndex, TokenInfo> tokens;
 
+  /**
+   * RSA private keys, parsed once per consumer key and secret.  Keys are compared by identity
+   * and weakly held, so entries go away when the consumer key and secret is replaced.
+   */
+  private final Map<BasicOAuthStoreConsumerKeyAndSecret, Object> rsaPrivateKeys =
+      new MapMaker().weakKeys().makeMap();
+
   /**
    * Key to use when no other key is found.
    */
@@ -200,7 +212,7 @@ public class BasicOAuthStore implements OAuthStore {
       // of lines away knows that the consumerSecret value in the consumer should be treated as
       // an RSA private key and not an HMAC key.
       consumer.setProperty(OAuth.OAUTH_SIGNATURE_METHOD, OAuth.RSA_SHA1);
-      consumer.setProperty(RSA_SHA1.PRIVATE_KEY, cks.getConsumerSecret());
+      consumer.setProperty(RSA_SHA1.PRIVATE_KEY, getRsaPrivateKey(cks));
     } else if  (keyType == KeyType.PLAINTEXT) {
       consumer = new OAuthConsumer(null, cks.getConsumerKey(), cks.getConsumerSecret(), provider);
       consumer.setProperty(OAuth.OAUTH_SIGNATURE_METHOD, "PLAINTEXT");
@@ -217,6 +229,29 @@ public class BasicOAuthStore implements OAuthStore {
     return new ConsumerInfo(consumer, cks.getKeyName(), callback, cks.isOauthBodyHash());
   }
 
+  /**
+   * RSA_SHA1 accepts the private key as a PKCS#8 string, which it parses for every signature, or
+   * as a PrivateKey.  Keys that can't be parsed here are passed on as configured, and fail when
+   * signing as they always did.
+   */
+  private Object getRsaPrivateKey(BasicOAuthStoreConsumerKeyAndSecret cks) {
+    Object privateKey = rsaPrivateKeys.get(cks);
+    if (privateKey == null) {
+      String secret = cks.getConsumerSecret();
+      privateKey = secret;
+      if (secret != null) {
+        try {
+          privateKey = KeyFactory.getInstance("RSA").generatePrivate(
+              new PKCS8EncodedKeySpec(Base64.decodeBase64(convertFromOpenSsl(secret))));
+        } catch (GeneralSecurityException e) {
+          // Left to RSA_SHA1
+        }
+        rsaPrivateKeys.put(cks, privateKey);
+      }
+    }
+    return privateKey;
+  }
+
   private BasicOAuthStoreTokenIndex makeBasicOAuthStoreTokenIndex(
       SecurityToken securityToken, String serviceName, String tokenName) {
     BasicOAuthStoreTokenIndex tokenKey = new BasicOAuthStoreTokenIndex();
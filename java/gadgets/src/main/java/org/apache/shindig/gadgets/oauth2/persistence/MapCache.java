@@ -121,7 +121,9 @@ public abstract class MapCache implements OAuth2Cache {
   public void storeClient(final OAuth2Client client) throws OAuth2CacheException {
     if (client != null) {
       final String clientKey = this.getClientKey(client.getGadgetUri(), client.getServiceName());
-      this.getClientMap().put(clientKey, client);
+      if (clientKey != null) {
+        this.getClientMap().put(clientKey, client);
+      }
     }
   }
 
@@ -136,14 +138,18 @@ public abstract class MapCache implements OAuth2Cache {
   public void storeOAuth2Accessor(final OAuth2Accessor accessor) {
     if (accessor != null) {
       final String accessorKey = this.getAccessorKey(accessor);
-      this.getAccessorMap().put(accessorKey, accessor);
+      if (accessorKey != null) {
+        this.getAccessorMap().put(accessorKey, accessor);
+      }
     }
   }
 
   public void storeToken(final OAuth2Token token) throws OAuth2CacheException {
     if (token != null) {
       final String tokenKey = this.getTokenKey(token);
-      this.getTokenMap().put(tokenKey, token);
+      if (tokenKey != null) {
+        this.getTokenMap().put(tokenKey, token);
+      }
     }
   }
 
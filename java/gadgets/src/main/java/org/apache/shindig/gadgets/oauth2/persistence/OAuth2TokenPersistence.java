@@ -52,7 +52,7 @@ public class OAuth2TokenPersistence implements OAuth2Token {
   private String user;
 
   public OAuth2TokenPersistence() {
-    this(null);
+    this((OAuth2Encrypter) null);
   }
 
   @Inject
@@ -61,6 +61,49 @@ public class OAuth2TokenPersistence implements OAuth2Token {
     this.properties = Maps.newHashMap();
   }
 
+  private OAuth2TokenPersistence(final OAuth2TokenPersistence token) {
+    this.encrypter = token.encrypter;
+    this.encryptedMacSecret = token.encryptedMacSecret;
+    this.encryptedSecret = token.encryptedSecret;
+    this.expiresAt = token.expiresAt;
+    this.gadgetUri = token.gadgetUri;
+    this.issuedAt = token.issuedAt;
+    this.macAlgorithm = token.macAlgorithm;
+    this.macExt = token.macExt;
+    this.macSecret = token.macSecret;
+    this.properties = Maps.newHashMap(token.properties);
+    this.scope = token.scope;
+    this.secret = token.secret;
+    this.serviceName = token.serviceName;
+    this.tokenType = token.tokenType;
+    this.type = token.type;
+    this.user = token.user;
+  }
+
+  /**
+   * @return a copy of the token that later changes to the token do not affect.
+   */
+  static OAuth2TokenPersistence copyOf(final OAuth2Token token) throws OAuth2RequestException {
+    if (token instanceof OAuth2TokenPersistence) {
+      return new OAuth2TokenPersistence((OAuth2TokenPersistence) token);
+    }
+    final OAuth2TokenPersistence copy = new OAuth2TokenPersistence();
+    copy.setExpiresAt(token.getExpiresAt());
+    copy.setGadgetUri(token.getGadgetUri());
+    copy.setIssuedAt(token.getIssuedAt());
+    copy.setMacAlgorithm(token.getMacAlgorithm());
+    copy.setMacExt(token.getMacExt());
+    copy.setMacSecret(token.getMacSecret());
+    copy.setProperties(token.getProperties());
+    copy.setScope(token.getScope());
+    copy.setSecret(token.getSecret());
+    copy.setServiceName(token.getServiceName());
+    copy.setTokenType(token.getTokenType());
+    copy.setType(token.getType());
+    copy.setUser(token.getUser());
+    return copy;
+  }
+
   @Override
   public boolean equals(final Object obj) {
     if (obj == this) {
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.oauth2.persistence;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.shindig.common.servlet.GuiceServletContextListener;
+import org.apache.shindig.gadgets.DefaultGuiceModule;
+import org.apache.shindig.gadgets.oauth2.OAuth2RequestException;
+import org.apache.shindig.gadgets.oauth2.OAuth2Token;
+import org.apache.shindig.gadgets.oauth2.logger.FilteredLogger;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * {@link OAuth2Persister} decorator that takes token inserts and updates off the request thread.
+ *
+ * Writes are queued per token and handed to the wrapped persister by a background thread every
+ * flush interval, or by {@link #flush()}.  Repeated writes of the same token before a flush are
+ * written once.  A copy of the token is queued, so changes the caller makes afterwards are not
+ * seen by the background thread.  Pending tokens are returned by {@link #findToken}, again as a
+ * copy, so a token that was just stored can be found again.
+ *
+ * Writes are flushed oldest first and a flush stops at the first write that fails, which is tried
+ * again by the next flush; a write is never applied after a later write of the same token or a
+ * later removal.  Removals go straight to the wrapped persister.  Pending writes are flushed on
+ * shutdown through {@link #cleanup()}.  Writes that were not flushed when the process dies are
+ * lost, so the flush interval bounds the tokens that have to be authorized again after a crash.
+ */
+@Singleton
+public class WriteBehindPersister implements OAuth2Persister,
+        GuiceServletContextListener.CleanupCapable {
+  private static final String LOG_CLASS = WriteBehindPersister.class.getName();
+  private static final FilteredLogger LOG = FilteredLogger
+          .getFilteredLogger(WriteBehindPersister.LOG_CLASS);
+
+  private static final Comparator<PendingWrite> OLDEST_FIRST = new Comparator<PendingWrite>() {
+    public int compare(final PendingWrite w1, final PendingWrite w2) {
+      return w1.sequence < w2.sequence ? -1 : w1.sequence == w2.sequence ? 0 : 1;
+    }
+  };
+
+  /** Names the binding of the persister tokens are written to */
+  public static final String WRAPPED_PERSISTER = "shindig.oauth2.writeBehind.persister";
+  public static final String FLUSH_INTERVAL = "shindig.oauth2.writeBehind.flushInterval";
+
+  private final OAuth2Persister persister;
+  private final ConcurrentMap<String, PendingWrite> pending = Maps.newConcurrentMap();
+  private final AtomicLong sequence = new AtomicLong();
+  /** Orders flushes with removals */
+  private final Lock flushLock = new ReentrantLock();
+  private final ScheduledExecutorService flusher;
+
+  /**
+   * @param persister the persister tokens are written to.
+   * @param flushInterval time between flushes in milliseconds, 0 or less to only write tokens on
+   *          {@link #flush()} and {@link #cleanup()}.
+   */
+  public WriteBehindPersister(final OAuth2Persister persister, final long flushInterval) {
+    this.persister = persister;
+    if (flushInterval > 0) {
+      this.flusher = Executors
+              .newSingleThreadScheduledExecutor(DefaultGuiceModule.DAEMON_THREAD_FACTORY);
+      this.flusher.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          WriteBehindPersister.this.flushQuietly();
+        }
+      }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    } else {
+      this.flusher = null;
+    }
+  }
+
+  /**
+   * @param cleanupHandler flushes the pending writes on shutdown.
+   */
+  @Inject
+  public WriteBehindPersister(@Named(WRAPPED_PERSISTER) final OAuth2Persister persister,
+          @Named(FLUSH_INTERVAL) final long flushInterval,
+          final GuiceServletContextListener.CleanupHandler cleanupHandler) {
+    this(persister, flushInterval);
+    cleanupHandler.register(this);
+  }
+
+  public OAuth2Client findClient(final String gadgetUri, final String serviceName)
+          throws OAuth2PersistenceException {
+    return this.persister.findClient(gadgetUri, serviceName);
+  }
+
+  public OAuth2Token findToken(final String gadgetUri, final String serviceName,
+          final String user, final String scope, final OAuth2Token.Type type)
+          throws OAuth2PersistenceException {
+    final PendingWrite write = this.pending.get(WriteBehindPersister.getKey(gadgetUri,
+            serviceName, user, scope, type));
+    if (write != null) {
+      return WriteBehindPersister.copyOf(write.token);
+    }
+
+    return this.persister.findToken(gadgetUri, serviceName, user, scope, type);
+  }
+
+  public void insertToken(final OAuth2Token token) throws OAuth2PersistenceException {
+    this.enqueue(token, true);
+  }
+
+  public Set<OAuth2Client> loadClients() throws OAuth2PersistenceException {
+    return this.persister.loadClients();
+  }
+
+  public Set<OAuth2Token> loadTokens() throws OAuth2PersistenceException {
+    this.flush();
+    return this.persister.loadTokens();
+  }
+
+  public boolean removeToken(final String gadgetUri, final String serviceName,
+          final String user, final String scope, final OAuth2Token.Type type)
+          throws OAuth2PersistenceException {
+    this.flushLock.lock();
+    try {
+      final PendingWrite dropped = this.pending.remove(WriteBehindPersister.getKey(gadgetUri,
+              serviceName, user, scope, type));
+      final boolean removed = this.persister.removeToken(gadgetUri, serviceName, user, scope,
+              type);
+      return removed || dropped != null;
+    } finally {
+      this.flushLock.unlock();
+    }
+  }
+
+  public void updateToken(final OAuth2Token token) throws OAuth2PersistenceException {
+    this.enqueue(token, false);
+  }
+
+  /**
+   * Writes all pending tokens to the wrapped persister.
+   *
+   * @throws OAuth2PersistenceException from the first write that failed; it and the writes after
+   *           it stay pending.
+   */
+  public void flush() throws OAuth2PersistenceException {
+    this.flushLock.lock();
+    try {
+      final List<PendingWrite> batch = Lists.newArrayList(this.pending.values());
+      Collections.sort(batch, WriteBehindPersister.OLDEST_FIRST);
+      for (final PendingWrite write : batch) {
+        this.write(write);
+        this.written(write);
+      }
+    } finally {
+      this.flushLock.unlock();
+    }
+  }
+
+  /**
+   * Number of tokens waiting to be written.
+   */
+  public int getPendingCount() {
+    return this.pending.size();
+  }
+
+  public void cleanup() {
+    if (this.flusher != null) {
+      this.flusher.shutdown();
+    }
+    this.flushQuietly();
+  }
+
+  private void flushQuietly() {
+    try {
+      this.flush();
+    } catch (final OAuth2PersistenceException e) {
+      if (WriteBehindPersister.LOG.isLoggable(Level.WARNING)) {
+        WriteBehindPersister.LOG.log(Level.WARNING, "Error writing OAuth2 tokens", e);
+      }
+    } catch (final RuntimeException e) {
+      // Keeps the scheduled flushes running
+      if (WriteBehindPersister.LOG.isLoggable(Level.WARNING)) {
+        WriteBehindPersister.LOG.log(Level.WARNING, "Error writing OAuth2 tokens", e);
+      }
+    }
+  }
+
+  private void enqueue(final OAuth2Token token, final boolean insert)
+          throws OAuth2PersistenceException {
+    // BasicOAuth2Store changes the gadget uri of tokens while it holds their lock, queue the
+    // token as it is now.
+    final OAuth2Token copy = WriteBehindPersister.copyOf(token);
+    final String key = WriteBehindPersister.getKey(copy.getGadgetUri(), copy.getServiceName(),
+            copy.getUser(), copy.getScope(), copy.getType());
+    final PendingWrite write = new PendingWrite(key, copy, insert,
+            this.sequence.incrementAndGet());
+    while (true) {
+      final PendingWrite current = this.pending.get(key);
+      if (current == null) {
+        if (this.pending.putIfAbsent(key, write) == null) {
+          return;
+        }
+      } else {
+        // The wrapped persister has not seen the token if the pending write is an insert
+        final PendingWrite merged = new PendingWrite(key, copy, current.insert || insert,
+                current.sequence);
+        if (this.pending.replace(key, current, merged)) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void write(final PendingWrite write) throws OAuth2PersistenceException {
+    if (write.insert) {
+      this.persister.insertToken(write.token);
+    } else {
+      this.persister.updateToken(write.token);
+    }
+  }
+
+  private static OAuth2Token copyOf(final OAuth2Token token) throws OAuth2PersistenceException {
+    try {
+      return OAuth2TokenPersistence.copyOf(token);
+    } catch (final OAuth2RequestException e) {
+      throw new OAuth2PersistenceException(e);
+    }
+  }
+
+  private void written(final PendingWrite write) {
+    while (true) {
+      final PendingWrite current = this.pending.get(write.key);
+      if (current == write) {
+        if (this.pending.remove(write.key, write)) {
+          return;
+        }
+      } else if (current != null && current.insert) {
+        // Replaced while it was written, the token now exists in the wrapped persister
+        final PendingWrite update = new PendingWrite(current.key, current.token, false,
+                current.sequence);
+        if (this.pending.replace(write.key, current, update)) {
+          return;
+        }
+      } else {
+        return;
+      }
+    }
+  }
+
+  private static String getKey(final String gadgetUri, final String serviceName,
+          final String user, final String scope, final OAuth2Token.Type type) {
+    final StringBuilder buf = new StringBuilder();
+    buf.append(gadgetUri);
+    buf.append(':');
+    buf.append(serviceName);
+    buf.append(':');
+    buf.append(user);
+    buf.append(':');
+    buf.append(scope == null ? "" : scope);
+    buf.append(':');
+    buf.append(type);
+    return buf.toString();
+  }
+
+  /** Compared by identity, a write is replaced rather than changed */
+  private static final class PendingWrite {
+    final String key;
+    final OAuth2Token token;
+    final boolean insert;
+    final long sequence;
+
+    PendingWrite(final String key, final OAuth2Token token, final boolean insert,
+            final long sequence) {
+      this.key = key;
+      this.token = token;
+      this.insert = insert;
+      this.sequence = sequence;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.oauth2.persistence.sample;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.shindig.common.util.TimeSource;
+import org.apache.shindig.gadgets.oauth2.OAuth2Accessor;
+import org.apache.shindig.gadgets.oauth2.OAuth2Token;
+import org.apache.shindig.gadgets.oauth2.OAuth2Token.Type;
+import org.apache.shindig.gadgets.oauth2.persistence.MapCache;
+import org.apache.shindig.gadgets.oauth2.persistence.OAuth2CacheException;
+import org.apache.shindig.gadgets.oauth2.persistence.OAuth2Client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link InMemoryCache} variant that holds at most a fixed number of tokens and drops tokens once
+ * they expire.
+ *
+ * Expired tokens are never returned, they are removed when they are looked up and by a sweep that
+ * runs at most once every {@link #SWEEP_INTERVAL} as tokens are stored.  When the capacity is
+ * reached the least recently used tokens are evicted.  They are loaded again through the
+ * {@link org.apache.shindig.gadgets.oauth2.persistence.OAuth2Persister} if it stores tokens; the
+ * sample {@link JSONOAuth2Persister} does not, so with it an evicted token has to be authorized
+ * again.
+ */
+@Singleton
+public class BoundedInMemoryCache extends MapCache {
+  public static final String TOKEN_CAPACITY = "shindig.cache.oauth2Tokens.capacity";
+
+  /** Minimum time between two sweeps of expired tokens, in milliseconds */
+  static final long SWEEP_INTERVAL = 60 * 1000L;
+
+  private final ConcurrentMap<String, OAuth2Accessor> accessors;
+  private final ConcurrentMap<String, OAuth2Client> clients;
+  private final ConcurrentMap<String, OAuth2Token> tokens;
+  private final TimeSource timeSource;
+  private final AtomicLong nextSweep;
+
+  @Inject
+  public BoundedInMemoryCache(@Named(TOKEN_CAPACITY) final int tokenCapacity,
+          final TimeSource timeSource) {
+    this.accessors = Maps.newConcurrentMap();
+    this.clients = Maps.newConcurrentMap();
+    this.tokens = CacheBuilder.newBuilder().maximumSize(tokenCapacity)
+            .<String, OAuth2Token> build().asMap();
+    this.timeSource = timeSource;
+    this.nextSweep = new AtomicLong(timeSource.currentTimeMillis() + SWEEP_INTERVAL);
+  }
+
+  @Override
+  protected Map<String, OAuth2Client> getClientMap() {
+    return this.clients;
+  }
+
+  @Override
+  protected Map<String, OAuth2Token> getTokenMap() {
+    return this.tokens;
+  }
+
+  @Override
+  protected Map<String, OAuth2Accessor> getAccessorMap() {
+    return this.accessors;
+  }
+
+  @Override
+  public OAuth2Token getToken(final String gadgetUri, final String serviceName, final String user,
+          final String scope, final Type type) {
+    final String tokenKey = this.getTokenKey(gadgetUri, serviceName, user, scope, type);
+    if (tokenKey == null) {
+      return null;
+    }
+
+    final OAuth2Token ret = this.tokens.get(tokenKey);
+    if (ret != null && this.isExpired(ret, this.timeSource.currentTimeMillis())) {
+      this.tokens.remove(tokenKey, ret);
+      return null;
+    }
+
+    return ret;
+  }
+
+  @Override
+  public void storeToken(final OAuth2Token token) throws OAuth2CacheException {
+    final long now = this.timeSource.currentTimeMillis();
+    final long sweepAt = this.nextSweep.get();
+    if (now >= sweepAt && this.nextSweep.compareAndSet(sweepAt, now + SWEEP_INTERVAL)) {
+      this.removeExpiredTokens(now);
+    }
+
+    if (token != null && !this.isExpired(token, now)) {
+      super.storeToken(token);
+    }
+  }
+
+  /**
+   * Number of tokens held, including expired tokens that were not swept yet.
+   */
+  public int getTokenCount() {
+    return this.tokens.size();
+  }
+
+  private void removeExpiredTokens(final long now) {
+    for (final Map.Entry<String, OAuth2Token> entry : this.tokens.entrySet()) {
+      if (this.isExpired(entry.getValue(), now)) {
+        // Tokens compare equal by key, so a token stored in the meantime can go as well; it is
+        // then loaded again through the persister.
+        this.tokens.remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private boolean isExpired(final OAuth2Token token, final long now) {
+    // Same rule as BasicOAuth2Request, 0 means the token does not expire
+    final long expiresAt = token.getExpiresAt();
+    return expiresAt != 0 && now >= expiresAt;
+  }
+}
@@ -30,29 +30,25 @@ import org.apache.shindig.gadgets.oauth2.persistence.MapCache;
 import org.apache.shindig.gadgets.oauth2.persistence.OAuth2Cache;
 import org.apache.shindig.gadgets.oauth2.persistence.OAuth2Client;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  *
- * {@link OAuth2Cache} implementation using in-memory {@link HashMap}s.
+ * {@link OAuth2Cache} implementation using in-memory {@link ConcurrentMap}s.
  *
  */
 @Singleton
 public class InMemoryCache extends MapCache {
-  private final Map<String, OAuth2Accessor> accessors;
-  private final Map<String, OAuth2Client> clients;
-  private final Map<String, OAuth2Token> tokens;
+  private final ConcurrentMap<String, OAuth2Accessor> accessors;
+  private final ConcurrentMap<String, OAuth2Client> clients;
+  private final ConcurrentMap<String, OAuth2Token> tokens;
 
   @Inject
   public InMemoryCache() {
-    final Map<String, OAuth2Token> tMap = Maps.newHashMap();
-    this.tokens = Collections.synchronizedMap(tMap);
-    final Map<String, OAuth2Client> cMap = Maps.newHashMap();
-    this.clients = Collections.synchronizedMap(cMap);
-    final Map<String, OAuth2Accessor> aMap = Maps.newHashMap();
-    this.accessors = Collections.synchronizedMap(aMap);
+    this.tokens = Maps.newConcurrentMap();
+    this.clients = Maps.newConcurrentMap();
+    this.accessors = Maps.newConcurrentMap();
   }
 
   @Override
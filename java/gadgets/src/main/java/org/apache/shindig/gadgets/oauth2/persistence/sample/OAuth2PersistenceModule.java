@@ -21,8 +21,10 @@ package org.apache.shindig.gadgets.oauth2.persistence.sample;
 import org.apache.shindig.gadgets.oauth2.persistence.OAuth2Cache;
 import org.apache.shindig.gadgets.oauth2.persistence.OAuth2Encrypter;
 import org.apache.shindig.gadgets.oauth2.persistence.OAuth2Persister;
+import org.apache.shindig.gadgets.oauth2.persistence.WriteBehindPersister;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
 
 /**
  * Binds default persistence classes for shindig.
@@ -32,8 +34,10 @@ public class OAuth2PersistenceModule extends AbstractModule {
 
   @Override
   protected void configure() {
-    this.bind(OAuth2Persister.class).to(JSONOAuth2Persister.class);
-    this.bind(OAuth2Cache.class).to(InMemoryCache.class);
+    this.bind(OAuth2Persister.class).annotatedWith(
+            Names.named(WriteBehindPersister.WRAPPED_PERSISTER)).to(JSONOAuth2Persister.class);
+    this.bind(OAuth2Persister.class).to(WriteBehindPersister.class);
+    this.bind(OAuth2Cache.class).to(BoundedInMemoryCache.class);
     this.bind(OAuth2Encrypter.class).to(NoOpEncrypter.class);
   }
 }
@@ -19,13 +19,10 @@
 package org.apache.shindig.gadgets.rewrite;
 
 import com.google.common.base.Strings;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.shindig.common.logging.i18n.MessageKeys;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetContext;
-import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
@@ -38,12 +35,8 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.util.Collections;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
-import com.google.caja.lexer.ParseException;
 import com.google.caja.parser.AbstractParseTreeNode;
 import com.google.caja.parser.AncestorChain;
 import com.google.caja.parser.Visitor;
@@ -54,26 +47,37 @@ import com.google.inject.Inject;
 /**
  * Rewrite links to referenced content in a stylesheet
  *
+ * Stylesheets are rewritten by {@link CssUrlRewriter} in a single pass, without parsing them.
+ *
  * @since 2.0.0
  */
 public class CssResponseRewriter implements ResponseRewriter {
-
-  //class name for logging purpose
-  private static final String classname = CssResponseRewriter.class.getName();
-  private static final Logger LOG = Logger.getLogger(classname,MessageKeys.MESSAGES);
-
-  private final CajaCssParser cssParser;
   protected final ProxyUriManager proxyUriManager;
   protected final ContentRewriterFeature.Factory rewriterFeatureFactory;
+  protected DataUriInliner dataUriInliner;
 
   @Inject
-  public CssResponseRewriter(CajaCssParser cssParser,
-      ProxyUriManager proxyUriManager, ContentRewriterFeature.Factory rewriterFeatureFactory) {
-    this.cssParser = cssParser;
+  public CssResponseRewriter(ProxyUriManager proxyUriManager,
+      ContentRewriterFeature.Factory rewriterFeatureFactory) {
     this.proxyUriManager = proxyUriManager;
     this.rewriterFeatureFactory = rewriterFeatureFactory;
   }
 
+  /**
+   * @deprecated Stylesheets are no longer parsed, use
+   *     {@link #CssResponseRewriter(ProxyUriManager, ContentRewriterFeature.Factory)}.
+   */
+  @Deprecated
+  public CssResponseRewriter(CajaCssParser cssParser,
+      ProxyUriManager proxyUriManager, ContentRewriterFeature.Factory rewriterFeatureFactory) {
+    this(proxyUriManager, rewriterFeatureFactory);
+  }
+
+  @Inject(optional = true)
+  public void setDataUriInliner(DataUriInliner dataUriInliner) {
+    this.dataUriInliner = dataUriInliner;
+  }
+
   public void rewrite(HttpRequest request, HttpResponseBuilder original, Gadget gadget)
           throws RewritingException {
     ContentRewriterFeature.Config config = rewriterFeatureFactory.get(request);
@@ -84,7 +88,7 @@ public class CssResponseRewriter implements ResponseRewriter {
     String css = original.getContent();
     StringWriter sw = new StringWriter((css.length() * 110) / 100);
     rewrite(new StringReader(css), request.getUri(),
-        new UriMaker(proxyUriManager, config), sw, false,
+        new UriMaker(proxyUriManager, config, dataUriInliner), sw, false,
             DomWalker.makeGadget(request).getContext());
     original.setContent(sw.toString());
   }
@@ -104,25 +108,7 @@ public class CssResponseRewriter implements ResponseRewriter {
   public List<String> rewrite(Reader content, Uri source, UriMaker uriMaker, Writer writer,
       boolean extractImports, GadgetContext gadgetContext) throws RewritingException {
     try {
-      String original = IOUtils.toString(content);
-      try {
-        CssTree.StyleSheet stylesheet = cssParser.parseDom(original, source);
-        List<String> stringList = rewrite(stylesheet, source, uriMaker, extractImports,
-            gadgetContext);
-        // Serialize the stylesheet
-        cssParser.serialize(stylesheet, writer);
-        return stringList;
-      } catch (GadgetException ge) {
-        if (ge.getCause() instanceof ParseException) {
-          if (LOG.isLoggable(Level.WARNING)) {
-            LOG.logp(Level.WARNING, classname, "rewrite", MessageKeys.CAJA_CSS_PARSE_FAILURE, new Object[] {ge.getCause().getMessage(),source});
-          }
-          writer.write(original);
-          return Collections.emptyList();
-        } else {
-          throw new RewritingException(ge, ge.getHttpStatusCode());
-        }
-      }
+      return rewrite(content, writer, source, uriMaker, extractImports, gadgetContext);
     } catch (IOException ioe) {
       throw new RewritingException(ioe, HttpResponse.SC_INTERNAL_SERVER_ERROR);
     }
@@ -140,33 +126,45 @@ public class CssResponseRewriter implements ResponseRewriter {
    */
   public List<String> rewrite(Element styleNode, Uri source, UriMaker uriMaker,
       boolean extractImports, GadgetContext gadgetContext) throws RewritingException {
+    String css = styleNode.getTextContent();
+    StringWriter sw = new StringWriter((css.length() * 110) / 100);
+    List<String> imports;
     try {
-      CssTree.StyleSheet stylesheet =
-        cssParser.parseDom(styleNode.getTextContent(), source);
-      List<String> imports = rewrite(stylesheet, source, uriMaker, extractImports, gadgetContext);
-      // Write the rewritten CSS back into the element
-      String content = cssParser.serialize(stylesheet);
-      if (Strings.isNullOrEmpty(content) || StringUtils.isWhitespace(content)) {
-        // Remove the owning node
-        styleNode.getParentNode().removeChild(styleNode);
-      } else {
-        styleNode.setTextContent(content);
-      }
-      return imports;
-    } catch (GadgetException ge) {
-      if (ge.getCause() instanceof ParseException) {
-    	if (LOG.isLoggable(Level.INFO)) {
-          LOG.logp(Level.WARNING, classname, "rewrite", MessageKeys.CAJA_CSS_PARSE_FAILURE, new Object[] {ge.getCause().getMessage(),source});
+      imports = rewrite(new StringReader(css), sw, source, uriMaker, extractImports,
+          gadgetContext);
+    } catch (IOException ioe) {
+      throw new RewritingException(ioe, HttpResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+    // Write the rewritten CSS back into the element
+    String content = sw.toString();
+    if (Strings.isNullOrEmpty(content) || StringUtils.isWhitespace(content)) {
+      // Remove the owning node
+      styleNode.getParentNode().removeChild(styleNode);
+    } else {
+      styleNode.setTextContent(content);
+    }
+    return imports;
+  }
+
+  private static List<String> rewrite(Reader content, Writer writer, final Uri source,
+      final UriMaker uriMaker, final boolean extractImports, final GadgetContext gadgetContext)
+      throws IOException {
+    final List<String> imports = Lists.newLinkedList();
+    CssUrlRewriter.rewrite(content, writer, new CssUrlRewriter.UrlHandler() {
+      public String rewrite(String url, boolean isImport) {
+        if (isImport && extractImports) {
+          imports.add(url);
+          return null;
         }
-        return Collections.emptyList();
-      } else {
-        throw new RewritingException(ge, ge.getHttpStatusCode());
+        return rewriteUri(uriMaker, url, source, gadgetContext);
       }
-    }
+    });
+    return imports;
   }
 
   /**
-   * Rewrite the CSS DOM in place.
+   * Rewrite the CSS DOM in place.  For stylesheets that are parsed anyway, for instance to
+   * sanitize them.
    * @param styleSheet To rewrite
    * @param source  Uri of content
    * @param uriMaker a UriMaker
@@ -218,6 +216,10 @@ public class CssResponseRewriter implements ResponseRewriter {
     }
     ProxyUriManager.ProxyUri proxyUri =
         new ProxyUriManager.ProxyUri(DomWalker.makeGadget(gadgetContext), inboundUri);
+    String dataUri = uriMaker.inline(proxyUri);
+    if (dataUri != null) {
+      return dataUri;
+    }
     return uriMaker.make(proxyUri, context).toString();
   }
 
@@ -228,10 +230,38 @@ public class CssResponseRewriter implements ResponseRewriter {
   public static class UriMaker {
     protected final ProxyUriManager wrapped;
     protected final ContentRewriterFeature.Config config;
+    protected final DataUriInliner inliner;
+    protected final DataUriInliner.Budget inlineBudget;
 
     public UriMaker(ProxyUriManager wrapped, ContentRewriterFeature.Config config) {
+      this(wrapped, config, null);
+    }
+
+    /**
+     * @param inliner inlines the small images and fonts of the stylesheet instead of proxying
+     *     them, if not null and enabled.
+     */
+    public UriMaker(ProxyUriManager wrapped, ContentRewriterFeature.Config config,
+        DataUriInliner inliner) {
       this.wrapped = wrapped;
       this.config = config;
+      if (inliner != null && inliner.isEnabled()) {
+        this.inliner = inliner;
+        this.inlineBudget = inliner.newBudget();
+      } else {
+        this.inliner = null;
+        this.inlineBudget = null;
+      }
+    }
+
+    /**
+     * @return a data URI with the content of the resource, or null if it should be made a Uri.
+     */
+    public String inline(ProxyUriManager.ProxyUri uri) {
+      if (inliner == null || !config.shouldRewriteURL(uri.getResource().toString())) {
+        return null;
+      }
+      return inliner.inline(uri, inlineBudget);
     }
 
     public Uri make(ProxyUriManager.ProxyUri uri, Uri context) {
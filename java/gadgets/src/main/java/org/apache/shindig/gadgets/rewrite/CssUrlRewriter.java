@@ -0,0 +1,424 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Rewrites the url() and @import references of a stylesheet in a single pass, copying the rest
+ * of it as it is.
+ *
+ * Only the tokens that can hold or hide a reference are recognized: comments, strings, names,
+ * url() and @import rules.  Unlike a Caja parse, malformed CSS is copied instead of rejected and
+ * comments and formatting are kept.  Stylesheets that have to be sanitized still need Caja.
+ *
+ * @since 2.5.0
+ */
+public final class CssUrlRewriter {
+  /**
+   * Rewrites the references found in a stylesheet.
+   */
+  public interface UrlHandler {
+    /**
+     * @param url the reference, unescaped.
+     * @param isImport true if it is the stylesheet of an @import rule.
+     * @return the reference to write instead.  Null leaves a url() as it is and removes an
+     *         @import rule.  An @import that doesn't end with a semicolon is left as it is
+     *         without being passed here.
+     */
+    String rewrite(String url, boolean isImport);
+  }
+
+  private static final int EOF = -1;
+  private static final int BUFFER_SIZE = 8192;
+  private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+  private final Reader in;
+  private final Writer out;
+  private final UrlHandler handler;
+  private final char[] buf = new char[BUFFER_SIZE];
+  private final StringBuilder name = new StringBuilder();
+  private int pos;
+  private int limit;
+
+  private CssUrlRewriter(Reader in, Writer out, UrlHandler handler) {
+    this.in = in;
+    this.out = out;
+    this.handler = handler;
+  }
+
+  /**
+   * Copies a stylesheet, rewriting its references on the way.
+   */
+  public static void rewrite(Reader in, Writer out, UrlHandler handler) throws IOException {
+    new CssUrlRewriter(in, out, handler).rewrite();
+  }
+
+  private void rewrite() throws IOException {
+    StringBuilder token = new StringBuilder();
+    int c;
+    while ((c = peek(0)) != EOF) {
+      token.setLength(0);
+      if (c == '/' && peek(1) == '*') {
+        readComment(token);
+        out.append(token);
+      } else if (c == '"' || c == '\'') {
+        readString(token);
+        out.append(token);
+      } else if (c == '@' && isNameChar(peek(1))) {
+        pos++;
+        readName();
+        if (isName("import")) {
+          importRule();
+        } else {
+          out.write('@');
+          out.append(name);
+        }
+      } else if (isNameChar(c)) {
+        readName();
+        if (isName("url") && peek(0) == '(') {
+          pos++;
+          token.append(name).append('(');
+          url(token);
+        } else {
+          out.append(name);
+        }
+      } else {
+        out.write(c);
+        pos++;
+      }
+    }
+  }
+
+  private void url(StringBuilder raw) throws IOException {
+    String url = readUrl(raw);
+    String rewritten = isReference(url) ? handler.rewrite(url, false) : null;
+    if (rewritten != null && !rewritten.equals(url)) {
+      writeUrl(rewritten);
+    } else {
+      out.append(raw);
+    }
+  }
+
+  private void importRule() throws IOException {
+    StringBuilder raw = new StringBuilder().append('@').append(name);
+    skipWhitespaceAndComments(raw);
+
+    String url = null;
+    int c = peek(0);
+    if (c == '"' || c == '\'') {
+      url = readString(raw);
+    } else if (isNameChar(c)) {
+      readName();
+      raw.append(name);
+      if (isName("url") && peek(0) == '(') {
+        pos++;
+        raw.append('(');
+        url = readUrl(raw);
+      }
+    }
+    if (!isReference(url)) {
+      out.append(raw);
+      return;
+    }
+
+    // Usually a media list and the semicolon
+    StringBuilder rest = new StringBuilder();
+    if (!readRestOfRule(rest)) {
+      // Not a rule that can be removed or moved on its own
+      out.append(raw).append(rest);
+      return;
+    }
+    String rewritten = handler.rewrite(url, true);
+    if (rewritten != null && !rewritten.equals(url)) {
+      out.write("@import ");
+      writeUrl(rewritten);
+      out.append(rest);
+    } else if (rewritten != null) {
+      out.append(raw).append(rest);
+    }
+  }
+
+  /**
+   * Writes a rewritten reference.  Besides quotes and control characters, the characters that
+   * could close an inline style element are escaped.
+   */
+  private void writeUrl(String url) throws IOException {
+    out.write("url('");
+    for (int i = 0; i < url.length(); i++) {
+      char c = url.charAt(i);
+      if (c == '\'' || c == '\\' || c == '<' || c == '>' || c < 0x20 || c == 0x7F) {
+        out.write('\\');
+        out.write(Integer.toHexString(c));
+        out.write(' ');
+      } else {
+        out.write(c);
+      }
+    }
+    out.write("')");
+  }
+
+  /**
+   * Reads up to the end of an at-rule, strings and comments included.
+   *
+   * @return false if the rule ends with a block or the end of its enclosing block.
+   */
+  private boolean readRestOfRule(StringBuilder raw) throws IOException {
+    int c;
+    while ((c = peek(0)) != EOF) {
+      if (c == ';') {
+        raw.append(';');
+        pos++;
+        return true;
+      } else if (c == '{' || c == '}') {
+        return false;
+      } else if (c == '/' && peek(1) == '*') {
+        readComment(raw);
+      } else if (c == '"' || c == '\'') {
+        readString(raw);
+      } else {
+        raw.append((char) c);
+        pos++;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the rest of a url( token.
+   *
+   * @return the reference, or null if the token is malformed.
+   */
+  private String readUrl(StringBuilder raw) throws IOException {
+    skipWhitespace(raw);
+    int c = peek(0);
+    if (c == '"' || c == '\'') {
+      String value = readString(raw);
+      skipWhitespace(raw);
+      if (value == null || peek(0) != ')') {
+        return null;
+      }
+      raw.append(')');
+      pos++;
+      return value;
+    }
+
+    StringBuilder value = new StringBuilder();
+    while (true) {
+      c = peek(0);
+      if (c == ')') {
+        raw.append(')');
+        pos++;
+        return value.toString();
+      } else if (isWhitespace(c)) {
+        skipWhitespace(raw);
+        if (peek(0) != ')') {
+          return null;
+        }
+      } else if (c == '\\' && !isNewline(peek(1))) {
+        readEscape(raw, value);
+      } else if (c == EOF || c == '"' || c == '\'' || c == '(' || c == '\\' || c < 0x20
+          || c == 0x7F) {
+        return null;
+      } else {
+        raw.append((char) c);
+        value.append((char) c);
+        pos++;
+      }
+    }
+  }
+
+  /**
+   * Reads a quoted string.
+   *
+   * @return its value, or null if it isn't closed before the end of the line.
+   */
+  private String readString(StringBuilder raw) throws IOException {
+    int quote = next();
+    raw.append((char) quote);
+    StringBuilder value = new StringBuilder();
+    int c;
+    while ((c = peek(0)) != EOF) {
+      if (c == quote) {
+        raw.append((char) c);
+        pos++;
+        return value.toString();
+      } else if (isNewline(c)) {
+        return null;
+      } else if (c == '\\') {
+        readEscape(raw, value);
+      } else {
+        raw.append((char) c);
+        value.append((char) c);
+        pos++;
+      }
+    }
+    return value.toString();
+  }
+
+  private void readEscape(StringBuilder raw, StringBuilder value) throws IOException {
+    raw.append((char) next());
+    int c = peek(0);
+    if (c == EOF) {
+      return;
+    }
+    if (Character.digit(c, 16) < 0) {
+      raw.append((char) c);
+      pos++;
+      if (c == '\r' && peek(0) == '\n') {
+        raw.append('\n');
+        pos++;
+      }
+      if (!isNewline(c)) {
+        // An escaped newline continues the line
+        value.append((char) c);
+      }
+      return;
+    }
+
+    int codePoint = 0;
+    for (int i = 0; i < 6 && Character.digit(peek(0), 16) >= 0; i++) {
+      c = next();
+      raw.append((char) c);
+      codePoint = codePoint * 16 + Character.digit(c, 16);
+    }
+    if (codePoint == 0 || codePoint > Character.MAX_CODE_POINT
+        || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+      codePoint = REPLACEMENT_CHARACTER;
+    }
+    value.appendCodePoint(codePoint);
+
+    c = peek(0);
+    if (isWhitespace(c)) {
+      raw.append((char) c);
+      pos++;
+      if (c == '\r' && peek(0) == '\n') {
+        raw.append('\n');
+        pos++;
+      }
+    }
+  }
+
+  private void readComment(StringBuilder raw) throws IOException {
+    raw.append((char) next()).append((char) next());
+    int c;
+    while ((c = next()) != EOF) {
+      raw.append((char) c);
+      if (c == '*' && peek(0) == '/') {
+        raw.append((char) next());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads a run of name characters into {@link #name}, escapes included as they are.
+   */
+  private void readName() throws IOException {
+    name.setLength(0);
+    int c;
+    while (isNameChar(c = peek(0))) {
+      name.append((char) c);
+      pos++;
+      if (c == '\\' && peek(0) != EOF) {
+        name.append((char) next());
+      }
+    }
+  }
+
+  private boolean isName(String expected) {
+    if (name.length() != expected.length()) {
+      return false;
+    }
+    for (int i = 0; i < expected.length(); i++) {
+      if (Character.toLowerCase(name.charAt(i)) != expected.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isReference(String url) {
+    return url != null && url.trim().length() > 0;
+  }
+
+  private void skipWhitespace(StringBuilder raw) throws IOException {
+    int c;
+    while (isWhitespace(c = peek(0))) {
+      raw.append((char) c);
+      pos++;
+    }
+  }
+
+  private void skipWhitespaceAndComments(StringBuilder raw) throws IOException {
+    while (true) {
+      skipWhitespace(raw);
+      if (peek(0) != '/' || peek(1) != '*') {
+        return;
+      }
+      readComment(raw);
+    }
+  }
+
+  private static boolean isNameChar(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+        || c == '-' || c == '_' || c == '\\' || c >= 0x80;
+  }
+
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\t' || isNewline(c);
+  }
+
+  private static boolean isNewline(int c) {
+    return c == '\n' || c == '\r' || c == '\f';
+  }
+
+  private int next() throws IOException {
+    int c = peek(0);
+    if (c != EOF) {
+      pos++;
+    }
+    return c;
+  }
+
+  private int peek(int offset) throws IOException {
+    if (pos + offset >= limit) {
+      fill(offset + 1);
+      if (offset >= limit) {
+        return EOF;
+      }
+    }
+    return buf[pos + offset];
+  }
+
+  private void fill(int needed) throws IOException {
+    System.arraycopy(buf, pos, buf, 0, limit - pos);
+    limit -= pos;
+    pos = 0;
+    while (limit < needed) {
+      int read = in.read(buf, limit, buf.length - limit);
+      if (read < 0) {
+        return;
+      }
+      limit += read;
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.http.HttpCache;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.uri.ProxyUriManager;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Inlines small images and fonts as data URIs instead of proxying them, saving a request each.
+ *
+ * Only resources that are already in the {@link HttpCache} are inlined; the others are proxied
+ * as usual, which caches them for the pages rendered after. Each rewritten document gets a
+ * {@link Budget} so that inlining cannot make it grow without bound.
+ *
+ * Inlining is off unless shindig.content-rewrite.inline-max-bytes is positive.
+ *
+ * @since 2.5.0
+ */
+@Singleton
+public class DataUriInliner {
+  private static final Logger LOG = Logger.getLogger(DataUriInliner.class.getName());
+
+  private static final Set<String> INLINED_TYPES = ImmutableSet.of(
+      "image/gif", "image/jpeg", "image/png", "image/webp", "image/x-icon",
+      "image/vnd.microsoft.icon",
+      "font/woff", "font/woff2", "font/ttf", "font/otf", "application/font-woff",
+      "application/x-font-woff", "application/x-font-ttf", "application/x-font-otf",
+      "application/font-sfnt", "application/vnd.ms-fontobject");
+
+  private final HttpCache cache;
+  private final int maxBytes;
+  private final int maxDocumentBytes;
+
+  /**
+   * @param maxBytes largest resource to inline, 0 or less to inline nothing.
+   * @param maxDocumentBytes data URI characters a single document can gain.
+   */
+  @Inject
+  public DataUriInliner(HttpCache cache,
+      @Named("shindig.content-rewrite.inline-max-bytes") int maxBytes,
+      @Named("shindig.content-rewrite.inline-max-document-bytes") int maxDocumentBytes) {
+    this.cache = cache;
+    this.maxBytes = maxBytes;
+    this.maxDocumentBytes = maxDocumentBytes;
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0 && maxDocumentBytes > 0;
+  }
+
+  /**
+   * @return a budget for the resources inlined in one document.
+   */
+  public Budget newBudget() {
+    return new Budget(maxDocumentBytes);
+  }
+
+  /**
+   * Makes a data URI of a proxied resource.
+   *
+   * @return the data URI, or null if the resource should be proxied.
+   */
+  public String inline(ProxyUriManager.ProxyUri proxyUri, Budget budget) {
+    Uri resource = proxyUri.getResource();
+    if (!isEnabled() || budget.remaining <= 0 || proxyUri.isNoCache()
+        || proxyUri.sanitizeContent() || proxyUri.cajoleContent()
+        || !("http".equalsIgnoreCase(resource.getScheme())
+            || "https".equalsIgnoreCase(resource.getScheme()))) {
+      return null;
+    }
+
+    // Looked up with the request the proxy servlet makes for the resource, so that both use the
+    // same cache entry.
+    HttpRequest request;
+    try {
+      request = proxyUri.makeHttpRequest(resource);
+    } catch (GadgetException e) {
+      return null;
+    }
+    if (request.getHeader("User-Agent") == null && proxyUri.getUserAgent() != null) {
+      request.setHeader("User-Agent", proxyUri.getUserAgent());
+    }
+    HttpResponse response = cache.getResponse(request);
+    if (response == null || response.getHttpStatusCode() != HttpResponse.SC_OK
+        || response.isStrictNoCache() || response.getContentLength() > maxBytes) {
+      return null;
+    }
+    String mimeType = getMimeType(response);
+    if (mimeType == null || !INLINED_TYPES.contains(mimeType)) {
+      return null;
+    }
+
+    int length = "data:".length() + mimeType.length() + ";base64,".length()
+        + (response.getContentLength() + 2) / 3 * 4;
+    if (length > budget.remaining) {
+      return null;
+    }
+
+    byte[] content;
+    try {
+      content = IOUtils.toByteArray(response.getResponse());
+    } catch (IOException e) {
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.log(Level.FINE, "Error reading cached " + resource, e);
+      }
+      return null;
+    }
+    budget.remaining -= length;
+    return "data:" + mimeType + ";base64,"
+        + CharsetUtil.newUtf8String(Base64.encodeBase64(content));
+  }
+
+  private static String getMimeType(HttpResponse response) {
+    String contentType = response.getHeader("Content-Type");
+    if (contentType == null) {
+      return null;
+    }
+    int semicolon = contentType.indexOf(';');
+    if (semicolon >= 0) {
+      contentType = contentType.substring(0, semicolon);
+    }
+    return contentType.trim().toLowerCase();
+  }
+
+  /**
+   * What is left of the data URI characters a document can gain.  Not thread safe, each
+   * document is rewritten by a single thread.
+   */
+  public static final class Budget {
+    private int remaining;
+
+    private Budget(int remaining) {
+      this.remaining = remaining;
+    }
+
+    public int getRemaining() {
+      return remaining;
+    }
+  }
+}
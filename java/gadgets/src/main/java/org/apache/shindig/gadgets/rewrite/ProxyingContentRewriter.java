@@ -37,6 +37,7 @@ public class ProxyingContentRewriter extends DomWalker.Rewriter {
   private final ContentRewriterFeature.Factory featureConfigFactory;
   private final ProxyUriManager proxyUriManager;
   private final ConcatUriManager concatUriManager;
+  private DataUriInliner dataUriInliner;
 
   @Inject
   public ProxyingContentRewriter(ContentRewriterFeature.Factory featureConfigFactory,
@@ -46,6 +47,11 @@ public class ProxyingContentRewriter extends DomWalker.Rewriter {
     this.concatUriManager = concatUriManager;
   }
 
+  @Inject(optional = true)
+  public void setDataUriInliner(DataUriInliner dataUriInliner) {
+    this.dataUriInliner = dataUriInliner;
+  }
+
   @Override
   protected List<Visitor> makeVisitors(Gadget context, Uri gadgetUri) {
     ContentRewriterFeature.Config config = featureConfigFactory.get(context.getSpec());
@@ -55,7 +61,7 @@ public class ProxyingContentRewriter extends DomWalker.Rewriter {
     return ImmutableList.of(
         new ConcatVisitor.Js(config, concatUriManager),
         new ConcatVisitor.Css(config, concatUriManager),
-        new ProxyingVisitor(config, proxyUriManager,
+        new ProxyingVisitor(config, proxyUriManager, dataUriInliner,
                             ProxyingVisitor.Tags.SCRIPT,
                             ProxyingVisitor.Tags.STYLESHEET,
                             ProxyingVisitor.Tags.EMBEDDED_IMAGES));
@@ -31,6 +31,7 @@ import org.w3c.dom.Node;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,13 +46,77 @@ public class ProxyingVisitor extends ResourceMutateVisitor {
   private static final String classname = ProxyingVisitor.class.getName();
   private static final Logger LOG = Logger.getLogger(classname,MessageKeys.MESSAGES);
 
+  private static final Map<String, String> INLINED_TAGS = Tags.EMBEDDED_IMAGES.getResourceTags();
+
   private final ProxyUriManager uriManager;
+  private final DataUriInliner inliner;
+  private final DataUriInliner.Budget inlineBudget;
+
+  public ProxyingVisitor(ContentRewriterFeature.Config featureConfig,
+                         ProxyUriManager uriManager,
+                         Tags... resourceTags) {
+    this(featureConfig, uriManager, null, resourceTags);
+  }
 
+  /**
+   * @param inliner inlines the small images of the document instead of proxying them, if
+   *     not null and enabled.
+   */
   public ProxyingVisitor(ContentRewriterFeature.Config featureConfig,
                          ProxyUriManager uriManager,
+                         DataUriInliner inliner,
                          Tags... resourceTags) {
     super(featureConfig, resourceTags);
     this.uriManager = uriManager;
+    if (inliner != null && inliner.isEnabled()) {
+      this.inliner = inliner;
+      this.inlineBudget = inliner.newBudget();
+    } else {
+      this.inliner = null;
+      this.inlineBudget = null;
+    }
+  }
+
+  @Override
+  public boolean revisit(Gadget gadget, List<Node> nodes) throws RewritingException {
+    if (inliner == null) {
+      return super.revisit(gadget, nodes);
+    }
+
+    // Nodes are in document order, so the first images get the budget
+    List<Node> proxiedNodes = Lists.newArrayListWithCapacity(nodes.size());
+    boolean inlined = false;
+    for (Node node : nodes) {
+      if (inline(gadget, (Element) node)) {
+        inlined = true;
+      } else {
+        proxiedNodes.add(node);
+      }
+    }
+    return super.revisit(gadget, proxiedNodes) || inlined;
+  }
+
+  private boolean inline(Gadget gadget, Element element) {
+    String nodeName = element.getNodeName().toLowerCase();
+    if (!INLINED_TAGS.containsKey(nodeName)) {
+      return false;
+    }
+    String attrName = resourceTags.get(nodeName);
+    ProxyUriManager.ProxyUri proxiedUri;
+    try {
+      proxiedUri = new ProxyUriManager.ProxyUri(
+          gadget, Uri.parse(element.getAttribute(attrName).trim()));
+    } catch (UriException e) {
+      // Proxying logs it.
+      return false;
+    }
+    proxiedUri.setHtmlTagContext(nodeName);
+    String dataUri = inliner.inline(proxiedUri, inlineBudget);
+    if (dataUri == null) {
+      return false;
+    }
+    element.setAttribute(attrName, dataUri);
+    return true;
   }
 
   @Override
@@ -24,16 +24,22 @@ import static java.lang.Math.abs;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.sanselan.ImageFormat;
 import org.apache.sanselan.ImageInfo;
 import org.apache.sanselan.ImageReadException;
 import org.apache.sanselan.Sanselan;
 import org.apache.sanselan.common.byteSources.ByteSourceInputStream;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
@@ -49,6 +55,9 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -90,6 +99,8 @@ public class BasicImageRewriter implements ResponseRewriter {
   private static final String PARAM_NO_EXPAND = Param.NO_EXPAND.getKey();
 
   private static final int BITS_PER_BYTE = 8;
+  /** Size of a decoded pixel, images are decoded to at most 4 bytes per pixel */
+  private static final int BYTES_PER_PIXEL = 4;
   private static final Color COLOR_TRANSPARENT = new Color(255, 255, 255, 0);
   public static final String CONTENT_TYPE = "Content-Type";
   //class name for logging purpose
@@ -102,7 +113,16 @@ public class BasicImageRewriter implements ResponseRewriter {
   private static final Set<String> SUPPORTED_FILE_EXTENSIONS = ImmutableSet.of(
       ".gif", ".png", ".jpeg", ".jpg", ".bmp");
 
+  /** Name of the cache of rewritten images */
+  static final String REWRITTEN_IMAGES = "rewrittenImages";
+
+  /** Headers that rewriting an image sets */
+  private static final List<String> REWRITTEN_HEADERS = ImmutableList.of(
+      CONTENT_TYPE, CONTENT_LENGTH, "X-Shindig-Rewrite");
+
   private final OptimizerConfig config;
+  private Cache<String, RewrittenImage> rewrittenImages;
+  private ImageMemoryBudget memoryBudget;
 
   private static class ImageResizeData {
     private Integer requestedWidth;
@@ -135,11 +155,48 @@ public class BasicImageRewriter implements ResponseRewriter {
     }
   }
 
+  /**
+   * The outcome of rewriting an image.  Its content is null if the image was left as it is.
+   */
+  private static class RewrittenImage {
+    private final byte[] content;
+    private final Map<String, String> headers;
+
+    protected RewrittenImage(byte[] content, Map<String, String> headers) {
+      this.content = content;
+      this.headers = headers;
+    }
+
+    public void applyTo(HttpResponseBuilder response) {
+      if (content != null) {
+        response.removeHeader("ETag");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+          response.setHeader(header.getKey(), header.getValue());
+        }
+        response.setResponse(content);
+      }
+    }
+  }
+
   @Inject
   public BasicImageRewriter(OptimizerConfig config) {
     this.config = config;
   }
 
+  /**
+   * Caches rewritten images by content and rewrite parameters, so an image that is fetched again
+   * or from another URL isn't decoded and encoded again.
+   */
+  @Inject
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    rewrittenImages = cacheProvider.createCache(REWRITTEN_IMAGES);
+  }
+
+  @Inject(optional = true)
+  public void setMemoryBudget(ImageMemoryBudget memoryBudget) {
+    this.memoryBudget = memoryBudget;
+  }
+
   /**
    * Predicate check for validating the Image Rewrite step. Images that are either too huge or
    * invalid resize URL parameters are specified are not fit for rewrite.
@@ -220,13 +277,12 @@ public class BasicImageRewriter implements ResponseRewriter {
    *
    * @param request the HTTP request.
    * @param response the HTTP response for the original image fetched.
-   * @param image the image to resize and format conversion.
    * @param imageInfo the image information extracted via Apache's Sanselan APIs.
    * @return image resize data corresponding to the transformed width and height. The return value
    * is null for cases where image can't be resized.
    */
    private ImageResizeData getResizeData(HttpRequest request, HttpResponseBuilder response,
-       BufferedImage image, ImageInfo imageInfo) throws IOException {
+       ImageInfo imageInfo) throws IOException {
     int origWidth = imageInfo.getWidth();
     int origHeight = imageInfo.getHeight();
     int widthDelta = 0;
@@ -307,19 +363,43 @@ public class BasicImageRewriter implements ResponseRewriter {
          return;
        }
 
+       // The same image with the same parameters is rewritten the same way.
+       byte[] original = null;
+       String rewrittenKey = null;
+       if (rewrittenImages != null) {
+         original = IOUtils.toByteArray(response.getContentBytes());
+         rewrittenKey = getRewrittenKey(request, original);
+         RewrittenImage rewritten = rewrittenImages.getElement(rewrittenKey);
+         if (rewritten != null) {
+           rewritten.applyTo(response);
+           return;
+         }
+       }
+
        JpegImageUtils.JpegImageParams jpegImageParams = null;
        if (imageFormat == ImageFormat.IMAGE_FORMAT_JPEG) {
          jpegImageParams = JpegImageUtils.getJpegImageData(response.getContentBytes(), uri.getPath());
        }
 
-       // Step#1: Read the image using appropriate readers for the corresponding image format.
-       BufferedImage image = readImage(imageFormat, response);
-
-       // Proceed to Resize in case image can be resized.
+       // Step#1: Get the Resize Data, before decoding so that the image is decoded no larger
+       // than needed.
+       ImageResizeData resizeData = null;
        if (resizeRequested) {
-         // Step#2: Get the Resize Data
-         ImageResizeData resizeData = getResizeData(request, response, image, imageInfo);
+         resizeData = getResizeData(request, response, imageInfo);
+       }
+       int subsampling = getSubsampling(imageFormat, imageInfo, resizeData);
 
+       long memory = getDecodedSize(imageInfo, subsampling, resizeData)
+           + response.getContentLength();
+       if (memoryBudget != null && !memoryBudget.acquire(memory)) {
+         // Too many images are rewritten right now, this one is served as it is.
+         return;
+       }
+       try {
+         // Step#2: Read the image using appropriate readers for the corresponding image format.
+         BufferedImage image = readImage(imageFormat, response, subsampling);
+
+         // Proceed to Resize in case image can be resized.
          if (resizeData != null) {
            // Step#3: Resize (Scale+Stretch) Image using Java AWT Graphics2D package.
            image = resizeImage(image, resizeData.getWidth(), resizeData.getHeight(),
@@ -328,11 +408,19 @@ public class BasicImageRewriter implements ResponseRewriter {
            // Step#4: Convert the image format (MIME_TYPE) using javax.imageio package.
            updateResponse(response, image);
          }
+
+         // Step#5: Optimize the supported image formats viz PNG, GIF, JPG & BMP using
+         // 'BaseOptimizer' and it's subclass implementations for the above four formats.
+         applyOptimizer(response, imageFormat, jpegImageParams, image, config);
+       } finally {
+         if (memoryBudget != null) {
+           memoryBudget.release(memory);
+         }
        }
 
-       // Step#5: Optimize the supported image formats viz PNG, GIF, JPG & BMP using 'BaseOptimizer'
-       // and it's subclass implementations for the above four formats.
-       applyOptimizer(response, imageFormat, jpegImageParams, image, config);
+       if (rewrittenKey != null) {
+         rewrittenImages.addElement(rewrittenKey, getRewrittenImage(response, original));
+       }
      } catch (IOException ioe) {
        if (LOG.isLoggable(Level.WARNING)) {
          LOG.logp(Level.WARNING, classname, "rewrite", MessageKeys.IO_ERROR_REWRITING_IMG, new Object[] {request.toString(),ioe.getMessage()});
@@ -369,6 +457,66 @@ public class BasicImageRewriter implements ResponseRewriter {
         .setHeader(CONTENT_LENGTH, String.valueOf(imageBytes.length));
   }
 
+  /**
+   * Gets the key of a rewritten image, from the content of the original image and the parameters
+   * that change how it is rewritten.
+   */
+  private String getRewrittenKey(HttpRequest request, byte[] content) {
+    return HashUtil.checksum(content) + ':'
+        + request.getParamAsInteger(PARAM_RESIZE_WIDTH) + ':'
+        + request.getParamAsInteger(PARAM_RESIZE_HEIGHT) + ':'
+        + request.getParamAsInteger(PARAM_RESIZE_QUALITY) + ':'
+        + "1".equals(request.getParam(PARAM_NO_EXPAND));
+  }
+
+  private RewrittenImage getRewrittenImage(HttpResponseBuilder response, byte[] original)
+      throws IOException {
+    byte[] content = IOUtils.toByteArray(response.getContentBytes());
+    if (Arrays.equals(original, content)) {
+      return new RewrittenImage(null, null);
+    }
+
+    ImmutableMap.Builder<String, String> headers = ImmutableMap.builder();
+    for (String name : REWRITTEN_HEADERS) {
+      String value = response.getHeader(name);
+      if (value != null) {
+        headers.put(name, value);
+      }
+    }
+    return new RewrittenImage(content, headers.build());
+  }
+
+  /**
+   * Gets how many pixels to skip along each axis when decoding an image that is scaled down.  The
+   * decoded image stays at least twice as large as the scaled one, so that the bicubic steps of
+   * {@link #resizeImage} still have the pixels they average.  Only the JPEG reader supports it.
+   *
+   * @return 1 to decode every pixel.
+   */
+  private int getSubsampling(ImageFormat imageFormat, ImageInfo imageInfo,
+      ImageResizeData resizeData) {
+    if (resizeData == null || imageFormat != ImageFormat.IMAGE_FORMAT_JPEG) {
+      return 1;
+    }
+    int scaledWidth = max(1, resizeData.getWidth() - resizeData.getWidthDelta());
+    int scaledHeight = max(1, resizeData.getHeight() - resizeData.getHeightDelta());
+    return max(1, min(imageInfo.getWidth() / (2 * scaledWidth),
+        imageInfo.getHeight() / (2 * scaledHeight)));
+  }
+
+  /**
+   * Gets the memory that decoding and resizing an image takes.
+   */
+  private long getDecodedSize(ImageInfo imageInfo, int subsampling, ImageResizeData resizeData) {
+    long width = (imageInfo.getWidth() + subsampling - 1) / subsampling;
+    long height = (imageInfo.getHeight() + subsampling - 1) / subsampling;
+    long pixels = width * height;
+    if (resizeData != null) {
+      pixels += (long) resizeData.getWidth() * resizeData.getHeight();
+    }
+    return pixels * BYTES_PER_PIXEL;
+  }
+
   private boolean isUsableParameter(Integer parameterValue) {
     if (parameterValue == null) {
       return true;
@@ -555,6 +703,19 @@ public class BasicImageRewriter implements ResponseRewriter {
     }
   }
 
+  /**
+   * Reads an image that is going to be scaled down, skipping pixels when the format allows it.
+   *
+   * @param subsampling see {@link #readJpeg(HttpResponseBuilder, int)}.
+   */
+  protected BufferedImage readImage(ImageFormat imageFormat, HttpResponseBuilder response,
+      int subsampling) throws ImageReadException, IOException {
+    if (subsampling > 1 && imageFormat == ImageFormat.IMAGE_FORMAT_JPEG) {
+      return readJpeg(response, subsampling);
+    }
+    return readImage(imageFormat, response);
+  }
+
   // The following methods are intended to be overridden by implementors if they need to
   // implement additional security constraints or use their own more efficient
   // image reading mechanisms
@@ -574,4 +735,14 @@ public class BasicImageRewriter implements ResponseRewriter {
   protected BufferedImage readJpeg(HttpResponseBuilder response) throws ImageReadException, IOException {
     return JPEGOptimizer.readJpeg(response.getContentBytes());
   }
+
+  /**
+   * Reads a JPEG image keeping one pixel out of {@code subsampling} along each axis.  Used instead
+   * of {@link #readJpeg(HttpResponseBuilder)} for images that are scaled down a lot, so it should
+   * be overridden along with it.
+   */
+  protected BufferedImage readJpeg(HttpResponseBuilder response, int subsampling)
+      throws ImageReadException, IOException {
+    return JPEGOptimizer.readJpeg(response.getContentBytes(), subsampling);
+  }
 }
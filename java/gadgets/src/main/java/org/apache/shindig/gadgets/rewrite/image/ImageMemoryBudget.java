@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite.image;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the memory taken by all the images that are rewritten at the same time.
+ *
+ * A rewrite reserves the memory of its decoded pixels before decoding and gives it back when it
+ * is done.  When the budget is used up, a bounded number of rewrites wait for memory up to a
+ * timeout, in arrival order; the others are refused and should leave their image as it is.
+ */
+@Singleton
+public class ImageMemoryBudget {
+  private static final int KB = 1024;
+
+  private final Semaphore kilobytes;
+  private final int maxKilobytes;
+  private final int maxWaiting;
+  private final long maxWaitMs;
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  /**
+   * @param maxBytes memory shared by all rewrites, 0 or less for no limit.
+   * @param maxWaiting number of rewrites that can wait for memory at the same time.
+   * @param maxWaitMs how long a rewrite waits for memory.
+   */
+  @Inject
+  public ImageMemoryBudget(
+      @Named("shindig.image-rewrite.max-total-inmem-bytes") long maxBytes,
+      @Named("shindig.image-rewrite.max-waiting") int maxWaiting,
+      @Named("shindig.image-rewrite.max-wait-ms") long maxWaitMs) {
+    this.maxKilobytes = (int) Math.min(maxBytes / KB, Integer.MAX_VALUE);
+    this.kilobytes = maxKilobytes > 0 ? new Semaphore(maxKilobytes, true) : null;
+    this.maxWaiting = maxWaiting;
+    this.maxWaitMs = maxWaitMs;
+  }
+
+  /**
+   * Reserves memory for a rewrite.  A rewrite that needs more than the whole budget gets all of
+   * it, so it runs alone.
+   *
+   * @return true if the memory was reserved and must be given back with {@link #release}.
+   */
+  public boolean acquire(long bytes) {
+    if (kilobytes == null) {
+      return true;
+    }
+
+    int permits = toPermits(bytes);
+    if (kilobytes.tryAcquire(permits)) {
+      return true;
+    }
+    if (waiting.incrementAndGet() > maxWaiting) {
+      waiting.decrementAndGet();
+      return false;
+    }
+    try {
+      return kilobytes.tryAcquire(permits, maxWaitMs, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      waiting.decrementAndGet();
+    }
+  }
+
+  /**
+   * Gives back memory reserved by {@link #acquire}.
+   */
+  public void release(long bytes) {
+    if (kilobytes != null) {
+      kilobytes.release(toPermits(bytes));
+    }
+  }
+
+  /**
+   * @return memory that can be reserved right now, or -1 if there is no limit.
+   */
+  public long getAvailableBytes() {
+    return kilobytes != null ? (long) kilobytes.availablePermits() * KB : -1;
+  }
+
+  private int toPermits(long bytes) {
+    return (int) Math.max(Math.min((bytes + KB - 1) / KB, maxKilobytes), 1);
+  }
+}
@@ -24,11 +24,15 @@ import org.apache.sanselan.Sanselan;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.color.ICC_Profile;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
 
 /**
  * Optimize JPEG images by either converting them to PNGs or re-encoding them with a more
@@ -38,6 +42,15 @@ public class JPEGOptimizer extends BaseOptimizer {
 
   public static BufferedImage readJpeg(InputStream is)
       throws ImageReadException, IOException {
+    return readJpeg(is, 1);
+  }
+
+  /**
+   * Reads a JPEG image keeping one pixel out of {@code subsampling} along each axis, which saves
+   * memory and time when the image is going to be scaled down anyway.
+   */
+  public static BufferedImage readJpeg(InputStream is, int subsampling)
+      throws ImageReadException, IOException {
     byte[] bytes = IOUtils.toByteArray(is);
     // We cant use Sanselan to read JPEG but we can use it to read all the metadata which is
     // where most security issues reside anyway in ImageIO
@@ -49,7 +62,27 @@ public class JPEGOptimizer extends BaseOptimizer {
         throw new ImageReadException("Image has ICC but it is corrupt and cannot be read");
       }
     }
-    return ImageIO.read(new ByteArrayInputStream(bytes));
+    ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes));
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if (!readers.hasNext()) {
+        // Same as ImageIO.read
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(iis, true, true);
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (subsampling > 1) {
+          param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      iis.close();
+    }
   }
 
   private boolean usePng;
@@ -18,18 +18,28 @@
  */
 package org.apache.shindig.gadgets.servlet;
 
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.net.HttpHeaders;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.servlet.UserAgent;
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.http.HttpResponseMetadataHelper;
 import org.apache.shindig.gadgets.http.RequestPipeline;
+import org.apache.shindig.gadgets.rewrite.ContentRewriterFeature;
 import org.apache.shindig.gadgets.rewrite.DomWalker;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterList.RewriteFlow;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterRegistry;
@@ -49,6 +59,12 @@ import java.util.logging.Logger;
  * Handles requests for accel servlet.
  * The objective is to accelerate web pages.
  *
+ * Rewritten pages are cached by the hash of the fetched page, the container, the rewriter
+ * configuration and the browser, so repeat views of unchanged pages are not parsed and
+ * rewritten again.  The ETag of a cacheable rewritten page is the checksum of its content, not
+ * of the key: rewriting embeds references, such as versioned proxy uris, that change while the
+ * fetched page doesn't.
+ *
  * @since 2.0.0
  */
 @Singleton
@@ -56,10 +72,16 @@ public class AccelHandler {
   private static final Logger logger = Logger.getLogger(
       AccelHandler.class.getName());
   static final String ERROR_FETCHING_DATA = "Error fetching data";
+  static final String REWRITTEN_PAGES = "accelRewrittenPages";
+  private static final Splitter IF_NONE_MATCH_SPLITTER =
+      Splitter.on(',').trimResults().omitEmptyStrings();
   protected final RequestPipeline requestPipeline;
   protected final ResponseRewriterRegistry contentRewriterRegistry;
   protected final AccelUriManager uriManager;
   protected final boolean remapInternalServerError;
+  protected Cache<String, HttpResponse> rewrittenPages;
+  protected ContentRewriterFeature.Factory rewriterFeatureFactory;
+  protected UserAgent.Parser userAgentParser;
 
   @Inject
   public AccelHandler(RequestPipeline requestPipeline,
@@ -74,9 +96,26 @@ public class AccelHandler {
     this.remapInternalServerError = remapInternalServerError;
   }
 
-  public HttpResponse fetch(HttpRequest request) throws IOException, GadgetException {
-    // TODO: Handle if modified since headers.
+  @Inject
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    rewrittenPages = cacheProvider.createCache(REWRITTEN_PAGES);
+  }
+
+  @Inject
+  public void setRewriterFeatureFactory(ContentRewriterFeature.Factory rewriterFeatureFactory) {
+    this.rewriterFeatureFactory = rewriterFeatureFactory;
+  }
 
+  /**
+   * Rewritten pages are cached per browser only when a parser is bound, for rewriters that
+   * depend on the browser.
+   */
+  @Inject(optional = true)
+  public void setUserAgentParser(UserAgent.Parser userAgentParser) {
+    this.userAgentParser = userAgentParser;
+  }
+
+  public HttpResponse fetch(HttpRequest request) throws IOException, GadgetException {
     // Parse and normalize to get a proxied request uri.
     ProxyUriManager.ProxyUri proxyUri = getProxyUri(request);
 
@@ -84,15 +123,27 @@ public class AccelHandler {
     HttpRequest req = buildHttpRequest(request, proxyUri);
     HttpResponse results = requestPipeline.execute(req);
 
+    boolean validated = false;
     HttpResponse errorResponse = handleErrors(results);
     if (errorResponse == null) {
-      // No error. Lets rewrite the content.
-      try {
-        results = contentRewriterRegistry.rewriteHttpResponse(req, results, null);
-      } catch (RewritingException e) {
-        logger.log(Level.WARNING, "Rewriting failed, serving original results", e);
-        // In case of exception continue using original results.
+      String key = getRewrittenPageKey(request, req, results);
+      validated = key != null;
+      HttpResponse rewritten = key != null ? rewrittenPages.getElement(key) : null;
+      if (rewritten == null) {
+        // No error. Lets rewrite the content.
+        try {
+          rewritten = contentRewriterRegistry.rewriteHttpResponse(req, results, null);
+          if (key != null) {
+            rewrittenPages.addElement(key, rewritten);
+          }
+        } catch (RewritingException e) {
+          logger.log(Level.WARNING, "Rewriting failed, serving original results", e);
+          // In case of exception continue using original results.
+          rewritten = results;
+          validated = false;
+        }
       }
+      results = rewritten;
     } else {
       results = errorResponse;
     }
@@ -113,10 +164,60 @@ public class AccelHandler {
     // TODO: replace this with streaming APIs when ready
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     IOUtils.copy(results.getResponse(), baos);
-    response.setResponseNoCopy(baos.toByteArray());
+    byte[] content = baos.toByteArray();
+
+    // The ETag of the fetched page doesn't match the rewritten one.
+    response.removeHeader(HttpHeaders.ETAG);
+    if (validated) {
+      String etag = '"' + HashUtil.checksum(content) + '"';
+      response.setHeader(HttpHeaders.ETAG, etag);
+      if (isNotModified(request, etag)) {
+        response.setHttpStatusCode(HttpResponse.SC_NOT_MODIFIED);
+        return response.create();
+      }
+    }
+    response.setResponseNoCopy(content);
     return response.create();
   }
 
+  /**
+   * Makes the key of a rewritten page from the hash of the fetched page and everything else
+   * the rewriters depend on.
+   *
+   * @return The key, or null if the rewritten page shouldn't be cached.
+   */
+  protected String getRewrittenPageKey(HttpRequest request, HttpRequest req,
+      HttpResponse results) {
+    if (rewrittenPages == null || req.getIgnoreCache() || !"GET".equals(req.getMethod())
+        || results.isStrictNoCache()) {
+      return null;
+    }
+    String hash = results.getMetadata().get(HttpResponseMetadataHelper.DATA_HASH);
+    if (hash == null) {
+      return null;
+    }
+
+    Integer fingerprint = rewriterFeatureFactory != null ?
+        rewriterFeatureFactory.get(req).getFingerprint() : null;
+    String browser = null;
+    String userAgent = request.getHeader(HttpHeaders.USER_AGENT);
+    if (userAgentParser != null && userAgent != null) {
+      UserAgent parsed = userAgentParser.parse(userAgent);
+      if (parsed != null) {
+        browser = parsed.getBrowser() + "/" + parsed.getVersion();
+      }
+    }
+    // Rewriting resolves references against the page uri, so it is part of the key too.
+    return Joiner.on('|').useForNull("").join(hash, req.getContainer(), req.getUri(),
+        req.getGadget(), req.getRewriteMimeType(), fingerprint, browser);
+  }
+
+  private static boolean isNotModified(HttpRequest request, String etag) {
+    String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+    return ifNoneMatch != null && (ifNoneMatch.trim().equals("*") ||
+        Iterables.contains(IF_NONE_MATCH_SPLITTER.split(ifNoneMatch), etag));
+  }
+
   /**
    * Returns the proxy uri encapsulating the request uri.
    * @param httpRequest The http request.
@@ -174,6 +275,10 @@ public class AccelHandler {
         UriUtils.DisallowedHeaders.POST_INCOMPATIBLE_DIRECTIVES,
         UriUtils.DisallowedHeaders.HOST_HEADER);
 
+    // The client validates against the ETag of the rewritten page, not of the fetched one.
+    req.removeHeader(HttpHeaders.IF_NONE_MATCH);
+    req.removeHeader(HttpHeaders.IF_MODIFIED_SINCE);
+
     // Since the Host header of httpRequest could be pointing to the shindig
     // host (in case of a normalized request), we do not copy the Host header
     // as is. Instead we explicitly set it to the authority of the resource
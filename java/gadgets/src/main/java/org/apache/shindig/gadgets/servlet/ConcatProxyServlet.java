@@ -18,6 +18,7 @@
  */
 package org.apache.shindig.gadgets.servlet;
 
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
@@ -43,6 +44,7 @@ import org.apache.shindig.gadgets.rewrite.RewriterRegistry;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterList.RewriteFlow;
 import org.apache.shindig.gadgets.rewrite.RewritingException;
 import org.apache.shindig.gadgets.uri.ConcatUriManager;
+import org.apache.shindig.gadgets.uri.UriStatus;
 import org.apache.shindig.gadgets.uri.UriCommon.Param;
 
 import java.io.IOException;
@@ -51,6 +53,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -68,9 +72,13 @@ public class ConcatProxyServlet extends InjectedServlet {
 
   public static final String JSON_PARAM = Param.JSON.getKey();
   private static final Pattern JSON_PARAM_PATTERN = Pattern.compile("^\\w*$");
+  private static final Splitter IF_NONE_MATCH_SPLITTER =
+      Splitter.on(',').trimResults().omitEmptyStrings();
 
   static final Integer LONG_LIVED_REFRESH = (365 * 24 * 60 * 60);  // 1 year
   static final Integer DEFAULT_REFRESH = (60 * 60);                // 1 hour
+  static final long DEFAULT_PART_TIMEOUT_MS = 10 * 1000;
+  static final long DEFAULT_STREAM_AFTER_MS = 100;
 
   //class name for logging purpose
   private static final String classname = ConcatProxyServlet.class.getName();
@@ -84,6 +92,8 @@ public class ConcatProxyServlet extends InjectedServlet {
   private transient Executor executor = Executors.newSingleThreadExecutor();
 
   private Integer longLivedRefreshSec = LONG_LIVED_REFRESH;
+  private long partTimeoutMs = DEFAULT_PART_TIMEOUT_MS;
+  private long streamAfterMs = DEFAULT_STREAM_AFTER_MS;
 
   @Inject(optional = true)
   public void setLongLivedRefresh(
@@ -91,6 +101,19 @@ public class ConcatProxyServlet extends InjectedServlet {
     this.longLivedRefreshSec = longLivedRefreshSec;
   }
 
+  @Inject(optional = true)
+  public void setPartTimeout(@Named("shindig.concat.part-timeout-ms") long partTimeoutMs) {
+    this.partTimeoutMs = partTimeoutMs;
+  }
+
+  /**
+   * Sets how long a resource may keep the output waiting before what was written so far is sent.
+   */
+  @Inject(optional = true)
+  public void setStreamAfter(@Named("shindig.concat.stream-after-ms") long streamAfterMs) {
+    this.streamAfterMs = streamAfterMs;
+  }
+
   @Inject
   public void setRequestPipeline(RequestPipeline requestPipeline) {
     checkInitialized();
@@ -122,11 +145,6 @@ public class ConcatProxyServlet extends InjectedServlet {
   @Override
   protected void doGet(HttpServletRequest request, HttpServletResponse response)
       throws IOException {
-    if (request.getHeader("If-Modified-Since") != null) {
-      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-      return;
-    }
-
     Uri uri = new UriBuilder(request).toUri();
     ConcatUriManager.ConcatUri concatUri = concatUriManager.process(uri);
 
@@ -141,6 +159,21 @@ public class ConcatProxyServlet extends InjectedServlet {
       return;
     }
 
+    // The content of a versioned batch never changes, so its version is its validator and
+    // unversioned batches are validated by the ETag filter over the buffered response.
+    String etag = null;
+    if (concatUri.getStatus() == UriStatus.VALID_VERSIONED) {
+      etag = '"' + uri.getQueryParameter(Param.VERSION.getKey()) + '"';
+      if (response instanceof ETaggingHttpResponse) {
+        // Keep the filter from replacing the ETag or holding the output back to compute one.
+        ((ETaggingHttpResponse) response).startStreaming();
+      }
+      if (isNotModified(request, etag)) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+    }
+
     // Throughout this class, wherever output is generated it's done as a UTF8 String.
     // As such, we affirmatively state that UTF8 is being returned here.
     response.setHeader("Content-Type", concatType.getMimeType() + "; charset=UTF8");
@@ -153,7 +186,7 @@ public class ConcatProxyServlet extends InjectedServlet {
               formatHttpError(HttpServletResponse.SC_BAD_REQUEST,
                   "Bad json variable name " + concatUri.getSplitParam(), null));
     } else {
-      if (doFetchConcatResources(response, concatUri, uri, cos)) {
+      if (doFetchConcatResources(response, concatUri, uri, cos, etag)) {
         response.setStatus(HttpResponse.SC_OK);
       } else {
         response.setStatus(HttpResponse.SC_BAD_REQUEST);
@@ -188,18 +221,42 @@ public class ConcatProxyServlet extends InjectedServlet {
     return cos;
   }
 
+  private static boolean isNotModified(HttpServletRequest request, String etag) {
+    String ifNoneMatch = request.getHeader(ETaggingHttpResponse.REQUEST_HEADER);
+    if (ifNoneMatch != null) {
+      return ifNoneMatch.trim().equals("*") ||
+          Lists.newArrayList(IF_NONE_MATCH_SPLITTER.split(ifNoneMatch)).contains(etag);
+    }
+    return request.getHeader("If-Modified-Since") != null;
+  }
+
   /**
+   * Fetches the resources in parallel and writes them out in order.
+   *
+   * Resources that are ready promptly are held back, so the caching headers can depend on all
+   * of them: a versioned batch is cached for long and gets its version as ETag if every resource
+   * made it into the output, and is not cached otherwise.  Once a resource keeps the output
+   * waiting, what was written so far is sent with no-cache headers and every further resource
+   * is flushed as soon as it is written, so a slow origin doesn't hold back the ones before it.
+   * Errors are then only reported in the output.
+   *
    * @param response HttpservletResponse.
    * @param concatUri URI representing the concatenated list of resources requested.
    * @param cos The ConcatOutputStream to write the response to.
+   * @param etag The ETag of a versioned batch, null if the batch is not versioned.
    * @return false for cases where concat resources could not be fetched, true for success cases.
    * @throws IOException
    */
   private boolean doFetchConcatResources(HttpServletResponse response,
-      ConcatUriManager.ConcatUri concatUri, Uri uri, ConcatOutputStream cos) throws IOException {
+      ConcatUriManager.ConcatUri concatUri, Uri uri, ConcatOutputStream cos, String etag)
+      throws IOException {
     // Check for json concat and set output stream.
     Long minCacheTtl = Long.MAX_VALUE;
     boolean isMinCacheTtlSet = false;
+    // Whether every resource made it into the output.
+    boolean complete = true;
+    // Whether the headers were sent and the output is flushed after each resource.
+    boolean streaming = false;
 
     List<HttpRequest> requests = Lists.newArrayList();
 
@@ -208,6 +265,7 @@ public class ConcatProxyServlet extends InjectedServlet {
         try {
           requests.add(concatUri.makeHttpRequest(resourceUri));
         } catch (GadgetException ge) {
+          complete = false;
           if (cos.outputError(resourceUri, ge)) {
             // True returned from outputError indicates a terminal error.
             return false;
@@ -218,16 +276,37 @@ public class ConcatProxyServlet extends InjectedServlet {
       MultipleResourceHttpFetcher parallelFetcher =
           new MultipleResourceHttpFetcher(requestPipeline, executor);
       List<Pair<Uri, FutureTask<RequestContext>>> futureTasks = parallelFetcher.fetchAll(requests);
+      // All resources are fetched at the same time, so each one gets the same deadline.
+      long deadline = System.currentTimeMillis() + partTimeoutMs;
 
       for (Pair<Uri, FutureTask<RequestContext>> futureTask : futureTasks) {
-        RequestContext requestCxt;
+        RequestContext requestCxt = null;
         try {
           try {
-            requestCxt = futureTask.two.get();
+            if (!streaming) {
+              try {
+                requestCxt = futureTask.two.get(
+                    Math.min(timeLeft(deadline), streamAfterMs), TimeUnit.MILLISECONDS);
+              } catch (TimeoutException te) {
+                streaming = true;
+                startStreaming(response, cos);
+              }
+            }
+            if (requestCxt == null) {
+              requestCxt = futureTask.two.get(timeLeft(deadline), TimeUnit.MILLISECONDS);
+            }
           } catch (InterruptedException ie) {
             throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, ie);
           } catch (ExecutionException ee) {
             throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, ee);
+          } catch (TimeoutException te) {
+            futureTask.two.cancel(true);
+            // Don't cache a batch that misses a resource.
+            minCacheTtl = 0L;
+            isMinCacheTtlSet = true;
+            // Not a terminal error, the other resources are still written.
+            throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT,
+                "Timed out", te, HttpResponse.SC_GATEWAY_TIMEOUT);
           }
           if (requestCxt.getGadgetException() != null) {
             throw requestCxt.getGadgetException();
@@ -245,26 +324,63 @@ public class ConcatProxyServlet extends InjectedServlet {
             }
             minCacheTtl = Math.min(minCacheTtl, httpResp.getCacheTtl());
             isMinCacheTtlSet = true;
+            complete &= httpResp.getHttpStatusCode() == HttpResponse.SC_OK;
             cos.output(futureTask.one, httpResp);
           } else {
             return false;
           }
         } catch (GadgetException ge) {
+          complete = false;
           if (cos.outputError(futureTask.one, ge)) {
             return false;
           }
         }
+        if (streaming) {
+          cos.flush();
+          response.flushBuffer();
+        }
+      }
+      // A streamed batch has sent its headers already.
+      if (streaming) {
+        return true;
+      }
+      if (etag == null) {
+        minCacheTtl = isMinCacheTtlSet ? (minCacheTtl / 1000) : DEFAULT_REFRESH;
+        HttpUtil.setCachingHeaders(response,
+            concatUri.translateStatusRefresh(longLivedRefreshSec, minCacheTtl.intValue()), false);
+      } else if (complete) {
+        response.setHeader(ETaggingHttpResponse.RESPONSE_HEADER, etag);
+        HttpUtil.setCachingHeaders(response,
+            concatUri.translateStatusRefresh(longLivedRefreshSec, DEFAULT_REFRESH), false);
+      } else {
+        HttpUtil.setNoCache(response);
       }
-      // TODO: Investigate Chunked Encoding
-      minCacheTtl = isMinCacheTtlSet ? (minCacheTtl / 1000) : DEFAULT_REFRESH;
-      HttpUtil.setCachingHeaders(response,
-          concatUri.translateStatusRefresh(longLivedRefreshSec, minCacheTtl.intValue()), false);
     } catch (GadgetException gex) {
       cos.outputError(uri, gex);
     }
     return true;
   }
 
+  private static long timeLeft(long deadline) {
+    return Math.max(deadline - System.currentTimeMillis(), 0);
+  }
+
+  /**
+   * Sends the headers and the output written so far.  The resources still to come aren't known
+   * yet, so the response is not cached.
+   */
+  private static void startStreaming(HttpServletResponse response, ConcatOutputStream cos)
+      throws IOException {
+    if (response instanceof ETaggingHttpResponse) {
+      // Keep the filter from holding the output back to compute an ETag.
+      ((ETaggingHttpResponse) response).startStreaming();
+    }
+    HttpUtil.setNoCache(response);
+    response.setStatus(HttpResponse.SC_OK);
+    cos.flush();
+    response.flushBuffer();
+  }
+
   private static String formatHttpError(int status, String errorMessage, Uri uri) {
     StringBuilder err = new StringBuilder();
     err.append("/* ---- Error ");
@@ -340,6 +456,16 @@ public class ConcatProxyServlet extends InjectedServlet {
       wrapped.write(b);
     }
 
+    /**
+     * Writes out what was printed so far.
+     */
+    @Override
+    public void flush() throws IOException {
+      wrapped.write(CharsetUtil.getUtf8Bytes(stringBuilder.toString()));
+      stringBuilder.setLength(0);
+      wrapped.flush();
+    }
+
     @Override
     public void close() throws IOException {
       wrapped.write(CharsetUtil.getUtf8Bytes(stringBuilder.toString()));
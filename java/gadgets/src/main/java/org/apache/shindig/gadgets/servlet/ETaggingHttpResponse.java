@@ -47,6 +47,10 @@ import javax.servlet.http.HttpServletResponseWrapper;
  *
  * In streaming mode, however, the response body is output as it's received
  * from the servlet, and no ETag is calculated.
+ *
+ * Servlets that already know a hash of the body, for instance the DataHash of a
+ * cached response, can pass it to {@link #setContentHash} so that the body is
+ * not digested, and skip writing the body when the request's ETag matches.
  */
 public class ETaggingHttpResponse extends HttpServletResponseWrapper {
 
@@ -61,6 +65,7 @@ public class ETaggingHttpResponse extends HttpServletResponseWrapper {
   protected ServletOutputStream originalStream;
   protected PrintWriter writer;
   protected boolean batching;
+  protected String contentHash;
 
   public ETaggingHttpResponse(HttpServletRequest request, HttpServletResponse response) {
     super(response);
@@ -112,6 +117,7 @@ public class ETaggingHttpResponse extends HttpServletResponseWrapper {
     super.reset();
     writer = null;
     stream.reset();
+    contentHash = null;
     batching = !isCommitted();
   }
 
@@ -126,6 +132,7 @@ public class ETaggingHttpResponse extends HttpServletResponseWrapper {
     super.resetBuffer();
     writer = null;
     stream.reset();
+    contentHash = null;
     batching = !isCommitted();
   }
 
@@ -141,6 +148,22 @@ public class ETaggingHttpResponse extends HttpServletResponseWrapper {
     writeToOutput();
   }
 
+  /**
+   * Uses a hash of the response body computed elsewhere as its ETag, instead of
+   * digesting the body.  The hash must change whenever the body does.
+   *
+   * @return true if the hash matches the request's "If-None-Match" header, in
+   *     which case a NOT_MODIFIED response is sent and the body doesn't need to
+   *     be written.
+   */
+  public boolean setContentHash(String hash) {
+    if (!batching) {
+      return false;
+    }
+    contentHash = hash;
+    return etagMatches(hash);
+  }
+
   /**
    * Outputs the response body.
    *
@@ -157,18 +180,18 @@ public class ETaggingHttpResponse extends HttpServletResponseWrapper {
     if (writer != null) {
       writer.flush();
     }
-    byte[] bytes = stream.getBuffer().toByteArray();
+    ByteArrayBuffer buffer = stream.getBuffer();
     if (batching) {
-      String etag = stream.getContentHash();
+      String etag = contentHash != null ? contentHash : stream.getContentHash();
       ((HttpServletResponse) getResponse()).setHeader(RESPONSE_HEADER, '"' + etag + '"');
       if (etagMatches(etag)) {
         emitETagMatchedResult();
       } else {
-        emitFullResponseBody(bytes);
+        emitFullResponseBody(buffer.toByteArray());
       }
-    } else if (bytes.length != 0) {
-      originalStream.write(bytes);
-      stream.getBuffer().clear();
+    } else if (buffer.length() != 0) {
+      originalStream.write(buffer.buffer(), 0, buffer.length());
+      buffer.clear();
     }
   }
 
@@ -192,50 +215,46 @@ public class ETaggingHttpResponse extends HttpServletResponseWrapper {
 
   /**
    * A ServletOutputStream that stores the data in a byte array buffer.
+   *
+   * The buffer is digested in one go when its hash is needed, rather than as
+   * each byte is written.
    */
   @VisibleForTesting
   class BufferServletOutputStream extends ServletOutputStream {
     private static final int BUFFER_INITIAL_CAPACITY = 16384;
 
-    private MessageDigest digest = null;
     private ByteArrayBuffer buffer = new ByteArrayBuffer(BUFFER_INITIAL_CAPACITY);
 
     @Override
     public void write(int b) throws IOException {
       if (batching) {
-        updateDigest(b);
         buffer.append(b);
       } else {
         originalStream.write(b);
       }
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (batching) {
+        buffer.append(b, off, len);
+      } else {
+        originalStream.write(b, off, len);
+      }
+    }
+
     public ByteArrayBuffer getBuffer() {
       return buffer;
     }
 
     public void reset() {
       buffer.clear();
-      digest = null;
     }
 
     public String getContentHash() {
-      ensureDigestObjectExists();
-      String hash = HashUtil.bytesToHex(digest.digest());
-      digest = null;
-      return hash;
-    }
-
-    private void updateDigest(int b) {
-      ensureDigestObjectExists();
-      digest.update((byte) b);
-    }
-
-    private void ensureDigestObjectExists() {
-      if (digest == null) {
-        digest = HashUtil.getMessageDigest();
-        digest.update(buffer.toByteArray());
-      }
+      MessageDigest digest = HashUtil.getMessageDigest();
+      digest.update(buffer.buffer(), 0, buffer.length());
+      return HashUtil.bytesToHex(digest.digest());
     }
   }
 }
@@ -66,6 +66,11 @@ public class HtmlAccelServlet extends InjectedServlet {
       response = ServletUtil.errorResponse(e);
     }
 
+    if (response.getHeader(ETaggingHttpResponse.RESPONSE_HEADER) != null
+        && servletResponse instanceof ETaggingHttpResponse) {
+      // Keep the filter from replacing the ETag of the rewritten page with one of its own.
+      ((ETaggingHttpResponse) servletResponse).startStreaming();
+    }
     ServletUtil.copyToServletResponse(response, servletResponse);
   }
 
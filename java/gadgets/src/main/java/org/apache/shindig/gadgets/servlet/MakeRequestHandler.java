@@ -33,6 +33,8 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.shindig.auth.AuthInfoUtil;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.common.JsonSerializer;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.util.Utf8UrlCoder;
@@ -48,6 +50,7 @@ import org.apache.shindig.gadgets.LockedDomainService;
 import org.apache.shindig.gadgets.admin.GadgetAdminStore;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseMetadataHelper;
 import org.apache.shindig.gadgets.http.RequestPipeline;
 import org.apache.shindig.gadgets.oauth.OAuthArguments;
 import org.apache.shindig.gadgets.oauth2.OAuth2Arguments;
@@ -91,6 +94,7 @@ public class MakeRequestHandler implements ContainerConfig.ConfigObserver {
   public static final int MAX_POST_SIZE_DEFAULT = 5 * 1024 * 1024; // 5 MiB
   public static final String IFRAME_RESPONSE_PREFIX = "<html><head></head><body><textarea></textarea><script type='text/javascript'>document.getElementsByTagName('TEXTAREA')[0].value='";
   public static final String IFRAME_RESPONSE_SUFFIX = "';</script></body></html>";
+  static final String PROCESSED_FEEDS = "processedFeeds";
 
   private final Map<String, String> unparseableCruftMsgs;
   private final RequestPipeline requestPipeline;
@@ -100,6 +104,7 @@ public class MakeRequestHandler implements ContainerConfig.ConfigObserver {
   private final Processor processor;
   private final LockedDomainService lockedDomainService;
   private final Map<String, Integer> maxPostSizes;
+  private Cache<String, String> processedFeeds;
 
   @Inject
   public MakeRequestHandler(
@@ -120,6 +125,14 @@ public class MakeRequestHandler implements ContainerConfig.ConfigObserver {
     config.addConfigObserver(this, true);
   }
 
+  /**
+   * Feeds are processed once per content, rather than once per request, when a cache is set.
+   */
+  @Inject
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    processedFeeds = cacheProvider.createCache(PROCESSED_FEEDS);
+  }
+
   /**
    * Executes a request, returning the response as JSON to be handled by makeRequest.
    */
@@ -166,7 +179,8 @@ public class MakeRequestHandler implements ContainerConfig.ConfigObserver {
     }
 
     // Serialize the response
-    HttpResponse results = requestPipeline.execute(rcr);
+    HttpResponse fetched = requestPipeline.execute(rcr);
+    HttpResponse results = fetched;
 
     // Rewrite the response
     if (contentRewriterRegistry != null) {
@@ -177,9 +191,12 @@ public class MakeRequestHandler implements ContainerConfig.ConfigObserver {
                 e.getHttpStatusCode());
       }
     }
+    // The hash is of the fetched content, so it doesn't identify a rewritten one.
+    String contentHash = results == fetched ?
+        results.getMetadata().get(HttpResponseMetadataHelper.DATA_HASH) : null;
 
     // Serialize the response
-    String output = convertResponseToJson(rcr.getSecurityToken(), request, results);
+    String output = convertResponseToJson(rcr.getSecurityToken(), request, results, contentHash);
 
     // Find and set the refresh interval
     setResponseHeaders(request, response, results);
@@ -363,13 +380,23 @@ public class MakeRequestHandler implements ContainerConfig.ConfigObserver {
    */
   protected String convertResponseToJson(SecurityToken authToken, HttpServletRequest request,
           HttpResponse results) throws GadgetException {
+    return convertResponseToJson(authToken, request, results, null);
+  }
+
+  /**
+   * Format a response as JSON, including additional JSON inserted by chained content fetchers.
+   *
+   * @param contentHash hash of the response content, used to cache a processed feed if not null.
+   */
+  protected String convertResponseToJson(SecurityToken authToken, HttpServletRequest request,
+          HttpResponse results, String contentHash) throws GadgetException {
     boolean getFullHeaders = Boolean.parseBoolean(getParameter(request, GET_FULL_HEADERS_PARAM,
             "false"));
     String originalUrl = getParameter(request, Param.URL.getKey(), null);
     String body = results.getResponseAsString();
     if (body.length() > 0) {
       if ("FEED".equals(getParameter(request, CONTENT_TYPE_PARAM, null))) {
-        body = processFeed(originalUrl, request, body);
+        body = processFeed(originalUrl, request, body, contentHash);
       }
     }
     Map<String, Object> resp = FetchResponseUtils.getResponseAsJson(results, null, body,
@@ -405,8 +432,11 @@ public class MakeRequestHandler implements ContainerConfig.ConfigObserver {
 
   /**
    * Processes a feed (RSS or Atom) using FeedProcessor.
+   *
+   * @param hash hash of the feed content, used to cache the processed feed if not null.
    */
-  private String processFeed(String url, HttpServletRequest req, String xml) throws GadgetException {
+  private String processFeed(String url, HttpServletRequest req, String xml, String hash)
+      throws GadgetException {
     boolean getSummaries = Boolean.parseBoolean(getParameter(req, GET_SUMMARIES_PARAM, "false"));
     int numEntries;
     try {
@@ -415,7 +445,21 @@ public class MakeRequestHandler implements ContainerConfig.ConfigObserver {
       throw new GadgetException(GadgetException.Code.INVALID_PARAMETER,
               "numEntries paramater is not a number", HttpResponse.SC_BAD_REQUEST);
     }
-    return feedProcessorProvider.get().process(url, xml, getSummaries, numEntries).toString();
+
+    String key = null;
+    if (processedFeeds != null && hash != null) {
+      key = hash + ':' + getSummaries + ':' + numEntries + ':' + url;
+      String cached = processedFeeds.getElement(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    String json =
+        feedProcessorProvider.get().process(url, xml, getSummaries, numEntries).toString();
+    if (key != null) {
+      processedFeeds.addElement(key, json);
+    }
+    return json;
   }
 
   /**
@@ -31,6 +31,7 @@ import org.apache.shindig.gadgets.admin.GadgetAdminStore;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.http.HttpResponseMetadataHelper;
 import org.apache.shindig.gadgets.http.RequestPipeline;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterList.RewriteFlow;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterRegistry;
@@ -124,6 +125,7 @@ public class ProxyHandler {
       }
     }
 
+    HttpResponse fetched = results;
     if (contentRewriterRegistry != null) {
       try {
         results = contentRewriterRegistry.rewriteHttpResponse(rcr, results, null);
@@ -139,6 +141,10 @@ public class ProxyHandler {
 
     HttpResponseBuilder response = new HttpResponseBuilder(results);
     response.clearAllHeaders();
+    if (results != fetched) {
+      // The hash is of the fetched content, not of the rewritten one.
+      response.removeMetadata(HttpResponseMetadataHelper.DATA_HASH);
+    }
 
     try {
       ServletUtil.setCachingHeaders(response, proxyUri.translateStatusRefresh(longLivedRefreshSec,
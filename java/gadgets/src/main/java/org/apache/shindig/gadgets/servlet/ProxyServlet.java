@@ -23,6 +23,7 @@ import com.google.inject.Inject;
 import org.apache.shindig.auth.AuthInfoUtil;
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
+import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.servlet.InjectedServlet;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
@@ -30,6 +31,7 @@ import org.apache.shindig.gadgets.AuthType;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.LockedDomainService;
 import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseMetadataHelper;
 import org.apache.shindig.gadgets.oauth.OAuthArguments;
 import org.apache.shindig.gadgets.oauth2.OAuth2Arguments;
 import org.apache.shindig.gadgets.uri.ProxyUriManager;
@@ -144,6 +146,15 @@ public class ProxyServlet extends InjectedServlet {
           HttpServletResponse.SC_BAD_REQUEST));
     }
 
+    String hash = response.getMetadata().get(HttpResponseMetadataHelper.DATA_HASH);
+    if (hash != null && response.getHttpStatusCode() == HttpResponse.SC_OK
+        && servletResponse instanceof ETaggingHttpResponse
+        && ((ETaggingHttpResponse) servletResponse).setContentHash(hash)) {
+      // Not modified, the body would be dropped anyway.
+      ServletUtil.copyHeadersAndStatusToServletResponse(response, servletResponse);
+      HttpUtil.setCachingHeaders(servletResponse, (int) (response.getCacheTtl() / 1000L));
+      return;
+    }
     ServletUtil.copyToServletResponseAndOverrideCacheHeaders(response, servletResponse);
   }
 
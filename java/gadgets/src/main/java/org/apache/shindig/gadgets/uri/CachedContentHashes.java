@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.uri;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.http.HttpCache;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseMetadataHelper;
+import org.apache.shindig.gadgets.http.RequestPipeline;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Looks up the content hash that {@link HttpResponseMetadataHelper} stores with each cached
+ * response, for versioning proxied and concatenated resources.
+ *
+ * Resources are looked up with the request the serving side makes for them, built by
+ * {@link ProxyUriBase#makeHttpRequest} of a Uri context the versioner provides, so the versioners
+ * and the serving side see the same cache entry. The request carries no User-Agent: a versioned
+ * Uri is shared by every browser, so its version is the hash of the response fetched without
+ * one. The proxy servlet adds the browser's User-Agent to its own fetches, which are cached
+ * separately. A resource that isn't cached has no hash; it is fetched in the background so that
+ * the pages rendered after it get a version.
+ *
+ * @since 2.5.0
+ */
+@Singleton
+public class CachedContentHashes {
+  private static final Logger LOG = Logger.getLogger(CachedContentHashes.class.getName());
+
+  private final HttpCache cache;
+  // Rewriters use the versioners, so the pipeline that runs them is only looked up when needed
+  private final Provider<RequestPipeline> requestPipeline;
+  private final Executor executor;
+  // Cache keys of the resources being fetched, so each is fetched once
+  private final Set<String> fetching = Sets.newSetFromMap(Maps.<String, Boolean>newConcurrentMap());
+
+  @Inject
+  public CachedContentHashes(HttpCache cache, Provider<RequestPipeline> requestPipeline,
+      @Named("shindig.concat.executor") Executor executor) {
+    this.cache = cache;
+    this.requestPipeline = requestPipeline;
+    this.executor = executor;
+  }
+
+  /**
+   * Gets the content hashes of a batch of resources. Each distinct resource is looked up once.
+   *
+   * @param resources Resources to look up.
+   * @param context Builds the request the resources are served with.
+   * @return Hash of each resource that is cached with one; resources that aren't are left out.
+   */
+  public Map<Uri, String> getHashes(Collection<Uri> resources, ProxyUriBase context) {
+    Map<Uri, String> hashes = Maps.newHashMapWithExpectedSize(resources.size());
+    Set<Uri> seen = Sets.newHashSetWithExpectedSize(resources.size());
+    for (Uri resource : resources) {
+      if (resource != null && seen.add(resource)) {
+        String hash = getHash(resource, context);
+        if (hash != null) {
+          hashes.put(resource, hash);
+        }
+      }
+    }
+    return hashes;
+  }
+
+  /**
+   * Gets the content hash of a resource.
+   *
+   * @param context Builds the request the resource is served with.
+   * @return The hash, or null if the resource isn't cached with one yet.
+   */
+  public String getHash(Uri resource, ProxyUriBase context) {
+    HttpRequest request;
+    try {
+      request = context.makeHttpRequest(resource);
+    } catch (GadgetException e) {
+      return null;
+    }
+    HttpResponse response = cache.getResponse(request);
+    if (response == null) {
+      fetch(request);
+      return null;
+    }
+    if (response.isError()) {
+      return null;
+    }
+    return response.getMetadata().get(HttpResponseMetadataHelper.DATA_HASH);
+  }
+
+  private void fetch(final HttpRequest request) {
+    final String key = cache.createKey(request);
+    if (!fetching.add(key)) {
+      return;
+    }
+
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            // The pipeline hashes and caches the response.
+            requestPipeline.get().execute(request);
+          } catch (GadgetException e) {
+            if (LOG.isLoggable(Level.FINE)) {
+              LOG.log(Level.FINE, "Error fetching " + request.getUri() + " for its version", e);
+            }
+          } finally {
+            fetching.remove(key);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      fetching.remove(key);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.uri;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.HashUtil;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versions batches of concatenated resources by the hashes of their cached content. A batch only
+ * gets a version once all of its resources are cached.
+ *
+ * @since 2.5.0
+ */
+public class ContentHashConcatVersioner implements ConcatUriManager.Versioner {
+  private final CachedContentHashes hashes;
+
+  @Inject
+  public ContentHashConcatVersioner(CachedContentHashes hashes) {
+    this.hashes = hashes;
+  }
+
+  public List<String> version(List<List<Uri>> resourceUris, String container,
+                              List<String> resourceTags) {
+    // Batches often share resources, look each of them up once.
+    List<Uri> allUris = Lists.newArrayList();
+    for (List<Uri> batch : resourceUris) {
+      allUris.addAll(batch);
+    }
+    Map<Uri, String> versions = hashes.getHashes(allUris, newContext(container));
+
+    List<String> result = Lists.newArrayListWithCapacity(resourceUris.size());
+    for (List<Uri> batch : resourceUris) {
+      result.add(getVersion(batch, versions));
+    }
+    return result;
+  }
+
+  public UriStatus validate(List<Uri> resourceUris, String container, String value) {
+    if (value == null || value.length() == 0) {
+      return UriStatus.VALID_UNVERSIONED;
+    }
+
+    String version = getVersion(resourceUris,
+        hashes.getHashes(resourceUris, newContext(container)));
+    if (version == null) {
+      // Not all resources are cached here (yet), so the version can't be checked.
+      return UriStatus.VALID_UNVERSIONED;
+    }
+    return version.equals(value) ? UriStatus.VALID_VERSIONED : UriStatus.INVALID_VERSION;
+  }
+
+  /**
+   * @return the context of a concatenated resource, whose request is the base proxy request.
+   */
+  private static ProxyUriBase newContext(String container) {
+    return new ProxyUriBase(null, null, false, false, container, null);
+  }
+
+  private static String getVersion(List<Uri> batch, Map<Uri, String> versions) {
+    if (batch.isEmpty()) {
+      return null;
+    }
+
+    StringBuilder hashBuf = new StringBuilder();
+    for (Uri resource : batch) {
+      String hash = versions.get(resource);
+      if (hash == null) {
+        return null;
+      }
+      hashBuf.append(hash).append(',');
+    }
+    return HashUtil.checksum(CharsetUtil.getUtf8Bytes(hashBuf.toString()));
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.uri;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+
+import org.apache.shindig.common.uri.Uri;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versions proxied resources by the hash of their cached content, so that a new version of a
+ * resource gets a new proxy Uri and versioned Uris can be cached for a long time.
+ *
+ * @since 2.5.0
+ */
+public class ContentHashProxyVersioner implements ProxyUriManager.Versioner {
+  private final CachedContentHashes hashes;
+
+  @Inject
+  public ContentHashProxyVersioner(CachedContentHashes hashes) {
+    this.hashes = hashes;
+  }
+
+  public List<String> version(List<Uri> resources, String container, List<String> resourceTags) {
+    Map<Uri, String> versions = hashes.getHashes(resources, newContext(container));
+    List<String> result = Lists.newArrayListWithCapacity(resources.size());
+    for (Uri resource : resources) {
+      result.add(versions.get(resource));
+    }
+    return result;
+  }
+
+  public UriStatus validate(Uri resource, String container, String value) {
+    if (value == null || value.length() == 0) {
+      return UriStatus.VALID_UNVERSIONED;
+    }
+
+    String hash = hashes.getHash(resource, newContext(container));
+    if (hash == null) {
+      // Not cached here (yet), so the version can't be checked.
+      return UriStatus.VALID_UNVERSIONED;
+    }
+    return hash.equals(value) ? UriStatus.VALID_VERSIONED : UriStatus.INVALID_VERSION;
+  }
+
+  /**
+   * @return the context of a proxied resource as the rewriters create it, whose request has the
+   *         resize parameters that are part of the cache key.
+   */
+  private static ProxyUriBase newContext(String container) {
+    return new ProxyUriManager.ProxyUri(null, false, false, container, null, null);
+  }
+}
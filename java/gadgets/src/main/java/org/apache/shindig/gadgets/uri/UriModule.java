@@ -19,7 +19,6 @@
 package org.apache.shindig.gadgets.uri;
 
 import com.google.inject.AbstractModule;
-import com.google.inject.util.Providers;
 
 /**
  * Provides default configuration and bindings for Uri classes.
@@ -39,12 +38,10 @@ public class UriModule extends AbstractModule {
     bind(OAuthUriManager.class).to(DefaultOAuthUriManager.class);
 
     bind(ProxyUriManager.class).to(DefaultProxyUriManager.class);
-    bind(ProxyUriManager.Versioner.class)
-        .toProvider(Providers.<ProxyUriManager.Versioner>of(null));
+    bind(ProxyUriManager.Versioner.class).to(ContentHashProxyVersioner.class);
 
     bind(ConcatUriManager.class).to(DefaultConcatUriManager.class);
-    bind(ConcatUriManager.Versioner.class)
-        .toProvider(Providers.<ConcatUriManager.Versioner>of(null));
+    bind(ConcatUriManager.Versioner.class).to(ContentHashConcatVersioner.class);
   }
 
 }
@@ -171,6 +171,20 @@ public class ContainerAdminDataTest {
     assertNotNull(validData.getGadgetAdminData(GADGET_URL_2));
   }
 
+  @Test
+  public void testLookupsFollowChanges() {
+    gadgetMap.put("http://foo.com/*", whitelistData);
+    assertEquals(blacklistData, validData.getGadgetAdminData("http://foo.com/gadget.xml"));
+
+    validData.addGadgetAdminData("http://foo.com/*", whitelistData);
+    assertEquals(whitelistData, validData.getGadgetAdminData("http://foo.com/gadget.xml"));
+    assertEquals(whitelistData, validData.getGadgetAdminData("http://foo.com:80/gadget.xml"));
+    assertEquals(blacklistData, validData.getGadgetAdminData("http://foo.co/gadget.xml"));
+
+    validData.removeGadgetAdminData("http://foo.com/*");
+    assertEquals(blacklistData, validData.getGadgetAdminData("http://foo.com/gadget.xml"));
+  }
+
   @Test
   public void testClearGadgetAdminData() {
     assertEquals(gadgetMap, validData.getGadgetAdminMap());
@@ -19,7 +19,10 @@
 package org.apache.shindig.gadgets.oauth;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import net.oauth.OAuthConsumer;
@@ -31,9 +34,12 @@ import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.oauth.BasicOAuthStoreConsumerKeyAndSecret.KeyType;
 import org.apache.shindig.gadgets.oauth.OAuthStore.ConsumerInfo;
 import org.apache.shindig.gadgets.oauth.OAuthStore.TokenInfo;
+import org.apache.shindig.gadgets.oauth.testing.FakeOAuthServiceProvider;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.security.PrivateKey;
+
 public class BasicOAuthStoreTest {
 
   private static final String SAMPLE_FILE =
@@ -162,4 +168,27 @@ public class BasicOAuthStoreTest {
     assertNull(consumerInfo.getKeyName());
     assertNull(consumerInfo.getCallbackUrl());
   }
+
+  @Test
+  public void testParsedPrivateKey() throws Exception {
+    FakeGadgetToken t = new FakeGadgetToken();
+    t.setAppUrl("http://localhost:8080/not-in-store.xml");
+    OAuthServiceProvider provider = new OAuthServiceProvider("req", "authorize", "access");
+    store.setDefaultKey(new BasicOAuthStoreConsumerKeyAndSecret(
+        null, FakeOAuthServiceProvider.PRIVATE_KEY_TEXT, KeyType.RSA_PRIVATE, "keyname", null));
+
+    Object key = store.getConsumerKeyAndSecret(t, "", provider).getConsumer()
+        .getProperty(RSA_SHA1.PRIVATE_KEY);
+    assertTrue(key instanceof PrivateKey);
+    assertSame(key, store.getConsumerKeyAndSecret(t, "", provider).getConsumer()
+        .getProperty(RSA_SHA1.PRIVATE_KEY));
+
+    // A new key is parsed again
+    store.setDefaultKey(new BasicOAuthStoreConsumerKeyAndSecret(
+        null, FakeOAuthServiceProvider.PRIVATE_KEY_TEXT, KeyType.RSA_PRIVATE, "keyname", null));
+    Object newKey = store.getConsumerKeyAndSecret(t, "", provider).getConsumer()
+        .getProperty(RSA_SHA1.PRIVATE_KEY);
+    assertNotSame(key, newKey);
+    assertEquals(key, newKey);
+  }
 }
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.oauth2.persistence;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.apache.shindig.gadgets.oauth2.OAuth2Token;
+import org.apache.shindig.gadgets.oauth2.OAuth2Token.Type;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class WriteBehindPersisterTest {
+  private static final String GADGET_URI = "http://www.example.com/1";
+  private static final String SERVICE_NAME = "serviceName";
+
+  private RecordingPersister backing;
+  private WriteBehindPersister persister;
+
+  @Before
+  public void setUp() throws Exception {
+    this.backing = new RecordingPersister();
+    this.persister = new WriteBehindPersister(this.backing, 0);
+  }
+
+  private static OAuth2Token token(final String user) {
+    final OAuth2TokenPersistence token = new OAuth2TokenPersistence();
+    token.setGadgetUri(GADGET_URI);
+    token.setServiceName(SERVICE_NAME);
+    token.setUser(user);
+    token.setType(Type.ACCESS);
+    return token;
+  }
+
+  @Test
+  public void testWritesAreDeferredAndMerged() throws Exception {
+    final OAuth2Token token = token("user");
+    this.persister.insertToken(token);
+    this.persister.updateToken(token);
+    Assert.assertTrue(this.backing.calls.isEmpty());
+    Assert.assertEquals(token, this.persister.findToken(GADGET_URI, SERVICE_NAME, "user", null,
+            Type.ACCESS));
+
+    this.persister.flush();
+    Assert.assertEquals(ImmutableList.of("insert user"), this.backing.calls);
+    Assert.assertEquals(0, this.persister.getPendingCount());
+  }
+
+  @Test
+  public void testUpdateAfterFlush() throws Exception {
+    final OAuth2Token token = token("user");
+    this.persister.insertToken(token);
+    this.persister.flush();
+    this.persister.updateToken(token);
+    this.persister.flush();
+    Assert.assertEquals(ImmutableList.of("insert user", "update user"), this.backing.calls);
+  }
+
+  @Test
+  public void testRemoveDropsPendingWrite() throws Exception {
+    this.persister.insertToken(token("user"));
+    Assert.assertTrue(this.persister.removeToken(GADGET_URI, SERVICE_NAME, "user", null,
+            Type.ACCESS));
+    this.persister.flush();
+    Assert.assertEquals(ImmutableList.of("remove user"), this.backing.calls);
+  }
+
+  @Test
+  public void testFailedWriteStaysPending() throws Exception {
+    this.persister.insertToken(token("user1"));
+    this.persister.insertToken(token("user2"));
+    this.backing.fail = true;
+    try {
+      this.persister.flush();
+      Assert.fail("flush should have failed");
+    } catch (final OAuth2PersistenceException e) {
+      // expected
+    }
+    Assert.assertEquals(2, this.persister.getPendingCount());
+
+    this.backing.fail = false;
+    this.persister.flush();
+    Assert.assertEquals(ImmutableList.of("insert user1", "insert user2"), this.backing.calls);
+  }
+
+  @Test
+  public void testQueuedGadgetUriIsWritten() throws Exception {
+    final OAuth2Token token = token("user");
+    this.persister.insertToken(token);
+    token.setGadgetUri("http://www.example.com/other");
+    this.persister.flush();
+    Assert.assertEquals(GADGET_URI, this.backing.gadgetUris.get(0));
+    Assert.assertEquals("http://www.example.com/other", token.getGadgetUri());
+  }
+
+  @Test
+  public void testFoundTokenIsACopy() throws Exception {
+    this.persister.insertToken(token("user"));
+    final OAuth2Token found = this.persister.findToken(GADGET_URI, SERVICE_NAME, "user", null,
+            Type.ACCESS);
+    found.setGadgetUri("http://www.example.com/other");
+    found.setExpiresAt(1000L);
+    this.persister.flush();
+    Assert.assertEquals(GADGET_URI, this.backing.gadgetUris.get(0));
+    Assert.assertEquals(0L, this.backing.tokens.get(0).getExpiresAt());
+  }
+
+  private static class RecordingPersister implements OAuth2Persister {
+    final List<String> calls = Lists.newArrayList();
+    final List<String> gadgetUris = Lists.newArrayList();
+    final List<OAuth2Token> tokens = Lists.newArrayList();
+    boolean fail;
+
+    public OAuth2Client findClient(final String gadgetUri, final String serviceName) {
+      return null;
+    }
+
+    public OAuth2Token findToken(final String gadgetUri, final String serviceName,
+            final String user, final String scope, final Type type) {
+      return null;
+    }
+
+    public void insertToken(final OAuth2Token token) throws OAuth2PersistenceException {
+      this.record("insert", token);
+    }
+
+    public Set<OAuth2Client> loadClients() {
+      return Collections.emptySet();
+    }
+
+    public Set<OAuth2Token> loadTokens() {
+      return Collections.emptySet();
+    }
+
+    public boolean removeToken(final String gadgetUri, final String serviceName,
+            final String user, final String scope, final Type type) {
+      this.calls.add("remove " + user);
+      return false;
+    }
+
+    public void updateToken(final OAuth2Token token) throws OAuth2PersistenceException {
+      this.record("update", token);
+    }
+
+    private void record(final String call, final OAuth2Token token)
+            throws OAuth2PersistenceException {
+      if (this.fail) {
+        throw new OAuth2PersistenceException(new Exception("failed"));
+      }
+      this.calls.add(call + ' ' + token.getUser());
+      this.gadgetUris.add(token.getGadgetUri());
+      this.tokens.add(token);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.oauth2.persistence.sample;
+
+import org.apache.shindig.common.util.FakeTimeSource;
+import org.apache.shindig.gadgets.oauth2.OAuth2Token;
+import org.apache.shindig.gadgets.oauth2.OAuth2Token.Type;
+import org.apache.shindig.gadgets.oauth2.persistence.OAuth2TokenPersistence;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoundedInMemoryCacheTest {
+  private static final String GADGET_URI = "http://www.example.com/1";
+  private static final String SERVICE_NAME = "serviceName";
+  private static final String SCOPE = "testScope";
+
+  private FakeTimeSource timeSource;
+  private BoundedInMemoryCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    this.timeSource = new FakeTimeSource(1000000L);
+    this.cache = new BoundedInMemoryCache(2, this.timeSource);
+  }
+
+  private OAuth2Token token(final String user, final long expiresAt) {
+    final OAuth2TokenPersistence token = new OAuth2TokenPersistence();
+    token.setGadgetUri(GADGET_URI);
+    token.setServiceName(SERVICE_NAME);
+    token.setUser(user);
+    token.setScope(SCOPE);
+    token.setType(Type.ACCESS);
+    token.setExpiresAt(expiresAt);
+    return token;
+  }
+
+  private OAuth2Token get(final String user) {
+    return this.cache.getToken(GADGET_URI, SERVICE_NAME, user, SCOPE, Type.ACCESS);
+  }
+
+  @Test
+  public void testTokenWithoutExpiration() throws Exception {
+    final OAuth2Token token = this.token("user", 0);
+    this.cache.storeToken(token);
+    this.timeSource.incrementSeconds(365 * 24 * 3600);
+    Assert.assertSame(token, this.get("user"));
+  }
+
+  @Test
+  public void testExpiredTokenIsDropped() throws Exception {
+    final long now = this.timeSource.currentTimeMillis();
+    final OAuth2Token token = this.token("user", now + 1000);
+    this.cache.storeToken(token);
+    Assert.assertSame(token, this.get("user"));
+
+    this.timeSource.setCurrentTimeMillis(now + 1000);
+    Assert.assertNull(this.get("user"));
+    Assert.assertEquals(0, this.cache.getTokenCount());
+  }
+
+  @Test
+  public void testExpiredTokenIsNotStored() throws Exception {
+    this.cache.storeToken(this.token("user", this.timeSource.currentTimeMillis()));
+    Assert.assertEquals(0, this.cache.getTokenCount());
+  }
+
+  @Test
+  public void testExpiredTokensAreSwept() throws Exception {
+    final long now = this.timeSource.currentTimeMillis();
+    this.cache.storeToken(this.token("expiring", now + 1000));
+
+    this.timeSource.setCurrentTimeMillis(now + BoundedInMemoryCache.SWEEP_INTERVAL);
+    this.cache.storeToken(this.token("user", 0));
+    Assert.assertEquals(1, this.cache.getTokenCount());
+  }
+
+  @Test
+  public void testCapacity() throws Exception {
+    this.cache.storeToken(this.token("user1", 0));
+    this.cache.storeToken(this.token("user2", 0));
+    this.cache.storeToken(this.token("user3", 0));
+    Assert.assertEquals(2, this.cache.getTokenCount());
+    Assert.assertNotNull(this.get("user3"));
+  }
+}
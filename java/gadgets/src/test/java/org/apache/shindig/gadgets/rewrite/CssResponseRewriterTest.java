@@ -33,7 +33,6 @@ import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
-import org.apache.shindig.gadgets.parse.caja.CajaCssParser;
 import org.apache.shindig.gadgets.uri.DefaultProxyUriManager;
 import org.apache.shindig.gadgets.uri.ProxyUriManager;
 import org.easymock.EasyMock;
@@ -87,8 +86,7 @@ public class CssResponseRewriterTest extends RewriterTestBase {
         .addContainer(MOCK_CONTAINER_CONFIG)
         .commit();
     proxyUriManager = new DefaultProxyUriManager(config, null);
-    rewriterNoOverrideExpires = new CssResponseRewriter(new CajaCssParser(),
-        proxyUriManager, factoryNoOverrideExpires);
+    rewriterNoOverrideExpires = new CssResponseRewriter(proxyUriManager, factoryNoOverrideExpires);
     final ContentRewriterFeature.Config overrideFeature =
         rewriterFeatureFactory.get(createSpecWithRewrite(".*", ".*exclude.*", "3600", tags));
     factory = new ContentRewriterFeature.Factory(null, null) {
@@ -98,8 +96,7 @@ public class CssResponseRewriterTest extends RewriterTestBase {
       }
     };
 
-    rewriter = new CssResponseRewriter(new CajaCssParser(),
-        proxyUriManager, factory);
+    rewriter = new CssResponseRewriter(proxyUriManager, factory);
     dummyUri = Uri.parse("http://www.w3c.org");
     gadgetContext = new GadgetContext() {
       @Override
@@ -209,8 +206,7 @@ public class CssResponseRewriterTest extends RewriterTestBase {
         getResourceAsStream("org/apache/shindig/gadgets/rewrite/rewritebasic-expected.css"));
     expected = replaceDefaultWithMockServer(expected);
     expected = expected.replace("container=default", "container=" + MOCK_CONTAINER);
-    rewriter = new CssResponseRewriter(new CajaCssParser(),
-        proxyUriManager, factory);
+    rewriter = new CssResponseRewriter(proxyUriManager, factory);
 
     HttpRequest request = new HttpRequest(Uri.parse("http://www.example.org/path/rewritebasic.css"));
     request.setMethod("GET");
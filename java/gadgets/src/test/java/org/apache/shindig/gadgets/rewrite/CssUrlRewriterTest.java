@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Tests for {@link CssUrlRewriter}.
+ */
+public class CssUrlRewriterTest {
+  private List<String> urls;
+  private List<String> imports;
+  private boolean dropImports;
+
+  @Before
+  public void setUp() {
+    urls = Lists.newArrayList();
+    imports = Lists.newArrayList();
+    dropImports = false;
+  }
+
+  private String rewrite(String css) throws Exception {
+    return rewrite(new StringReader(css));
+  }
+
+  private String rewrite(Reader css) throws Exception {
+    return rewrite(css, new CssUrlRewriter.UrlHandler() {
+      public String rewrite(String url, boolean isImport) {
+        if (isImport) {
+          imports.add(url);
+          return dropImports ? null : "/i/" + url;
+        }
+        urls.add(url);
+        return "/u/" + url;
+      }
+    });
+  }
+
+  private String rewrite(Reader css, CssUrlRewriter.UrlHandler handler) throws Exception {
+    StringWriter sw = new StringWriter();
+    CssUrlRewriter.rewrite(css, sw, handler);
+    return sw.toString();
+  }
+
+  @Test
+  public void testUrls() throws Exception {
+    assertEquals("a { background: url('/u/a.gif') }\n"
+        + "b { background: url('/u/b.gif') no-repeat; list-style: url('/u/c.gif') }",
+        rewrite("a { background: url(a.gif) }\n"
+            + "b { background: URL( \"b.gif\" ) no-repeat; list-style: url('c.gif') }"));
+    assertEquals(ImmutableList.of("a.gif", "b.gif", "c.gif"), urls);
+  }
+
+  @Test
+  public void testImports() throws Exception {
+    assertEquals("@import url('/i/a.css');\n@import url('/i/b.css') screen, print;\np {}",
+        rewrite("@import \"a.css\";\n@IMPORT url(b.css) screen, print;\np {}"));
+    assertEquals(ImmutableList.of("a.css", "b.css"), imports);
+  }
+
+  @Test
+  public void testDropImports() throws Exception {
+    dropImports = true;
+    assertEquals("\n\np { background: url('/u/a.gif') }",
+        rewrite("@import url(a.css);\n@import 'b.css' screen;\np { background: url(a.gif) }"));
+    assertEquals(ImmutableList.of("a.css", "b.css"), imports);
+  }
+
+  @Test
+  public void testCommentsAndStringsAreCopied() throws Exception {
+    String css = "/* url(a.gif) @import 'b.css'; */\n"
+        + "p:after { content: \"url(c.gif)\"; font-family: 'url(d)' }\n"
+        + "/* unterminated url(e.gif)";
+    assertEquals(css, rewrite(css));
+    assertEquals(ImmutableList.of(), urls);
+    assertEquals(ImmutableList.of(), imports);
+  }
+
+  @Test
+  public void testNamesEndingInUrl() throws Exception {
+    String css = "p { x-url(a.gif); background: -webkit-url(b.gif) }";
+    assertEquals(css, rewrite(css));
+    assertEquals(ImmutableList.of(), urls);
+  }
+
+  @Test
+  public void testEscapes() throws Exception {
+    assertEquals("a { background: url('/u/a b.gif') } b { background: url('/u/c\\27 d.gif') }",
+        rewrite("a { background: url(a\\20 b.gif) } b { background: url(\"c'd.gif\") }"));
+    assertEquals(ImmutableList.of("a b.gif", "c'd.gif"), urls);
+  }
+
+  @Test
+  public void testMarkupIsEscaped() throws Exception {
+    assertEquals("p { background: url('/u/\\3c /style\\3e .gif?a=1&b=2') }",
+        rewrite("p { background: url(\"</style>.gif?a=1&b=2\") }"));
+    assertEquals(ImmutableList.of("</style>.gif?a=1&b=2"), urls);
+  }
+
+  @Test
+  public void testUnchangedIsCopied() throws Exception {
+    String css = "@import \"a.css\";\np { background: url( \"</style>.gif\" ) }";
+    String unchanged = rewrite(new StringReader(css), new CssUrlRewriter.UrlHandler() {
+      public String rewrite(String url, boolean isImport) {
+        return url;
+      }
+    });
+    assertEquals(css, unchanged);
+  }
+
+  @Test
+  public void testIncompleteImportIsKept() throws Exception {
+    dropImports = true;
+    String css = "@media print { @import 'a.css' }";
+    assertEquals(css, rewrite(css));
+    assertEquals(ImmutableList.of(), imports);
+  }
+
+  @Test
+  public void testMalformedIsCopied() throws Exception {
+    String css = "a { background: url(a b.gif) }\n"
+        + "b { background: url('c.gif' d) }\n"
+        + "c { background: url() }\n"
+        + "@import ;\n"
+        + "d { background: url(e.gif";
+    assertEquals(css, rewrite(css));
+    assertEquals(ImmutableList.of(), urls);
+    assertEquals(ImmutableList.of(), imports);
+  }
+
+  @Test
+  public void testAcrossBuffers() throws Exception {
+    String padding = Strings.repeat("p { color: red }\n", 1000);
+    assertEquals(padding + "a { background: url('/u/a.gif') }",
+        rewrite(new OneCharReader(padding + "a { background: url(a.gif) }")));
+  }
+
+  /** Returns at most one character per read */
+  private static class OneCharReader extends StringReader {
+    public OneCharReader(String s) {
+      super(s);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws java.io.IOException {
+      return super.read(cbuf, off, Math.min(len, 1));
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Maps;
+
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.http.DefaultHttpCache;
+import org.apache.shindig.gadgets.http.HttpCache;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.uri.ProxyUriManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Tests for {@link DataUriInliner}.
+ */
+public class DataUriInlinerTest {
+  private static final String CONTAINER = "container";
+  private static final Uri ICON = Uri.parse("http://example.com/icon.png");
+  private static final Uri FONT = Uri.parse("http://example.com/font.woff");
+  private static final Uri SCRIPT = Uri.parse("http://example.com/script.js");
+  private static final Uri LARGE = Uri.parse("http://example.com/large.gif");
+  private static final Uri MISSING = Uri.parse("http://example.com/missing.gif");
+  private static final Uri ERROR = Uri.parse("http://example.com/error.gif");
+
+  private final Map<Uri, HttpResponse> cached = Maps.newHashMap();
+  private HttpCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new HttpCache() {
+      public HttpResponse getResponse(HttpRequest request) {
+        assertEquals(CONTAINER, request.getContainer());
+        return cached.get(request.getUri());
+      }
+
+      public HttpResponse addResponse(HttpRequest request, HttpResponse response) {
+        cached.put(request.getUri(), response);
+        return response;
+      }
+
+      public HttpResponse removeResponse(HttpRequest request) {
+        return cached.remove(request.getUri());
+      }
+
+      public String createKey(HttpRequest request) {
+        return request.getUri().toString();
+      }
+    };
+    cache(ICON, "image/png", "abc");
+    cache(FONT, "application/font-woff; charset=binary", "abcd");
+    cache(SCRIPT, "text/javascript", "abc");
+    cache(LARGE, "image/gif", "0123456789");
+    cached.put(ERROR, new HttpResponseBuilder().setHttpStatusCode(HttpResponse.SC_NOT_FOUND)
+        .setHeader("Content-Type", "image/gif").setResponseString("abc").create());
+  }
+
+  private void cache(Uri uri, String contentType, String content) {
+    cached.put(uri, new HttpResponseBuilder().setHeader("Content-Type", contentType)
+        .setResponseString(content).create());
+  }
+
+  private static ProxyUriManager.ProxyUri proxyUri(Uri resource) {
+    return new ProxyUriManager.ProxyUri(null, false, false, CONTAINER, null, resource);
+  }
+
+  @Test
+  public void inlinesResourcesCachedByTheProxy() throws Exception {
+    HttpCache httpCache = new DefaultHttpCache(new LruCacheProvider(10));
+    // Cached with the request the proxy servlet fetches the resource with
+    ProxyUriManager.ProxyUri served = new ProxyUriManager.ProxyUri(
+        3600, false, false, CONTAINER, "http://example.com/gadget.xml", ICON);
+    httpCache.addResponse(served.makeHttpRequest(ICON), new HttpResponseBuilder()
+        .setHeader("Content-Type", "image/png").setResponseString("abc").create());
+
+    DataUriInliner inliner = new DataUriInliner(httpCache, 8, 1000);
+    ProxyUriManager.ProxyUri rewritten = new ProxyUriManager.ProxyUri(
+        3600, false, false, CONTAINER, "http://example.com/gadget.xml", ICON);
+    assertEquals("data:image/png;base64,YWJj", inliner.inline(rewritten, inliner.newBudget()));
+  }
+
+  @Test
+  public void inlinesCachedImagesAndFonts() {
+    DataUriInliner inliner = new DataUriInliner(cache, 8, 1000);
+    assertTrue(inliner.isEnabled());
+    DataUriInliner.Budget budget = inliner.newBudget();
+    assertEquals("data:image/png;base64,YWJj", inliner.inline(proxyUri(ICON), budget));
+    assertEquals("data:application/font-woff;base64,YWJjZA==",
+        inliner.inline(proxyUri(FONT), budget));
+    assertEquals(1000 - 26 - 42, budget.getRemaining());
+  }
+
+  @Test
+  public void leavesOtherResources() {
+    DataUriInliner inliner = new DataUriInliner(cache, 8, 1000);
+    DataUriInliner.Budget budget = inliner.newBudget();
+    assertNull(inliner.inline(proxyUri(SCRIPT), budget));
+    assertNull(inliner.inline(proxyUri(LARGE), budget));
+    assertNull(inliner.inline(proxyUri(MISSING), budget));
+    assertNull(inliner.inline(proxyUri(ERROR), budget));
+    assertNull(inliner.inline(proxyUri(Uri.parse("/icon.png")), budget));
+    assertNull(inliner.inline(
+        new ProxyUriManager.ProxyUri(null, false, true, CONTAINER, null, ICON), budget));
+    assertEquals(1000, budget.getRemaining());
+  }
+
+  @Test
+  public void stopsAtDocumentBudget() {
+    DataUriInliner inliner = new DataUriInliner(cache, 8, 60);
+    DataUriInliner.Budget budget = inliner.newBudget();
+    assertEquals("data:image/png;base64,YWJj", inliner.inline(proxyUri(ICON), budget));
+    assertNull(inliner.inline(proxyUri(FONT), budget));
+    assertEquals("data:image/png;base64,YWJj", inliner.inline(proxyUri(ICON), budget));
+    assertNull(inliner.inline(proxyUri(ICON), budget));
+    assertEquals(8, budget.getRemaining());
+  }
+
+  @Test
+  public void disabled() {
+    DataUriInliner inliner = new DataUriInliner(cache, 0, 1000);
+    assertFalse(inliner.isEnabled());
+    assertNull(inliner.inline(proxyUri(ICON), inliner.newBudget()));
+  }
+}
@@ -22,6 +22,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.http.HttpCache;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.apache.shindig.gadgets.rewrite.DomWalker.Visitor.VisitStatus;
 import org.apache.shindig.gadgets.uri.ProxyUriManager;
 import org.easymock.Capture;
@@ -198,4 +201,37 @@ public class ProxyingVisitorTest extends DomWalkerTestBase {
     assertEquals("img", cap.getValue().get(1).getHtmlTagContext());
     assertEquals("script", cap.getValue().get(2).getHtmlTagContext());
   }
+
+  @Test
+  public void revisitInlinesCachedImages() throws Exception {
+    String scriptSrc = "http://script.com/foo.js";
+    String imgSrc = "http://script.com/foo.png";
+    Element e1 = elem("script", "src", scriptSrc);
+    Element e2 = elem("img", "src", imgSrc);
+    List<Node> nodes = ImmutableList.<Node>of(e1, e2);
+    HttpCache cache = createMock(HttpCache.class);
+    expect(cache.getResponse(isA(HttpRequest.class))).andReturn(new HttpResponseBuilder()
+        .setHeader("Content-Type", "image/png").setResponseString("abc").create()).once();
+    ProxyUriManager uriManager = createMock(ProxyUriManager.class);
+    Uri rewrittenUri = Uri.parse("http://bar.com/");
+    ContentRewriterFeature.Config config = createMock(ContentRewriterFeature.Config.class);
+    Integer expires = 3;
+    expect(config.getExpires()).andReturn(expires).once();
+    Capture<List<ProxyUriManager.ProxyUri>> cap = new Capture<List<ProxyUriManager.ProxyUri>>();
+    expect(uriManager.make(capture(cap), eq(expires)))
+        .andReturn(ImmutableList.of(rewrittenUri)).once();
+    replay(cache, config, uriManager);
+
+    ProxyingVisitor rewriter = new ProxyingVisitor(config, uriManager,
+        new DataUriInliner(cache, 1024, 1024),
+        ProxyingVisitor.Tags.SCRIPT,
+        ProxyingVisitor.Tags.EMBEDDED_IMAGES);
+    assertTrue(rewriter.revisit(gadget(), nodes));
+    verify(cache, config, uriManager);
+
+    assertEquals(1, cap.getValue().size());
+    assertEquals(Uri.parse(scriptSrc), cap.getValue().get(0).getResource());
+    assertEquals(rewrittenUri.toString(), e1.getAttribute("src"));
+    assertEquals("data:image/png;base64,YWJj", e2.getAttribute("src"));
+  }
 }
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ImageMemoryBudgetTest {
+  private static final int BUDGET = 10 * 1024;
+
+  @Test
+  public void testAcquireWithinBudget() {
+    ImageMemoryBudget budget = new ImageMemoryBudget(BUDGET, 0, 0);
+    assertTrue(budget.acquire(6000));
+    assertEquals(4096, budget.getAvailableBytes());
+    assertFalse(budget.acquire(6000));
+
+    budget.release(6000);
+    assertEquals(BUDGET, budget.getAvailableBytes());
+  }
+
+  @Test
+  public void testLargeImageTakesWholeBudget() {
+    ImageMemoryBudget budget = new ImageMemoryBudget(BUDGET, 0, 0);
+    assertTrue(budget.acquire(10 * BUDGET));
+    assertEquals(0, budget.getAvailableBytes());
+    budget.release(10 * BUDGET);
+    assertEquals(BUDGET, budget.getAvailableBytes());
+  }
+
+  @Test
+  public void testWaitsForMemory() throws Exception {
+    final ImageMemoryBudget budget = new ImageMemoryBudget(BUDGET, 1, 10000);
+    assertTrue(budget.acquire(BUDGET));
+    Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          return;
+        }
+        budget.release(BUDGET);
+      }
+    };
+    releaser.start();
+    assertTrue(budget.acquire(BUDGET));
+    releaser.join();
+  }
+
+  @Test
+  public void testWaitTimesOut() {
+    ImageMemoryBudget budget = new ImageMemoryBudget(BUDGET, 1, 10);
+    assertTrue(budget.acquire(BUDGET));
+    assertFalse(budget.acquire(1));
+  }
+
+  @Test
+  public void testNoLimit() {
+    ImageMemoryBudget budget = new ImageMemoryBudget(0, 0, 0);
+    assertTrue(budget.acquire(Long.MAX_VALUE));
+    assertEquals(-1, budget.getAvailableBytes());
+  }
+}
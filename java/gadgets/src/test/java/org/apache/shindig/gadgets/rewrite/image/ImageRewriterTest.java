@@ -26,6 +26,7 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.createControl;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.uri.UriCommon.Param;
 import org.apache.shindig.gadgets.http.HttpRequest;
@@ -64,6 +65,12 @@ public class ImageRewriterTest extends Assert {
    */
   private static final String HUGE_IMAGE = "org/apache/shindig/gadgets/rewrite/image/huge.gif";
 
+  /** A 108 x 125 JPEG image */
+  private static final String JPEG_IMAGE = "org/apache/shindig/gadgets/rewrite/image/large.jpg";
+
+  private static final String INEFFICIENT_IMAGE =
+      "org/apache/shindig/gadgets/rewrite/image/inefficient.png";
+
   private static final String CONTENT_TYPE_BOGUS = "notimage/anything";
   private static final String CONTENT_TYPE_JPG = "image/jpeg";
   private static final String CONTENT_TYPE_GIF = "image/gif";
@@ -187,6 +194,45 @@ public class ImageRewriterTest extends Assert {
     assertEquals(CONTENT_TYPE_PNG, response.getHeader(CONTENT_TYPE_HEADER));
   }
 
+  @Test
+  public void testRewrittenImageIsCached() throws Exception {
+    BasicImageRewriter basicRewriter = new BasicImageRewriter(new OptimizerConfig());
+    basicRewriter.setCacheProvider(new LruCacheProvider(10));
+    ImageMemoryBudget budget = new ImageMemoryBudget(1024 * 1024, 0, 0);
+    basicRewriter.setMemoryBudget(budget);
+    byte[] bytes = getImageBytes(INEFFICIENT_IMAGE);
+
+    HttpResponseBuilder first = getImageResponse(CONTENT_TYPE_PNG, bytes);
+    basicRewriter.rewrite(new HttpRequest(Uri.parse("some.png")), first, null);
+    assertTrue(first.getContentLength() < bytes.length);
+
+    // No image can be decoded, the same image is rewritten from the cache
+    assertTrue(budget.acquire(1024 * 1024));
+    HttpResponseBuilder second = getImageResponse(CONTENT_TYPE_PNG, bytes);
+    basicRewriter.rewrite(new HttpRequest(Uri.parse("other.png")), second, null);
+    assertTrue(Arrays.equals(IOUtils.toByteArray(first.getContentBytes()),
+        IOUtils.toByteArray(second.getContentBytes())));
+    assertEquals(first.getHeader(CONTENT_TYPE_HEADER), second.getHeader(CONTENT_TYPE_HEADER));
+  }
+
+  @Test
+  public void testNoRewriteWithoutMemory() throws Exception {
+    BasicImageRewriter basicRewriter = new BasicImageRewriter(new OptimizerConfig());
+    ImageMemoryBudget budget = new ImageMemoryBudget(1024 * 1024, 0, 0);
+    basicRewriter.setMemoryBudget(budget);
+    byte[] bytes = getImageBytes(INEFFICIENT_IMAGE);
+
+    assertTrue(budget.acquire(1024 * 1024));
+    HttpResponseBuilder response = getImageResponse(CONTENT_TYPE_PNG, bytes);
+    basicRewriter.rewrite(new HttpRequest(Uri.parse("some.png")), response, null);
+    assertTrue(Arrays.equals(bytes, IOUtils.toByteArray(response.getContentBytes())));
+
+    budget.release(1024 * 1024);
+    basicRewriter.rewrite(new HttpRequest(Uri.parse("some.png")), response, null);
+    assertTrue(response.getContentLength() < bytes.length);
+    assertEquals(1024 * 1024, budget.getAvailableBytes());
+  }
+
   // Resizing image tests
   //
   // Checks at least the basic image parameters.  It is rather nontrivial to check for the actual
@@ -241,6 +287,20 @@ public class ImageRewriterTest extends Assert {
     assertEquals(100, image.getHeight());
   }
 
+  @Test
+  public void testResize_subsampledJpeg() throws Exception {
+    // Decoded at half its size, still twice as large as the resized image
+    HttpResponseBuilder response = getImageResponse(CONTENT_TYPE_JPG, getImageBytes(JPEG_IMAGE));
+    HttpRequest request = getMockRequest(20, null, null, false);
+    mockControl.replay();
+    rewriter.rewrite(request, response, null);
+    mockControl.verify();
+
+    BufferedImage image = ImageIO.read(response.getContentBytes());
+    assertEquals(20, image.getWidth());
+    assertEquals(23, image.getHeight());
+  }
+
   @Test
   public void testResize_skipResizeHugeOutputImage() throws Exception {
     BufferedImage image = getResizedHttpResponseContent(
@@ -31,6 +31,7 @@ import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.apache.shindig.gadgets.uri.ConcatUriManager;
 import org.apache.shindig.gadgets.uri.UriStatus;
+import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -38,6 +39,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -321,6 +323,114 @@ public class ConcatProxyServletTest extends ServletTestFixture {
     assertEquals((int) (HttpResponse.defaultTtl / 1000), cacheValue, 10);
   }
 
+  @Test
+  public void testVersionedConcat() throws Exception {
+    expectVersionedRequestWithUris(Lists.newArrayList(URL1, URL2));
+
+    servlet.doGet(request, recorder);
+    verify();
+    String results = addComment(SCRT1, URL1.toString()) + addComment(SCRT2, URL2.toString());
+    assertEquals(results, recorder.getResponseAsString());
+    assertEquals(200, recorder.getHttpStatusCode());
+    assertEquals("\"abc\"", recorder.getHeader("ETag"));
+    assertEquals(ConcatProxyServlet.LONG_LIVED_REFRESH.intValue(),
+        getCacheControlMaxAge(recorder));
+  }
+
+  @Test
+  public void testVersionedNotModified() throws Exception {
+    expect(request.getHeader("If-None-Match")).andReturn("\"old\", \"abc\"").anyTimes();
+    expectVersionedRequestWithUris(Lists.newArrayList(URL1, URL2));
+
+    servlet.doGet(request, recorder);
+    verify();
+    assertEquals("", recorder.getResponseAsString());
+    assertEquals(304, recorder.getHttpStatusCode());
+  }
+
+  @Test
+  public void testVersionedModified() throws Exception {
+    expect(request.getHeader("If-None-Match")).andReturn("\"old\"").anyTimes();
+    expectVersionedRequestWithUris(Lists.newArrayList(URL1));
+
+    servlet.doGet(request, recorder);
+    verify();
+    assertEquals(addComment(SCRT1, URL1.toString()), recorder.getResponseAsString());
+    assertEquals(200, recorder.getHttpStatusCode());
+  }
+
+  @Test
+  public void testVersionedConcat404IsNotCached() throws Exception {
+    String url = "http://nobodyhome.com/";
+    HttpRequest req = new HttpRequest(Uri.parse(url));
+    HttpResponse resp = new HttpResponseBuilder().setHttpStatusCode(404).create();
+    expect(pipeline.execute(req)).andReturn(resp).anyTimes();
+
+    expectVersionedRequestWithUris(Lists.newArrayList(URL1, Uri.parse(url)));
+
+    servlet.doGet(request, recorder);
+    verify();
+    String results = addComment(SCRT1, URL1.toString()) + addErrComment(url, 404);
+    assertEquals(results, recorder.getResponseAsString());
+    assertEquals(200, recorder.getHttpStatusCode());
+    assertNull(recorder.getHeader("ETag"));
+    assertEquals("no-cache", recorder.getHeader("Cache-Control"));
+  }
+
+  @Test
+  public void testUnversionedIgnoresIfModifiedSince() throws Exception {
+    expect(request.getHeader("If-Modified-Since"))
+        .andReturn("Thu, 01 Jan 1970 00:00:00 GMT").anyTimes();
+    runConcat(sequentialExecutor, addComment(SCRT1, URL1.toString()), null, URL1);
+  }
+
+  @Test
+  public void testPartTimeout() throws Exception {
+    final Uri URL4 = Uri.parse("http://example.org/4.js");
+    final CountDownLatch released = new CountDownLatch(1);
+    expect(pipeline.execute(new HttpRequest(URL4))).andAnswer(new IAnswer<HttpResponse>() {
+      public HttpResponse answer() throws Throwable {
+        released.await();
+        return new HttpResponse(SCRT3);
+      }
+    }).anyTimes();
+
+    servlet.setPartTimeout(100);
+    String results = addComment(SCRT1, URL1.toString())
+        + "/* ---- Error FAILED_TO_RETRIEVE_CONTENT concat(" + URL4 + ") Timed out ---- */\r\n"
+        + addComment(SCRT2, URL2.toString());
+    try {
+      runConcat(threadedExecutor, results, null, URL1, URL4, URL2);
+    } finally {
+      released.countDown();
+    }
+    assertEquals("no-cache", recorder.getHeader("Cache-Control"));
+  }
+
+  @Test
+  public void testSlowPartIsStreamed() throws Exception {
+    final Uri URL4 = Uri.parse("http://example.org/4.js");
+    final boolean[] sentBefore = new boolean[1];
+    expect(pipeline.execute(new HttpRequest(URL4))).andAnswer(new IAnswer<HttpResponse>() {
+      public HttpResponse answer() throws Throwable {
+        // Hold this part until the one before it was sent.
+        long giveUp = System.currentTimeMillis() + 5000;
+        while (!sentBefore[0] && System.currentTimeMillis() < giveUp) {
+          sentBefore[0] = new String(recorder.getResponseAsBytes(), "UTF-8").contains(SCRT1);
+          Thread.sleep(10);
+        }
+        return new HttpResponse(SCRT3);
+      }
+    }).anyTimes();
+
+    servlet.setStreamAfter(10);
+    String results = addComment(SCRT1, URL1.toString()) + addComment(SCRT3, URL4.toString())
+        + addComment(SCRT2, URL2.toString());
+    runConcat(threadedExecutor, results, null, URL1, URL4, URL2);
+    assertTrue(sentBefore[0]);
+    assertEquals("no-cache", recorder.getHeader("Cache-Control"));
+  }
+
   private void expectGetAndSetCacheTtl(Uri url, Integer cacheTtl) throws Exception {
     HttpRequest req = new HttpRequest(url);
     HttpResponse resp = new HttpResponseBuilder().setCacheTtl(cacheTtl).create();
@@ -337,6 +447,18 @@ public class ConcatProxyServletTest extends ServletTestFixture {
     return Integer.decode(cacheValue);
   }
 
+  private void expectVersionedRequestWithUris(List<Uri> uris) {
+    expect(request.getScheme()).andReturn("http").anyTimes();
+    expect(request.getServerPort()).andReturn(80).anyTimes();
+    expect(request.getServerName()).andReturn("example.com").anyTimes();
+    expect(request.getRequestURI()).andReturn("/path").anyTimes();
+    expect(request.getQueryString()).andReturn("v=abc").anyTimes();
+    replay();
+
+    Uri uri = new UriBuilder(request).toUri();
+    uriManager.expect(uri, UriStatus.VALID_VERSIONED, ConcatUriManager.Type.JS, uris, null);
+  }
+
   private void expectRequestWithUris(List<Uri> uris) {
     expectRequestWithUris(uris, null);
   }
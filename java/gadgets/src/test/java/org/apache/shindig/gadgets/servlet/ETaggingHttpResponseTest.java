@@ -56,6 +56,7 @@ public class ETaggingHttpResponseTest {
   private static final String SECOND_ETAG = "b6e56fb0129c3530f23dbb795daa3200";
   private static final String BAD_ETAG = "some bogus etag";
   private static final String EMPTY_CONTENT_ETAG = "d41d8cd98f00b204e9800998ecf8427e";
+  private static final String CONTENT_HASH = "3LQBR5RE2CKCHZ6E24QJ7PVFS4";
 
   private static final Function<String, String> ETAG_QUOTER = new Function<String, String>() {
     public String apply(String input) {
@@ -188,6 +189,48 @@ public class ETaggingHttpResponseTest {
     control.verify();
   }
 
+  @Test
+  public void testNotModifiedWithContentHash() throws Exception {
+    EasyMock.expect(request.getHeader(ETaggingHttpResponse.REQUEST_HEADER))
+        .andReturn('"' + CONTENT_HASH + '"').times(2);
+    expectNotModifiedResponse(CONTENT_HASH);
+    control.replay();
+
+    assertTrue(response.setContentHash(CONTENT_HASH));
+    response.flushBuffer();
+
+    assertResponseBodyIsEmpty();
+    control.verify();
+  }
+
+  @Test
+  public void testContentHashIsUsedAsETag() throws Exception {
+    EasyMock.expect(request.getHeader(ETaggingHttpResponse.REQUEST_HEADER))
+        .andReturn('"' + GOOD_ETAG + '"').times(2);
+    origResponse.setHeader(ETaggingHttpResponse.RESPONSE_HEADER, '"' + CONTENT_HASH + '"');
+    origResponse.setContentLength(RESPONSE_BODY_LENGTH);
+    control.replay();
+
+    assertFalse(response.setContentHash(CONTENT_HASH));
+    response.getOutputStream().write(RESPONSE_BODY_BYTES);
+    response.flushBuffer();
+
+    assertResponseHasBody();
+    control.verify();
+  }
+
+  @Test
+  public void testContentHashIsIgnoredWhenStreaming() throws Exception {
+    control.replay();
+
+    response.startStreaming();
+    assertFalse(response.setContentHash(CONTENT_HASH));
+    response.getOutputStream().write(RESPONSE_BODY_BYTES);
+
+    assertResponseHasBody();
+    control.verify();
+  }
+
   @Test
   public void testTagEmptyContent() throws Exception {
     expectRequestETag();
@@ -22,6 +22,8 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.servlet.HttpServletResponseRecorder;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.config.BasicContainerConfig;
 import org.apache.shindig.config.ContainerConfig;
@@ -29,6 +31,7 @@ import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.http.HttpResponseMetadataHelper;
 import org.apache.shindig.gadgets.rewrite.CaptureRewriter;
 import org.apache.shindig.gadgets.rewrite.DefaultResponseRewriterRegistry;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriter;
@@ -45,6 +48,7 @@ import org.junit.Test;
 import javax.servlet.ServletInputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.Map;
 import java.util.Vector;
 
@@ -437,4 +441,155 @@ public class HtmlAccelServletTest extends ServletTestFixture {
     assertEquals(data, recorder.getResponseAsString());
     assertEquals(200, recorder.getHttpStatusCode());
   }
+
+  private void expectCachedPageRequests(String url, int times) {
+    String data = "<html><body>Hello World</body></html>";
+    HttpRequest req = new HttpRequest(Uri.parse(url));
+    req.addHeader("Host", Uri.parse(url).getAuthority());
+    HttpResponse resp = HttpResponseMetadataHelper.updateMetadata(new HttpResponseBuilder()
+        .setResponse(data.getBytes())
+        .setHeader("Content-Type", "text/html")
+        .setHeader("ETag", "\"origin\"")
+        .setHttpStatusCode(200)
+        .create(), ImmutableMap.of(HttpResponseMetadataHelper.DATA_HASH, "hash"));
+    expect(pipeline.execute(req)).andReturn(resp).times(times);
+  }
+
+  private AccelHandler makeCachingHandler(final int[] rewrites) {
+    ResponseRewriter countingRewriter = new ResponseRewriter() {
+      public void rewrite(HttpRequest request, HttpResponseBuilder response, Gadget gadget) {
+        rewrites[0]++;
+        response.setContent(REWRITE_CONTENT);
+      }
+    };
+    AccelHandler handler = new AccelHandler(pipeline, new DefaultResponseRewriterRegistry(
+        Arrays.<ResponseRewriter>asList(countingRewriter), null), accelUriManager, true);
+    handler.setCacheProvider(new LruCacheProvider(10));
+    return handler;
+  }
+
+  @Test
+  public void testRewrittenPageIsCached() throws Exception {
+    String url = "http://example.org/data.html";
+    int[] rewrites = new int[1];
+    servlet.setHandler(makeCachingHandler(rewrites));
+    expectCachedPageRequests(url, 2);
+    expectRequest("", url);
+    Vector<String> headerNames = new Vector<String>();
+    expect(request.getHeaderNames()).andReturn(headerNames.elements());
+    replay();
+
+    servlet.doGet(request, recorder);
+    HttpServletResponseRecorder secondRecorder = new HttpServletResponseRecorder(response);
+    servlet.doGet(request, secondRecorder);
+    verify();
+
+    assertEquals(1, rewrites[0]);
+    assertEquals(REWRITE_CONTENT, recorder.getResponseAsString());
+    assertEquals(REWRITE_CONTENT, secondRecorder.getResponseAsString());
+    assertEquals(200, secondRecorder.getHttpStatusCode());
+    String etag = recorder.getHeader("ETag");
+    assertFalse("\"origin\"".equals(etag));
+    assertEquals(etag, secondRecorder.getHeader("ETag"));
+  }
+
+  @Test
+  public void testNotModifiedWhenETagMatches() throws Exception {
+    String url = "http://example.org/data.html";
+    int[] rewrites = new int[1];
+    servlet.setHandler(makeCachingHandler(rewrites));
+    expectCachedPageRequests(url, 2);
+    expectRequest("", url);
+    Vector<String> headerNames = new Vector<String>();
+    headerNames.add("If-None-Match");
+    expect(request.getHeaderNames()).andReturn(headerNames.elements());
+    final String[] etag = new String[1];
+    expect(request.getHeaders("If-None-Match")).andAnswer(new IAnswer<Enumeration<String>>() {
+      public Enumeration<String> answer() {
+        return new Vector<String>(Arrays.asList("\"other\", " + etag[0])).elements();
+      }
+    });
+    replay();
+
+    servlet.doGet(request, recorder);
+    etag[0] = recorder.getHeader("ETag");
+    HttpServletResponseRecorder secondRecorder = new HttpServletResponseRecorder(response);
+    servlet.doGet(request, secondRecorder);
+    verify();
+
+    assertEquals(1, rewrites[0]);
+    assertEquals(304, secondRecorder.getHttpStatusCode());
+    assertEquals("", secondRecorder.getResponseAsString());
+    assertEquals(etag[0], secondRecorder.getHeader("ETag"));
+  }
+
+  @Test
+  public void testETagFollowsRewrittenContent() throws Exception {
+    String url = "http://example.org/data.html";
+    final int[] rewrites = new int[1];
+    ResponseRewriter versioningRewriter = new ResponseRewriter() {
+      public void rewrite(HttpRequest request, HttpResponseBuilder response, Gadget gadget) {
+        rewrites[0]++;
+        response.setContent("<script src=\"/proxy?v=" + rewrites[0] + "\"></script>");
+      }
+    };
+    AccelHandler handler = new AccelHandler(pipeline, new DefaultResponseRewriterRegistry(
+        Arrays.<ResponseRewriter>asList(versioningRewriter), null), accelUriManager, true);
+    handler.setCacheProvider(new LruCacheProvider(10));
+    servlet.setHandler(handler);
+    expectCachedPageRequests(url, 2);
+    expectRequest("", url);
+    Vector<String> headerNames = new Vector<String>();
+    headerNames.add("If-None-Match");
+    expect(request.getHeaderNames()).andReturn(headerNames.elements());
+    final String[] etag = new String[1];
+    expect(request.getHeaders("If-None-Match")).andAnswer(new IAnswer<Enumeration<String>>() {
+      public Enumeration<String> answer() {
+        return new Vector<String>(Arrays.asList(etag[0])).elements();
+      }
+    });
+    replay();
+
+    servlet.doGet(request, recorder);
+    etag[0] = recorder.getHeader("ETag");
+    // The unchanged page is rewritten again, but to a new resource version.
+    handler.setCacheProvider(new LruCacheProvider(10));
+    HttpServletResponseRecorder secondRecorder = new HttpServletResponseRecorder(response);
+    servlet.doGet(request, secondRecorder);
+    verify();
+
+    assertEquals(2, rewrites[0]);
+    assertEquals(200, secondRecorder.getHttpStatusCode());
+    assertEquals("<script src=\"/proxy?v=2\"></script>", secondRecorder.getResponseAsString());
+    assertFalse(etag[0].equals(secondRecorder.getHeader("ETag")));
+  }
+
+  @Test
+  public void testPageWithoutHashIsNotCached() throws Exception {
+    String url = "http://example.org/data.html";
+    String data = "<html><body>Hello World</body></html>";
+    int[] rewrites = new int[1];
+    servlet.setHandler(makeCachingHandler(rewrites));
+    HttpRequest req = new HttpRequest(Uri.parse(url));
+    req.addHeader("Host", Uri.parse(url).getAuthority());
+    HttpResponse resp = new HttpResponseBuilder()
+        .setResponse(data.getBytes())
+        .setHeader("Content-Type", "text/html")
+        .setHeader("ETag", "\"origin\"")
+        .setHttpStatusCode(200)
+        .create();
+    expect(pipeline.execute(req)).andReturn(resp).times(2);
+    expectRequest("", url);
+    Vector<String> headerNames = new Vector<String>();
+    expect(request.getHeaderNames()).andReturn(headerNames.elements());
+    replay();
+
+    servlet.doGet(request, recorder);
+    servlet.doGet(request, new HttpServletResponseRecorder(response));
+    verify();
+
+    assertEquals(2, rewrites[0]);
+    assertEquals(REWRITE_CONTENT, recorder.getResponseAsString());
+    assertNull(recorder.getHeader("ETag"));
+  }
 }
@@ -36,6 +36,8 @@ import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.shindig.auth.AuthInfoUtil;
 import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.servlet.HttpUtilTest;
 import org.apache.shindig.common.testing.FakeGadgetToken;
 import org.apache.shindig.common.uri.Uri;
@@ -52,6 +54,9 @@ import org.apache.shindig.gadgets.admin.GadgetAdminStore;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.http.HttpResponseMetadataHelper;
+import org.apache.shindig.gadgets.rewrite.DefaultResponseRewriterRegistry;
+import org.apache.shindig.gadgets.rewrite.ResponseRewriter;
 import org.apache.shindig.gadgets.uri.HashShaLockedDomainPrefixGenerator;
 import org.apache.shindig.gadgets.uri.UriCommon.Param;
 import org.easymock.Capture;
@@ -478,6 +483,87 @@ public class MakeRequestHandlerTest extends ServletTestFixture {
     assertTrue(rewriter.responseWasRewritten());
   }
 
+  @Test
+  public void testProcessedFeedIsCached() throws Exception {
+    String rss = "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+                 "<rss version=\"2.0\"><channel>" +
+                 "<title>dummy</title>" +
+                 "<link>http://example.org/</link>" +
+                 "</channel></rss>";
+    LruCacheProvider cacheProvider = new LruCacheProvider(10);
+    handler.setCacheProvider(cacheProvider);
+    Cache<String, String> cache = cacheProvider.createCache(MakeRequestHandler.PROCESSED_FEEDS);
+
+    expect(pipeline.execute(new HttpRequest(REQUEST_URL).setAuthType(AuthType.NONE)))
+        .andReturn(new HttpResponseBuilder().setResponseString(rss)
+            .setMetadata(HttpResponseMetadataHelper.DATA_HASH, "hash").create());
+    expect(request.getParameter(MakeRequestHandler.CONTENT_TYPE_PARAM)).andReturn("FEED");
+    replay();
+
+    handler.fetch(request, recorder);
+    JSONObject feed = new JSONObject(extractJsonFromResponse().getString("body"));
+
+    assertEquals("dummy", feed.getString("Title"));
+    String cached = cache.getElement("hash:false:3:" + REQUEST_URL);
+    assertEquals("dummy", new JSONObject(cached).getString("Title"));
+  }
+
+  @Test
+  public void testCachedFeedIsNotProcessed() throws Exception {
+    LruCacheProvider cacheProvider = new LruCacheProvider(10);
+    handler.setCacheProvider(cacheProvider);
+    Cache<String, String> cache = cacheProvider.createCache(MakeRequestHandler.PROCESSED_FEEDS);
+    cache.addElement("hash:true:2:" + REQUEST_URL, "{\"Title\":\"cached\"}");
+
+    expect(pipeline.execute(new HttpRequest(REQUEST_URL).setAuthType(AuthType.NONE)))
+        .andReturn(new HttpResponseBuilder().setResponseString("not a feed")
+            .setMetadata(HttpResponseMetadataHelper.DATA_HASH, "hash").create());
+    expect(request.getParameter(MakeRequestHandler.GET_SUMMARIES_PARAM)).andReturn("true");
+    expect(request.getParameter(MakeRequestHandler.NUM_ENTRIES_PARAM)).andReturn("2");
+    expect(request.getParameter(MakeRequestHandler.CONTENT_TYPE_PARAM)).andReturn("FEED");
+    replay();
+
+    handler.fetch(request, recorder);
+    JSONObject feed = new JSONObject(extractJsonFromResponse().getString("body"));
+
+    assertEquals("cached", feed.getString("Title"));
+  }
+
+  @Test
+  public void testRewrittenFeedIsNotCached() throws Exception {
+    final String rss = "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+                       "<rss version=\"2.0\"><channel>" +
+                       "<title>rewritten</title>" +
+                       "<link>http://example.org/</link>" +
+                       "</channel></rss>";
+    ResponseRewriter feedRewriter = new ResponseRewriter() {
+      public void rewrite(HttpRequest request, HttpResponseBuilder response, Gadget gadget) {
+        response.setContent(rss);
+      }
+    };
+    handler = new MakeRequestHandler(containerConfig, pipeline,
+        new DefaultResponseRewriterRegistry(Arrays.<ResponseRewriter>asList(feedRewriter), null),
+        feedProcessorProvider, gadgetAdminStore, processor, ldService);
+    LruCacheProvider cacheProvider = new LruCacheProvider(10);
+    handler.setCacheProvider(cacheProvider);
+    Cache<String, String> cache = cacheProvider.createCache(MakeRequestHandler.PROCESSED_FEEDS);
+    cache.addElement("hash:false:3:" + REQUEST_URL, "{\"Title\":\"cached\"}");
+
+    expect(pipeline.execute(new HttpRequest(REQUEST_URL).setAuthType(AuthType.NONE)))
+        .andReturn(new HttpResponseBuilder().setResponseString("not a feed")
+            .setMetadata(HttpResponseMetadataHelper.DATA_HASH, "hash").create());
+    expect(request.getParameter(MakeRequestHandler.CONTENT_TYPE_PARAM)).andReturn("FEED");
+    replay();
+
+    handler.fetch(request, recorder);
+    JSONObject results = extractJsonFromResponse();
+    JSONObject feed = new JSONObject(results.getString("body"));
+
+    assertEquals("rewritten", feed.getString("Title"));
+    // The metadata of the fetched response is still returned.
+    assertEquals("hash", results.getString(HttpResponseMetadataHelper.DATA_HASH));
+  }
+
   @Test
   public void testMultiPartFormPostWithSpecialChars() throws Exception {
     String body = "\u003c!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01//EN\" \"http://www.w3.org/TR/html4/strict.dtd\"\u003e"
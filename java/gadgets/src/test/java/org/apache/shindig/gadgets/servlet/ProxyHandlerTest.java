@@ -37,6 +37,7 @@ import org.apache.shindig.gadgets.admin.GadgetAdminStore;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.http.HttpResponseMetadataHelper;
 import org.apache.shindig.gadgets.http.RequestPipeline;
 import org.apache.shindig.gadgets.oauth.OAuthArguments;
 import org.apache.shindig.gadgets.oauth2.OAuth2Arguments;
@@ -330,6 +331,46 @@ public class ProxyHandlerTest extends EasyMockTestCase {
     verify();
   }
 
+  @Test
+  public void testDataHashKeptWhenNotRewritten() throws Exception {
+    setupNoArgsProxyRequestMock("www.example.com", URL_ONE);
+    setupGadgetAdminMock(true);
+    HttpResponse resp = new HttpResponseBuilder().setResponse(DATA_ONE.getBytes())
+        .setMetadata(HttpResponseMetadataHelper.DATA_HASH, "hash").create();
+    expect(pipeline.execute(isA(HttpRequest.class))).andReturn(resp);
+
+    replay();
+    HttpResponse response = proxyHandler.fetch(request);
+    verify();
+
+    assertEquals("hash", response.getMetadata().get(HttpResponseMetadataHelper.DATA_HASH));
+  }
+
+  @Test
+  public void testDataHashDroppedWhenRewritten() throws Exception {
+    setupNoArgsProxyRequestMock("www.example.com", URL_ONE);
+    setupGadgetAdminMock(true);
+    HttpResponse resp = new HttpResponseBuilder().setResponse(DATA_ONE.getBytes())
+        .setMetadata(HttpResponseMetadataHelper.DATA_HASH, "hash").create();
+    expect(pipeline.execute(isA(HttpRequest.class))).andReturn(resp);
+    ResponseRewriter rewriter = new ResponseRewriter() {
+      public void rewrite(HttpRequest request, HttpResponseBuilder builder, Gadget gadget) {
+        builder.setResponseString("rewritten");
+      }
+    };
+    ResponseRewriterRegistry rewriterRegistry =
+        new DefaultResponseRewriterRegistry(Arrays.<ResponseRewriter>asList(rewriter), null);
+    ProxyHandler proxyHandler = new ProxyHandler(pipeline, rewriterRegistry, true,
+        gadgetAdminStore, LONG_LIVED_REFRESH);
+
+    replay();
+    HttpResponse response = proxyHandler.fetch(request);
+    verify();
+
+    assertEquals("rewritten", response.getResponseAsString());
+    assertNull(response.getMetadata().get(HttpResponseMetadataHelper.DATA_HASH));
+  }
+
   // ProxyHandler throws INTERNAL_SERVER_ERRORS without isRecoverable() check.
   @Test
   public void testRecoverableRewritingException() throws Exception {
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.uri;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Provider;
+
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.http.HttpCache;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseMetadataHelper;
+import org.apache.shindig.gadgets.http.RequestPipeline;
+import org.apache.shindig.gadgets.uri.UriCommon.Param;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests the versioners that version resources by the hash of their cached content.
+ */
+public class ContentHashVersionerTest {
+  private static final String CONTAINER = "container";
+  private static final Uri RESOURCE_1 = Uri.parse("http://example.com/1.css");
+  private static final Uri RESOURCE_2 = Uri.parse("http://example.com/2.css");
+
+  private final Map<Uri, HttpResponse> cached = Maps.newHashMap();
+  private final Map<Uri, String> content = Maps.newHashMap();
+  private final List<Uri> fetched = Lists.newArrayList();
+  private final List<Runnable> tasks = Lists.newArrayList();
+  private final List<HttpRequest> lookups = Lists.newArrayList();
+
+  private ContentHashProxyVersioner proxyVersioner;
+  private ContentHashConcatVersioner concatVersioner;
+
+  @Before
+  public void setUp() {
+    HttpCache cache = new HttpCache() {
+      public HttpResponse getResponse(HttpRequest request) {
+        lookups.add(request);
+        return cached.get(request.getUri());
+      }
+
+      public HttpResponse addResponse(HttpRequest request, HttpResponse response) {
+        cached.put(request.getUri(), response);
+        return response;
+      }
+
+      public HttpResponse removeResponse(HttpRequest request) {
+        return cached.remove(request.getUri());
+      }
+
+      public String createKey(HttpRequest request) {
+        return request.getUri().toString();
+      }
+    };
+    final RequestPipeline pipeline = new RequestPipeline() {
+      public HttpResponse execute(HttpRequest request) {
+        fetched.add(request.getUri());
+        String body = content.get(request.getUri());
+        HttpResponse response = HttpResponseMetadataHelper.updateMetadata(
+            new HttpResponse(body), ImmutableMap.of(HttpResponseMetadataHelper.DATA_HASH, body));
+        cached.put(request.getUri(), response);
+        return response;
+      }
+    };
+    Executor executor = new Executor() {
+      public void execute(Runnable task) {
+        tasks.add(task);
+      }
+    };
+
+    CachedContentHashes hashes = new CachedContentHashes(cache, new Provider<RequestPipeline>() {
+      public RequestPipeline get() {
+        return pipeline;
+      }
+    }, executor);
+    proxyVersioner = new ContentHashProxyVersioner(hashes);
+    concatVersioner = new ContentHashConcatVersioner(hashes);
+
+    content.put(RESOURCE_1, "hash1");
+    content.put(RESOURCE_2, "hash2");
+  }
+
+  private void runTasks() {
+    for (Runnable task : tasks) {
+      task.run();
+    }
+    tasks.clear();
+  }
+
+  @Test
+  public void proxyVersionAfterFetch() {
+    List<Uri> resources = ImmutableList.of(RESOURCE_1, RESOURCE_1);
+    assertEquals(Lists.newArrayList(null, null),
+        proxyVersioner.version(resources, CONTAINER, null));
+    proxyVersioner.version(resources, CONTAINER, null);
+    assertEquals(1, tasks.size());
+
+    runTasks();
+    assertEquals(ImmutableList.of(RESOURCE_1), fetched);
+    assertEquals(ImmutableList.of("hash1", "hash1"),
+        proxyVersioner.version(resources, CONTAINER, null));
+  }
+
+  @Test
+  public void proxyLookupMatchesServedRequest() throws Exception {
+    proxyVersioner.version(ImmutableList.of(RESOURCE_1), CONTAINER, null);
+    HttpRequest served = new ProxyUriManager.ProxyUri(null, false, false, CONTAINER, null,
+        RESOURCE_1).makeHttpRequest(RESOURCE_1);
+    HttpRequest lookup = lookups.get(0);
+    assertEquals(served.getParam(Param.NO_EXPAND.getKey()),
+        lookup.getParam(Param.NO_EXPAND.getKey()));
+    assertEquals(served.getAuthType(), lookup.getAuthType());
+    assertEquals(CONTAINER, lookup.getContainer());
+    assertNull(lookup.getHeader("User-Agent"));
+  }
+
+  @Test
+  public void proxyValidate() {
+    assertEquals(UriStatus.VALID_UNVERSIONED, proxyVersioner.validate(RESOURCE_1, CONTAINER, null));
+    assertEquals(UriStatus.VALID_UNVERSIONED,
+        proxyVersioner.validate(RESOURCE_1, CONTAINER, "hash1"));
+
+    runTasks();
+    assertEquals(UriStatus.VALID_VERSIONED,
+        proxyVersioner.validate(RESOURCE_1, CONTAINER, "hash1"));
+    assertEquals(UriStatus.INVALID_VERSION, proxyVersioner.validate(RESOURCE_1, CONTAINER, "old"));
+  }
+
+  @Test
+  public void concatVersionNeedsAllResources() {
+    List<List<Uri>> batches = ImmutableList.<List<Uri>>of(
+        ImmutableList.of(RESOURCE_1, RESOURCE_2), ImmutableList.of(RESOURCE_1));
+    proxyVersioner.version(ImmutableList.of(RESOURCE_1), CONTAINER, null);
+    runTasks();
+
+    List<String> versions = concatVersioner.version(batches, CONTAINER, null);
+    assertNull(versions.get(0));
+    assertNotNull(versions.get(1));
+
+    runTasks();
+    versions = concatVersioner.version(batches, CONTAINER, null);
+    assertNotNull(versions.get(0));
+    assertEquals(UriStatus.VALID_VERSIONED,
+        concatVersioner.validate(batches.get(0), CONTAINER, versions.get(0)));
+    assertEquals(UriStatus.INVALID_VERSION,
+        concatVersioner.validate(batches.get(0), CONTAINER, versions.get(1)));
+    assertEquals(UriStatus.VALID_UNVERSIONED,
+        concatVersioner.validate(batches.get(0), CONTAINER, null));
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.core.oauth2;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+
+import org.apache.shindig.common.util.TimeSource;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+
+/**
+ * Codes of one type (authorization codes, access tokens or refresh tokens), indexed by value.
+ *
+ * Lookups are a single read of a concurrent map.  Codes with an expiration are also queued by
+ * expiration, and each lookup or registration first drops the codes that expired more than
+ * {@link #EXPIRED_RETENTION} ago, which only costs a peek at the queue when there are none.
+ * Until then an expired code can still be found, so validators can tell it apart from an
+ * unknown one.
+ */
+final class OAuth2CodeStore {
+  /** How long expired codes are kept, in milliseconds */
+  static final long EXPIRED_RETENTION = 10 * 60 * 1000L;
+
+  private final ConcurrentMap<String, Registration> codes = Maps.newConcurrentMap();
+  private final PriorityBlockingQueue<Registration> expirations =
+      new PriorityBlockingQueue<Registration>();
+  private final TimeSource timeSource;
+
+  OAuth2CodeStore(TimeSource timeSource) {
+    this.timeSource = timeSource;
+  }
+
+  /**
+   * @param clientId the client the code must be registered with, or null for any client.
+   * @return the code, or null.
+   */
+  OAuth2Code get(String clientId, String value) {
+    removeExpired();
+    Registration registration = value == null ? null : codes.get(value);
+    if (registration == null || (clientId != null && !clientId.equals(registration.clientId))) {
+      return null;
+    }
+    return registration.code;
+  }
+
+  /**
+   * Registers a code, replacing any code with the same value.
+   */
+  void register(String clientId, OAuth2Code code) {
+    removeExpired();
+    Registration registration = new Registration(clientId, code);
+    codes.put(registration.value, registration);
+    if (code.getExpiration() > -1) {
+      registration.removeAt = code.getExpiration() + EXPIRED_RETENTION;
+      expirations.offer(registration);
+    }
+  }
+
+  /**
+   * @return false if the client has no code with that value.
+   */
+  boolean unregister(String clientId, String value) {
+    removeExpired();
+    Registration registration = value == null ? null : codes.get(value);
+    return registration != null && Objects.equal(registration.clientId, clientId)
+        && codes.remove(value, registration);
+  }
+
+  int size() {
+    return codes.size();
+  }
+
+  /**
+   * Drops the codes that expired more than EXPIRED_RETENTION ago.  Codes whose expiration was
+   * extended after they were registered are queued again.
+   */
+  void removeExpired() {
+    long now = timeSource.currentTimeMillis();
+    Registration head = expirations.peek();
+    while (head != null && head.removeAt <= now) {
+      head = expirations.poll();
+      if (head == null) {
+        return;
+      }
+      if (head.removeAt > now) {
+        // Another thread took the one we peeked at
+        expirations.offer(head);
+        return;
+      }
+      long expiration = head.code.getExpiration();
+      if (expiration > -1 && expiration + EXPIRED_RETENTION <= now) {
+        codes.remove(head.value, head);
+      } else if (expiration > -1) {
+        head.removeAt = expiration + EXPIRED_RETENTION;
+        expirations.offer(head);
+      }
+      head = expirations.peek();
+    }
+  }
+
+  private static final class Registration implements Comparable<Registration> {
+    final String clientId;
+    final String value;
+    final OAuth2Code code;
+    /** Only changed while the registration is not queued */
+    volatile long removeAt;
+
+    Registration(String clientId, OAuth2Code code) {
+      this.clientId = clientId;
+      this.value = code.getValue();
+      this.code = code;
+    }
+
+    public int compareTo(Registration that) {
+      return removeAt < that.removeAt ? -1 : (removeAt == that.removeAt ? 0 : 1);
+    }
+  }
+}
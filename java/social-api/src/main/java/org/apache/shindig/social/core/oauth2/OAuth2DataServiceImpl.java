@@ -18,13 +18,14 @@
  */
 package org.apache.shindig.social.core.oauth2;
 
-import java.util.List;
 import java.util.Map;
+import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.shindig.common.util.ResourceLoader;
+import org.apache.shindig.common.util.TimeSource;
 import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.protocol.conversion.BeanConverter;
 import org.apache.shindig.social.core.oauth2.OAuth2Client.ClientType;
@@ -32,123 +33,96 @@ import org.apache.shindig.social.core.oauth2.OAuth2Types.CodeType;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
+/**
+ * OAuth 2.0 data service backed by the canonical JSON DB.  Clients are indexed by id, and
+ * codes and tokens by value, so the lookups done for every bearer-authenticated request are
+ * hash lookups.  Expired codes and tokens are dropped after a while, see {@link OAuth2CodeStore}.
+ */
 public class OAuth2DataServiceImpl implements OAuth2DataService {
+  private static final Logger LOG = Logger.getLogger(OAuth2DataServiceImpl.class.getName());
 
   private JSONObject oauthDB; // the OAuth 2.0 JSON DB
   private BeanConverter converter; // the JSON<->Bean converter
-  private List<OAuth2Client> clients; // list of clients
-  private Map<String, List<OAuth2Code>> authCodes; // authorization codes per client
-  private Map<String, List<OAuth2Code>> accessTokens; // access tokens per client
+  private Map<String, OAuth2Client> clients; // clients by id
+  private OAuth2CodeStore authCodes; // authorization codes
+  private OAuth2CodeStore accessTokens; // access tokens
+  private OAuth2CodeStore refreshTokens; // refresh tokens
 
   @Inject
   public OAuth2DataServiceImpl(
       @Named("shindig.canonical.json.db") String jsonLocation,
       @Named("shindig.bean.converter.json") BeanConverter converter,
-      @Named("shindig.contextroot") String contextroot) throws Exception {
+      @Named("shindig.contextroot") String contextroot,
+      TimeSource timeSource) throws Exception {
     String content = IOUtils.toString(ResourceLoader.openResource(jsonLocation), "UTF-8");
     content = content.replace("%contextRoot%", contextroot);
     this.oauthDB = new JSONObject(content).getJSONObject("oauth2");
     this.converter = converter;
-    this.clients = Lists.newArrayList();
-    this.authCodes = Maps.newHashMap();
-    this.accessTokens = Maps.newHashMap();
+    this.clients = Maps.newConcurrentMap();
+    this.authCodes = new OAuth2CodeStore(timeSource);
+    this.accessTokens = new OAuth2CodeStore(timeSource);
+    this.refreshTokens = new OAuth2CodeStore(timeSource);
     loadClientsFromCanonical();
   }
 
   public OAuth2Client getClient(String clientId) {
-    for (OAuth2Client client : clients) {
-      if (client.getId().equals(clientId)) {
-        return client;
-      }
-    }
-    return null;
+    return clientId == null ? null : clients.get(clientId);
   }
 
   public OAuth2Code getAuthorizationCode(String clientId, String authCode) {
-    if (authCodes.containsKey(clientId)) {
-      List<OAuth2Code> codes = authCodes.get(clientId);
-      for (OAuth2Code code : codes) {
-        if (code.getValue().equals(authCode)) {
-          return code;
-        }
-      }
-    }
-    return null;
+    return clientId == null ? null : authCodes.get(clientId, authCode);
   }
 
   public void registerAuthorizationCode(String clientId, OAuth2Code authCode) {
-    if (authCodes.containsKey(clientId)) {
-      authCodes.get(clientId).add(authCode);
-    } else {
-      List<OAuth2Code> list = Lists.newArrayList();
-      list.add(authCode);
-      authCodes.put(clientId, list);
-    }
+    authCodes.register(clientId, authCode);
   }
 
   public void unregisterAuthorizationCode(String clientId, String authCode) {
-    if (authCodes.containsKey(clientId)) {
-      List<OAuth2Code> codes = authCodes.get(clientId);
-      for (OAuth2Code code : codes) {
-        if (code.getValue().equals(authCode)) {
-          codes.remove(code);
-          return;
-        }
-      }
+    if (!authCodes.unregister(clientId, authCode)) {
+      throw notFound("authorization code", clientId);
     }
-    throw new RuntimeException("signature not found"); // TODO (Eric): handle error
   }
 
   public OAuth2Code getAccessToken(String accessToken) {
-    for (String clientId : accessTokens.keySet()) {
-      List<OAuth2Code> tokens = accessTokens.get(clientId);
-      for (OAuth2Code token : tokens) {
-        if (token.getValue().equals(accessToken)) {
-          return token;
-        }
-      }
-    }
-    return null;
+    return accessTokens.get(null, accessToken);
   }
 
   public void registerAccessToken(String clientId, OAuth2Code accessToken) {
-    if (accessTokens.containsKey(clientId)) {
-      accessTokens.get(clientId).add(accessToken);
-    } else {
-      List<OAuth2Code> list = Lists.newArrayList();
-      list.add(accessToken);
-      accessTokens.put(clientId, list);
-    }
+    accessTokens.register(clientId, accessToken);
   }
 
   public void unregisterAccessToken(String clientId, String accessToken) {
-    if (accessTokens.containsKey(clientId)) {
-      List<OAuth2Code> tokens = accessTokens.get(clientId);
-      for (OAuth2Code token : tokens) {
-        if (token.getValue().equals(accessToken)) {
-          tokens.remove(token);
-          return;
-        }
-      }
+    if (!accessTokens.unregister(clientId, accessToken)) {
+      throw notFound("access token", clientId);
     }
-    throw new RuntimeException("access token not found"); // TODO (Eric): handle error
   }
 
   public OAuth2Code getRefreshToken(String refreshToken) {
-    throw new RuntimeException("not yet implemented");
+    return refreshTokens.get(null, refreshToken);
   }
 
   public void registerRefreshToken(String clientId, OAuth2Code refreshToken) {
-    throw new RuntimeException("not yet implemented");
+    refreshTokens.register(clientId, refreshToken);
   }
 
   public void unregisterRefreshToken(String clientId, String refreshToken) {
-    throw new RuntimeException("not yet implemented");
+    if (!refreshTokens.unregister(clientId, refreshToken)) {
+      throw notFound("refresh token", clientId);
+    }
+  }
+
+  /**
+   * Logs a code that could not be unregistered, because it is unknown, belongs to another
+   * client or expired a while ago, and returns the exception to report it to the caller with.
+   */
+  private static IllegalArgumentException notFound(String type, String clientId) {
+    String message = type + " not found for client " + clientId;
+    LOG.warning(message);
+    return new IllegalArgumentException(message);
   }
 
   private void loadClientsFromCanonical() {
@@ -158,7 +132,7 @@ public class OAuth2DataServiceImpl implements OAuth2DataService {
         clientJson = oauthDB.getJSONObject(clientId).getJSONObject("registration");
         OAuth2Client client = converter.convertToObject(clientJson.toString(), OAuth2Client.class);
         client.setType(clientJson.getString("type").equals("public") ? ClientType.PUBLIC : ClientType.CONFIDENTIAL);
-        clients.add(client);
+        clients.put(client.getId(), client);
         JSONObject clientJS = oauthDB.getJSONObject(clientId);
         if (clientJS.has("authorizationCodes")) {
           JSONObject authCodes = clientJS.getJSONObject("authorizationCodes");
@@ -25,6 +25,9 @@ import org.apache.shindig.protocol.conversion.BeanXStreamConverter;
 import org.apache.shindig.protocol.conversion.xstream.XStreamConfiguration;
 import org.apache.shindig.social.core.util.atom.AtomFeed;
 
+import java.io.IOException;
+import java.io.Writer;
+
 /**
  * Converts output to atom.
  * TODO: Move to common once atom binding can be decoupled form social code
@@ -52,15 +55,15 @@ public class BeanXStreamAtomConverter extends BeanXStreamConverter {
   /**
    * {@inheritDoc}
    *
-   * @see org.apache.shindig.protocol.conversion.BeanXStreamConverter#convertToString(java.lang.Object)
+   * @see org.apache.shindig.protocol.conversion.BeanXStreamConverter#write(java.io.Writer, java.lang.Object)
    */
   @Override
-  public String convertToString(Object obj) {
+  public void write(Writer writer, Object obj) throws IOException {
     writerStack.reset();
     AtomFeed af = new AtomFeed(obj);
     XStreamConfiguration.ConverterConfig cc = converterMap.get(XStreamConfiguration.ConverterSet.DEFAULT);
     cc.mapper.setBaseObject(af); // thread safe method
 
-    return cc.xstream.toXML(af);
+    cc.xstream.toXML(af, writer);
   }
 }
@@ -40,10 +40,19 @@ import com.google.inject.Inject;
 public class AppDataHandler {
 
   private final AppDataService service;
+  private final SocialDataLoader dataLoader;
 
-  @Inject
   public AppDataHandler(AppDataService service) {
+    this(service, new SocialDataLoader(null, service));
+  }
+
+  /**
+   * @param dataLoader combines the @self app data lookups of the items of a batch
+   */
+  @Inject
+  public AppDataHandler(AppDataService service, SocialDataLoader dataLoader) {
     this.service = service;
+    this.dataLoader = dataLoader;
   }
 
   /**
@@ -64,6 +73,7 @@ public class AppDataHandler {
     HandlerPreconditions.requireNotEmpty(userIds, "No userId specified");
     HandlerPreconditions.requireSingular(userIds, "Multiple userIds not supported");
 
+    dataLoader.flush(request.getToken());
     return service.deletePersonData(userIds.iterator().next(), request.getGroup(),
         request.getAppId(), request.getFields(), request.getToken());
   }
@@ -107,6 +117,7 @@ public class AppDataHandler {
       }
     }
 
+    dataLoader.flush(request.getToken());
     return service.updatePersonData(userIds.iterator().next(), request.getGroup(),
         request.getAppId(), request.getFields(), values, request.getToken());
   }
@@ -123,7 +134,7 @@ public class AppDataHandler {
     // Preconditions
     HandlerPreconditions.requireNotEmpty(userIds, "No userId specified");
 
-    return service.getPersonData(userIds, request.getGroup(),
+    return dataLoader.getPersonData(userIds, request.getGroup(),
         request.getAppId(), request.getFields(), request.getToken());
   }
 
@@ -53,6 +53,7 @@ public class PersonHandler {
   private final PersonService personService;
   private final ContainerConfig config;
   private final CollectionOptionsFactory collectionOptionsFactory;
+  private final SocialDataLoader dataLoader;
 
 
   // Return a future for the first item of a collection
@@ -69,13 +70,24 @@ public class PersonHandler {
     return Futures.lazyTransform(collection, firstItem);
   }
 
-  @Inject
   public PersonHandler(
       PersonService personService, ContainerConfig config,
       CollectionOptionsFactory collectionOptionsFactory) {
+    this(personService, config, collectionOptionsFactory,
+        new SocialDataLoader(personService, null));
+  }
+
+  /**
+   * @param dataLoader merges the person lookups of the items of a batch
+   */
+  @Inject
+  public PersonHandler(
+      PersonService personService, ContainerConfig config,
+      CollectionOptionsFactory collectionOptionsFactory, SocialDataLoader dataLoader) {
     this.personService = personService;
     this.config = config;
     this.collectionOptionsFactory = collectionOptionsFactory;
+    this.dataLoader = dataLoader;
   }
 
   /**
@@ -107,7 +119,7 @@ public class PersonHandler {
                 userIds, groupId, options, fields, request.getToken());
             return firstItem(people);
           } else {
-            return personService.getPerson(userIds.iterator().next(), fields, request.getToken());
+            return dataLoader.getPerson(userIds.iterator().next(), fields, request.getToken());
           }
         } else {
           return personService.getPeople(userIds, groupId, options, fields, request.getToken());
@@ -152,6 +164,7 @@ public class PersonHandler {
     UserId userId = userIds.iterator().next();
 
     // Update person and return it
+    dataLoader.flush(request.getToken());
     return personService.updatePerson(Iterables.getOnlyElement(userIds),
         request.getTypedParameter("person", Person.class),
         request.getToken());
@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.opensocial.service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.shindig.auth.AnonymousSecurityToken;
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.DataCollection;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.protocol.model.FilterOperation;
+import org.apache.shindig.protocol.model.SortOrder;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.AppDataService;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.GroupId;
+import org.apache.shindig.social.opensocial.spi.PersonService;
+import org.apache.shindig.social.opensocial.spi.UserId;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Combines the person and app data lookups of the items of a request.
+ *
+ * Handlers register lookups as they execute and return the Future they get back. The lookups
+ * are only issued when one of those Futures is first read, which for a JSON-RPC batch is after
+ * every item has executed, or when a handler is about to write, see {@link #flush}. Person
+ * lookups with the same fields are then merged into a single getPeople call for the @self group,
+ * and app data lookups of the @self group with the same app id and fields into a single
+ * getPersonData call. The result of a merged call is split back per lookup.
+ *
+ * A lookup that has nothing to be merged with is passed to the SPI unchanged. If a merged call
+ * fails, or does not answer a lookup completely, the affected lookups are issued on their own,
+ * so every item gets the result or the error it would have had without batching. Identical
+ * lookups issued on their own share a single call.
+ *
+ * Pending lookups are kept per SecurityToken, which all items of a request share. When the
+ * items of a batch are executed in parallel each item reads its own Future right away, so
+ * lookups are only merged if they happen to be pending at the same time.
+ */
+@Singleton
+public class SocialDataLoader {
+  private final PersonService personService;
+  private final AppDataService appDataService;
+
+  /** Tokens are compared by identity, and a batch is dropped with its last lookup */
+  private final LoadingCache<SecurityToken, Batch> batches = CacheBuilder.newBuilder()
+      .weakKeys()
+      .weakValues()
+      .build(new CacheLoader<SecurityToken, Batch>() {
+        public Batch load(SecurityToken token) {
+          return new Batch();
+        }
+      });
+
+  /**
+   * @param personService the person service, may be null if getPerson is not used.
+   * @param appDataService the app data service, may be null if getPersonData is not used.
+   */
+  @Inject
+  public SocialDataLoader(PersonService personService, AppDataService appDataService) {
+    this.personService = personService;
+    this.appDataService = appDataService;
+  }
+
+  /**
+   * @see PersonService#getPerson(UserId, Set, SecurityToken)
+   */
+  public Future<Person> getPerson(UserId id, Set<String> fields, SecurityToken token)
+      throws ProtocolException {
+    String userId = token == null ? null : id.getUserId(token);
+    if (userId == null || AnonymousSecurityToken.ANONYMOUS_ID.equals(userId)) {
+      return personService.getPerson(id, fields, token);
+    }
+    PersonLookup lookup = new PersonLookup(id, userId, fields, token);
+    batches.getUnchecked(token).add(lookup);
+    return lookup;
+  }
+
+  /**
+   * @see AppDataService#getPersonData(Set, GroupId, String, Set, SecurityToken)
+   */
+  public Future<DataCollection> getPersonData(Set<UserId> userIds, GroupId groupId,
+      String appId, Set<String> fields, SecurityToken token) throws ProtocolException {
+    if (token == null || groupId.getType() != GroupId.Type.self) {
+      return appDataService.getPersonData(userIds, groupId, appId, fields, token);
+    }
+    PersonDataLookup lookup = new PersonDataLookup(userIds, groupId, appId, fields, token);
+    batches.getUnchecked(token).add(lookup);
+    return lookup;
+  }
+
+  /**
+   * Issues the pending lookups of a request. Handlers call this before they change person or app
+   * data, so that lookups made earlier in a batch do not see the change.
+   */
+  public void flush(SecurityToken token) {
+    if (token != null) {
+      Batch batch = batches.getIfPresent(token);
+      if (batch != null) {
+        batch.flush();
+      }
+    }
+  }
+
+  /**
+   * The lookups of a request that have not been issued yet.
+   */
+  private static final class Batch {
+    private List<Lookup<?>> pending = Lists.newArrayList();
+
+    synchronized void add(Lookup<?> lookup) {
+      lookup.batch = this;
+      pending.add(lookup);
+    }
+
+    /**
+     * Issues the pending lookups. Lookups that another thread is issuing are left to it.
+     */
+    void flush() {
+      List<Lookup<?>> lookups;
+      synchronized (this) {
+        if (pending.isEmpty()) {
+          return;
+        }
+        lookups = pending;
+        pending = Lists.newArrayList();
+      }
+
+      Map<List<?>, List<Lookup<?>>> groups = Maps.newLinkedHashMap();
+      for (Lookup<?> lookup : lookups) {
+        List<Lookup<?>> group = groups.get(lookup.getKey());
+        if (group == null) {
+          group = Lists.newArrayList();
+          groups.put(lookup.getKey(), group);
+        }
+        group.add(lookup);
+      }
+      for (List<Lookup<?>> group : groups.values()) {
+        if (group.size() == 1) {
+          group.get(0).executeAlone();
+        } else {
+          group.get(0).executeAll(group);
+        }
+      }
+    }
+  }
+
+  /**
+   * The lookup of one item, completed when its batch is flushed.
+   */
+  private abstract static class Lookup<V> extends AbstractFuture<V> {
+    private Batch batch;
+
+    /** Lookups with equal keys can be merged */
+    abstract List<?> getKey();
+
+    /** Issues this lookup on its own */
+    abstract Future<V> execute() throws ProtocolException;
+
+    /**
+     * Issues lookups with the same key as this one in a single call, falling back to
+     * {@link #executeAlone()} for the lookups that call does not answer.
+     */
+    abstract void executeAll(List<Lookup<?>> lookups);
+
+    void executeAlone() {
+      try {
+        Future<V> future = execute();
+        set(future.get());
+      } catch (ProtocolException e) {
+        setException(e);
+      } catch (ExecutionException e) {
+        setException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        setException(e);
+      } catch (RuntimeException e) {
+        setException(e);
+      }
+    }
+
+    /**
+     * @return the result of a merged call, or null if it failed.
+     */
+    static <T> T getQuietly(Future<T> future) {
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        return null;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      } catch (RuntimeException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+      batch.flush();
+      return super.get();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit)
+        throws InterruptedException, TimeoutException, ExecutionException {
+      batch.flush();
+      return super.get(timeout, unit);
+    }
+  }
+
+  private final class PersonLookup extends Lookup<Person> {
+    private final UserId id;
+    private final String userId;
+    private final Set<String> fields;
+    private final SecurityToken token;
+
+    PersonLookup(UserId id, String userId, Set<String> fields, SecurityToken token) {
+      this.id = id;
+      this.userId = userId;
+      this.fields = fields;
+      this.token = token;
+    }
+
+    @Override
+    List<?> getKey() {
+      return Arrays.asList(PersonLookup.class, fields);
+    }
+
+    @Override
+    Future<Person> execute() throws ProtocolException {
+      return personService.getPerson(id, fields, token);
+    }
+
+    @Override
+    void executeAll(List<Lookup<?>> lookups) {
+      Map<String, UserId> ids = Maps.newLinkedHashMap();
+      for (Lookup<?> lookup : lookups) {
+        PersonLookup personLookup = (PersonLookup) lookup;
+        if (!ids.containsKey(personLookup.userId)) {
+          ids.put(personLookup.userId, personLookup.id);
+        }
+      }
+      CollectionOptions options = new CollectionOptions();
+      options.setSortBy(PersonService.TOP_FRIENDS_SORT);
+      options.setSortOrder(SortOrder.ascending);
+      options.setFilterOperation(FilterOperation.contains);
+      options.setFilterValue("");
+      options.setMax(ids.size());
+
+      Map<String, Person> people = Maps.newHashMap();
+      RestfulCollection<Person> collection = null;
+      try {
+        collection = getQuietly(personService.getPeople(Sets.newLinkedHashSet(ids.values()),
+            new GroupId(GroupId.Type.self, null), options, fields, token));
+      } catch (ProtocolException e) {
+        // Each lookup is retried below, and fails on its own
+      }
+      if (collection != null && collection.getList() != null) {
+        for (Person person : collection.getList()) {
+          people.put(person.getId(), person);
+        }
+      }
+
+      // getPeople leaves out the people it can't find, where getPerson answers with an error,
+      // so those are looked up on their own, once per user
+      Map<String, PersonLookup> alone = Maps.newHashMap();
+      for (Lookup<?> lookup : lookups) {
+        PersonLookup personLookup = (PersonLookup) lookup;
+        Person person = people.get(personLookup.userId);
+        PersonLookup same = alone.get(personLookup.userId);
+        if (person != null) {
+          personLookup.set(person);
+        } else if (same == null) {
+          alone.put(personLookup.userId, personLookup);
+          personLookup.executeAlone();
+        } else {
+          try {
+            personLookup.set(same.get());
+          } catch (ExecutionException e) {
+            personLookup.setException(e.getCause());
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            personLookup.setException(e);
+          }
+        }
+      }
+    }
+  }
+
+  private final class PersonDataLookup extends Lookup<DataCollection> {
+    private final Set<UserId> userIds;
+    private final GroupId groupId;
+    private final String appId;
+    private final Set<String> fields;
+    private final SecurityToken token;
+
+    PersonDataLookup(Set<UserId> userIds, GroupId groupId, String appId, Set<String> fields,
+        SecurityToken token) {
+      this.userIds = userIds;
+      this.groupId = groupId;
+      this.appId = appId;
+      this.fields = fields;
+      this.token = token;
+    }
+
+    @Override
+    List<?> getKey() {
+      return Arrays.asList(PersonDataLookup.class, appId, fields);
+    }
+
+    @Override
+    Future<DataCollection> execute() throws ProtocolException {
+      return appDataService.getPersonData(userIds, groupId, appId, fields, token);
+    }
+
+    @Override
+    void executeAll(List<Lookup<?>> lookups) {
+      Set<UserId> ids = Sets.newLinkedHashSet();
+      for (Lookup<?> lookup : lookups) {
+        ids.addAll(((PersonDataLookup) lookup).userIds);
+      }
+
+      DataCollection collection = null;
+      try {
+        collection = getQuietly(appDataService.getPersonData(ids, groupId, appId, fields, token));
+      } catch (ProtocolException e) {
+        // Each lookup is retried below, and fails on its own
+      }
+      Map<String, Map<String, Object>> data = collection == null ? null : collection.getEntry();
+
+      for (Lookup<?> lookup : lookups) {
+        PersonDataLookup dataLookup = (PersonDataLookup) lookup;
+        Map<String, Map<String, Object>> entry = data == null ? null : dataLookup.split(data);
+        if (entry != null) {
+          dataLookup.set(new DataCollection(entry));
+        } else {
+          dataLookup.executeAlone();
+        }
+      }
+    }
+
+    /**
+     * @return the data of this lookup's users, or null if some of them are missing.
+     */
+    private Map<String, Map<String, Object>> split(Map<String, Map<String, Object>> data) {
+      Map<String, Map<String, Object>> entry = Maps.newHashMap();
+      for (UserId id : userIds) {
+        String userId = id.getUserId(token);
+        if (!data.containsKey(userId)) {
+          return null;
+        }
+        entry.put(userId, data.get(userId));
+      }
+      return entry;
+    }
+  }
+}
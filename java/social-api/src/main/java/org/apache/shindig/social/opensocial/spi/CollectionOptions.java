@@ -45,6 +45,7 @@ public class CollectionOptions {
   private int first;
   private int max;
   private Date updatedSince;
+  private String pageToken;
 
   private Map<String, String> optionalParameters;
   private static final String[] predefinedParameters= {
@@ -56,6 +57,7 @@ public class CollectionOptions {
       RequestItem.SORT_BY,
       RequestItem.SORT_ORDER,
       RequestItem.START_INDEX,
+      RequestItem.PAGE_TOKEN,
       "userId",
       "groupId"
     };
@@ -73,6 +75,7 @@ public class CollectionOptions {
     this.setFirst(request.getStartIndex());
     this.setMax(request.getCount());
     this.setUpdatedSince(request.getUpdatedSince());
+    this.setPageToken(request.getParameter(RequestItem.PAGE_TOKEN));
     Set<String> parameterNames = Sets.newHashSet(request.getParameterNames());
     parameterNames.removeAll(Arrays.asList(predefinedParameters));
     Map<String, String> optionalParameters = Maps.newHashMap();
@@ -189,6 +192,20 @@ public class CollectionOptions {
     this.updatedSince = updatedSince;
   }
 
+  /**
+   * An opaque continuation token returned as nextPageToken by a previous request. When set,
+   * services that support it return the page after the one the token came from and ignore first.
+   *
+   * @return the continuation token, or null
+   */
+  public String getPageToken() {
+    return pageToken;
+  }
+
+  public void setPageToken(String pageToken) {
+    this.pageToken = pageToken;
+  }
+
 
   // These are overriden so that EasyMock doesn't throw a fit
   @Override
@@ -208,13 +225,14 @@ public class CollectionOptions {
         && this.filterOperation == actual.filterOperation
         && Objects.equal(this.filterValue, actual.filterValue)
         && this.first == actual.first
-        && this.max == actual.max;
+        && this.max == actual.max
+        && Objects.equal(this.pageToken, actual.pageToken);
   }
 
   @Override
   public int hashCode() {
     return Objects.hashCode(this.sortBy, this.sortOrder, this.filter,
-        this.filterOperation, this.filterValue, this.first, this.max);
+        this.filterOperation, this.filterValue, this.first, this.max, this.pageToken);
   }
 
   public Map<String, String> getOptionalParameter() {
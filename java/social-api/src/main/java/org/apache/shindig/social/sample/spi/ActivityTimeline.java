@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.sample.spi;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Immutable, time-ordered entries of one user's activity stream.
+ *
+ * Times are kept in a primitive array in ascending order, next to the entries and their ids,
+ * so the entries at or after a time are found by binary search and read newest first without
+ * looking at older ones. Of two entries with the same time, the one added last counts as newer.
+ *
+ * Writes return a new timeline, copying the arrays once. Many entries are added with a
+ * {@link Builder}, which sorts them once instead.
+ */
+final class ActivityTimeline<T> {
+  @SuppressWarnings("rawtypes")
+  private static final ActivityTimeline EMPTY = new ActivityTimeline<Object>(new long[0],
+      new String[0], new Object[0]);
+
+  private final long[] times;
+  private final String[] ids;
+  private final Object[] entries;
+  private final Map<String, Integer> positions;
+
+  private ActivityTimeline(long[] times, String[] ids, Object[] entries) {
+    this.times = times;
+    this.ids = ids;
+    this.entries = entries;
+    ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+    for (int i = 0; i < ids.length; i++) {
+      builder.put(ids[i], i);
+    }
+    this.positions = builder.build();
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> ActivityTimeline<T> empty() {
+    return EMPTY;
+  }
+
+  static <T> Builder<T> builder() {
+    return new Builder<T>();
+  }
+
+  int size() {
+    return ids.length;
+  }
+
+  /**
+   * @return the entry with the given id, or null.
+   */
+  @SuppressWarnings("unchecked")
+  T get(String id) {
+    Integer position = positions.get(id);
+    return position == null ? null : (T) entries[position];
+  }
+
+  /**
+   * @return a timeline where the entry with the given id, if any, is replaced by the given
+   *     entry at the given time.
+   */
+  ActivityTimeline<T> with(String id, long time, T entry) {
+    ActivityTimeline<T> timeline =
+        positions.containsKey(id) ? without(ImmutableList.of(id)) : this;
+    int size = timeline.ids.length;
+    int position = timeline.after(time);
+    long[] newTimes = new long[size + 1];
+    String[] newIds = new String[size + 1];
+    Object[] newEntries = new Object[size + 1];
+    insert(timeline.times, newTimes, position, time);
+    insert(timeline.ids, newIds, position, id);
+    insert(timeline.entries, newEntries, position, entry);
+    return new ActivityTimeline<T>(newTimes, newIds, newEntries);
+  }
+
+  /**
+   * @return a timeline without the entries with the given ids.
+   */
+  ActivityTimeline<T> without(Collection<String> removed) {
+    int size = 0;
+    long[] newTimes = new long[ids.length];
+    String[] newIds = new String[ids.length];
+    Object[] newEntries = new Object[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      if (!removed.contains(ids[i])) {
+        newTimes[size] = times[i];
+        newIds[size] = ids[i];
+        newEntries[size] = entries[i];
+        size++;
+      }
+    }
+    if (size == ids.length) {
+      return this;
+    }
+    return new ActivityTimeline<T>(Arrays.copyOf(newTimes, size), Arrays.copyOf(newIds, size),
+        Arrays.copyOf(newEntries, size));
+  }
+
+  /**
+   * Merges timelines newest first, keeping only entries at or after a time. Each timeline is
+   * positioned by binary search and the merge reads only the entries it returns or skips, so a
+   * page costs O(k log n + (first + max) log k) for k timelines.
+   *
+   * @param since the oldest time to return, or Long.MIN_VALUE for all entries.
+   * @param first the number of entries to skip.
+   * @param max the maximum number of entries to return.
+   * @return the page, with the number of entries at or after since as total.
+   */
+  static <T> CollectionQuery.Page<T> newest(List<ActivityTimeline<T>> timelines, long since,
+      int first, int max) {
+    PriorityQueue<Cursor<T>> queue = new PriorityQueue<Cursor<T>>(Math.max(1, timelines.size()));
+    int total = 0;
+    for (int i = 0; i < timelines.size(); i++) {
+      ActivityTimeline<T> timeline = timelines.get(i);
+      int oldest = timeline.atOrAfter(since);
+      total += timeline.ids.length - oldest;
+      if (oldest < timeline.ids.length) {
+        queue.add(new Cursor<T>(timeline, i, oldest));
+      }
+    }
+
+    first = Math.max(0, first);
+    ImmutableList.Builder<T> page = ImmutableList.builder();
+    for (int i = 0; i < first + (long) max && !queue.isEmpty(); i++) {
+      Cursor<T> cursor = queue.poll();
+      if (i >= first) {
+        page.add(cursor.entry());
+      }
+      if (cursor.next()) {
+        queue.add(cursor);
+      }
+    }
+    return new CollectionQuery.Page<T>(page.build(), Math.min(first, total), total, null);
+  }
+
+  /** The index of the first entry at or after a time */
+  private int atOrAfter(long time) {
+    int low = 0;
+    int high = times.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (times[mid] < time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /** The index of the first entry after a time */
+  private int after(long time) {
+    int low = 0;
+    int high = times.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (times[mid] <= time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static void insert(long[] source, long[] target, int position, long value) {
+    System.arraycopy(source, 0, target, 0, position);
+    target[position] = value;
+    System.arraycopy(source, position, target, position + 1, source.length - position);
+  }
+
+  private static <E> void insert(E[] source, E[] target, int position, E value) {
+    System.arraycopy(source, 0, target, 0, position);
+    target[position] = value;
+    System.arraycopy(source, position, target, position + 1, source.length - position);
+  }
+
+  /**
+   * Collects entries and sorts them by time once, in O(n log n). The result is the same as
+   * adding the entries one by one with {@link ActivityTimeline#with}: an entry replaces an
+   * earlier one with the same id, and of two entries with the same time the one added last
+   * counts as newer.
+   */
+  static final class Builder<T> {
+    private final Map<String, Added> added = Maps.newLinkedHashMap();
+
+    private Builder() {}
+
+    Builder<T> add(String id, long time, T entry) {
+      // Removing first moves a replaced entry to the end, as the one added last
+      added.remove(id);
+      added.put(id, new Added(id, time, entry));
+      return this;
+    }
+
+    ActivityTimeline<T> build() {
+      if (added.isEmpty()) {
+        return empty();
+      }
+      List<Added> sorted = Lists.newArrayList(added.values());
+      // The sort is stable, so entries with the same time stay in the order they were added
+      Collections.sort(sorted, new Comparator<Added>() {
+        public int compare(Added a, Added b) {
+          return a.time < b.time ? -1 : (a.time == b.time ? 0 : 1);
+        }
+      });
+      long[] times = new long[sorted.size()];
+      String[] ids = new String[sorted.size()];
+      Object[] entries = new Object[sorted.size()];
+      for (int i = 0; i < times.length; i++) {
+        Added entry = sorted.get(i);
+        times[i] = entry.time;
+        ids[i] = entry.id;
+        entries[i] = entry.entry;
+      }
+      return new ActivityTimeline<T>(times, ids, entries);
+    }
+
+    private static final class Added {
+      private final String id;
+      private final long time;
+      private final Object entry;
+
+      Added(String id, long time, Object entry) {
+        this.id = id;
+        this.time = time;
+        this.entry = entry;
+      }
+    }
+  }
+
+  /**
+   * Reads a timeline from its newest entry down to a position. Cursors order by the time of
+   * their current entry, newest first, and for equal times by the order of their timelines.
+   */
+  private static final class Cursor<T> implements Comparable<Cursor<T>> {
+    private final ActivityTimeline<T> timeline;
+    private final int order;
+    private final int oldest;
+    private int position;
+
+    Cursor(ActivityTimeline<T> timeline, int order, int oldest) {
+      this.timeline = timeline;
+      this.order = order;
+      this.oldest = oldest;
+      this.position = timeline.ids.length - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    T entry() {
+      return (T) timeline.entries[position];
+    }
+
+    boolean next() {
+      return --position >= oldest;
+    }
+
+    public int compareTo(Cursor<T> that) {
+      long time = timeline.times[position];
+      long thatTime = that.timeline.times[that.position];
+      if (time != thatTime) {
+        return time > thatTime ? -1 : 1;
+      }
+      return order < that.order ? -1 : (order == that.order ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.sample.spi;
+
+import java.util.Comparator;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.model.FilterOperation;
+import org.apache.shindig.protocol.model.SortOrder;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
+
+/**
+ * Sorts and pages a collection without sorting all of it.
+ *
+ * Items come in their natural order, identified by an ordinal, and may carry a value to sort
+ * by. In natural order a page is a sublist. When sorting by value only the first + max smallest
+ * items are selected, in O(n log k), and ties are broken by ordinal so the order is total.
+ *
+ * Each page but the last gets an opaque continuation token naming its last item. A request that
+ * passes the token back gets the items after that item, whatever first says. In natural order
+ * the cursor is found by binary search. Sorted pages still compare every item with the cursor,
+ * as there is no sorted index to search, but only keep max items while doing so.
+ */
+final class CollectionQuery<T> {
+  private static final String NATURAL_ORDER = "";
+
+  private final String sortBy;
+  private final boolean descending;
+  private final Ordering<Item<T>> ordering;
+
+  /**
+   * @param sortBy the field the items' sort values come from, or null for natural order.
+   * @param sortOrder the sort order, ignored in natural order.
+   */
+  CollectionQuery(String sortBy, SortOrder sortOrder) {
+    this.sortBy = Strings.nullToEmpty(sortBy);
+    this.descending = sortBy != null && sortOrder == SortOrder.descending;
+    final Ordering<String> values = descending
+        ? Ordering.<String>natural().reverse().nullsLast()
+        : Ordering.<String>natural().nullsLast();
+    this.ordering = Ordering.from(new Comparator<Item<T>>() {
+      public int compare(Item<T> item, Item<T> item1) {
+        int result = values.compare(item.sortValue, item1.sortValue);
+        if (result == 0) {
+          result = item.ordinal < item1.ordinal ? -1 : (item.ordinal == item1.ordinal ? 0 : 1);
+        }
+        return result;
+      }
+    });
+  }
+
+  /**
+   * @param items the items, in ascending ordinal order.
+   * @param first the index of the first item to return, ignored if pageToken is set.
+   * @param max the maximum number of items to return.
+   * @param pageToken a continuation token from a previous page, or null.
+   * @throws ProtocolException if the token is invalid or was issued for another sort.
+   */
+  Page<T> execute(List<Item<T>> items, int first, int max, String pageToken)
+      throws ProtocolException {
+    int total = items.size();
+    max = Math.max(max, 0);
+    Item<T> cursor = pageToken == null ? null : parseToken(pageToken);
+
+    int start;
+    List<Item<T>> page;
+    if (NATURAL_ORDER.equals(sortBy)) {
+      start = cursor == null ? Math.max(0, Math.min(first, total)) : after(items, cursor.ordinal);
+      page = items.subList(start, (int) Math.min((long) start + max, total));
+    } else if (cursor != null) {
+      final Item<T> last = cursor;
+      start = 0;
+      for (Item<T> item : items) {
+        if (ordering.compare(item, last) <= 0) {
+          start++;
+        }
+      }
+      page = ordering.leastOf(Iterables.filter(items, new Predicate<Item<T>>() {
+        public boolean apply(Item<T> item) {
+          return ordering.compare(item, last) > 0;
+        }
+      }), max);
+    } else {
+      start = Math.max(0, Math.min(first, total));
+      List<Item<T>> top = ordering.leastOf(items, (int) Math.min((long) start + max, total));
+      page = top.subList(start, top.size());
+    }
+
+    ImmutableList.Builder<T> values = ImmutableList.builder();
+    for (Item<T> item : page) {
+      values.add(item.value);
+    }
+    String nextPageToken = null;
+    if (!page.isEmpty() && start + page.size() < total) {
+      nextPageToken = toToken(page.get(page.size() - 1));
+    }
+    return new Page<T>(values.build(), start, total, nextPageToken);
+  }
+
+  /**
+   * Matches a field value against a CollectionOptions field filter. Values are compared as
+   * strings, and a missing filter value only requires the field to be present.
+   */
+  static boolean matches(Object value, FilterOperation operation, String filterValue) {
+    if (value == null || value.toString().length() == 0) {
+      return false;
+    }
+    if (operation == FilterOperation.present || filterValue == null) {
+      return true;
+    }
+    String string = value.toString();
+    if (operation == FilterOperation.equals) {
+      return string.equals(filterValue);
+    } else if (operation == FilterOperation.startsWith) {
+      return string.startsWith(filterValue);
+    }
+    return string.contains(filterValue);
+  }
+
+  /** The index of the first item with an ordinal greater than the given one */
+  private static int after(List<? extends Item<?>> items, int ordinal) {
+    int low = 0;
+    int high = items.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (items.get(mid).ordinal <= ordinal) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private String toToken(Item<T> last) {
+    StringBuilder token = new StringBuilder(sortBy)
+        .append('\n').append(descending ? 'd' : 'a')
+        .append('\n').append(last.ordinal)
+        .append('\n');
+    if (last.sortValue != null) {
+      token.append('=').append(last.sortValue);
+    }
+    return Base64.encodeBase64URLSafeString(CharsetUtil.getUtf8Bytes(token.toString()));
+  }
+
+  private Item<T> parseToken(String token) throws ProtocolException {
+    String[] parts = CharsetUtil.newUtf8String(Base64.decodeBase64(token)).split("\n", 4);
+    if (parts.length == 4 && parts[0].equals(sortBy)
+        && parts[1].equals(descending ? "d" : "a")
+        && (parts[3].length() == 0 || parts[3].charAt(0) == '=')) {
+      try {
+        String sortValue = parts[3].length() == 0 ? null : parts[3].substring(1);
+        return new Item<T>(Integer.parseInt(parts[2]), sortValue, null);
+      } catch (NumberFormatException e) {
+        // Fall through
+      }
+    }
+    throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "Invalid pageToken");
+  }
+
+  /**
+   * An item of a collection, with its position in natural order and its sort value.
+   */
+  static final class Item<T> {
+    final int ordinal;
+    final String sortValue;
+    final T value;
+
+    Item(int ordinal, String sortValue, T value) {
+      this.ordinal = ordinal;
+      this.sortValue = sortValue;
+      this.value = value;
+    }
+  }
+
+  /**
+   * A page of results.
+   */
+  static final class Page<T> {
+    final List<T> items;
+    final int startIndex;
+    final int totalResults;
+    final String nextPageToken;
+
+    Page(List<T> items, int startIndex, int totalResults, String nextPageToken) {
+      this.items = items;
+      this.startIndex = startIndex;
+      this.totalResults = totalResults;
+      this.nextPageToken = nextPageToken;
+    }
+  }
+}
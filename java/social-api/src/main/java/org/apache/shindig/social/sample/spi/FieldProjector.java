@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.sample.spi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Copies the requested fields of a model bean into a new instance of the same class.
+ *
+ * This is the bean equivalent of copying a JSON object with only the named keys: a property
+ * is copied when its JSON name, as derived from its setter, is in the field set, and other
+ * fields are copied as map entries when the bean is also a map. Nested beans, collections and
+ * dates are copied too, so the copy can be modified without changing the source bean.
+ *
+ * Reflection results are cached per instance, so they are released with the service that
+ * owns the projector rather than kept for the life of the class loader.
+ */
+final class FieldProjector {
+  private static final int MAX_PROJECTIONS = 1000;
+
+  /** Bean properties by JSON name, per class */
+  private final LoadingCache<Class<?>, Map<String, Property>> properties = CacheBuilder
+      .newBuilder()
+      .build(new CacheLoader<Class<?>, Map<String, Property>>() {
+        public Map<String, Property> load(Class<?> type) {
+          return findProperties(type);
+        }
+      });
+
+  /** Whether a class can be copied as a bean, which needs a public no argument constructor */
+  private final LoadingCache<Class<?>, Boolean> copyable = CacheBuilder
+      .newBuilder()
+      .build(new CacheLoader<Class<?>, Boolean>() {
+        public Boolean load(Class<?> type) {
+          try {
+            return Modifier.isPublic(type.getConstructor().getModifiers())
+                && !Modifier.isAbstract(type.getModifiers());
+          } catch (NoSuchMethodException e) {
+            return false;
+          }
+        }
+      });
+
+  /** The properties to copy, per class and field set */
+  private final LoadingCache<ProjectionKey, Projection> projections = CacheBuilder
+      .newBuilder()
+      .maximumSize(MAX_PROJECTIONS)
+      .build(new CacheLoader<ProjectionKey, Projection>() {
+        public Projection load(ProjectionKey key) {
+          Map<String, Property> typeProperties = properties.getUnchecked(key.type);
+          ImmutableList.Builder<Property> builder = ImmutableList.builder();
+          ImmutableList.Builder<String> entries = ImmutableList.builder();
+          for (String field : key.fields) {
+            Property property = typeProperties.get(field);
+            if (property != null) {
+              builder.add(property);
+            } else {
+              entries.add(field);
+            }
+          }
+          return new Projection(builder.build(), entries.build());
+        }
+      });
+
+  /**
+   * @return the bean itself if fields is empty, otherwise a new bean with only the given fields.
+   */
+  <T> T project(T bean, Set<String> fields) {
+    if (bean == null || fields == null || fields.isEmpty()) {
+      return bean;
+    }
+    // The key keeps its own copy, callers may change their set afterwards
+    Projection projection = projections.getUnchecked(
+        new ProjectionKey(bean.getClass(), ImmutableSet.copyOf(fields)));
+    return copy(bean, projection.properties, projection.entries);
+  }
+
+  /**
+   * @return a new bean with copies of all the properties and map entries of the given bean.
+   */
+  <T> T copy(T bean) {
+    if (bean == null) {
+      return null;
+    }
+    return copy(bean, properties.getUnchecked(bean.getClass()).values(), null);
+  }
+
+  /**
+   * @param entries the map entries to copy, or null for all of them
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T copy(T bean, Collection<Property> beanProperties, List<String> entries) {
+    try {
+      Object copy = bean.getClass().newInstance();
+      for (Property property : beanProperties) {
+        Object value = property.getter.invoke(bean);
+        if (value != null) {
+          property.setter.invoke(copy, copyValue(value));
+        }
+      }
+      // Extension values of beans that are also maps, see ExtendableBean
+      if (bean instanceof Map) {
+        Map<String, Object> source = (Map<String, Object>) bean;
+        for (String entry : entries == null ? source.keySet() : entries) {
+          Object value = source.get(entry);
+          if (value != null) {
+            ((Map<String, Object>) copy).put(entry, copyValue(value));
+          }
+        }
+      }
+      return (T) copy;
+    } catch (InstantiationException e) {
+      throw new RuntimeException(e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return a copy of a property value. Immutable values, and objects that are neither beans
+   *     nor collections, are returned as they are.
+   */
+  private Object copyValue(Object value) {
+    if (value instanceof String || value instanceof Number || value instanceof Boolean
+        || value instanceof Enum) {
+      return value;
+    } else if (value instanceof Date) {
+      return ((Date) value).clone();
+    }
+    Class<?> type = value.getClass();
+    if (!type.getName().startsWith("java.")) {
+      return copyable.getUnchecked(type) ? copy(value) : value;
+    } else if (value instanceof List) {
+      List<Object> list = Lists.newArrayListWithCapacity(((List<?>) value).size());
+      for (Object element : (List<?>) value) {
+        list.add(element == null ? null : copyValue(element));
+      }
+      return list;
+    } else if (value instanceof Set) {
+      Set<Object> set = Sets.newLinkedHashSet();
+      for (Object element : (Set<?>) value) {
+        set.add(element == null ? null : copyValue(element));
+      }
+      return set;
+    } else if (value instanceof Map) {
+      Map<Object, Object> map = Maps.newLinkedHashMap();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        map.put(entry.getKey(), entry.getValue() == null ? null : copyValue(entry.getValue()));
+      }
+      return map;
+    }
+    return value;
+  }
+
+  /**
+   * @return the value of a field of a bean, or null if the bean does not have the field.
+   */
+  Object getProperty(Object bean, String field) {
+    Property property = properties.getUnchecked(bean.getClass()).get(field);
+    if (property == null) {
+      return bean instanceof Map ? ((Map<?, ?>) bean).get(field) : null;
+    }
+    try {
+      return property.getter.invoke(bean);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Map<String, Property> findProperties(Class<?> type) {
+    Map<String, Property> properties = Maps.newHashMap();
+    for (Method setter : type.getMethods()) {
+      String name = setter.getName();
+      if (setter.getParameterTypes().length != 1 || !name.startsWith("set") || name.length() < 4
+          || Modifier.isStatic(setter.getModifiers()) || setter.isBridge()) {
+        continue;
+      }
+      String suffix = name.substring(3);
+      Method getter = findGetter(type, suffix, setter.getParameterTypes()[0]);
+      if (getter != null) {
+        properties.put(suffix.substring(0, 1).toLowerCase() + suffix.substring(1),
+            new Property(getter, setter));
+      }
+    }
+    return properties;
+  }
+
+  private static Method findGetter(Class<?> type, String suffix, Class<?> valueType) {
+    for (String prefix : new String[] {"get", "is"}) {
+      try {
+        Method getter = type.getMethod(prefix + suffix);
+        if (valueType.isAssignableFrom(getter.getReturnType())) {
+          return getter;
+        }
+      } catch (NoSuchMethodException e) {
+        // Try the next prefix
+      }
+    }
+    return null;
+  }
+
+  private static final class Property {
+    final Method getter;
+    final Method setter;
+
+    Property(Method getter, Method setter) {
+      this.getter = getter;
+      this.setter = setter;
+    }
+  }
+
+  private static final class Projection {
+    final List<Property> properties;
+    /** Fields that are not bean properties */
+    final List<String> entries;
+
+    Projection(List<Property> properties, List<String> entries) {
+      this.properties = properties;
+      this.entries = entries;
+    }
+  }
+
+  private static final class ProjectionKey {
+    final Class<?> type;
+    final ImmutableSet<String> fields;
+
+    ProjectionKey(Class<?> type, ImmutableSet<String> fields) {
+      this.type = type;
+      this.fields = fields;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof ProjectionKey)) {
+        return false;
+      }
+      ProjectionKey other = (ProjectionKey) obj;
+      return type == other.type && fields.equals(other.fields);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(type, fields);
+    }
+  }
+}
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.sample.spi;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Immutable index of friend links, group members and installed applications.
+ *
+ * User ids are interned to ordinals, in the order they are first added, and each relation is
+ * stored in compressed sparse row form: one int array of offsets and one int array holding
+ * every row's ordinals, sorted. An edge costs four bytes, and rows can be merged or intersected
+ * in linear time without building sets of strings.
+ *
+ * Only {@link IndexedOpensocialService} uses the graph. JsonDbOpensocialService exposes its JSON
+ * DB for changes through getDb and setDb, so an index built from it could go stale, and it
+ * keeps reading the friend links from the DB.
+ */
+final class FriendGraph {
+  private static final int[] EMPTY = new int[0];
+
+  private final Map<String, Integer> ordinals;
+  private final String[] ids;
+  /** Rows are user ordinals */
+  private final Rows friends;
+  private final Map<String, Integer> groupRows;
+  private final Rows groupMembers;
+  private final Map<String, Integer> appRows;
+  private final Rows appUsers;
+
+  private FriendGraph(Builder builder) {
+    this.ordinals = ImmutableMap.copyOf(builder.ordinals);
+    this.ids = builder.ids.toArray(new String[builder.ids.size()]);
+    this.friends = builder.friends.build(ids.length);
+    this.groupRows = ImmutableMap.copyOf(builder.groupRows);
+    this.groupMembers = builder.groupMembers.build(groupRows.size());
+    this.appRows = ImmutableMap.copyOf(builder.appRows);
+    this.appUsers = builder.appUsers.build(appRows.size());
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the ordinal of a user, or -1 if the user is unknown.
+   */
+  int getOrdinal(String id) {
+    Integer ordinal = ordinals.get(id);
+    return ordinal == null ? -1 : ordinal;
+  }
+
+  String getId(int ordinal) {
+    return ids[ordinal];
+  }
+
+  /**
+   * @return the ids for sorted ordinals, in the same order.
+   */
+  List<String> getIds(int[] sorted) {
+    List<String> result = Lists.newArrayListWithCapacity(sorted.length);
+    for (int ordinal : sorted) {
+      result.add(ids[ordinal]);
+    }
+    return result;
+  }
+
+  /**
+   * @return the sorted ordinals of the friends of a user.
+   */
+  int[] getFriends(String userId) {
+    return friends.get(getOrdinal(userId));
+  }
+
+  /**
+   * @return the sorted ordinals of the members of a group.
+   */
+  int[] getGroupMembers(String groupId) {
+    return groupMembers.get(row(groupRows, groupId));
+  }
+
+  /**
+   * @return the sorted ordinals of the users that have installed an application.
+   */
+  int[] getAppUsers(String appId) {
+    return appUsers.get(row(appRows, appId));
+  }
+
+  /**
+   * Merges two sorted ordinal arrays, dropping duplicates.
+   */
+  static int[] union(int[] a, int[] b) {
+    if (a.length == 0) {
+      return b;
+    }
+    if (b.length == 0) {
+      return a;
+    }
+    int[] result = new int[a.length + b.length];
+    int i = 0;
+    int j = 0;
+    int size = 0;
+    while (i < a.length || j < b.length) {
+      int next;
+      if (j == b.length || (i < a.length && a[i] < b[j])) {
+        next = a[i++];
+      } else if (i == a.length || b[j] < a[i]) {
+        next = b[j++];
+      } else {
+        next = a[i++];
+        j++;
+      }
+      result[size++] = next;
+    }
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+
+  /**
+   * Intersects two sorted ordinal arrays.
+   */
+  static int[] intersect(int[] a, int[] b) {
+    int[] result = new int[Math.min(a.length, b.length)];
+    int i = 0;
+    int j = 0;
+    int size = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (b[j] < a[i]) {
+        j++;
+      } else {
+        result[size++] = a[i++];
+        j++;
+      }
+    }
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+
+  private static int row(Map<String, Integer> rows, String key) {
+    Integer row = rows.get(key);
+    return row == null ? -1 : row;
+  }
+
+  /**
+   * Compressed sparse rows: the ordinals of row i are targets[offsets[i]] to
+   * targets[offsets[i + 1] - 1], sorted and without duplicates.
+   */
+  private static final class Rows {
+    private final int[] offsets;
+    private final int[] targets;
+
+    Rows(int[] offsets, int[] targets) {
+      this.offsets = offsets;
+      this.targets = targets;
+    }
+
+    int[] get(int row) {
+      if (row < 0 || row >= offsets.length - 1) {
+        return EMPTY;
+      }
+      return Arrays.copyOfRange(targets, offsets[row], offsets[row + 1]);
+    }
+  }
+
+  /**
+   * Collects (row, ordinal) pairs and lays them out as {@link Rows}.
+   */
+  private static final class Edges {
+    private int[] rows = new int[16];
+    private int[] targets = new int[16];
+    private int size;
+
+    void add(int row, int target) {
+      if (size == rows.length) {
+        rows = Arrays.copyOf(rows, size * 2);
+        targets = Arrays.copyOf(targets, size * 2);
+      }
+      rows[size] = row;
+      targets[size] = target;
+      size++;
+    }
+
+    Rows build(int rowCount) {
+      // Counting sort by row
+      int[] offsets = new int[rowCount + 1];
+      for (int i = 0; i < size; i++) {
+        offsets[rows[i] + 1]++;
+      }
+      for (int i = 0; i < rowCount; i++) {
+        offsets[i + 1] += offsets[i];
+      }
+      int[] next = Arrays.copyOf(offsets, rowCount);
+      int[] sorted = new int[size];
+      for (int i = 0; i < size; i++) {
+        sorted[next[rows[i]]++] = targets[i];
+      }
+
+      // Sort each row and compact out duplicate edges
+      int[] compacted = new int[rowCount + 1];
+      int count = 0;
+      for (int row = 0; row < rowCount; row++) {
+        int start = offsets[row];
+        int end = offsets[row + 1];
+        Arrays.sort(sorted, start, end);
+        compacted[row] = count;
+        for (int i = start; i < end; i++) {
+          if (i == start || sorted[i] != sorted[count - 1]) {
+            sorted[count++] = sorted[i];
+          }
+        }
+      }
+      compacted[rowCount] = count;
+      return new Rows(compacted, count == sorted.length ? sorted : Arrays.copyOf(sorted, count));
+    }
+  }
+
+  static final class Builder {
+    private final Map<String, Integer> ordinals = Maps.newHashMap();
+    private final List<String> ids = Lists.newArrayList();
+    private final Edges friends = new Edges();
+    private final Map<String, Integer> groupRows = Maps.newHashMap();
+    private final Edges groupMembers = new Edges();
+    private final Map<String, Integer> appRows = Maps.newHashMap();
+    private final Edges appUsers = new Edges();
+
+    private Builder() {}
+
+    /**
+     * Interns a user id. Users added first get the lowest ordinals, so adding users in their
+     * display order makes sorted ordinals come out in that order.
+     */
+    Builder addUser(String id) {
+      intern(id);
+      return this;
+    }
+
+    Builder addFriends(String userId, Iterable<String> friendIds) {
+      int row = intern(userId);
+      for (String friendId : friendIds) {
+        friends.add(row, intern(friendId));
+      }
+      return this;
+    }
+
+    Builder addGroupMembers(String groupId, Iterable<String> memberIds) {
+      int row = key(groupRows, groupId);
+      for (String memberId : memberIds) {
+        groupMembers.add(row, intern(memberId));
+      }
+      return this;
+    }
+
+    Builder addApps(String userId, Iterable<String> appIds) {
+      int ordinal = intern(userId);
+      for (String appId : appIds) {
+        appUsers.add(key(appRows, appId), ordinal);
+      }
+      return this;
+    }
+
+    FriendGraph build() {
+      return new FriendGraph(this);
+    }
+
+    private int intern(String id) {
+      Integer ordinal = ordinals.get(id);
+      if (ordinal == null) {
+        ordinal = ids.size();
+        ordinals.put(id, ordinal);
+        ids.add(id);
+      }
+      return ordinal;
+    }
+
+    private static int key(Map<String, Integer> rows, String key) {
+      Integer row = rows.get(key);
+      if (row == null) {
+        row = rows.size();
+        rows.put(key, row);
+      }
+      return row;
+    }
+  }
+}
@@ -0,0 +1,1470 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.sample.spi;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.shindig.auth.AnonymousSecurityToken;
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.servlet.Authority;
+import org.apache.shindig.common.util.DateUtil;
+import org.apache.shindig.common.util.ResourceLoader;
+import org.apache.shindig.protocol.DataCollection;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.protocol.conversion.BeanConverter;
+import org.apache.shindig.social.core.model.NameImpl;
+import org.apache.shindig.social.core.model.PersonImpl;
+import org.apache.shindig.social.opensocial.model.Activity;
+import org.apache.shindig.social.opensocial.model.ActivityEntry;
+import org.apache.shindig.social.opensocial.model.Album;
+import org.apache.shindig.social.opensocial.model.Group;
+import org.apache.shindig.social.opensocial.model.MediaItem;
+import org.apache.shindig.social.opensocial.model.Message;
+import org.apache.shindig.social.opensocial.model.MessageCollection;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.ActivityService;
+import org.apache.shindig.social.opensocial.spi.ActivityStreamService;
+import org.apache.shindig.social.opensocial.spi.AlbumService;
+import org.apache.shindig.social.opensocial.spi.AppDataService;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.GroupId;
+import org.apache.shindig.social.opensocial.spi.GroupService;
+import org.apache.shindig.social.opensocial.spi.MediaItemService;
+import org.apache.shindig.social.opensocial.spi.MessageService;
+import org.apache.shindig.social.opensocial.spi.PersonService;
+import org.apache.shindig.social.opensocial.spi.UserId;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.Futures;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+/**
+ * Implementation of supported services backed by in-memory indexes.
+ *
+ * The same canonical JSON DB as {@link JsonDbOpensocialService} is read once and every record
+ * is converted to its bean up front. Records are indexed by user id and object id, so lookups
+ * no longer scan the JSON arrays, and field filtering copies the requested properties of the
+ * stored bean instead of serializing and parsing JSON for every result. Records that contain
+ * the %origin% placeholder are kept as JSON and converted on read, since the origin depends on
+ * the request.
+ *
+ * The indexes hold immutable collections. Writes are serialized and replace the collection of
+ * the affected user with an updated copy, so reads never lock. Callers get deep copies of the
+ * stored beans, including nested values such as names and addresses, so they may modify them.
+ *
+ * To use it, bind the SPI interfaces to this class instead of JsonDbOpensocialService in your
+ * Guice module.
+ */
+@Singleton
+public class IndexedOpensocialService implements ActivityService, PersonService, AppDataService,
+    MessageService, AlbumService, MediaItemService, ActivityStreamService, GroupService {
+
+  /** Filters that are not person fields */
+  private static final Set<String> SPECIAL_FILTERS = ImmutableSet.of(PersonService.ALL_FILTER,
+      PersonService.HAS_APP_FILTER, PersonService.IS_WITH_FRIENDS_FILTER,
+      PersonService.TOP_FRIENDS_FILTER);
+
+  private static final String PEOPLE_TABLE = "people";
+  private static final String GROUPS_TABLE = "groups";
+  private static final String GROUP_MEMBERS_TABLE = "groupMembers";
+  private static final String ACTIVITIES_TABLE = "activities";
+  private static final String ALBUMS_TABLE = "albums";
+  private static final String MEDIAITEMS_TABLE = "mediaItems";
+  private static final String DATA_TABLE = "data";
+  private static final String FRIEND_LINK_TABLE = "friendLinks";
+  private static final String USER_APPLICATIONS_TABLE = "userApplications";
+  private static final String MESSAGE_TABLE = "messages";
+  private static final String MESSAGES_ARRAY = "messages";
+  private static final String PASSWORDS_TABLE = "passwords";
+  private static final String ACTIVITYSTREAMS_TABLE = "activityEntries";
+
+  private static final String ANONYMOUS_NAME = "Anonymous";
+  private static final String ORIGIN = "%origin%";
+  private static final String DEFAULT_ORIGIN = "http://localhost:8080";
+
+  private final String content;
+  private final BeanConverter converter;
+  private final FieldProjector projector = new FieldProjector();
+  private Authority authority;
+
+  /** Serializes writes, and the initial load */
+  private final Object writeLock = new Object();
+  private volatile boolean loaded;
+
+  /** Person id -> person */
+  private final ConcurrentMap<String, Stored<Person>> people = Maps.newConcurrentMap();
+  /** Friends, group members and installed apps, with people numbered in table order */
+  private FriendGraph graph;
+  /** Person id -> groups */
+  private final ConcurrentMap<String, List<Stored<Group>>> groups = Maps.newConcurrentMap();
+  /** Person id -> activity id -> activities, as the JSON DB may repeat an activity id */
+  private final ConcurrentMap<String, ListMultimap<String, Stored<Activity>>> activities =
+      Maps.newConcurrentMap();
+  /** Person id -> activity entries by the time they were last updated or published */
+  private final ConcurrentMap<String, ActivityTimeline<Stored<ActivityEntry>>> activityEntries =
+      Maps.newConcurrentMap();
+  /** Person id -> album id -> album */
+  private final ConcurrentMap<String, Map<String, Stored<Album>>> albums =
+      Maps.newConcurrentMap();
+  /** Person id -> (album id, media item id) -> media item */
+  private final ConcurrentMap<String, Table<String, String, Stored<MediaItem>>> mediaItems =
+      Maps.newConcurrentMap();
+  /** Person id -> app data */
+  private final ConcurrentMap<String, Map<String, Object>> appData = Maps.newConcurrentMap();
+  /** Person id -> message collection id -> message collection */
+  private final ConcurrentMap<String, Map<String, MessageFolder>> messages =
+      Maps.newConcurrentMap();
+  private final ConcurrentMap<String, String> passwords = Maps.newConcurrentMap();
+
+  /**
+   * Initializes the IndexedOpensocialService using Guice
+   *
+   * @param jsonLocation location of the json data provided by the
+   *     shindig.canonical.json.db parameter
+   * @param converter an injected BeanConverter
+   * @throws java.lang.Exception if any
+   */
+  @Inject
+  public IndexedOpensocialService(@Named("shindig.canonical.json.db") String jsonLocation,
+      @Named("shindig.bean.converter.json") BeanConverter converter,
+      @Named("shindig.contextroot") String contextroot) throws Exception {
+    String content = IOUtils.toString(ResourceLoader.openResource(jsonLocation), "UTF-8");
+    this.content = content.replace("%contextroot%", contextroot);
+    this.converter = converter;
+  }
+
+  @Inject(optional = true)
+  public void setAuthority(Authority authority) {
+    this.authority = authority;
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<Activity>> getActivities(Set<UserId> userIds, GroupId groupId,
+      String appId, Set<String> fields, CollectionOptions options, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    List<Activity> result = Lists.newArrayList();
+    for (String id : getIdSet(userIds, groupId, token)) {
+      ListMultimap<String, Stored<Activity>> userActivities = activities.get(id);
+      if (userActivities == null) {
+        continue;
+      }
+      for (Stored<Activity> activity : userActivities.values()) {
+        String activityAppId = activity.getBean().getAppId();
+        if (appId == null || activityAppId == null || activityAppId.equals(appId)) {
+          result.add(activity.get(fields));
+        }
+      }
+    }
+    return Futures.immediateFuture(new RestfulCollection<Activity>(result));
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<Activity>> getActivities(UserId userId, GroupId groupId,
+      String appId, Set<String> fields, CollectionOptions options, Set<String> activityIds,
+      SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    List<Activity> result = Lists.newArrayList();
+    String user = userId.getUserId(token);
+    ListMultimap<String, Stored<Activity>> userActivities = activities.get(user);
+    if (userActivities != null) {
+      for (Stored<Activity> activity : userActivities.values()) {
+        if (user.equals(activity.getBean().getUserId())
+            && activityIds.contains(activity.getBean().getId())) {
+          result.add(activity.get(fields));
+        }
+      }
+    }
+    return Futures.immediateFuture(new RestfulCollection<Activity>(result));
+  }
+
+  /** {@inheritDoc} */
+  public Future<Activity> getActivity(UserId userId, GroupId groupId, String appId,
+      Set<String> fields, String activityId, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    String user = userId.getUserId(token);
+    ListMultimap<String, Stored<Activity>> userActivities = activities.get(user);
+    List<Stored<Activity>> found = userActivities == null
+        ? ImmutableList.<Stored<Activity>>of() : userActivities.get(activityId);
+    Stored<Activity> activity = found.isEmpty() ? null : found.get(0);
+    if (activity == null || !user.equals(activity.getBean().getUserId())) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "Activity not found");
+    }
+    return Futures.immediateFuture(activity.get(fields));
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> deleteActivities(UserId userId, GroupId groupId, String appId,
+      Set<String> activityIds, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    String user = userId.getUserId(token);
+    synchronized (writeLock) {
+      ListMultimap<String, Stored<Activity>> userActivities = activities.get(user);
+      if (userActivities != null) {
+        activities.put(user, withoutKeys(userActivities, activityIds));
+      }
+    }
+    return Futures.immediateFuture(null);
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> createActivity(UserId userId, GroupId groupId, String appId,
+      Set<String> fields, Activity activity, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    try {
+      JSONObject jsonObject = convertToJson(activity);
+      if (!jsonObject.has(Activity.Field.ID.toString())) {
+        jsonObject.put(Activity.Field.ID.toString(), System.currentTimeMillis());
+      }
+      Stored<Activity> stored = store(jsonObject, Activity.class);
+      String user = userId.getUserId(token);
+      String id = stored.getBean().getId();
+      synchronized (writeLock) {
+        ListMultimap<String, Stored<Activity>> userActivities = activities.get(user);
+        activities.put(user, ImmutableListMultimap.<String, Stored<Activity>>builder()
+            .putAll(userActivities == null
+                ? ImmutableListMultimap.<String, Stored<Activity>>of()
+                : withoutKeys(userActivities, ImmutableSet.of(id)))
+            .put(id, stored)
+            .build());
+      }
+      return Futures.immediateFuture(null);
+    } catch (JSONException je) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, je.getMessage(),
+          je);
+    }
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<Person>> getPeople(Set<UserId> userIds, GroupId groupId,
+      CollectionOptions options, Set<String> fields, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    int[] ordinals = getOrdinals(userIds, groupId, token);
+    String filter = options.getFilter();
+    boolean filtered = true;
+    if (PersonService.HAS_APP_FILTER.equals(filter)) {
+      filtered = token.getAppId() != null;
+      if (filtered) {
+        ordinals = FriendGraph.intersect(ordinals, graph.getAppUsers(token.getAppId()));
+      }
+    } else if (PersonService.IS_WITH_FRIENDS_FILTER.equals(filter)) {
+      filtered = options.getFilterValue() != null;
+      if (filtered) {
+        ordinals = FriendGraph.intersect(ordinals, graph.getFriends(options.getFilterValue()));
+      }
+    }
+
+    // Ordinals follow the people table, so by default people are in top friends order
+    boolean sortByName = Person.Field.NAME.toString().equals(options.getSortBy());
+    boolean fieldFilter = filter != null && !SPECIAL_FILTERS.contains(filter);
+    boolean found = false;
+    List<CollectionQuery.Item<Stored<Person>>> items =
+        Lists.newArrayListWithCapacity(ordinals.length);
+    for (int ordinal : ordinals) {
+      Stored<Person> person = people.get(graph.getId(ordinal));
+      if (person == null) {
+        continue;
+      }
+      found = true;
+      if (fieldFilter && !CollectionQuery.matches(
+          projector.getProperty(person.getBean(), filter), options.getFilterOperation(),
+          options.getFilterValue())) {
+        continue;
+      }
+      String name = null;
+      if (sortByName && person.getBean().getName() != null) {
+        name = person.getBean().getName().getFormatted();
+      }
+      items.add(new CollectionQuery.Item<Stored<Person>>(ordinal, name, person));
+    }
+
+    if (GroupId.Type.self == groupId.getType() && !found) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+          "People '" + getIdSet(userIds, groupId, token) + "' not found");
+    }
+
+    CollectionQuery<Stored<Person>> query = new CollectionQuery<Stored<Person>>(
+        sortByName ? options.getSortBy() : null, options.getSortOrder());
+    CollectionQuery.Page<Stored<Person>> page = query.execute(items, options.getFirst(),
+        options.getMax(), options.getPageToken());
+
+    // Only the requested page is copied
+    List<Person> result = Lists.newArrayListWithCapacity(page.items.size());
+    for (Stored<Person> person : page.items) {
+      result.add(getPerson(person, fields));
+    }
+
+    RestfulCollection<Person> collection = new RestfulCollection<Person>(result, page.startIndex,
+        page.totalResults, options.getMax());
+    collection.setFiltered(filtered);
+    collection.setSorted(sortByName || options.getSortBy() == null
+        || PersonService.TOP_FRIENDS_SORT.equals(options.getSortBy()));
+    collection.setNextPageToken(page.nextPageToken);
+    return Futures.immediateFuture(collection);
+  }
+
+  /** {@inheritDoc} */
+  public Future<Person> getPerson(UserId id, Set<String> fields, SecurityToken token)
+      throws ProtocolException {
+    if (id != null && AnonymousSecurityToken.ANONYMOUS_ID.equals(id.getUserId())) {
+      Person anonymous = new PersonImpl();
+      anonymous.setId(AnonymousSecurityToken.ANONYMOUS_ID);
+      anonymous.setName(new NameImpl(ANONYMOUS_NAME));
+      anonymous.setNickname(ANONYMOUS_NAME);
+      return Futures.immediateFuture(anonymous);
+    }
+    ensureLoaded();
+    Stored<Person> person = id == null ? null : people.get(id.getUserId(token));
+    if (person == null) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+          "Person '" + (id == null ? null : id.getUserId(token)) + "' not found");
+    }
+    return Futures.immediateFuture(getPerson(person, fields));
+  }
+
+  /** {@inheritDoc} */
+  public Future<Person> updatePerson(UserId id, Person person, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    String viewer = token.getViewerId(); // viewer
+    String user = id.getUserId(token); // person to update
+
+    if (!viewerCanUpdatePerson(viewer,user)) {
+      throw new ProtocolException(HttpServletResponse.SC_FORBIDDEN,
+          "User '" + viewer + "' does not have enough privileges to update person '"+user+"'");
+    }
+
+    try {
+      synchronized (writeLock) {
+        Stored<Person> current = user == null ? null : people.get(user);
+        if (current == null) {
+          throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+              "User ID " + user + " does not exist");
+        }
+
+        // go through all properties to update in the submitted person object
+        // and change them in the current person object
+        JSONObject curPerson = current.toJson();
+        JSONObject jsonPerson = convertToJson(person);
+        // App data is kept apart from the person records, see updatePersonData
+        jsonPerson.remove(Person.Field.APP_DATA.toString());
+        for (String key : JSONObject.getNames(jsonPerson)) {
+          curPerson.put(key, jsonPerson.get(key));
+        }
+
+        Stored<Person> updated = store(curPerson, Person.class);
+        people.put(user, updated);
+        return Futures.immediateFuture(updated.get(Collections.<String>emptySet()));
+      }
+    } catch (JSONException je) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, je.getMessage(),
+          je);
+    }
+  }
+
+  /** Check if a viewer is allowed to update the given person record. **/
+  protected boolean viewerCanUpdatePerson(String viewer, String person) {
+    // A person can only update his own personal data (by default)
+    // if you wish to allow other people to update the personal data of the user
+    // you should change the current function
+    return viewer.equals(person);
+  }
+
+  private Person getPerson(Stored<Person> person, Set<String> fields) {
+    Person personObj = person.get(fields);
+    Map<String, Object> personAppData = getPersonAppData(person.getBean().getId(), fields);
+    if (personAppData != null) {
+      personObj.setAppData(personAppData);
+    }
+    return personObj;
+  }
+
+  private Map<String, Object> getPersonAppData(String id, Set<String> fields) {
+    Map<String, Object> personData = appData.get(id);
+    if (personData == null) {
+      return null;
+    }
+    if (fields.contains(Person.Field.APP_DATA.toString())) {
+      return Maps.newHashMap(personData);
+    }
+
+    Map<String, Object> result = null;
+    String appDataPrefix = Person.Field.APP_DATA.toString() + '.';
+    for (String field : fields) {
+      if (field.startsWith(appDataPrefix)) {
+        if (result == null) {
+          result = Maps.newHashMap();
+        }
+
+        String appDataField = field.substring(appDataPrefix.length());
+        if (personData.containsKey(appDataField)) {
+          result.put(appDataField, personData.get(appDataField));
+        }
+      }
+    }
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  public Future<DataCollection> getPersonData(Set<UserId> userIds, GroupId groupId, String appId,
+      Set<String> fields, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    Map<String, Map<String, Object>> idToData = Maps.newHashMap();
+    for (String id : getIdSet(userIds, groupId, token)) {
+      Map<String, Object> data = Maps.newHashMap();
+      Map<String, Object> personData = appData.get(id);
+      if (personData != null) {
+        for (Map.Entry<String, Object> entry : personData.entrySet()) {
+          if (fields.isEmpty() || fields.contains(entry.getKey())) {
+            data.put(entry.getKey(), entry.getValue().toString());
+          }
+        }
+      }
+      idToData.put(id, data);
+    }
+    return Futures.immediateFuture(new DataCollection(idToData));
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> deletePersonData(UserId userId, GroupId groupId, String appId,
+      Set<String> fields, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    String user = userId.getUserId(token);
+    synchronized (writeLock) {
+      Map<String, Object> personData = appData.get(user);
+      if (personData != null) {
+        Map<String, Object> updated = Maps.newLinkedHashMap(personData);
+        updated.keySet().removeAll(fields);
+        appData.put(user, ImmutableMap.copyOf(updated));
+      }
+    }
+    return Futures.immediateFuture(null);
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> updatePersonData(UserId userId, GroupId groupId, String appId,
+      Set<String> fields, Map<String, Object> values, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    String user = userId.getUserId(token);
+    synchronized (writeLock) {
+      Map<String, Object> personData = appData.get(user);
+      Map<String, Object> updated = personData == null
+          ? Maps.<String, Object>newLinkedHashMap() : Maps.newLinkedHashMap(personData);
+      for (Map.Entry<String, Object> entry : values.entrySet()) {
+        if (entry.getValue() == null) {
+          updated.remove(entry.getKey());
+        } else {
+          updated.put(entry.getKey(), entry.getValue());
+        }
+      }
+      appData.put(user, ImmutableMap.copyOf(updated));
+    }
+    return Futures.immediateFuture(null);
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<Group>> getGroups(UserId userId, CollectionOptions options,
+      Set<String> fields, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    List<Group> result = Lists.newArrayList();
+    List<Stored<Group>> userGroups = groups.get(userId.getUserId(token));
+    if (userGroups != null) {
+      for (Stored<Group> group : userGroups) {
+        result.add(group.get(fields));
+      }
+    }
+    return Futures.immediateFuture(new RestfulCollection<Group>(result));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Post a message for a set of users.
+   */
+  public Future<Void> createMessage(UserId userId, String appId, String msgCollId, Message message,
+      SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    if (message.getId() == null) {
+      // Assign a new ID to the message
+      message.setId(UUID.randomUUID().toString());
+    }
+    try {
+      Stored<Message> stored = store(convertToJson(message), Message.class);
+      synchronized (writeLock) {
+        for (String recipient : message.getRecipients()) {
+          MessageFolder folder = get(messages, recipient, msgCollId);
+          if (folder == null) {
+            throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "message collection "
+                + msgCollId + " not found");
+          }
+          put(messages, recipient, msgCollId, folder.withMessage(stored));
+        }
+      }
+    } catch (JSONException je) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, je.getMessage(),
+          je);
+    }
+    return Futures.immediateFuture(null);
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<MessageCollection>> getMessageCollections(UserId userId,
+      Set<String> fields, CollectionOptions options, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    List<MessageCollection> result = Lists.newArrayList();
+    Map<String, MessageFolder> folders = messages.get(userId.getUserId(token));
+    if (folders != null) {
+      for (MessageFolder folder : folders.values()) {
+        result.add(folder.collection.get(fields));
+      }
+    }
+    return Futures.immediateFuture(new RestfulCollection<MessageCollection>(result));
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> deleteMessages(UserId userId, String msgCollId, List<String> ids,
+      SecurityToken token) throws ProtocolException {
+    throw new ProtocolException(HttpServletResponse.SC_NOT_IMPLEMENTED,
+        "this functionality is not yet available");
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * Gets the messsages in an user's queue.
+   */
+  public Future<RestfulCollection<Message>> getMessages(UserId userId, String msgCollId,
+      Set<String> fields, List<String> msgIds, CollectionOptions options, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    MessageFolder folder = get(messages, userId.getUserId(token), msgCollId);
+
+    if (folder == null) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "message collection"
+          + msgCollId + " not found");
+    }
+
+    List<Message> result = Lists.newArrayList();
+    for (Stored<Message> message : folder.messages) {
+      if (msgIds.isEmpty() || msgIds.contains(message.getBean().getId())) {
+        result.add(message.get(fields));
+      }
+    }
+    return Futures.immediateFuture(new RestfulCollection<Message>(result));
+  }
+
+  /** {@inheritDoc} */
+  public Future<MessageCollection> createMessageCollection(UserId userId,
+      MessageCollection msgCollection, SecurityToken token) throws ProtocolException {
+    throw new ProtocolException(HttpServletResponse.SC_NOT_IMPLEMENTED,
+        "this functionality is not yet available");
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> modifyMessage(UserId userId, String msgCollId, String messageId,
+      Message message, SecurityToken token) throws ProtocolException {
+    throw new ProtocolException(HttpServletResponse.SC_NOT_IMPLEMENTED,
+        "this functionality is not yet available");
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> modifyMessageCollection(UserId userId, MessageCollection msgCollection,
+      SecurityToken token) throws ProtocolException {
+    throw new ProtocolException(HttpServletResponse.SC_NOT_IMPLEMENTED,
+        "this functionality is not yet available");
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> deleteMessageCollection(UserId userId, String msgCollId, SecurityToken token)
+      throws ProtocolException {
+    throw new ProtocolException(HttpServletResponse.SC_NOT_IMPLEMENTED,
+        "this functionality is not yet available");
+  }
+
+  /**
+   * Public methods for use with Authentication Classes
+   *
+   * @param username a {@link java.lang.String} object.
+   * @return a {@link java.lang.String} object.
+   */
+  public String getPassword(String username) {
+    ensureLoaded();
+    return passwords.get(username);
+  }
+
+  private Set<String> getIdSet(UserId user, GroupId group, SecurityToken token) {
+    String userId = user.getUserId(token);
+
+    // Self includes unknown users, so that their data can be created
+    if (group == null || group.getType() == GroupId.Type.self) {
+      return ImmutableSortedSet.of(userId);
+    }
+    return Sets.newLinkedHashSet(graph.getIds(getOrdinals(userId, group)));
+  }
+
+  /**
+   * @return the sorted ordinals of the people in the group of any of the users.
+   */
+  private int[] getOrdinals(Set<UserId> users, GroupId group, SecurityToken token) {
+    int[] ordinals = new int[0];
+    for (UserId user : users) {
+      ordinals = FriendGraph.union(ordinals, getOrdinals(user.getUserId(token), group));
+    }
+    return ordinals;
+  }
+
+  private int[] getOrdinals(String userId, GroupId group) {
+    if (group != null) {
+      switch (group.getType()) {
+      case all:
+      case friends:
+        return graph.getFriends(userId);
+      case objectId:
+        return graph.getGroupMembers(group.toString());
+      case custom:
+        // The sample DB has no custom groups, as in JsonDbOpensocialService
+        return new int[0];
+      default:
+        break;
+      }
+    }
+    int ordinal = graph.getOrdinal(userId);
+    return ordinal < 0 ? new int[0] : new int[] {ordinal};
+  }
+
+  /**
+   * Get the set of user id's for a set of users and a group
+   *
+   * @param users set of UserIds
+   * @param group the group
+   * @param token a token
+   * @return set of Id strings
+   */
+  public Set<String> getIdSet(Set<UserId> users, GroupId group, SecurityToken token) {
+    ensureLoaded();
+    Set<String> ids = Sets.newLinkedHashSet();
+    for (UserId user : users) {
+      ids.addAll(getIdSet(user, group, token));
+    }
+    return ids;
+  }
+
+  /** {@inheritDoc} */
+  public Future<Album> getAlbum(UserId userId, String appId, Set<String> fields,
+      String albumId, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    String user = userId.getUserId(token);
+    Stored<Album> album = get(albums, user, albumId);
+    if (album == null || !user.equals(album.getBean().getOwnerId())) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+          "Album ID " + albumId + " does not exist");
+    }
+    return Futures.immediateFuture(album.get(fields));
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<Album>> getAlbums(UserId userId, String appId,
+      Set<String> fields, CollectionOptions options, Set<String> albumIds,
+      SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    String user = userId.getUserId(token);
+    if (!albums.containsKey(user)) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+          "User '" + user + "' has no albums");
+    }
+
+    List<Album> result = Lists.newArrayList();
+    for (String albumId : albumIds) {
+      Stored<Album> album = get(albums, user, albumId);
+      if (album == null || !user.equals(album.getBean().getOwnerId())) {
+        throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+            "Album ID " + albumId + " does not exist");
+      }
+      result.add(album.get(fields));
+    }
+    return Futures.immediateFuture(new RestfulCollection<Album>(result));
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<Album>> getAlbums(Set<UserId> userIds,
+      GroupId groupId, String appId, Set<String> fields,
+      CollectionOptions options, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    List<Album> result = Lists.newArrayList();
+    for (String id : getIdSet(userIds, groupId, token)) {
+      Map<String, Stored<Album>> userAlbums = albums.get(id);
+      if (userAlbums == null) {
+        continue;
+      }
+      for (Stored<Album> album : userAlbums.values()) {
+        if (id.equals(album.getBean().getOwnerId())) {
+          result.add(album.get(fields));
+        }
+      }
+    }
+    return Futures.immediateFuture(new RestfulCollection<Album>(result));
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> deleteAlbum(UserId userId, String appId, String albumId,
+      SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    String user = userId.getUserId(token);
+    synchronized (writeLock) {
+      if (get(albums, user, albumId) == null) {
+        throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+            "Album ID " + albumId + " does not exist");
+      }
+      put(albums, user, albumId, null);
+    }
+    return Futures.immediateFuture(null);
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> createAlbum(UserId userId, String appId, Album album,
+      SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    try {
+      String user = userId.getUserId(token);
+
+      // Convert album to JSON and set ID & owner
+      JSONObject jsonAlbum = convertToJson(album);
+      if (!jsonAlbum.has(Album.Field.ID.toString())) {
+        jsonAlbum.put(Album.Field.ID.toString(), System.currentTimeMillis());
+      }
+      if (!jsonAlbum.has(Album.Field.OWNER_ID.toString())) {
+        jsonAlbum.put(Album.Field.OWNER_ID.toString(), user);
+      }
+
+      Stored<Album> stored = store(jsonAlbum, Album.class);
+      synchronized (writeLock) {
+        put(albums, user, stored.getBean().getId(), stored);
+      }
+      return Futures.immediateFuture(null);
+    } catch (JSONException je) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, je.getMessage(),
+          je);
+    }
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> updateAlbum(UserId userId, String appId, Album album,
+      String albumId, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    try {
+      String user = userId.getUserId(token);
+
+      // Convert album to JSON and set ID
+      JSONObject jsonAlbum = convertToJson(album);
+      jsonAlbum.put(Album.Field.ID.toString(), albumId);
+      Stored<Album> stored = store(jsonAlbum, Album.class);
+
+      synchronized (writeLock) {
+        if (get(albums, user, albumId) == null) {
+          throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+              "Album ID " + albumId + " does not exist");
+        }
+        put(albums, user, albumId, stored);
+      }
+      return Futures.immediateFuture(null);
+    } catch (JSONException je) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, je.getMessage(),
+          je);
+    }
+  }
+
+  /** {@inheritDoc} */
+  public Future<MediaItem> getMediaItem(UserId userId, String appId,
+      String albumId, String mediaItemId, Set<String> fields,
+      SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    Table<String, String, Stored<MediaItem>> userMediaItems =
+        mediaItems.get(userId.getUserId(token));
+    Stored<MediaItem> mediaItem = userMediaItems == null ? null
+        : userMediaItems.get(albumId, mediaItemId);
+    if (mediaItem == null) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+          "MediaItem ID '" + mediaItemId + "' does not exist within Album '" + albumId + '\'');
+    }
+    return Futures.immediateFuture(mediaItem.get(fields));
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<MediaItem>> getMediaItems(UserId userId,
+      String appId, String albumId, Set<String> mediaItemIds,
+      Set<String> fields, CollectionOptions options, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    String user = userId.getUserId(token);
+    Table<String, String, Stored<MediaItem>> userMediaItems = mediaItems.get(user);
+    if (userMediaItems == null) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+          "MediaItem table not found for user " + user);
+    }
+
+    List<MediaItem> result = Lists.newArrayList();
+    for (String mediaItemId : mediaItemIds) {
+      Stored<MediaItem> mediaItem = userMediaItems.get(albumId, mediaItemId);
+      if (mediaItem == null) {
+        throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+            "MediaItem ID " + mediaItemId + " does not exist within Album " + albumId);
+      }
+      result.add(mediaItem.get(fields));
+    }
+    return Futures.immediateFuture(new RestfulCollection<MediaItem>(result));
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<MediaItem>> getMediaItems(UserId userId,
+      String appId, String albumId, Set<String> fields,
+      CollectionOptions options, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    Table<String, String, Stored<MediaItem>> userMediaItems =
+        mediaItems.get(userId.getUserId(token));
+    if (userMediaItems == null) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+          "Album ID " + albumId + " does not exist");
+    }
+
+    List<MediaItem> result = Lists.newArrayList();
+    for (Stored<MediaItem> mediaItem : userMediaItems.row(albumId).values()) {
+      result.add(mediaItem.get(fields));
+    }
+    return Futures.immediateFuture(new RestfulCollection<MediaItem>(result));
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<MediaItem>> getMediaItems(
+      Set<UserId> userIds, GroupId groupId, String appId,
+      Set<String> fields, CollectionOptions options, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    List<MediaItem> result = Lists.newArrayList();
+    for (String id : getIdSet(userIds, groupId, token)) {
+      Table<String, String, Stored<MediaItem>> userMediaItems = mediaItems.get(id);
+      if (userMediaItems != null) {
+        for (Stored<MediaItem> mediaItem : userMediaItems.values()) {
+          result.add(mediaItem.get(fields));
+        }
+      }
+    }
+    return Futures.immediateFuture(new RestfulCollection<MediaItem>(result));
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> deleteMediaItem(UserId userId, String appId,
+      String albumId, String mediaItemId, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    String user = userId.getUserId(token);
+    synchronized (writeLock) {
+      Table<String, String, Stored<MediaItem>> userMediaItems = mediaItems.get(user);
+      if (userMediaItems == null || !userMediaItems.contains(albumId, mediaItemId)) {
+        throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+            "MediaItem ID " + mediaItemId + " does not exist existin within Album " + albumId);
+      }
+      mediaItems.put(user, withMediaItem(userMediaItems, albumId, mediaItemId, null));
+    }
+    return Futures.immediateFuture(null);
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> createMediaItem(UserId userId, String appId,
+      String albumId, MediaItem mediaItem, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    try {
+      // Convert MediaItem to JSON and set ID & Album ID
+      JSONObject jsonMediaItem = convertToJson(mediaItem);
+      jsonMediaItem.put(MediaItem.Field.ALBUM_ID.toString(), albumId);
+      if (!jsonMediaItem.has(MediaItem.Field.ID.toString())) {
+        jsonMediaItem.put(MediaItem.Field.ID.toString(), System.currentTimeMillis());
+      }
+      Stored<MediaItem> stored = store(jsonMediaItem, MediaItem.class);
+
+      String user = userId.getUserId(token);
+      synchronized (writeLock) {
+        mediaItems.put(user, withMediaItem(mediaItems.get(user), albumId,
+            stored.getBean().getId(), stored));
+      }
+      return Futures.immediateFuture(null);
+    } catch (JSONException je) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, je.getMessage(),
+          je);
+    }
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> updateMediaItem(UserId userId, String appId,
+      String albumId, String mediaItemId, MediaItem mediaItem,
+      SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    try {
+      // Convert MediaItem to JSON and set ID & Album ID
+      JSONObject jsonMediaItem = convertToJson(mediaItem);
+      jsonMediaItem.put(MediaItem.Field.ID.toString(), mediaItemId);
+      jsonMediaItem.put(MediaItem.Field.ALBUM_ID.toString(), albumId);
+      Stored<MediaItem> stored = store(jsonMediaItem, MediaItem.class);
+
+      String user = userId.getUserId(token);
+      synchronized (writeLock) {
+        Table<String, String, Stored<MediaItem>> userMediaItems = mediaItems.get(user);
+        if (userMediaItems == null || !userMediaItems.contains(albumId, mediaItemId)) {
+          throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+              "MediaItem ID " + mediaItemId + " does not exist existin within Album " + albumId);
+        }
+        mediaItems.put(user, withMediaItem(userMediaItems, albumId, mediaItemId, stored));
+      }
+      return Futures.immediateFuture(null);
+    } catch (JSONException je) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, je.getMessage(),
+          je);
+    }
+  }
+
+  // Are fields really needed here?
+  /** {@inheritDoc} */
+  public Future<ActivityEntry> updateActivityEntry(UserId userId, GroupId groupId, String appId,
+      Set<String> fields, ActivityEntry activityEntry, String activityId, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    try {
+      JSONObject jsonEntry = convertToJson(activityEntry);
+      if (!jsonEntry.has(ActivityEntry.Field.ID.toString())) {
+        if (activityId != null) {
+          jsonEntry.put(ActivityEntry.Field.ID.toString(), activityId);
+        } else {
+          jsonEntry.put(ActivityEntry.Field.ID.toString(), System.currentTimeMillis());
+        }
+      }
+      activityId = jsonEntry.getString(ActivityEntry.Field.ID.toString());
+      Stored<ActivityEntry> stored = store(jsonEntry, ActivityEntry.class);
+
+      String user = userId.getUserId(token);
+      synchronized (writeLock) {
+        if (getActivityTimeline(user).get(activityId) == null) {
+          throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+              "Activity not found: " + activityId);
+        }
+        putActivityEntry(user, activityId, stored);
+      }
+      return Futures.immediateFuture(stored.get(fields));
+    } catch (JSONException je) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+          je.getMessage(), je);
+    }
+  }
+
+  // Are fields really needed here?
+  /** {@inheritDoc} */
+  public Future<ActivityEntry> createActivityEntry(UserId userId, GroupId groupId, String appId,
+      Set<String> fields, ActivityEntry activityEntry, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    try {
+      JSONObject jsonEntry = convertToJson(activityEntry);
+      if (!jsonEntry.has(ActivityEntry.Field.ID.toString())) {
+        jsonEntry.put(ActivityEntry.Field.ID.toString(), System.currentTimeMillis());
+      }
+      String activityId = jsonEntry.getString(ActivityEntry.Field.ID.toString());
+      Stored<ActivityEntry> stored = store(jsonEntry, ActivityEntry.class);
+
+      String user = userId.getUserId(token);
+      synchronized (writeLock) {
+        // Ensure activity does not already exist
+        if (getActivityTimeline(user).get(activityId) != null) {
+          throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+              "Activity already exists: " + activityId);
+        }
+        putActivityEntry(user, activityId, stored);
+      }
+      return Futures.immediateFuture(stored.get(fields));
+    } catch (JSONException je) {
+      throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+          je.getMessage(), je);
+    }
+  }
+
+  /** {@inheritDoc} */
+  public Future<Void> deleteActivityEntries(UserId userId, GroupId groupId,
+      String appId, Set<String> activityIds, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    String user = userId.getUserId(token);
+    synchronized (writeLock) {
+      ActivityTimeline<Stored<ActivityEntry>> entries = activityEntries.get(user);
+      if (entries != null) {
+        activityEntries.put(user, entries.without(activityIds));
+      }
+    }
+    return Futures.immediateFuture(null);
+  }
+
+  /** {@inheritDoc} */
+  public Future<ActivityEntry> getActivityEntry(UserId userId, GroupId groupId,
+      String appId, Set<String> fields, String activityId, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    Stored<ActivityEntry> activityEntry =
+        getActivityTimeline(userId.getUserId(token)).get(activityId);
+    if (activityEntry == null) {
+      throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST,
+          "Activity not found: " + activityId);
+    }
+    return Futures.immediateFuture(activityEntry.get(fields));
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<ActivityEntry>> getActivityEntries(
+      Set<UserId> userIds, GroupId groupId, String appId, Set<String> fields,
+      CollectionOptions options, SecurityToken token) throws ProtocolException {
+    ensureLoaded();
+    List<ActivityTimeline<Stored<ActivityEntry>>> timelines = Lists.newArrayList();
+    for (String id : getIdSet(userIds, groupId, token)) {
+      ActivityTimeline<Stored<ActivityEntry>> entries = activityEntries.get(id);
+      if (entries != null) {
+        timelines.add(entries);
+      }
+    }
+
+    Date updatedSince = options == null ? null : options.getUpdatedSince();
+    int first = options == null ? 0 : options.getFirst();
+    int max = options == null ? Integer.MAX_VALUE : options.getMax();
+    CollectionQuery.Page<Stored<ActivityEntry>> page = ActivityTimeline.newest(timelines,
+        updatedSince == null ? Long.MIN_VALUE : updatedSince.getTime(), first, max);
+
+    List<ActivityEntry> result = Lists.newArrayListWithCapacity(page.items.size());
+    for (Stored<ActivityEntry> activityEntry : page.items) {
+      result.add(activityEntry.get(fields));
+    }
+    if (options == null) {
+      return Futures.immediateFuture(new RestfulCollection<ActivityEntry>(result));
+    }
+    RestfulCollection<ActivityEntry> collection = new RestfulCollection<ActivityEntry>(result,
+        page.startIndex, page.totalResults, max);
+    collection.setSorted(true);
+    collection.setUpdatedSince(updatedSince != null);
+    return Futures.immediateFuture(collection);
+  }
+
+  /** {@inheritDoc} */
+  public Future<RestfulCollection<ActivityEntry>> getActivityEntries(
+      UserId userId, GroupId groupId, String appId, Set<String> fields,
+      CollectionOptions options, Set<String> activityIds, SecurityToken token)
+      throws ProtocolException {
+    ensureLoaded();
+    List<Stored<ActivityEntry>> found = Lists.newArrayList();
+    String user = userId.getUserId(token);
+    if (activityEntries.containsKey(user)) {
+      for (String activityId : activityIds) {
+        Stored<ActivityEntry> activityEntry = getActivityTimeline(user).get(activityId);
+        if (activityEntry == null) {
+          throw new ProtocolException(HttpServletResponse.SC_NOT_FOUND,
+              "Activity not found: " + activityId);
+        }
+        found.add(activityEntry);
+      }
+    }
+    return Futures.immediateFuture(new RestfulCollection<ActivityEntry>(
+        getActivityEntries(found, fields)));
+  }
+
+  /**
+   * Sorts the entries newest first, comparing the complete stored entries, and filters them.
+   */
+  private List<ActivityEntry> getActivityEntries(List<Stored<ActivityEntry>> found,
+      Set<String> fields) {
+    Collections.sort(found, Collections.reverseOrder(new Comparator<Stored<ActivityEntry>>() {
+      public int compare(Stored<ActivityEntry> entry, Stored<ActivityEntry> entry1) {
+        return entry.getBean().compareTo(entry1.getBean());
+      }
+    }));
+    List<ActivityEntry> result = Lists.newArrayListWithCapacity(found.size());
+    for (Stored<ActivityEntry> activityEntry : found) {
+      result.add(activityEntry.get(fields));
+    }
+    return result;
+  }
+
+  private ActivityTimeline<Stored<ActivityEntry>> getActivityTimeline(String user) {
+    ActivityTimeline<Stored<ActivityEntry>> entries =
+        user == null ? null : activityEntries.get(user);
+    return entries == null ? ActivityTimeline.<Stored<ActivityEntry>>empty() : entries;
+  }
+
+  /**
+   * Adds or replaces an activity entry, at the later of its update and publish times, so that
+   * updatedSince finds entries that were updated after they were published. Entries without
+   * either time are older than all others. Must be called while holding the write lock.
+   */
+  private void putActivityEntry(String user, String id, Stored<ActivityEntry> entry) {
+    activityEntries.put(user, getActivityTimeline(user).with(id, activityTime(entry), entry));
+  }
+
+  /**
+   * @return the later of the publish and update times of an activity entry.
+   */
+  private static long activityTime(Stored<ActivityEntry> entry) {
+    return Math.max(parseTime(entry.getBean().getPublished()),
+        parseTime(entry.getBean().getUpdated()));
+  }
+
+  /**
+   * @return the time of an ISO 8601 date, or Long.MIN_VALUE if it is missing or invalid.
+   */
+  private static long parseTime(String date) {
+    Date parsed = date == null ? null : DateUtil.parseIso8601DateTime(date);
+    return parsed == null ? Long.MIN_VALUE : parsed.getTime();
+  }
+
+  private JSONObject convertToJson(Object object) throws JSONException {
+    return new JSONObject(converter.convertToString(object));
+  }
+
+  private String getOrigin() {
+    // provide default for junit tests
+    return authority != null ? authority.getOrigin() : DEFAULT_ORIGIN;
+  }
+
+  private <T> Stored<T> store(JSONObject object, Class<T> type) {
+    return new Stored<T>(object.toString(), type);
+  }
+
+  private static <T> T get(Map<String, Map<String, T>> table, String user, String id) {
+    Map<String, T> userTable = table.get(user);
+    return userTable == null ? null : userTable.get(id);
+  }
+
+  /**
+   * Replaces the records of a user with a copy where id maps to value, or where id is removed
+   * if value is null. Must be called while holding the write lock.
+   */
+  private static <T> void put(ConcurrentMap<String, Map<String, T>> table, String user,
+      String id, T value) {
+    Map<String, T> userTable = table.get(user);
+    Map<String, T> updated = userTable == null
+        ? Maps.<String, T>newLinkedHashMap() : Maps.newLinkedHashMap(userTable);
+    if (value == null) {
+      updated.remove(id);
+    } else {
+      updated.put(id, value);
+    }
+    table.put(user, ImmutableMap.copyOf(updated));
+  }
+
+  /**
+   * @return a copy of the multimap without the given keys.
+   */
+  private static <T> ListMultimap<String, T> withoutKeys(ListMultimap<String, T> multimap,
+      Set<String> keys) {
+    ImmutableListMultimap.Builder<String, T> builder = ImmutableListMultimap.builder();
+    for (Map.Entry<String, T> entry : multimap.entries()) {
+      if (!keys.contains(entry.getKey())) {
+        builder.put(entry);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return a copy of the table where the media item is replaced, added at the end, or removed
+   *     if mediaItem is null.
+   */
+  private static Table<String, String, Stored<MediaItem>> withMediaItem(
+      Table<String, String, Stored<MediaItem>> table, String albumId, String id,
+      Stored<MediaItem> mediaItem) {
+    ImmutableTable.Builder<String, String, Stored<MediaItem>> builder = ImmutableTable.builder();
+    boolean replaced = false;
+    if (table != null) {
+      for (Table.Cell<String, String, Stored<MediaItem>> cell : table.cellSet()) {
+        if (cell.getRowKey().equals(albumId) && cell.getColumnKey().equals(id)) {
+          replaced = true;
+          if (mediaItem != null) {
+            builder.put(albumId, id, mediaItem);
+          }
+        } else {
+          builder.put(cell);
+        }
+      }
+    }
+    if (!replaced && mediaItem != null) {
+      builder.put(albumId, id, mediaItem);
+    }
+    return builder.build();
+  }
+
+  private void ensureLoaded() {
+    if (!loaded) {
+      synchronized (writeLock) {
+        if (!loaded) {
+          try {
+            load(new JSONObject(content));
+          } catch (JSONException je) {
+            throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                je.getMessage(), je);
+          }
+          loaded = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds the indexes from the JSON DB. Loading is deferred to the first call so that the
+   * authority is injected by then.
+   */
+  private void load(JSONObject db) throws JSONException {
+    FriendGraph.Builder graphBuilder = FriendGraph.builder();
+    JSONArray peopleTable = db.getJSONArray(PEOPLE_TABLE);
+    for (int i = 0; i < peopleTable.length(); i++) {
+      Stored<Person> person = store(peopleTable.getJSONObject(i), Person.class);
+      people.put(person.getBean().getId(), person);
+      graphBuilder.addUser(person.getBean().getId());
+    }
+
+    JSONObject friendLinks = db.optJSONObject(FRIEND_LINK_TABLE);
+    for (String user : names(friendLinks)) {
+      graphBuilder.addFriends(user, strings(friendLinks.getJSONArray(user)));
+    }
+    JSONObject members = db.optJSONObject(GROUP_MEMBERS_TABLE);
+    for (String group : names(members)) {
+      graphBuilder.addGroupMembers(group, strings(members.getJSONArray(group)));
+    }
+    JSONObject userApplications = db.optJSONObject(USER_APPLICATIONS_TABLE);
+    for (String user : names(userApplications)) {
+      graphBuilder.addApps(user, strings(userApplications.getJSONArray(user)));
+    }
+    graph = graphBuilder.build();
+
+    JSONObject groupsTable = db.optJSONObject(GROUPS_TABLE);
+    for (String user : names(groupsTable)) {
+      JSONArray userGroups = groupsTable.getJSONArray(user);
+      ImmutableList.Builder<Stored<Group>> builder = ImmutableList.builder();
+      for (int i = 0; i < userGroups.length(); i++) {
+        builder.add(store(userGroups.getJSONObject(i), Group.class));
+      }
+      groups.put(user, builder.build());
+    }
+
+    JSONObject activitiesTable = db.optJSONObject(ACTIVITIES_TABLE);
+    for (String user : names(activitiesTable)) {
+      JSONArray userActivities = activitiesTable.getJSONArray(user);
+      ImmutableListMultimap.Builder<String, Stored<Activity>> builder =
+          ImmutableListMultimap.builder();
+      for (int i = 0; i < userActivities.length(); i++) {
+        JSONObject activity = userActivities.getJSONObject(i);
+        builder.put(activity.getString(Activity.Field.ID.toString()),
+            store(activity, Activity.class));
+      }
+      activities.put(user, builder.build());
+    }
+    JSONObject activityEntriesTable = db.optJSONObject(ACTIVITYSTREAMS_TABLE);
+    for (String user : names(activityEntriesTable)) {
+      JSONArray userEntries = activityEntriesTable.getJSONArray(user);
+      ActivityTimeline.Builder<Stored<ActivityEntry>> builder = ActivityTimeline.builder();
+      for (int i = 0; i < userEntries.length(); i++) {
+        JSONObject entry = userEntries.getJSONObject(i);
+        Stored<ActivityEntry> stored = store(entry, ActivityEntry.class);
+        builder.add(entry.getString(ActivityEntry.Field.ID.toString()), activityTime(stored),
+            stored);
+      }
+      activityEntries.put(user, builder.build());
+    }
+    loadTable(db.optJSONObject(ALBUMS_TABLE), Album.class, Album.Field.ID.toString(), albums);
+
+    JSONObject mediaItemsTable = db.optJSONObject(MEDIAITEMS_TABLE);
+    for (String user : names(mediaItemsTable)) {
+      JSONArray userMediaItems = mediaItemsTable.getJSONArray(user);
+      ImmutableTable.Builder<String, String, Stored<MediaItem>> builder = ImmutableTable.builder();
+      for (int i = 0; i < userMediaItems.length(); i++) {
+        JSONObject mediaItem = userMediaItems.getJSONObject(i);
+        builder.put(mediaItem.getString(MediaItem.Field.ALBUM_ID.toString()),
+            mediaItem.getString(MediaItem.Field.ID.toString()),
+            store(mediaItem, MediaItem.class));
+      }
+      mediaItems.put(user, builder.build());
+    }
+
+    JSONObject dataTable = db.optJSONObject(DATA_TABLE);
+    for (String user : names(dataTable)) {
+      JSONObject personData = dataTable.getJSONObject(user);
+      ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+      for (String key : names(personData)) {
+        builder.put(key, personData.get(key));
+      }
+      appData.put(user, builder.build());
+    }
+
+    JSONObject messageTable = db.optJSONObject(MESSAGE_TABLE);
+    for (String user : names(messageTable)) {
+      JSONObject collections = messageTable.getJSONObject(user);
+      ImmutableMap.Builder<String, MessageFolder> builder = ImmutableMap.builder();
+      for (String msgCollId : names(collections)) {
+        JSONObject msgColl = collections.getJSONObject(msgCollId);
+        JSONArray messageArray = msgColl.optJSONArray(MESSAGES_ARRAY);
+        ImmutableList.Builder<Stored<Message>> folderMessages = ImmutableList.builder();
+        if (messageArray != null) {
+          for (int i = 0; i < messageArray.length(); i++) {
+            folderMessages.add(store(messageArray.getJSONObject(i), Message.class));
+          }
+        }
+        msgColl.remove(MESSAGES_ARRAY);
+        msgColl.put("id", msgCollId);
+        builder.put(msgCollId, new MessageFolder(msgColl, folderMessages.build()));
+      }
+      messages.put(user, builder.build());
+    }
+
+    JSONObject passwordsTable = db.optJSONObject(PASSWORDS_TABLE);
+    for (String user : names(passwordsTable)) {
+      passwords.put(user, passwordsTable.getString(user));
+    }
+  }
+
+  private <T> void loadTable(JSONObject table, Class<T> type, String idField,
+      ConcurrentMap<String, Map<String, Stored<T>>> index) throws JSONException {
+    for (String user : names(table)) {
+      JSONArray records = table.getJSONArray(user);
+      Map<String, Stored<T>> userRecords = Maps.newLinkedHashMap();
+      for (int i = 0; i < records.length(); i++) {
+        JSONObject record = records.getJSONObject(i);
+        userRecords.put(record.getString(idField), store(record, type));
+      }
+      index.put(user, ImmutableMap.copyOf(userRecords));
+    }
+  }
+
+  private static List<String> strings(JSONArray array) throws JSONException {
+    List<String> strings = Lists.newArrayListWithCapacity(array.length());
+    for (int i = 0; i < array.length(); i++) {
+      strings.add(array.getString(i));
+    }
+    return strings;
+  }
+
+  private static List<String> names(JSONObject object) {
+    if (object == null) {
+      return ImmutableList.of();
+    }
+    List<String> names = Lists.newArrayList();
+    // JSONObject keys are always strings
+    @SuppressWarnings("unchecked")
+    Iterator<String> keys = object.keys();
+    while (keys.hasNext()) {
+      names.add(keys.next());
+    }
+    return names;
+  }
+
+  /**
+   * A record converted to its bean. Records that depend on the request origin also keep their
+   * JSON and are converted on each read, with a bean for the default origin used for indexing.
+   */
+  private final class Stored<T> {
+    /** The JSON of origin dependent records, null for all others */
+    private final String json;
+    private final Class<T> type;
+    private final T bean;
+
+    Stored(String json, Class<T> type) {
+      boolean originDependent = json.contains(ORIGIN);
+      this.json = originDependent ? json : null;
+      this.type = type;
+      this.bean = converter.convertToObject(
+          originDependent ? json.replace(ORIGIN, DEFAULT_ORIGIN) : json, type);
+    }
+
+    /**
+     * @return the bean to index and compare with. Must not be modified or returned.
+     */
+    T getBean() {
+      return bean;
+    }
+
+    /**
+     * @return a copy of the bean with only the given fields, or all of them if fields is empty.
+     */
+    T get(Set<String> fields) {
+      if (json != null) {
+        return projector.project(
+            converter.convertToObject(json.replace(ORIGIN, getOrigin()), type), fields);
+      }
+      if (fields == null || fields.isEmpty()) {
+        return projector.copy(bean);
+      }
+      return projector.project(bean, fields);
+    }
+
+    JSONObject toJson() throws JSONException {
+      return json != null ? new JSONObject(json) : convertToJson(bean);
+    }
+  }
+
+  /**
+   * A message collection with its messages. The collection bean carries the message counts.
+   */
+  private final class MessageFolder {
+    private final JSONObject collectionJson;
+    private final Stored<MessageCollection> collection;
+    private final List<Stored<Message>> messages;
+
+    MessageFolder(JSONObject collectionJson, List<Stored<Message>> messages)
+        throws JSONException {
+      this.collectionJson = collectionJson;
+      this.messages = messages;
+      JSONObject counted = new JSONObject(collectionJson.toString());
+      counted.put("total", messages.size());
+      counted.put("unread", messages.size());
+      this.collection = store(counted, MessageCollection.class);
+    }
+
+    MessageFolder withMessage(Stored<Message> message) throws JSONException {
+      return new MessageFolder(collectionJson, ImmutableList.<Stored<Message>>builder()
+          .addAll(messages).add(message).build());
+    }
+  }
+}
@@ -19,7 +19,6 @@
 package org.apache.shindig.social.sample.spi;
 
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -38,7 +37,6 @@ import org.apache.shindig.protocol.DataCollection;
 import org.apache.shindig.protocol.ProtocolException;
 import org.apache.shindig.protocol.RestfulCollection;
 import org.apache.shindig.protocol.conversion.BeanConverter;
-import org.apache.shindig.protocol.model.SortOrder;
 import org.apache.shindig.social.core.model.NameImpl;
 import org.apache.shindig.social.core.model.PersonImpl;
 import org.apache.shindig.social.opensocial.model.Activity;
@@ -64,6 +62,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -80,13 +79,10 @@ import com.google.inject.name.Named;
 public class JsonDbOpensocialService implements ActivityService, PersonService, AppDataService,
     MessageService, AlbumService, MediaItemService, ActivityStreamService, GroupService {
 
-  private static final Comparator<Person> NAME_COMPARATOR = new Comparator<Person>() {
-    public int compare(Person person, Person person1) {
-      String name = person.getName().getFormatted();
-      String name1 = person1.getName().getFormatted();
-      return name.compareTo(name1);
-    }
-  };
+  /** Filters that are not person fields */
+  private static final Set<String> SPECIAL_FILTERS = ImmutableSet.of(PersonService.ALL_FILTER,
+      PersonService.HAS_APP_FILTER, PersonService.IS_WITH_FRIENDS_FILTER,
+      PersonService.TOP_FRIENDS_FILTER);
 
   /**
    * The DB
@@ -336,48 +332,62 @@ public class JsonDbOpensocialService implements ActivityService, PersonService,
   /** {@inheritDoc} */
   public Future<RestfulCollection<Person>> getPeople(Set<UserId> userIds, GroupId groupId,
       CollectionOptions options, Set<String> fields, SecurityToken token) throws ProtocolException {
-    List<Person> result = Lists.newArrayList();
     try {
       JSONArray people = db.getJSONArray(PEOPLE_TABLE);
 
       Set<String> idSet = getIdSet(userIds, groupId, token);
 
+      // We can pretend that by default the people are in top friends order
+      boolean sortByName = Person.Field.NAME.toString().equals(options.getSortBy());
+      String filter = options.getFilter();
+      boolean fieldFilter = filter != null && !SPECIAL_FILTERS.contains(filter);
+      boolean found = false;
+      List<CollectionQuery.Item<JSONObject>> items = Lists.newArrayList();
       for (int i = 0; i < people.length(); i++) {
         JSONObject person = people.getJSONObject(i);
         if (!idSet.contains(person.get(Person.Field.ID.toString()))) {
           continue;
         }
-
-        // Add group support later
-        Person personObj = filterFields(person, fields, Person.class);
-        Map<String, Object> appData = getPersonAppData(
-            person.getString(Person.Field.ID.toString()), fields);
-        personObj.setAppData(appData);
-
-        result.add(personObj);
+        found = true;
+        if (fieldFilter && !CollectionQuery.matches(person.opt(filter),
+            options.getFilterOperation(), options.getFilterValue())) {
+          continue;
+        }
+        String name = null;
+        JSONObject nameObj = person.optJSONObject(Person.Field.NAME.toString());
+        if (sortByName && nameObj != null) {
+          name = nameObj.optString("formatted", null);
+        }
+        items.add(new CollectionQuery.Item<JSONObject>(i, name, person));
       }
 
-      if (GroupId.Type.self == groupId.getType() && result.isEmpty()) {
+      if (GroupId.Type.self == groupId.getType() && !found) {
         throw new ProtocolException(HttpServletResponse.SC_BAD_REQUEST, "People '" + idSet + "' not found");
       }
 
-      // We can pretend that by default the people are in top friends order
-      if (options.getSortBy().equals(Person.Field.NAME.toString())) {
-        Collections.sort(result, NAME_COMPARATOR);
-
-        if (options.getSortOrder() == SortOrder.descending) {
-          Collections.reverse(result);
-        }
-      }
-
       // TODO: The samplecontainer doesn't really have the concept of HAS_APP so
       // we can't support any filters yet. We should fix this.
 
-      int totalSize = result.size();
-      int last = options.getFirst() + options.getMax();
-      result = result.subList(options.getFirst(), Math.min(last, totalSize));
+      CollectionQuery<JSONObject> query = new CollectionQuery<JSONObject>(
+          sortByName ? options.getSortBy() : null, options.getSortOrder());
+      CollectionQuery.Page<JSONObject> page = query.execute(items, options.getFirst(),
+          options.getMax(), options.getPageToken());
 
-      return Futures.immediateFuture(new RestfulCollection<Person>(result, options.getFirst(), totalSize, options.getMax()));
+      // Add group support later
+      List<Person> result = Lists.newArrayListWithCapacity(page.items.size());
+      for (JSONObject person : page.items) {
+        Person personObj = filterFields(person, fields, Person.class);
+        Map<String, Object> appData = getPersonAppData(
+            person.getString(Person.Field.ID.toString()), fields);
+        personObj.setAppData(appData);
+
+        result.add(personObj);
+      }
+
+      RestfulCollection<Person> collection = new RestfulCollection<Person>(result,
+          page.startIndex, page.totalResults, options.getMax());
+      collection.setNextPageToken(page.nextPageToken);
+      return Futures.immediateFuture(collection);
     } catch (JSONException je) {
       throw new ProtocolException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, je.getMessage(),
           je);
@@ -757,6 +767,10 @@ public class JsonDbOpensocialService implements ActivityService, PersonService,
     }
   }
 
+  /**
+   * Reads the group from the DB on every call, since callers may change the DB. See
+   * {@link FriendGraph} for the index that IndexedOpensocialService keeps instead.
+   */
   private Set<String> getIdSet(UserId user, GroupId group, SecurityToken token)
       throws JSONException {
     String userId = user.getUserId(token);
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.core.oauth2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.shindig.common.util.FakeTimeSource;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OAuth2CodeStoreTest {
+  private FakeTimeSource timeSource;
+  private OAuth2CodeStore store;
+
+  @Before
+  public void setUp() {
+    timeSource = new FakeTimeSource(1000000L);
+    store = new OAuth2CodeStore(timeSource);
+  }
+
+  private OAuth2Code code(String value, long expiration) {
+    OAuth2Code code = new OAuth2Code(value);
+    code.setExpiration(expiration);
+    return code;
+  }
+
+  @Test
+  public void testGetByClient() {
+    OAuth2Code code = code("code", -1);
+    store.register("client", code);
+    assertSame(code, store.get("client", "code"));
+    assertSame(code, store.get(null, "code"));
+    assertNull(store.get("other", "code"));
+    assertNull(store.get("client", "unknown"));
+    assertNull(store.get("client", null));
+  }
+
+  @Test
+  public void testUnregister() {
+    store.register("client", code("code", -1));
+    assertFalse(store.unregister("other", "code"));
+    assertTrue(store.unregister("client", "code"));
+    assertFalse(store.unregister("client", "code"));
+    assertNull(store.get("client", "code"));
+  }
+
+  @Test
+  public void testExpiredCodesAreKeptForAWhile() {
+    long now = timeSource.currentTimeMillis();
+    OAuth2Code expired = code("expired", now - 1);
+    store.register("client", expired);
+    store.register("client", code("permanent", -1));
+    store.register("client", code("valid", now + 60000));
+    assertSame(expired, store.get("client", "expired"));
+
+    timeSource.setCurrentTimeMillis(now + OAuth2CodeStore.EXPIRED_RETENTION);
+    store.removeExpired();
+    assertNull(store.get("client", "expired"));
+    assertEquals(2, store.size());
+
+    timeSource.setCurrentTimeMillis(now + 60000 + OAuth2CodeStore.EXPIRED_RETENTION);
+    store.register("client", code("new", -1));
+    assertNull(store.get("client", "valid"));
+    assertEquals(2, store.size());
+  }
+
+  @Test
+  public void testExpiredCodesAreRemovedOnLookup() {
+    long now = timeSource.currentTimeMillis();
+    store.register("client", code("expired", now));
+    store.register("client", code("permanent", -1));
+
+    timeSource.setCurrentTimeMillis(now + OAuth2CodeStore.EXPIRED_RETENTION);
+    assertNotNull(store.get("client", "permanent"));
+    assertEquals(1, store.size());
+  }
+
+  @Test
+  public void testExtendedExpiration() {
+    long now = timeSource.currentTimeMillis();
+    OAuth2Code code = code("code", now);
+    store.register("client", code);
+    code.setExpiration(now + OAuth2CodeStore.EXPIRED_RETENTION);
+
+    timeSource.setCurrentTimeMillis(now + OAuth2CodeStore.EXPIRED_RETENTION);
+    store.removeExpired();
+    assertSame(code, store.get("client", "code"));
+
+    timeSource.setCurrentTimeMillis(now + 2 * OAuth2CodeStore.EXPIRED_RETENTION);
+    store.removeExpired();
+    assertNull(store.get("client", "code"));
+  }
+
+  @Test
+  public void testReplacedCodeIsNotRemoved() {
+    long now = timeSource.currentTimeMillis();
+    store.register("client", code("code", now));
+    OAuth2Code replacement = code("code", -1);
+    store.register("client", replacement);
+
+    timeSource.setCurrentTimeMillis(now + OAuth2CodeStore.EXPIRED_RETENTION);
+    store.removeExpired();
+    assertSame(replacement, store.get("client", "code"));
+  }
+}
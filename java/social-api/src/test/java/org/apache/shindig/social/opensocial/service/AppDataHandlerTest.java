@@ -258,4 +258,49 @@ public class AppDataHandlerTest extends EasyMockTestCase {
     assertNull(operation.execute(params, null, token, converter).get());
     verify();
   }
+
+  @Test
+  public void testReadWriteReadBatch() throws Exception {
+    appDataService = mock(AppDataService.class, true);
+    registry = new DefaultHandlerRegistry(null, converter,
+        new HandlerExecutionListener.NoOpHandler());
+    registry.addHandlers(ImmutableSet.<Object>of(new AppDataHandler(appDataService)));
+
+    String path = "/appdata/john.doe/@self/appId";
+    String jsonAppData = "{pandas: 'are fuzzy'}";
+    Map<String, String[]> params = Maps.newHashMap();
+    params.put("fields", new String[]{"pandas"});
+
+    HashMap<String, Object> values = Maps.newHashMap();
+    org.easymock.EasyMock.expect(converter.convertToObject(eq(jsonAppData), eq(Map.class)))
+        .andReturn(values);
+
+    // The lookups must not be merged across the update
+    DataCollection before = new DataCollection(null);
+    DataCollection after = new DataCollection(null);
+    EasyMock.expect(appDataService.getPersonData(eq(JOHN_DOE),
+        eq(new GroupId(GroupId.Type.self, null)),
+        eq("appId"), eq(ImmutableSet.of("pandas")), eq(token)))
+        .andReturn(Futures.immediateFuture(before));
+    EasyMock.expect(appDataService.updatePersonData(eq(JOHN_DOE.iterator().next()),
+        eq(new GroupId(GroupId.Type.self, null)),
+        eq("appId"), eq(ImmutableSet.of("pandas")), eq(values), eq(token)))
+        .andReturn(Futures.immediateFuture((Void) null));
+    EasyMock.expect(appDataService.getPersonData(eq(JOHN_DOE),
+        eq(new GroupId(GroupId.Type.self, null)),
+        eq("appId"), eq(ImmutableSet.of("pandas")), eq(token)))
+        .andReturn(Futures.immediateFuture(after));
+
+    replay();
+    Future<?> first = registry.getRestHandler(path, "GET").execute(params, null, token,
+        converter);
+    Future<?> update = registry.getRestHandler(path, "POST").execute(params,
+        new StringReader(jsonAppData), token, converter);
+    Future<?> second = registry.getRestHandler(path, "GET").execute(params, null, token,
+        converter);
+    assertSame(before, first.get());
+    assertNull(update.get());
+    assertSame(after, second.get());
+    verify();
+  }
 }
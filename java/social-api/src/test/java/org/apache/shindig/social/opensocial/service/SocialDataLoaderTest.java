@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.opensocial.service;
+
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.apache.shindig.common.EasyMockTestCase;
+import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.protocol.DataCollection;
+import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.social.core.model.PersonImpl;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.AppDataService;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.GroupId;
+import org.apache.shindig.social.opensocial.spi.PersonService;
+import org.apache.shindig.social.opensocial.spi.UserId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+
+public class SocialDataLoaderTest extends EasyMockTestCase {
+  private static final UserId JOHN_DOE = new UserId(UserId.Type.userId, "john.doe");
+  private static final UserId JANE_DOE = new UserId(UserId.Type.userId, "jane.doe");
+  private static final GroupId SELF = new GroupId(GroupId.Type.self, null);
+  private static final Set<String> FIELDS = ImmutableSet.of("id");
+
+  private PersonService personService;
+  private AppDataService appDataService;
+  private SocialDataLoader loader;
+  private FakeGadgetToken token;
+
+  @Before
+  public void setUp() throws Exception {
+    personService = mock(PersonService.class);
+    appDataService = mock(AppDataService.class);
+    loader = new SocialDataLoader(personService, appDataService);
+    token = new FakeGadgetToken();
+  }
+
+  private static Person person(String id) {
+    Person person = new PersonImpl();
+    person.setId(id);
+    return person;
+  }
+
+  @Test
+  public void testSingleLookupIsPassedThrough() throws Exception {
+    Person john = person("john.doe");
+    expect(personService.getPerson(eq(JOHN_DOE), eq(FIELDS), eq(token)))
+        .andReturn(Futures.immediateFuture(john));
+
+    replay();
+    assertSame(john, loader.getPerson(JOHN_DOE, FIELDS, token).get());
+    verify();
+  }
+
+  @Test
+  public void testPersonLookupsAreMerged() throws Exception {
+    Person john = person("john.doe");
+    Person jane = person("jane.doe");
+    expect(personService.getPeople(eq(ImmutableSet.of(JOHN_DOE, JANE_DOE)), eq(SELF),
+        isA(CollectionOptions.class), eq(FIELDS), eq(token)))
+        .andReturn(Futures.immediateFuture(
+            new RestfulCollection<Person>(ImmutableList.of(jane, john))));
+
+    replay();
+    Future<Person> johnFuture = loader.getPerson(JOHN_DOE, FIELDS, token);
+    Future<Person> janeFuture = loader.getPerson(JANE_DOE, FIELDS, token);
+    Future<Person> johnAgain = loader.getPerson(JOHN_DOE, FIELDS, token);
+    assertSame(jane, janeFuture.get());
+    assertSame(john, johnFuture.get());
+    assertSame(john, johnAgain.get());
+    verify();
+  }
+
+  @Test
+  public void testMissingPersonIsLookedUpAlone() throws Exception {
+    Person john = person("john.doe");
+    Person jane = person("jane.doe");
+    expect(personService.getPeople(eq(ImmutableSet.of(JOHN_DOE, JANE_DOE)), eq(SELF),
+        isA(CollectionOptions.class), eq(FIELDS), eq(token)))
+        .andReturn(Futures.immediateFuture(new RestfulCollection<Person>(ImmutableList.of(john))));
+    expect(personService.getPerson(eq(JANE_DOE), eq(FIELDS), eq(token)))
+        .andReturn(Futures.immediateFuture(jane));
+
+    replay();
+    Future<Person> johnFuture = loader.getPerson(JOHN_DOE, FIELDS, token);
+    Future<Person> janeFuture = loader.getPerson(JANE_DOE, FIELDS, token);
+    Future<Person> janeAgain = loader.getPerson(JANE_DOE, FIELDS, token);
+    assertSame(jane, janeFuture.get());
+    assertSame(jane, janeAgain.get());
+    assertSame(john, johnFuture.get());
+    verify();
+  }
+
+  @Test
+  public void testFlushIssuesPendingLookups() throws Exception {
+    Person john = person("john.doe");
+    expect(personService.getPerson(eq(JOHN_DOE), eq(FIELDS), eq(token)))
+        .andReturn(Futures.immediateFuture(john)).times(2);
+
+    replay();
+    Future<Person> before = loader.getPerson(JOHN_DOE, FIELDS, token);
+    loader.flush(token);
+    assertTrue(before.isDone());
+    Future<Person> after = loader.getPerson(JOHN_DOE, FIELDS, token);
+    assertFalse(after.isDone());
+    assertSame(john, after.get());
+    assertSame(john, before.get());
+    verify();
+  }
+
+  @Test
+  public void testDifferentFieldsAreNotMerged() throws Exception {
+    Person john = person("john.doe");
+    Set<String> otherFields = ImmutableSet.of("id", "name");
+    expect(personService.getPerson(eq(JOHN_DOE), eq(FIELDS), eq(token)))
+        .andReturn(Futures.immediateFuture(john));
+    expect(personService.getPerson(eq(JOHN_DOE), eq(otherFields), eq(token)))
+        .andReturn(Futures.immediateFuture(john));
+
+    replay();
+    Future<Person> first = loader.getPerson(JOHN_DOE, FIELDS, token);
+    Future<Person> second = loader.getPerson(JOHN_DOE, otherFields, token);
+    assertSame(john, first.get());
+    assertSame(john, second.get());
+    verify();
+  }
+
+  @Test
+  public void testPersonDataLookupsAreMerged() throws Exception {
+    Map<String, Object> johnData = ImmutableMap.<String, Object>of("count", "1");
+    Map<String, Object> janeData = ImmutableMap.<String, Object>of("count", "2");
+    expect(appDataService.getPersonData(eq(ImmutableSet.of(JOHN_DOE, JANE_DOE)), eq(SELF),
+        eq("appId"), eq(FIELDS), eq(token)))
+        .andReturn(Futures.immediateFuture(new DataCollection(
+            ImmutableMap.<String, Map<String, Object>>of("john.doe", johnData,
+                "jane.doe", janeData))));
+
+    replay();
+    Future<DataCollection> johnFuture = loader.getPersonData(ImmutableSet.of(JOHN_DOE), SELF,
+        "appId", FIELDS, token);
+    Future<DataCollection> bothFuture = loader.getPersonData(
+        ImmutableSet.of(JANE_DOE, JOHN_DOE), SELF, "appId", FIELDS, token);
+    assertEquals(ImmutableMap.of("john.doe", johnData), johnFuture.get().getEntry());
+    assertEquals(ImmutableMap.of("john.doe", johnData, "jane.doe", janeData),
+        bothFuture.get().getEntry());
+    verify();
+  }
+
+  @Test
+  public void testFriendsDataIsPassedThrough() throws Exception {
+    GroupId friends = new GroupId(GroupId.Type.friends, null);
+    DataCollection data = new DataCollection(null);
+    expect(appDataService.getPersonData(eq(ImmutableSet.of(JOHN_DOE)), eq(friends),
+        eq("appId"), eq(FIELDS), eq(token))).andReturn(Futures.immediateFuture(data));
+
+    replay();
+    assertSame(data, loader.getPersonData(ImmutableSet.of(JOHN_DOE), friends, "appId", FIELDS,
+        token).get());
+    verify();
+  }
+}
@@ -21,6 +21,7 @@ package org.apache.shindig.social.opensocial.util;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.shindig.common.xml.XmlException;
 import org.apache.shindig.common.xml.XmlUtil;
+import org.apache.shindig.protocol.RestfulCollection;
 import org.apache.shindig.protocol.conversion.BeanXStreamConverter;
 import org.apache.shindig.social.SocialApiTestsGuiceModule;
 import org.apache.shindig.social.core.model.ActivityImpl;
@@ -53,6 +54,7 @@ import org.w3c.dom.Node;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
 
@@ -131,6 +133,19 @@ public class BeanXStreamConverterTest extends Assert {
     assertEquals(johnDoe.getId(), id.getTextContent());
   }
 
+  @Test
+  public void testWriteMatchesConvertToString() throws Exception {
+    RestfulCollection<Person> collection = new RestfulCollection<Person>(
+        Lists.newArrayList(johnDoe, johnDoe), 0, 2, 2);
+    StringWriter writer = new StringWriter();
+    beanXmlConverter.write(writer, collection);
+    assertEquals(beanXmlConverter.convertToString(collection), writer.toString());
+
+    writer = new StringWriter();
+    beanXmlConverter.write(writer, activity);
+    assertEquals(beanXmlConverter.convertToString(activity), writer.toString());
+  }
+
   @Test
   public void testActivityToXml() throws Exception {
     String xml = XSDValidator.validateOpenSocial(beanXmlConverter.convertToString(activity));
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.sample.spi;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests for ActivityTimeline
+ */
+public class ActivityTimelineTest extends Assert {
+  private ActivityTimeline<String> john;
+  private ActivityTimeline<String> jane;
+
+  @Before
+  public void setUp() {
+    // Added out of order, as updates and imported entries are
+    john = ActivityTimeline.<String>empty()
+        .with("j1", 10, "j1")
+        .with("j3", 30, "j3")
+        .with("j2", 20, "j2");
+    jane = ActivityTimeline.<String>empty()
+        .with("a1", 15, "a1")
+        .with("a2", 30, "a2")
+        .with("a3", 40, "a3");
+  }
+
+  @Test
+  public void testNewest() {
+    CollectionQuery.Page<String> page = ActivityTimeline.newest(ImmutableList.of(john),
+        Long.MIN_VALUE, 0, 10);
+    assertEquals(ImmutableList.of("j3", "j2", "j1"), page.items);
+    assertEquals(3, page.totalResults);
+
+    page = ActivityTimeline.newest(ImmutableList.of(john), 20, 0, 10);
+    assertEquals(ImmutableList.of("j3", "j2"), page.items);
+    assertEquals(2, page.totalResults);
+  }
+
+  @Test
+  public void testMerge() {
+    // Equal times come in timeline order
+    CollectionQuery.Page<String> page = ActivityTimeline.newest(ImmutableList.of(john, jane),
+        Long.MIN_VALUE, 0, 10);
+    assertEquals(ImmutableList.of("a3", "j3", "a2", "j2", "a1", "j1"), page.items);
+    assertEquals(6, page.totalResults);
+
+    page = ActivityTimeline.newest(ImmutableList.of(john, jane), 15, 1, 3);
+    assertEquals(ImmutableList.of("j3", "a2", "j2"), page.items);
+    assertEquals(1, page.startIndex);
+    assertEquals(5, page.totalResults);
+
+    page = ActivityTimeline.newest(ImmutableList.of(john, jane), 15, 10, 3);
+    assertEquals(0, page.items.size());
+    assertEquals(5, page.startIndex);
+  }
+
+  @Test
+  public void testReplaceAndRemove() {
+    ActivityTimeline<String> updated = john.with("j1", 50, "j1 updated");
+    assertEquals(3, updated.size());
+    assertEquals("j1 updated", updated.get("j1"));
+    assertEquals(ImmutableList.of("j1 updated", "j3", "j2"),
+        ActivityTimeline.newest(ImmutableList.of(updated), Long.MIN_VALUE, 0, 10).items);
+    // The original is unchanged
+    assertEquals("j1", john.get("j1"));
+
+    updated = updated.without(ImmutableList.of("j3", "unknown"));
+    assertEquals(2, updated.size());
+    assertNull(updated.get("j3"));
+    assertSame(updated, updated.without(ImmutableList.of("unknown")));
+  }
+
+  @Test
+  public void testSameTimeAddedLastIsNewer() {
+    ActivityTimeline<String> timeline = ActivityTimeline.<String>empty()
+        .with("first", Long.MIN_VALUE, "first")
+        .with("second", Long.MIN_VALUE, "second");
+    assertEquals(ImmutableList.of("second", "first"),
+        ActivityTimeline.newest(ImmutableList.of(timeline), Long.MIN_VALUE, 0, 10).items);
+  }
+
+  @Test
+  public void testBuilderMatchesWith() {
+    ActivityTimeline<String> built = ActivityTimeline.<String>builder()
+        .add("j1", 10, "j1")
+        .add("j3", 30, "j3")
+        .add("same", 20, "same")
+        .add("j2", 20, "j2")
+        .add("same", 20, "same updated")
+        .build();
+    ActivityTimeline<String> added = john.with("same", 20, "same")
+        .with("same", 20, "same updated");
+    assertEquals(4, built.size());
+    assertEquals("same updated", built.get("same"));
+    assertEquals(ActivityTimeline.newest(ImmutableList.of(added), Long.MIN_VALUE, 0, 10).items,
+        ActivityTimeline.newest(ImmutableList.of(built), Long.MIN_VALUE, 0, 10).items);
+    assertSame(ActivityTimeline.empty(), ActivityTimeline.<String>builder().build());
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.sample.spi;
+
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.model.FilterOperation;
+import org.apache.shindig.protocol.model.SortOrder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for CollectionQuery
+ */
+public class CollectionQueryTest extends Assert {
+  private List<CollectionQuery.Item<String>> items;
+
+  @Before
+  public void setUp() {
+    // Ordinals have gaps, as they do when a collection is a subset of the people table
+    items = Lists.newArrayList();
+    String[] names = {"d", "b", null, "a", "c", "b"};
+    for (int i = 0; i < names.length; i++) {
+      items.add(new CollectionQuery.Item<String>(i * 2, names[i], "item" + i));
+    }
+  }
+
+  @Test
+  public void testNaturalOrder() throws Exception {
+    CollectionQuery.Page<String> page = new CollectionQuery<String>(null, SortOrder.descending)
+        .execute(items, 2, 3, null);
+    assertEquals(ImmutableList.of("item2", "item3", "item4"), page.items);
+    assertEquals(2, page.startIndex);
+    assertEquals(6, page.totalResults);
+    assertNotNull(page.nextPageToken);
+  }
+
+  @Test
+  public void testSortByValue() throws Exception {
+    CollectionQuery<String> query = new CollectionQuery<String>("name", SortOrder.ascending);
+    // Ties are broken by ordinal and missing values come last
+    assertEquals(ImmutableList.of("item3", "item1", "item5", "item4", "item0", "item2"),
+        query.execute(items, 0, 10, null).items);
+    assertEquals(ImmutableList.of("item5", "item4"), query.execute(items, 2, 2, null).items);
+
+    query = new CollectionQuery<String>("name", SortOrder.descending);
+    assertEquals(ImmutableList.of("item0", "item4", "item1", "item5", "item3", "item2"),
+        query.execute(items, 0, 10, null).items);
+  }
+
+  @Test
+  public void testPageTokens() throws Exception {
+    for (String sortBy : new String[] {null, "name"}) {
+      for (SortOrder sortOrder : SortOrder.values()) {
+        CollectionQuery<String> query = new CollectionQuery<String>(sortBy, sortOrder);
+        List<String> expected = query.execute(items, 0, 10, null).items;
+
+        List<String> scrolled = Lists.newArrayList();
+        CollectionQuery.Page<String> page = query.execute(items, 0, 4, null);
+        scrolled.addAll(page.items);
+        while (page.nextPageToken != null) {
+          int start = page.startIndex + page.items.size();
+          // first is ignored when there is a token
+          page = query.execute(items, 0, 4, page.nextPageToken);
+          assertEquals(start, page.startIndex);
+          scrolled.addAll(page.items);
+        }
+        assertEquals(expected, scrolled);
+      }
+    }
+  }
+
+  @Test
+  public void testLastPageHasNoToken() throws Exception {
+    CollectionQuery<String> query = new CollectionQuery<String>("name", SortOrder.ascending);
+    assertNull(query.execute(items, 3, 3, null).nextPageToken);
+    assertNull(query.execute(items, 10, 3, null).nextPageToken);
+    assertEquals(0, query.execute(items, 10, 3, null).items.size());
+    assertEquals(6, query.execute(items, 10, 3, null).startIndex);
+  }
+
+  @Test
+  public void testTokenFromOtherSort() throws Exception {
+    String token = new CollectionQuery<String>("name", SortOrder.ascending)
+        .execute(items, 0, 2, null).nextPageToken;
+    try {
+      new CollectionQuery<String>("name", SortOrder.descending).execute(items, 0, 2, token);
+      fail("Token from another sort order should be rejected");
+    } catch (ProtocolException e) {
+      assertEquals(HttpServletResponse.SC_BAD_REQUEST, e.getCode());
+    }
+    try {
+      new CollectionQuery<String>(null, SortOrder.ascending).execute(items, 0, 2, "garbage");
+      fail("Invalid token should be rejected");
+    } catch (ProtocolException e) {
+      assertEquals(HttpServletResponse.SC_BAD_REQUEST, e.getCode());
+    }
+  }
+
+  @Test
+  public void testMatches() {
+    assertTrue(CollectionQuery.matches("Jane Doe", FilterOperation.contains, "Doe"));
+    assertFalse(CollectionQuery.matches("Jane Doe", FilterOperation.contains, "John"));
+    assertTrue(CollectionQuery.matches("Jane Doe", FilterOperation.startsWith, "Jane"));
+    assertFalse(CollectionQuery.matches("Jane Doe", FilterOperation.equals, "Jane"));
+    assertTrue(CollectionQuery.matches(Boolean.TRUE, FilterOperation.equals, "true"));
+    assertTrue(CollectionQuery.matches("x", FilterOperation.present, null));
+    assertFalse(CollectionQuery.matches("", FilterOperation.present, null));
+    assertFalse(CollectionQuery.matches(null, FilterOperation.contains, "x"));
+  }
+}
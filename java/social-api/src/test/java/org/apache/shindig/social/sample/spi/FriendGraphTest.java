@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.sample.spi;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests for FriendGraph
+ */
+public class FriendGraphTest extends Assert {
+  private FriendGraph graph;
+
+  @Before
+  public void setUp() {
+    graph = FriendGraph.builder()
+        .addUser("a")
+        .addUser("b")
+        .addUser("c")
+        .addFriends("c", ImmutableList.of("b", "a", "b"))
+        .addFriends("a", ImmutableList.of("d", "c"))
+        .addGroupMembers("group", ImmutableList.of("c", "a"))
+        .addApps("a", ImmutableList.of("app"))
+        .addApps("c", ImmutableList.of("app", "other"))
+        .build();
+  }
+
+  @Test
+  public void testFriendsInUserOrder() {
+    assertEquals(ImmutableList.of("a", "b"), graph.getIds(graph.getFriends("c")));
+    assertEquals(ImmutableList.of("c", "d"), graph.getIds(graph.getFriends("a")));
+    assertEquals(0, graph.getFriends("b").length);
+    assertEquals(0, graph.getFriends("unknown").length);
+  }
+
+  @Test
+  public void testGroupMembers() {
+    assertEquals(ImmutableList.of("a", "c"), graph.getIds(graph.getGroupMembers("group")));
+    assertEquals(0, graph.getGroupMembers("unknown").length);
+  }
+
+  @Test
+  public void testFriendsWithApp() {
+    int[] friends = FriendGraph.union(graph.getFriends("a"), graph.getFriends("c"));
+    assertEquals(ImmutableList.of("a", "b", "c", "d"), graph.getIds(friends));
+    assertEquals(ImmutableList.of("a", "c"),
+        graph.getIds(FriendGraph.intersect(friends, graph.getAppUsers("app"))));
+    assertEquals(0, FriendGraph.intersect(friends, graph.getAppUsers("unknown")).length);
+  }
+
+  @Test
+  public void testOrdinals() {
+    assertEquals(0, graph.getOrdinal("a"));
+    assertEquals(3, graph.getOrdinal("d"));
+    assertEquals(-1, graph.getOrdinal("unknown"));
+    assertEquals("c", graph.getId(2));
+  }
+}
@@ -0,0 +1,424 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.social.sample.spi;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.testing.FakeGadgetToken;
+import org.apache.shindig.common.util.DateUtil;
+import org.apache.shindig.protocol.DataCollection;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.RestfulCollection;
+import org.apache.shindig.protocol.conversion.BeanConverter;
+import org.apache.shindig.protocol.model.FilterOperation;
+import org.apache.shindig.protocol.model.SortOrder;
+import org.apache.shindig.social.SocialApiTestsGuiceModule;
+import org.apache.shindig.social.core.model.ActivityEntryImpl;
+import org.apache.shindig.social.core.model.ActivityImpl;
+import org.apache.shindig.social.core.model.MediaItemImpl;
+import org.apache.shindig.social.core.model.MessageImpl;
+import org.apache.shindig.social.opensocial.model.Activity;
+import org.apache.shindig.social.opensocial.model.ActivityEntry;
+import org.apache.shindig.social.opensocial.model.MediaItem;
+import org.apache.shindig.social.opensocial.model.Message;
+import org.apache.shindig.social.opensocial.model.MessageCollection;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.GroupId;
+import org.apache.shindig.social.opensocial.spi.PersonService;
+import org.apache.shindig.social.opensocial.spi.UserId;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+
+/**
+ * Test the IndexedOpensocialService against the canonical DB
+ */
+public class IndexedOpensocialServiceTest extends Assert {
+  private IndexedOpensocialService db;
+  private BeanConverter converter;
+
+  private static final UserId CANON_USER = new UserId(UserId.Type.userId, "canonical");
+  private static final UserId JOHN_DOE = new UserId(UserId.Type.userId, "john.doe");
+  private static final UserId JANE_DOE = new UserId(UserId.Type.userId, "jane.doe");
+
+  private static final GroupId SELF_GROUP = new GroupId(GroupId.Type.self, null);
+  private static final GroupId FRIENDS_GROUP = new GroupId(GroupId.Type.friends, null);
+  private static final String APP_ID = "1";
+  private static final String CANONICAL_USER_ID = "canonical";
+
+  private SecurityToken token = new FakeGadgetToken();
+
+  @Before
+  public void setUp() throws Exception {
+    Injector injector = Guice.createInjector(new SocialApiTestsGuiceModule());
+    db = injector.getInstance(IndexedOpensocialService.class);
+    converter = injector.getInstance(Key.get(BeanConverter.class,
+        Names.named("shindig.bean.converter.json")));
+  }
+
+  private static CollectionOptions options(String sortBy, int first, int max) {
+    CollectionOptions options = new CollectionOptions();
+    options.setSortBy(sortBy);
+    options.setSortOrder(SortOrder.ascending);
+    options.setFirst(first);
+    options.setMax(max);
+    return options;
+  }
+
+  @Test
+  public void testGetPersonFields() throws Exception {
+    Person person = db.getPerson(CANON_USER, ImmutableSet.of("id", "name"), token).get();
+    assertEquals("canonical", person.getId());
+    assertNotNull(person.getName());
+    assertNull(person.getThumbnailUrl());
+
+    person = db.getPerson(CANON_USER, Person.Field.DEFAULT_FIELDS, token).get();
+    assertNotNull(person.getThumbnailUrl());
+  }
+
+  @Test
+  public void testGetPersonAppData() throws Exception {
+    Person person = db.getPerson(CANON_USER, ImmutableSet.of("id", "appData"), token).get();
+    assertEquals(ImmutableMap.of("count", "2", "size", "100"), person.getAppData());
+
+    person = db.getPerson(CANON_USER, ImmutableSet.of("id", "appData.size", "appData.bogus"),
+        token).get();
+    assertEquals(ImmutableMap.of("size", "100"), person.getAppData());
+  }
+
+  @Test
+  public void testFilteredPersonIsACopy() throws Exception {
+    Person person = db.getPerson(CANON_USER, Person.Field.ALL_FIELDS, token).get();
+    person.setThumbnailUrl("http://changed.example.org");
+
+    person = db.getPerson(CANON_USER, Person.Field.ALL_FIELDS, token).get();
+    assertFalse("http://changed.example.org".equals(person.getThumbnailUrl()));
+  }
+
+  @Test
+  public void testUnfilteredPersonIsACopy() throws Exception {
+    Person person = db.getPerson(CANON_USER, Collections.<String>emptySet(), token).get();
+    person.setThumbnailUrl("http://changed.example.org");
+
+    person = db.getPerson(CANON_USER, Collections.<String>emptySet(), token).get();
+    assertFalse("http://changed.example.org".equals(person.getThumbnailUrl()));
+  }
+
+  @Test
+  public void testChangedFieldSetIsNotCached() throws Exception {
+    Set<String> fields = Sets.newHashSet("id");
+    Person person = db.getPerson(CANON_USER, fields, token).get();
+    assertNull(person.getName());
+
+    // The same set, changed after it was used for a lookup
+    fields.add("name");
+    person = db.getPerson(CANON_USER, fields, token).get();
+    assertNotNull(person.getName());
+  }
+
+  @Test(expected = ProtocolException.class)
+  public void testGetUnknownPerson() throws Exception {
+    db.getPerson(new UserId(UserId.Type.userId, "nobody"), Person.Field.DEFAULT_FIELDS, token);
+  }
+
+  @Test
+  public void testGetExpectedFriends() throws Exception {
+    RestfulCollection<Person> responseItem = db.getPeople(ImmutableSet.of(CANON_USER),
+        FRIENDS_GROUP, options(PersonService.TOP_FRIENDS_SORT, 0, 20),
+        Collections.<String>emptySet(), token).get();
+    assertEquals(4, responseItem.getTotalResults());
+    assertEquals("john.doe", responseItem.getList().get(0).getId());
+    assertEquals("jane.doe", responseItem.getList().get(1).getId());
+  }
+
+  @Test
+  public void testGetFriendsPage() throws Exception {
+    RestfulCollection<Person> responseItem = db.getPeople(ImmutableSet.of(CANON_USER),
+        FRIENDS_GROUP, options(PersonService.TOP_FRIENDS_SORT, 1, 2),
+        Collections.<String>emptySet(), token).get();
+    assertEquals(4, responseItem.getTotalResults());
+    assertEquals(2, responseItem.getList().size());
+    assertEquals("jane.doe", responseItem.getList().get(0).getId());
+  }
+
+  @Test
+  public void testGetFriendsWithApp() throws Exception {
+    SecurityToken appToken = new FakeGadgetToken("9143", "appUrl", "domain", "canonical",
+        "trustedJson", "canonical", "20");
+    CollectionOptions options = options(PersonService.TOP_FRIENDS_SORT, 0, 20);
+    options.setFilter(PersonService.HAS_APP_FILTER);
+
+    RestfulCollection<Person> responseItem = db.getPeople(ImmutableSet.of(CANON_USER),
+        FRIENDS_GROUP, options, Collections.<String>emptySet(), appToken).get();
+    assertEquals(2, responseItem.getTotalResults());
+    assertEquals("john.doe", responseItem.getList().get(0).getId());
+    assertEquals("george.doe", responseItem.getList().get(1).getId());
+  }
+
+  @Test
+  public void testGetGroupMembers() throws Exception {
+    RestfulCollection<Person> responseItem = db.getPeople(ImmutableSet.of(CANON_USER),
+        new GroupId(GroupId.Type.objectId, "example.com:390e3kd03"),
+        options(PersonService.TOP_FRIENDS_SORT, 0, 20), Collections.<String>emptySet(),
+        token).get();
+    assertEquals(3, responseItem.getTotalResults());
+  }
+
+  @Test
+  public void testGetCustomGroupIsEmpty() throws Exception {
+    RestfulCollection<Person> responseItem = db.getPeople(ImmutableSet.of(CANON_USER),
+        new GroupId(GroupId.Type.custom, "custom"),
+        options(PersonService.TOP_FRIENDS_SORT, 0, 20), Collections.<String>emptySet(),
+        token).get();
+    assertEquals(0, responseItem.getTotalResults());
+  }
+
+  @Test
+  public void testGetFriendsSortedByName() throws Exception {
+    // The name is used for sorting even when it is not requested
+    RestfulCollection<Person> responseItem = db.getPeople(ImmutableSet.of(CANON_USER),
+        FRIENDS_GROUP, options(Person.Field.NAME.toString(), 0, 20),
+        ImmutableSet.of("id"), token).get();
+    assertEquals(4, responseItem.getList().size());
+    Person previous = null;
+    for (Person person : responseItem.getList()) {
+      assertNull(person.getName());
+      Person full = db.getPerson(new UserId(UserId.Type.userId, person.getId()),
+          ImmutableSet.of("name"), token).get();
+      if (previous != null) {
+        assertTrue(previous.getName().getFormatted()
+            .compareTo(full.getName().getFormatted()) <= 0);
+      }
+      previous = full;
+    }
+  }
+
+  @Test
+  public void testScrollFilteredFriends() throws Exception {
+    CollectionOptions options = options(Person.Field.NAME.toString(), 0, 1);
+    options.setFilter(Person.Field.ID.toString());
+    options.setFilterOperation(FilterOperation.contains);
+    options.setFilterValue(".doe");
+
+    List<String> ids = Lists.newArrayList();
+    RestfulCollection<Person> responseItem;
+    do {
+      responseItem = db.getPeople(ImmutableSet.of(CANON_USER), FRIENDS_GROUP, options,
+          ImmutableSet.of("id"), token).get();
+      assertEquals(3, responseItem.getTotalResults());
+      assertEquals(ids.size(), responseItem.getStartIndex());
+      for (Person person : responseItem.getList()) {
+        ids.add(person.getId());
+      }
+      options.setPageToken(responseItem.getNextPageToken());
+    } while (options.getPageToken() != null);
+    assertEquals(ImmutableList.of("george.doe", "jane.doe", "john.doe"), ids);
+  }
+
+  @Test
+  public void testGetExpectedActivities() throws Exception {
+    RestfulCollection<Activity> responseItem = db.getActivities(
+        ImmutableSet.of(CANON_USER, JOHN_DOE), SELF_GROUP, APP_ID,
+        Collections.<String>emptySet(), null, token).get();
+    assertEquals(3, responseItem.getTotalResults());
+  }
+
+  @Test
+  public void testGetActivityFields() throws Exception {
+    Activity activity = db.getActivity(CANON_USER, SELF_GROUP, APP_ID,
+        ImmutableSet.of("appId", "body", "mediaItems"), APP_ID, token).get();
+    assertNotNull(activity.getBody());
+    assertEquals(2, activity.getMediaItems().size());
+    assertNull(activity.getBodyId());
+  }
+
+  @Test
+  public void testCreateAndDeleteActivity() throws Exception {
+    Activity activity = new ActivityImpl();
+    activity.setId("created");
+    activity.setUserId(CANONICAL_USER_ID);
+    activity.setTitle("Created");
+    db.createActivity(CANON_USER, SELF_GROUP, APP_ID, Collections.<String>emptySet(), activity,
+        token);
+
+    // Changing the submitted bean does not change the stored one
+    activity.setTitle("Changed");
+    assertEquals("Created", db.getActivity(CANON_USER, SELF_GROUP, APP_ID,
+        Collections.<String>emptySet(), "created", token).get().getTitle());
+
+    db.deleteActivities(CANON_USER, SELF_GROUP, APP_ID, ImmutableSet.of("created"), token);
+    try {
+      db.getActivity(CANON_USER, SELF_GROUP, APP_ID, Collections.<String>emptySet(), "created",
+          token);
+      fail();
+    } catch (ProtocolException sse) {
+      assertEquals(HttpServletResponse.SC_BAD_REQUEST, sse.getCode());
+    }
+  }
+
+  @Test
+  public void testUpdateAndDeleteAppData() throws Exception {
+    db.updatePersonData(CANON_USER, SELF_GROUP, APP_ID, null,
+        ImmutableMap.of("count", (Object) "10", "isValid", Boolean.TRUE), token);
+    db.deletePersonData(CANON_USER, SELF_GROUP, APP_ID, ImmutableSet.of("size"), token);
+
+    DataCollection responseItem = db.getPersonData(ImmutableSet.of(CANON_USER), SELF_GROUP,
+        APP_ID, Collections.<String>emptySet(), token).get();
+    assertEquals(ImmutableMap.of("count", "10", "isValid", "true"),
+        responseItem.getEntry().get(CANONICAL_USER_ID));
+  }
+
+  @Test
+  public void testGetExpectedActivityEntries() throws Exception {
+    RestfulCollection<ActivityEntry> responseItem = db.getActivityEntries(
+        ImmutableSet.of(JOHN_DOE), SELF_GROUP, APP_ID, Collections.<String>emptySet(), null,
+        token).get();
+    assertEquals(3, responseItem.getTotalResults());
+    for (int i = 1; i < responseItem.getList().size(); i++) {
+      assertTrue(responseItem.getList().get(i - 1).compareTo(responseItem.getList().get(i)) >= 0);
+    }
+  }
+
+  @Test
+  public void testGetActivityEntriesUpdatedSince() throws Exception {
+    CollectionOptions options = options(null, 0, 1);
+    options.setUpdatedSince(DateUtil.parseIso8601DateTime("2011-03-01T00:00:00Z"));
+    RestfulCollection<ActivityEntry> responseItem = db.getActivityEntries(
+        ImmutableSet.of(JOHN_DOE, CANON_USER), SELF_GROUP, APP_ID,
+        Collections.<String>emptySet(), options, token).get();
+    assertEquals(2, responseItem.getTotalResults());
+    assertEquals(1, responseItem.getList().size());
+    assertEquals("activity3", responseItem.getList().get(0).getId());
+    assertTrue(responseItem.isUpdatedSince());
+  }
+
+  @Test
+  public void testGetActivityEntriesUpdatedAfterPublished() throws Exception {
+    ActivityEntry entry = new ActivityEntryImpl();
+    entry.setId("updatedEntry");
+    entry.setTitle("Updated entry");
+    entry.setPublished("2010-01-01T00:00:00Z");
+    entry.setUpdated("2011-06-01T00:00:00Z");
+    db.createActivityEntry(JOHN_DOE, SELF_GROUP, APP_ID, Collections.<String>emptySet(), entry,
+        token);
+
+    CollectionOptions options = options(null, 0, 10);
+    options.setUpdatedSince(DateUtil.parseIso8601DateTime("2011-03-01T00:00:00Z"));
+    RestfulCollection<ActivityEntry> responseItem = db.getActivityEntries(
+        ImmutableSet.of(JOHN_DOE), SELF_GROUP, APP_ID, Collections.<String>emptySet(), options,
+        token).get();
+    List<String> ids = Lists.newArrayList();
+    for (ActivityEntry found : responseItem.getList()) {
+      ids.add(found.getId());
+    }
+    assertTrue(ids.contains("updatedEntry"));
+  }
+
+  @Test
+  public void testActivityEntryOrigin() throws Exception {
+    ActivityEntry entry = db.getActivityEntry(JOHN_DOE, SELF_GROUP, APP_ID,
+        Collections.<String>emptySet(), "activity1", token).get();
+    String json = converter.convertToString(entry);
+    assertFalse(json.contains("%origin%"));
+    assertTrue(json.contains("http://localhost:8080"));
+  }
+
+  @Test
+  public void testGetActivityEntryFields() throws Exception {
+    ActivityEntry entry = db.getActivityEntry(JOHN_DOE, SELF_GROUP, APP_ID,
+        ImmutableSet.of("title"), "activity2", token).get();
+    assertNotNull(entry.getTitle());
+    assertNull(entry.getPublished());
+  }
+
+  @Test
+  public void testUpdatePerson() throws Exception {
+    SecurityToken updateToken = new FakeGadgetToken("appId", "appUrl", "domain", "canonical",
+        "trustedJson", "canonical", "20");
+    Person person = db.getPerson(CANON_USER, Person.Field.ALL_FIELDS, token).get();
+    person.setThumbnailUrl("http://newthumbnail.url");
+    db.updatePerson(CANON_USER, person, updateToken);
+
+    person = db.getPerson(CANON_USER, Person.Field.ALL_FIELDS, token).get();
+    assertEquals("http://newthumbnail.url", person.getThumbnailUrl());
+  }
+
+  @Test
+  public void testMediaItems() throws Exception {
+    MediaItem mediaItem = new MediaItemImpl();
+    mediaItem.setId("created");
+    mediaItem.setTitle("Created");
+    db.createMediaItem(JOHN_DOE, APP_ID, "germany123", mediaItem, token);
+
+    assertEquals("Created", db.getMediaItem(JOHN_DOE, APP_ID, "germany123", "created",
+        Collections.<String>emptySet(), token).get().getTitle());
+    assertEquals("germany123", db.getMediaItems(JOHN_DOE, APP_ID, "germany123",
+        ImmutableSet.of("created"), Collections.<String>emptySet(), null, token).get()
+        .getList().get(0).getAlbumId());
+
+    db.deleteMediaItem(JOHN_DOE, APP_ID, "germany123", "created", token);
+    try {
+      db.getMediaItem(JOHN_DOE, APP_ID, "germany123", "created",
+          Collections.<String>emptySet(), token);
+      fail();
+    } catch (ProtocolException sse) {
+      assertEquals(HttpServletResponse.SC_BAD_REQUEST, sse.getCode());
+    }
+  }
+
+  @Test
+  public void testCreateMessage() throws Exception {
+    Message msg = new MessageImpl();
+    msg.setBody("Hello");
+    msg.setRecipients(Collections.singletonList(JANE_DOE.getUserId()));
+    db.createMessage(JOHN_DOE, APP_ID, "privateMessage", msg, token).get();
+
+    RestfulCollection<Message> messages = db.getMessages(JANE_DOE, "privateMessage",
+        Collections.<String>emptySet(), Collections.singletonList(msg.getId()),
+        new CollectionOptions(), token).get();
+    assertEquals(1, messages.getList().size());
+
+    int total = 0;
+    for (MessageCollection collection : db.getMessageCollections(JANE_DOE,
+        Collections.<String>emptySet(), new CollectionOptions(), token).get().getList()) {
+      if ("privateMessage".equals(collection.getId())) {
+        total = collection.getTotal();
+      }
+    }
+    assertEquals(db.getMessages(JANE_DOE, "privateMessage", Collections.<String>emptySet(),
+        Collections.<String>emptyList(), new CollectionOptions(), token).get().getList().size(),
+        total);
+  }
+}
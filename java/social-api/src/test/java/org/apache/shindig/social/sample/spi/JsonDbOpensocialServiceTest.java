@@ -178,6 +178,26 @@ public class JsonDbOpensocialServiceTest extends Assert {
     assertEquals("jane.doe", responseItem.getList().get(1).getId());
   }
 
+  @Test
+  public void testGetFilteredFriends() throws Exception {
+    CollectionOptions options = new CollectionOptions();
+    options.setSortBy(PersonService.TOP_FRIENDS_SORT);
+    options.setSortOrder(SortOrder.ascending);
+    options.setFilter(Person.Field.ID.toString());
+    options.setFilterOperation(FilterOperation.contains);
+    options.setFilterValue(".doe");
+    options.setFirst(0);
+    options.setMax(20);
+
+    RestfulCollection<Person> responseItem = db.getPeople(
+        ImmutableSet.of(CANON_USER), new GroupId(GroupId.Type.friends, null),
+        options, Collections.<String>emptySet(), token).get();
+    assertEquals(3, responseItem.getTotalResults());
+    for (Person person : responseItem.getList()) {
+      assertTrue(person.getId().endsWith(".doe"));
+    }
+  }
+
   @Test
   public void testGetExpectedActivities() throws Exception {
     RestfulCollection<Activity> responseItem = db.getActivities(